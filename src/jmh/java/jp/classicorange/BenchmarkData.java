@@ -0,0 +1,111 @@
+package jp.classicorange;
+
+import jp.classicorange.matcher.Keyword;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * ベンチマーク用のデータをプロセス内で作成する。
+ * <pre>
+ * セルの文字列は MakeTestExcel (テストデータの生成) と同じ形で、約2%が "Jakarta" を含む。
+ * 乱数の種を固定し、実行ごとに同じデータにする。
+ * </pre>
+ */
+public final class BenchmarkData {
+
+    /** 検索文字列 */
+    public static final String WORD = "Jakarta";
+    /** WORD を含むセルの割合 (%) */
+    private static final int HIT_PERCENT = 2;
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * セルの文字列を作成する。
+     *
+     * @param count 件数
+     * @return 文字列
+     */
+    public static List<String> cellTexts(int count) {
+        Random random = new Random(1);
+        List<String> texts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            texts.add(cellText(random, i / 10, i % 10));
+        }
+        return texts;
+    }
+
+    private static String cellText(Random random, int row, int col) {
+        String text = String.format("DataDir01 File01 Sheet01 R%dC%d", row + 1, col + 1);
+        return random.nextInt(100) < HIT_PERCENT ? text + " " + WORD : text;
+    }
+
+    /**
+     * キーワードを作成する。1つ目は WORD で、残りは一致しない文字列。
+     *
+     * @param count キーワードの数
+     * @param replacement 置換文字列 (置換しない場合は null)
+     * @return キーワード
+     */
+    public static List<Keyword> keywords(int count, String replacement) {
+        List<Keyword> keywords = new ArrayList<>();
+        keywords.add(new Keyword(WORD, replacement));
+        for (int i = 1; i < count; i++) {
+            keywords.add(new Keyword(String.format("Keyword%02d", i), replacement));
+        }
+        return keywords;
+    }
+
+    /**
+     * 1シートのブックを作成する。5列ごとに数値のセルを置く。
+     *
+     * @param xlsx .xlsx の場合 true、.xls の場合 false
+     * @param rows 行数
+     * @param cols 列数
+     * @return ブック
+     */
+    public static Workbook workbook(boolean xlsx, int rows, int cols) {
+        Random random = new Random(1);
+        Workbook workbook = xlsx ? new XSSFWorkbook() : new HSSFWorkbook();
+        Sheet sheet = workbook.createSheet("Sheet1");
+        for (int r = 0; r < rows; r++) {
+            Row row = sheet.createRow(r);
+            for (int c = 0; c < cols; c++) {
+                if (c % 5 == 4) {
+                    row.createCell(c).setCellValue(r * 100.0 + c);
+                } else {
+                    row.createCell(c).setCellValue(cellText(random, r, c));
+                }
+            }
+        }
+        return workbook;
+    }
+
+    /**
+     * ブックを一時ファイルに書込む。
+     *
+     * @param workbook ブック
+     * @param dir 書込み先のディレクトリ
+     * @return 書込んだファイル
+     */
+    public static Path write(Workbook workbook, Path dir) throws IOException {
+        String extension = (workbook instanceof XSSFWorkbook) ? ".xlsx" : ".xls";
+        Path file = Files.createTempFile(dir, "bench", extension);
+        try (OutputStream out = Files.newOutputStream(file)) {
+            workbook.write(out);
+        }
+        return file;
+    }
+}
@@ -0,0 +1,159 @@
+package jp.classicorange;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * 生成したテストデータ全体に SearchExcel を実行し、処理量を表示する (エンドツーエンドのベンチマーク)。
+ * <pre>
+ * 引数：テストデータのディレクトリ [検索文字列] [検索方法] [--repeat=N] [SearchExcel のオプション...]
+ * ・テストデータは MakeTestExcel で作成する。セル数は 出力先/corpus.properties から読む
+ * ・検索文字列の省略時は corpus.properties の word、検索方法の省略時は FUZZY
+ * ・--repeat=N  実行回数 (3)。1回目は JIT のウォームアップを含むため、最速の回も表示する
+ * ・--format / --output / --results の指定がない場合、結果は一時ファイルに TSV で書き、終了時に消す
+ * 表示する値：files/s、cells/s、MB/s (ファイルサイズの合計)、ヒープ使用量のピーク (10ms ごとに測る)
+ * </pre>
+ */
+public class ScanThroughput {
+
+    /** ヒープ使用量を測る間隔 (ms) */
+    private static final long SAMPLE_INTERVAL_MS = 10;
+
+    /**
+     * 1回の実行の結果
+     *
+     * @param nanos    処理時間
+     * @param peakHeap ヒープ使用量のピーク (バイト)
+     */
+    record Run(long nanos, long peakHeap) {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("引数：テストデータのディレクトリ [検索文字列] [検索方法] [--repeat=N] [オプション...]");
+            System.exit(-1);
+        }
+        Path corpus = Path.of(args[0]);
+        Properties manifest = readManifest(corpus);
+
+        int repeat = 3;
+        List<String> positional = new ArrayList<>(List.of(args[0]));
+        List<String> options = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].startsWith("--repeat=")) {
+                repeat = Integer.parseInt(args[i].substring("--repeat=".length()));
+            } else if (args[i].startsWith("--")) {
+                options.add(args[i]);
+            } else {
+                positional.add(args[i]);
+            }
+        }
+        if (positional.size() < 2) positional.add(manifest.getProperty("word", "Jakarta"));
+        if (positional.size() < 3) positional.add("FUZZY");
+
+        // 結果の書込みは既定で一時ファイルの TSV (result.xlsx への追記を避ける)
+        Path output = null;
+        if (options.stream().noneMatch(o -> o.startsWith("--format") || o.startsWith("--output") || o.startsWith("--results"))) {
+            output = Files.createTempFile("scan-throughput", ".tsv");
+            options.add("--format=tsv");
+            options.add("--output=" + output);
+        }
+        List<String> searchArgs = new ArrayList<>(positional);
+        searchArgs.addAll(options);
+
+        // 対象のファイル数とサイズ
+        long files;
+        long bytes;
+        try (Stream<Path> paths = Files.walk(corpus)) {
+            List<Path> excelFiles = paths.filter(Files::isRegularFile)
+                .filter(p -> {
+                    String name = p.getFileName().toString().toLowerCase(Locale.ROOT);
+                    return name.endsWith(".xlsx") || name.endsWith(".xls");
+                })
+                .toList();
+            files = excelFiles.size();
+            bytes = 0;
+            for (Path p : excelFiles) bytes += Files.size(p);
+        }
+        long cells = Long.parseLong(manifest.getProperty("cells", "-1"));
+
+        List<Run> runs = new ArrayList<>();
+        try {
+            for (int i = 1; i <= repeat; i++) {
+                if (output != null) Files.deleteIfExists(output);
+                Run run = measure(searchArgs.toArray(new String[0]));
+                runs.add(run);
+                System.out.println(format("run " + i, run, files, cells, bytes));
+            }
+        } finally {
+            if (output != null) Files.deleteIfExists(output);
+        }
+
+        Run best = runs.stream().min((a, b) -> Long.compare(a.nanos(), b.nanos())).orElseThrow();
+        System.out.println("----");
+        System.out.printf("対象：ファイル %d 件、セル %s、%.1f MB%n", files, cells < 0 ? "- (corpus.properties なし)" : cells, bytes / 1048576.0);
+        System.out.println(format("best", best, files, cells, bytes));
+    }
+
+    /**
+     * SearchExcel を1回実行し、処理時間とヒープ使用量のピークを測る。
+     */
+    private static Run measure(String[] searchArgs) throws Exception {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        AtomicLong peak = new AtomicLong(memory.getHeapMemoryUsage().getUsed());
+        Thread sampler = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                peak.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+                try {
+                    Thread.sleep(SAMPLE_INTERVAL_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "heap-sampler");
+        sampler.setDaemon(true);
+        sampler.start();
+
+        long start = System.nanoTime();
+        try {
+            new SearchExcel().search(searchArgs);
+        } finally {
+            sampler.interrupt();
+            sampler.join();
+        }
+        long nanos = System.nanoTime() - start;
+        peak.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+        return new Run(nanos, peak.get());
+    }
+
+    private static String format(String label, Run run, long files, long cells, long bytes) {
+        double seconds = run.nanos() / 1e9;
+        return String.format("%s: %.2f s, files/s %.1f, cells/s %s, MB/s %.1f, peak heap %d MB",
+            label, seconds, files / seconds,
+            cells < 0 ? "-" : String.format("%.0f", cells / seconds),
+            bytes / 1048576.0 / seconds, run.peakHeap() / (1024 * 1024));
+    }
+
+    private static Properties readManifest(Path corpus) throws IOException {
+        Properties manifest = new Properties();
+        Path file = corpus.resolve("corpus.properties");
+        if (Files.exists(file)) {
+            try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                manifest.load(reader);
+            }
+        }
+        return manifest;
+    }
+}
@@ -0,0 +1,121 @@
+package jp.classicorange;
+
+import jp.classicorange.matcher.TextMatcher;
+import jp.classicorange.scan.NumberRenderer;
+import jp.classicorange.scan.SharedStringFilter;
+import jp.classicorange.scan.XlsStreamScanner;
+import jp.classicorange.scan.XlsxStreamScanner;
+import jp.classicorange.utils.CheckParameter;
+import jp.classicorange.utils.entity.Hit;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * シート全体の検索を測る。
+ * <pre>
+ * ・sheetScan  : 読込み済みのシートに SearchExcel.searchCell (セルの取得・文字列化・照合・結果の作成)
+ * ・fileScan   : ファイルの読込み (WorkbookFactory) + searchCell。置換しない場合の既定の読込み方法
+ * ・streamScan : --stream の XlsxStreamScanner / XlsStreamScanner
+ * displayFormat=true は --display-format (数値のセルを表示形式で書式化する) の場合。
+ * ブックは BenchmarkData でプロセス内に作成し、一時ファイルに書込む。
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchExcelBenchmark {
+
+    /** 列数 */
+    private static final int COLS = 10;
+
+    @Param({"xlsx", "xls"})
+    public String format;
+
+    @Param({"1000", "10000"})
+    public int rows;
+
+    @Param({"false", "true"})
+    public boolean displayFormat;
+
+    private Path dir;
+    private File file;
+    private Workbook workbook;
+    private CheckParameter.SearchCond cond;
+    private TextMatcher matcher;
+    private SearchExcel searchExcel;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("scan-bench");
+        workbook = BenchmarkData.workbook(format.equals("xlsx"), rows, COLS);
+        file = BenchmarkData.write(workbook, dir).toFile();
+        cond = displayFormat
+            ? CheckParameter.checkParameter(new String[]{dir.toString(), BenchmarkData.WORD, "FUZZY", "--display-format"})
+            : CheckParameter.checkParameter(new String[]{dir.toString(), BenchmarkData.WORD, "FUZZY"});
+        matcher = TextMatcher.of(cond.searchMode(), cond.keywords());
+        searchExcel = new SearchExcel(cond);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        workbook.close();
+        Files.deleteIfExists(file.toPath());
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public List<Hit> sheetScan() throws Exception {
+        return scan(workbook);
+    }
+
+    @Benchmark
+    public List<Hit> fileScan() throws Exception {
+        try (Workbook wb = WorkbookFactory.create(file, null, true)) {
+            return scan(wb);
+        }
+    }
+
+    @Benchmark
+    public List<Hit> streamScan() throws Exception {
+        return format.equals("xlsx")
+            ? new XlsxStreamScanner(cond, matcher).scan(0, file)
+            : new XlsStreamScanner(cond, matcher).scan(0, file);
+    }
+
+    private List<Hit> scan(Workbook wb) throws Exception {
+        List<Hit> hits = new ArrayList<>();
+        SharedStringFilter sstFilter = (wb instanceof XSSFWorkbook xssfWorkbook)
+            ? SharedStringFilter.of(xssfWorkbook.getSharedStringSource(), matcher)
+            : null;
+        Sheet sheet = wb.getSheetAt(0);
+        NumberRenderer numbers = NumberRenderer.of(matcher, cond.displayFormat(), wb);
+        searchExcel.searchCell(0, 0, sheet, file.getPath(), sstFilter, numbers, hits);
+        return hits;
+    }
+}
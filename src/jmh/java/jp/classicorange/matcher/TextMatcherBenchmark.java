@@ -0,0 +1,76 @@
+package jp.classicorange.matcher;
+
+import jp.classicorange.BenchmarkData;
+import jp.classicorange.types.SearchMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * セル1つごとの照合 (SearchExcel.searchCell の matcher.find) と、
+ * 一致したセルの置換 (SearchExcel.replaceWord の matcher.replace) を測る。
+ * 1回の呼出しで CELLS 個のセルを処理する。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TextMatcherBenchmark {
+
+    /** 1回に処理するセルの数 */
+    private static final int CELLS = 10_000;
+
+    @Param({"FUZZY", "IGNORE_CASE", "STRICTLY", "REGEX"})
+    public SearchMode mode;
+
+    @Param({"1", "20"})
+    public int keywordCount;
+
+    private TextMatcher matcher;
+    private String[] cells;
+    /** 一致するセルと、一致したキーワード番号 */
+    private String[] matchedCells;
+    private int[][] matchedFound;
+
+    @Setup
+    public void setUp() {
+        matcher = TextMatcher.of(mode, BenchmarkData.keywords(keywordCount, "ジャカルタ"));
+        List<String> texts = BenchmarkData.cellTexts(CELLS);
+        cells = texts.toArray(new String[0]);
+        // STRICTLY はセル全体が一致する必要があるため、置換はキーワードそのもののセルで測る
+        List<String> matched = texts.stream()
+            .map(t -> mode == SearchMode.STRICTLY && t.endsWith(BenchmarkData.WORD) ? BenchmarkData.WORD : t)
+            .filter(t -> matcher.find(t).length > 0)
+            .toList();
+        matchedCells = matched.toArray(new String[0]);
+        matchedFound = matched.stream().map(matcher::find).toArray(int[][]::new);
+    }
+
+    @Benchmark
+    public void find(Blackhole bh) {
+        for (String cell : cells) {
+            bh.consume(matcher.find(cell));
+        }
+    }
+
+    @Benchmark
+    public void replace(Blackhole bh) {
+        for (int i = 0; i < matchedCells.length; i++) {
+            bh.consume(matcher.replace(matchedCells[i], matchedFound[i]));
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package jp.classicorange.result;
+
+import jp.classicorange.BenchmarkData;
+import jp.classicorange.types.LocationType;
+import jp.classicorange.types.ResultFormat;
+import jp.classicorange.utils.entity.Hit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 結果の1件ごとの書込み (ResultSink.write) を出力形式ごとに測る。
+ * 繰返しごとに新しいファイルに書き、最後に閉じる (xlsx は閉じるときに書出す)。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResultSinkBenchmark {
+
+    @Param({"XLSX", "TSV", "CSV", "JSONL"})
+    public ResultFormat format;
+
+    private Path dir;
+    private Path file;
+    private ResultSink sink;
+    private Hit[] hits;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() throws IOException {
+        dir = Files.createTempDirectory("sink-bench");
+        List<String> texts = BenchmarkData.cellTexts(1_000);
+        hits = new Hit[texts.size()];
+        for (int i = 0; i < hits.length; i++) {
+            hits[i] = new Hit(i / 100, 0, i, "/data/dir01/テスト用D01F01.xlsx", "Sheet1",
+                "C" + (i + 1), texts.get(i), null, BenchmarkData.WORD, LocationType.CELL);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpIteration() throws IOException {
+        file = dir.resolve("result." + format.extension());
+        Files.deleteIfExists(file);
+        sink = ResultSink.open(format, file, "bench");
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDownIteration() throws IOException {
+        sink.close();
+        Files.deleteIfExists(file);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() throws IOException {
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        sink.write(hits[next]);
+        next = (next + 1) % hits.length;
+    }
+}
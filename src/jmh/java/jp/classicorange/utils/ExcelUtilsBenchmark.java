@@ -0,0 +1,126 @@
+package jp.classicorange.utils;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * セルの値の文字列化 (ExcelUtils.getStringValue / getCachedFormulaValue) を CellType ごとに、
+ * セル位置の表記 (ExcelUtils.convertCellPos) を列の桁数ごとに測る。
+ * 1回の呼出しで CELLS 個のセルを処理する。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExcelUtilsBenchmark {
+
+    /** 1回に処理するセルの数 */
+    private static final int CELLS = 1_000;
+
+    /**
+     * CellType ごとのセル (.xlsx)。
+     */
+    @State(Scope.Benchmark)
+    public static class Cells {
+
+        @Param({"STRING", "NUMERIC", "BOOLEAN", "FORMULA", "BLANK"})
+        public CellType cellType;
+
+        private Workbook workbook;
+        private Cell[] cells;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            workbook = new XSSFWorkbook();
+            Row row = workbook.createSheet("Sheet1").createRow(0);
+            cells = new Cell[CELLS];
+            for (int i = 0; i < CELLS; i++) {
+                Cell cell = row.createCell(i);
+                switch (cellType) {
+                    case STRING -> cell.setCellValue("DataDir01 File01 Sheet01 R1C" + (i + 1));
+                    case NUMERIC -> cell.setCellValue(i * 1.5);
+                    case BOOLEAN -> cell.setCellValue(i % 2 == 0);
+                    case FORMULA -> cell.setCellFormula("SUM(A1:A" + (i + 1) + ")");
+                    default -> cell.setBlank();
+                }
+                cells[i] = cell;
+            }
+            // 数式の計算結果を保存しておく (getCachedFormulaValue は再計算しない)
+            if (cellType == CellType.FORMULA) {
+                workbook.getCreationHelper().createFormulaEvaluator().evaluateAll();
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            workbook.close();
+        }
+    }
+
+    /**
+     * セル位置。列は A / AA の桁数で分ける (convertCellPos は2桁の列まで)。
+     */
+    @State(Scope.Benchmark)
+    public static class Positions {
+
+        @Param({"1", "2"})
+        public int columnDigits;
+
+        private int[] rows;
+        private int[] cols;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            int first = (columnDigits == 1) ? 0 : 26;
+            int width = (columnDigits == 1) ? 26 : 650;
+            rows = new int[CELLS];
+            cols = new int[CELLS];
+            for (int i = 0; i < CELLS; i++) {
+                rows[i] = i * 97 % 1_048_576;
+                cols[i] = first + i % width;
+            }
+        }
+    }
+
+    @Benchmark
+    public void getStringValue(Cells state, Blackhole bh) {
+        for (Cell cell : state.cells) {
+            bh.consume(ExcelUtils.getStringValue(cell));
+        }
+    }
+
+    @Benchmark
+    public void getCachedFormulaValue(Cells state, Blackhole bh) {
+        for (Cell cell : state.cells) {
+            bh.consume(ExcelUtils.getCachedFormulaValue(cell));
+        }
+    }
+
+    @Benchmark
+    public void convertCellPos(Positions state, Blackhole bh) throws Exception {
+        for (int i = 0; i < CELLS; i++) {
+            bh.consume(ExcelUtils.convertCellPos(state.rows[i], state.cols[i]));
+        }
+    }
+}
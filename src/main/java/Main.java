@@ -1,15 +1,47 @@
+import jp.classicorange.IndexExcel;
 import jp.classicorange.SearchExcel;
+import jp.classicorange.daemon.ScanClient;
+import jp.classicorange.daemon.ScanDaemon;
+
+import java.util.Arrays;
 
 /**
  * ・第一引数：検索対象のディレクトリパス
  * ・第二引数：検索対象文字列
- * ・第三引数：検索モード(あいまい検索/完全一致)  FUZZY
+ * ・第三引数：検索モード(あいまい検索/完全一致/正規表現/大文字小文字を区別しない)  FUZZY / STRICTLY / REGEX / IGNORE_CASE
  * ・第四引数：置換文字列
+ *
+ * 第一引数が index の場合は索引を作成する。
+ * ・第二引数：対象のディレクトリパス
+ * ・--index=ファイル：作成する索引ファイル
+ *
+ * 第一引数が serve の場合は常駐プロセスを起動し、client の場合は常駐プロセスに検索を要求する。
+ * ・--socket=ファイル / --port=N：接続先 (省略時はループバックの 47100 番)
+ * ・--token-file=ファイル：要求に付けるトークンのファイル (常駐プロセスが起動時に作り、起動したユーザーだけが読める)
+ * ・client の残りの引数：検索・索引作成と同じ (--shutdown で常駐プロセスを終了)
+ *
+ * 引数の誤りはメッセージを表示して終了コード 1 で終わる。
  */
 public class Main {
 
     public static void main(String[] args) throws Exception {
-        new SearchExcel().search(args);
+        try {
+            if (args.length > 0 && args[0].equals("index")) {
+                new IndexExcel().index(args);
+                return;
+            }
+            if (args.length > 0 && args[0].equals("serve")) {
+                ScanDaemon.serve(Arrays.copyOfRange(args, 1, args.length));
+                return;
+            }
+            if (args.length > 0 && args[0].equals("client")) {
+                System.exit(ScanClient.run(Arrays.copyOfRange(args, 1, args.length)));
+            }
+            new SearchExcel().search(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
     }
 
-}
\ No newline at end of file
+}
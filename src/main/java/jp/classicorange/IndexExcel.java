@@ -0,0 +1,201 @@
+package jp.classicorange;
+
+import jp.classicorange.index.NgramIndex;
+import jp.classicorange.scan.DrawingScanner;
+import jp.classicorange.scan.MemoryBudget;
+import jp.classicorange.scan.NumberRenderer;
+import jp.classicorange.scan.SheetNoteScanner;
+import jp.classicorange.utils.CheckParameter;
+import jp.classicorange.utils.ExcelUtils;
+import jp.classicorange.utils.entity.CellText;
+import jp.classicorange.utils.entity.ScanFile;
+import jp.classicorange.walk.ExcelFileWalker;
+import org.apache.poi.hssf.usermodel.HSSFPatriarch;
+import org.apache.poi.hssf.usermodel.HSSFRichTextString;
+import org.apache.poi.hssf.usermodel.HSSFSheet;
+import org.apache.poi.hssf.usermodel.HSSFSimpleShape;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 検索用の索引 (NgramIndex) を作成する。
+ * <pre>
+ * 対象ディレクトリのエクセルファイルを1回だけ読み、
+ * SearchExcel が検索するセル・シェイプ・コメント・入力規則・ヘッダー/フッターの文字列をすべて索引に登録する。
+ *
+ * 設定する引数は以下の通り。
+ * ・第一引数：index
+ * ・第二引数：対象のディレクトリパス  e.g.  .\testData\
+ * ・--index=ファイル  作成する索引ファイル
+ *
+ * 作成した索引は検索時に --index で指定する。
+ * ファイルの読込みは --threads で指定した数のスレッドで並列に行い、
+ * 索引への登録は呼出し元スレッドがファイル順に行う。
+ * 並列に読込むブックのメモリの合計は --heap-budget の予算に収める (MemoryBudget)。
+ * </pre>
+ */
+public class IndexExcel {
+
+    private static final Logger log = LoggerFactory.getLogger(IndexExcel.class);
+
+    /**
+     * 本処理。
+     *
+     */
+    public void index(String[] args) throws Exception {
+
+        CheckParameter.IndexCond cond = CheckParameter.checkIndexParameter(args);
+        long start = System.nanoTime();
+
+        NgramIndex.Writer writer = new NgramIndex.Writer();
+        MemoryBudget budget = new MemoryBudget(cond.memoryBudget());
+
+        int threads = cond.threads();
+        int fileCount = 0;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (ExcelFileWalker walker = new ExcelFileWalker(cond.searchDirPath(), cond.walk(), threads)) {
+            Deque<Future<List<CellText>>> pending = new ArrayDeque<>();
+            Deque<File> pendingFiles = new ArrayDeque<>();
+            Iterator<ScanFile> it = walker.walk();
+            while (it.hasNext() || !pending.isEmpty()) {
+                // 空きがある分だけ投入
+                while (pending.size() < threads * 2 && it.hasNext()) {
+                    File file = it.next().file();
+                    fileCount++;
+                    pending.add(executor.submit(() -> extract(file, budget)));
+                    pendingFiles.add(file);
+                }
+                // 先頭から順番に登録
+                File file = pendingFiles.poll();
+                List<CellText> texts;
+                try {
+                    texts = pending.poll().get();
+                } catch (ExecutionException e) {
+                    log.error("索引作成エラー : {} {}", file, e.getCause().getMessage());
+                    // 読めないファイルは登録しない (検索時は常に候補になる)
+                    continue;
+                }
+                writer.add(file, texts);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        writer.write(Path.of(cond.indexPath()));
+
+        System.out.println("対象ファイル数：" + fileCount);
+        System.out.println("登録ファイル数：" + writer.fileCount());
+        System.out.println("作成時間(ms)：" + (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * ファイルからセル・シェイプ・コメント・入力規則・ヘッダー/フッターの文字列を取り出す。
+     * 対象は SearchExcel.searchCell / searchShape と同じ。数式のセルは数式の文字列と保存された計算結果の両方。
+     * 数値・真偽値は --display-format で検索する場合のために、表示形式の文字列も登録する。
+     * ブック全体を読込むため、必要なメモリが予算に空くまで待つ。
+     *
+     * @param file 対象ファイル
+     * @param budget メモリの予算
+     * @return 文字列
+     */
+    private List<CellText> extract(File file, MemoryBudget budget) throws Exception {
+        log.info("索引作成 : {}", file.getAbsolutePath());
+        return budget.call(MemoryBudget.estimate(file).dom(), () -> readTexts(file));
+    }
+
+    /**
+     * ブック全体を読込んで、文字列を取り出す。
+     */
+    private List<CellText> readTexts(File file) throws Exception {
+        List<CellText> texts = new ArrayList<>();
+        try (Workbook workbook = WorkbookFactory.create(file, null, true)) {
+            NumberRenderer display = NumberRenderer.of(null, true, workbook);
+            for (int sheetIndex = 0; sheetIndex < workbook.getNumberOfSheets(); sheetIndex++) {
+                Sheet sheet = workbook.getSheetAt(sheetIndex);
+                extractShapes(sheetIndex, sheet, texts);
+                extractNotes(sheetIndex, sheet, texts);
+                for (Row row : sheet) {
+                    for (Cell cell : row) {
+                        String text = ExcelUtils.getStringValue(cell);
+                        addText(texts, sheetIndex, cell, text);
+                        // 表示形式の文字列 (文字列のセルは同じ値になる)
+                        String shown = display.value(cell);
+                        if (!shown.equals(text)) addText(texts, sheetIndex, cell, shown);
+                        // 数式の計算結果 (--formula=value / both で検索する場合の候補)
+                        String cached = ExcelUtils.getCachedFormulaValue(cell);
+                        if (cached != null) {
+                            addText(texts, sheetIndex, cell, cached);
+                            String shownCached = display.cachedFormulaValue(cell);
+                            if (!cached.equals(shownCached)) addText(texts, sheetIndex, cell, shownCached);
+                        }
+                    }
+                }
+            }
+        }
+        return texts;
+    }
+
+    private static void addText(List<CellText> texts, int sheetIndex, Cell cell, String text) {
+        if (text.length() >= 2) {
+            texts.add(new CellText(sheetIndex, cell.getRowIndex(), cell.getColumnIndex(), text));
+        }
+    }
+
+    /**
+     * 図形の文字列 (グループ内の図形・グラフのタイトルを含む) を最上位のアンカーの位置で加える。
+     */
+    private void extractShapes(int sheetIndex, Sheet sheet, List<CellText> texts) throws Exception {
+        if (sheet instanceof XSSFSheet xssfSheet) {
+            for (DrawingScanner.ShapeText shape : DrawingScanner.read(xssfSheet.getPackagePart())) {
+                if (shape.text().length() < 2) continue;
+                texts.add(new CellText(sheetIndex, shape.row(), shape.col(), shape.text()));
+            }
+        } else if (sheet instanceof HSSFSheet hssfSheet) {
+            HSSFPatriarch patriarch = hssfSheet.getDrawingPatriarch();
+            if (patriarch == null) return;
+            for (DrawingScanner.Placed<HSSFSimpleShape> placed : DrawingScanner.hssfShapes(patriarch)) {
+                HSSFRichTextString rText = placed.shape().getString();
+                String text = (rText != null) ? rText.getString() : "";
+                if (text.length() < 2) continue;
+                texts.add(new CellText(sheetIndex, placed.row(), placed.col(), text));
+            }
+        }
+    }
+
+    /**
+     * コメント・入力規則・ヘッダー/フッターの文字列を加える。
+     * コメントはそのセル、入力規則は範囲の先頭のセル、ヘッダー/フッターは A1 の位置とする。
+     */
+    private void extractNotes(int sheetIndex, Sheet sheet, List<CellText> texts) throws Exception {
+        List<SheetNoteScanner.NoteText> notes = new ArrayList<>();
+        if (sheet instanceof XSSFSheet xssfSheet) {
+            notes.addAll(SheetNoteScanner.readComments(xssfSheet.getPackagePart()));
+            notes.addAll(SheetNoteScanner.readSheetNotes(xssfSheet));
+        } else if (sheet instanceof HSSFSheet hssfSheet) {
+            notes.addAll(SheetNoteScanner.readComments(hssfSheet));
+            notes.addAll(SheetNoteScanner.readSheetNotes(hssfSheet));
+        }
+        for (SheetNoteScanner.NoteText note : notes) {
+            if (note.text().length() < 2) continue;
+            texts.add(new CellText(sheetIndex, note.row(), note.col(), note.text()));
+        }
+    }
+}
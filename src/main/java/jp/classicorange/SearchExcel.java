@@ -1,23 +1,69 @@
 package jp.classicorange;
 
+import jp.classicorange.cache.ScanCache;
+import jp.classicorange.index.NgramIndex;
+import jp.classicorange.journal.ReplaceJournal;
+import jp.classicorange.matcher.Keyword;
+import jp.classicorange.matcher.TextMatcher;
+import jp.classicorange.metrics.FileMetrics;
+import jp.classicorange.metrics.Phase;
+import jp.classicorange.metrics.ReplaceWriteEvent;
+import jp.classicorange.metrics.ResultSaveEvent;
+import jp.classicorange.metrics.RunMetrics;
+import jp.classicorange.metrics.ShapeScanEvent;
+import jp.classicorange.metrics.SheetScanEvent;
+import jp.classicorange.metrics.WorkbookOpenEvent;
+import jp.classicorange.metrics.WorkbookScanEvent;
+import jp.classicorange.result.ResultSink;
+import jp.classicorange.result.ResultStore;
+import jp.classicorange.scan.DrawingScanner;
+import jp.classicorange.scan.MemoryBudget;
+import jp.classicorange.scan.NumberRenderer;
+import jp.classicorange.scan.SearchScope;
+import jp.classicorange.scan.SharedStringFilter;
+import jp.classicorange.scan.SheetFilter;
+import jp.classicorange.scan.SheetNoteScanner;
+import jp.classicorange.scan.XlsStreamScanner;
+import jp.classicorange.scan.XlsxStreamReplacer;
+import jp.classicorange.scan.XlsxStreamScanner;
+import jp.classicorange.scan.ZipPreFilter;
+import jp.classicorange.types.FormulaTarget;
+import jp.classicorange.types.LocationType;
+import jp.classicorange.types.ResultFormat;
 import jp.classicorange.types.SearchMode;
 import jp.classicorange.utils.CheckParameter;
 import jp.classicorange.utils.ExcelUtils;
+import jp.classicorange.utils.entity.Hit;
+import jp.classicorange.utils.entity.ScanFile;
+import jp.classicorange.walk.ExcelFileWalker;
 import org.apache.poi.hssf.usermodel.*;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.poifs.filesystem.FileMagic;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
 import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.ss.util.WorkbookUtil;
-import org.apache.poi.xssf.streaming.SXSSFRow;
-import org.apache.poi.xssf.streaming.SXSSFSheet;
-import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.apache.poi.xssf.usermodel.*;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.STCellType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 
 /**
  * エクセルファイルのgrepツール。
@@ -28,8 +74,28 @@ import java.util.regex.Pattern;
  * 設定する引数は以下の通り。
  * ・第一引数：検索対象のディレクトリパス  e.g.  .\testData\
  * ・第二引数：検索対象文字列  e.g. シュミレーション
- * ・第三引数：検索モード  FUZZY あいまい検索, STRICTLY 完全一致
+ * ・第三引数：検索モード  FUZZY あいまい検索, STRICTLY 完全一致, REGEX 正規表現, IGNORE_CASE 大文字小文字を区別しない
  * ・第四引数：置換文字列  e.g. シミュレーション
+ * --word / --words でキーワードを複数指定した場合、Aho-Corasick で1回の走査で全キーワードを検索し、
+ * 1つのセルが複数のキーワードを含む場合はキーワードごとに1件出力する。
+ * 判定と置換は、実行ごとに1回だけ作成した TextMatcher が行う。
+ * --index で索引 (IndexExcel で作成) を指定した場合、索引で候補にならないファイルは開かない。
+ * --cache を指定した場合、前回から変更のないファイルは開かずに前回の結果を使う。
+ * .xlsx の置換は XlsxStreamReplacer で一致したパートだけを書き換え、ブック全体は保存しない。
+ * 置換したファイルは一時ファイル経由で置換え、ファイルごとの進み具合をジャーナル (ReplaceJournal) に記録する。
+ * --resume を指定した場合、ジャーナルで完了済みのファイルはスキップする。
+ * 読込みに必要なメモリを見積もり (MemoryBudget)、並列に読込むファイルの合計が予算に収まるまで待つ。
+ * ブック全体を読込むと予算を超えるファイルは、検索だけの場合はストリーム読みにする。
+ * --results を指定した場合、result.xlsx には追記せず、結果ストア (ResultStore) に実行ごとのファイルを作る。
+ * 結果は --format で指定した形式の ResultSink (XLSX / TSV / CSV / JSON Lines) に書込む。
+ * ファイルごとに段階 (開く・読込み・セル・シェイプ・置換の書込み・結果の書込み) の時間と件数を記録し (FileMetrics)、
+ * --metrics を指定した場合は実行の最後に集計を JSON で書出す。読込みエラーのファイルは最後に一覧を表示する。
+ * ファイル・ブックの読込み・シート・置換の書込み・結果の保存ごとに JFR のイベント (jp.classicorange.*) を出す。
+ * --formula を指定した場合、数式のセルはファイルに保存された計算結果も検索する (再計算はしない)。
+ *
+ * ファイルの走査は --threads で指定した数のスレッドで並列に行い、
+ * 結果シートへの書込みは呼出し元スレッドだけが行う。
+ * 書込み順は逐次実行と同じファイル順に揃えるため、結果は並列数によらず同じになる。
  * </pre>
  *
  */
@@ -38,9 +104,68 @@ public class SearchExcel {
     private static final Logger log = LoggerFactory.getLogger(SearchExcel.class);
     private CheckParameter.SearchCond cond;
 
-    private SXSSFWorkbook sxssfWorkbook ;
-    private SXSSFSheet sxssfSheet ;
+    /** 結果の出力先 */
+    private ResultSink sink;
+
+    /** 検索モードに応じた照合器 (cond.keywords() と同じ並び) */
+    private TextMatcher matcher;
+    /** 検索するシート・セル範囲・表示状態 */
+    private SearchScope scope;
+    /** ZIPのバイト列による前処理 (無効の場合は null) */
+    private ZipPreFilter preFilter;
+    /** 前処理で除外したファイル数 */
+    private final AtomicInteger preFilterRejected = new AtomicInteger();
+    /** 索引による候補ファイル (無効の場合は null) */
+    private NgramIndex.Candidates indexCandidates;
+    /** 索引で除外したファイル数 */
+    private final AtomicInteger indexRejected = new AtomicInteger();
+    /** 前回の検索結果のキャッシュ (無効の場合は null) */
+    private ScanCache cache;
+    /** ブックの読込みに使うメモリの予算 */
+    private MemoryBudget budget;
+    /** メモリの予算を超えるためストリーム読みにしたファイル数 */
+    private final AtomicInteger budgetStreamed = new AtomicInteger();
+    /** 置換の進み具合のジャーナル (置換しない場合は null) */
+    private ReplaceJournal journal;
+    /** 結果の件数 */
+    private int hitCount;
+    /** ファイルごとの計測結果 */
+    private final RunMetrics metrics = new RunMetrics();
+    /** 索引とキャッシュの取得元 */
+    private final SearchResources resources;
+    /** 結果の送信先 (ファイルに出力する場合は null) */
+    private final OutputStream resultStream;
+
+    public SearchExcel() {
+        this(SearchResources.FILES, null);
+    }
 
+    /**
+     * 常駐モード (ScanDaemon) で使う。
+     * <pre>
+     * --results / --output を指定しない場合、結果はファイルに書かずに resultStream へ書込む
+     * (テキスト形式のみ)。
+     * </pre>
+     *
+     * @param resources 索引とキャッシュの取得元
+     * @param resultStream 結果の送信先 (null の場合はファイルに出力する)
+     */
+    public SearchExcel(SearchResources resources, OutputStream resultStream) {
+        this.resources = resources;
+        this.resultStream = resultStream;
+    }
+
+    /**
+     * 検索条件を指定して作成する。search を通さずに searchCell / searchShape を呼ぶ場合 (ベンチマーク) に使う。
+     *
+     * @param cond 検索条件
+     */
+    SearchExcel(CheckParameter.SearchCond cond) {
+        this();
+        this.cond = cond;
+        this.matcher = TextMatcher.of(cond.searchMode(), cond.keywords());
+        this.scope = new SearchScope(cond.scope());
+    }
 
     /**
      * 本処理。
@@ -50,130 +175,363 @@ public class SearchExcel {
 
         //検索条件 をセット
         cond = CheckParameter.checkParameter(args);
+        long runStart = System.nanoTime();
+
+        // キーワードは1回だけコンパイルする
+        matcher = TextMatcher.of(cond.searchMode(), cond.keywords());
+        scope = new SearchScope(cond.scope());
+
+        LocalDateTime now = LocalDateTime.now();
+        List<String> words = cond.words();
+        String title = words.getFirst() + (words.size() > 1 ? " 他" + (words.size() - 1) : "");
+
+        // 結果の出力先 : 結果ストアの場合は実行ごとの新しいファイル、それ以外は result.xlsx などに追記・上書き
+        // 常駐モードで出力先の指定がない場合は送信する
+        ResultFormat format = cond.resultFormat();
+        ResultStore store = null;
+        Path resultFile = null;
+        if (cond.resultDir() != null) {
+            store = ResultStore.open(Path.of(cond.resultDir()));
+            resultFile = store.newResultFile(now, title, format.extension());
+        } else if (cond.outputPath() != null) {
+            resultFile = Path.of(cond.outputPath());
+        } else if (resultStream == null) {
+            resultFile = Path.of("result." + format.extension());
+        }
+        String formatted = now.format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
+        sink = (resultFile != null)
+            ? ResultSink.open(format, resultFile, title + " " + formatted)
+            : ResultSink.open(format, resultStream);
 
-        //結果保存ファイル名
-        String resultFileName = "result.xlsx";
-
-        //Workbookファイル準備
-        File f = new File(resultFileName);
-        if(f.exists()) {
-            FileInputStream fis = new FileInputStream(f);
-            Workbook wb = WorkbookFactory.create(fis);
-            if (wb instanceof XSSFWorkbook) {
-                // xlsx → SXSSFWorkbookにラップして追記可能
-                sxssfWorkbook = new SXSSFWorkbook((XSSFWorkbook) wb, 100);
-            } else if (wb instanceof HSSFWorkbook) {
-                // xls → SXSSFは不可、HSSFWorkbookのまま扱う
-                System.out.println("警告: .xls ファイルは SXSSFWorkbook 非対応です。HSSFWorkbookを使用します。");
-                // 必要なら変換処理を入れる
-                // sxssfWorkbook = convertHssfToSxssf((HSSFWorkbook) wb);
-            } else {
-                throw new IllegalStateException("未知のWorkbook種類");
-            }
-        }else{
-            sxssfWorkbook = new SXSSFWorkbook(100);
+        budget = new MemoryBudget(cond.memoryBudget());
+
+        // 数値の表記で一致しうる場合や、文字列がそのまま現れないモードは、ZIPのバイト列では判定できない
+        // (表示形式で書式化する場合は、書式化した文字列がZIPに現れない)
+        if (cond.preFilter() && cond.searchMode().isLiteral() && !matcher.mayMatchNumber() && !cond.displayFormat()) {
+            preFilter = new ZipPreFilter(words);
+        }
+
+        // 索引で候補ファイルを求める
+        if (cond.indexPath() != null) {
+            loadIndex(words);
         }
-        String formatted = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
-        // Excelのシート名に使える文字をセット。禁止文字は_に置換
-        sxssfSheet = sxssfWorkbook.createSheet(WorkbookUtil.createSafeSheetName(args[1]+" "+formatted, '_'));
-        // 一番左に移動
-        sxssfWorkbook.setSheetOrder(sxssfSheet.getSheetName(), 0);
-        // アクティブシートを新シートに
-        int idx = sxssfWorkbook.getSheetIndex(sxssfSheet);
-        sxssfWorkbook.setActiveSheet(idx);
-        sxssfWorkbook.setSelectedTab(idx);
 
-        // シートにヘッダー生成
-        setHeader();
+        // 置換するとファイルが変わるため、キャッシュは検索だけの場合に使う
+        if (cond.cacheDir() != null && !cond.replaces()) {
+            cache = resources.cache(Path.of(cond.cacheDir()), cond);
+        }
+
+        // 置換する場合は、途中で止まっても再開できるようにファイルごとの進み具合を記録する
+        if (cond.replaces()) {
+            journal = ReplaceJournal.open(Path.of(cond.journalPath()), cond, cond.resume());
+        }
 
-        // 検索の実行
-        searchDir(cond.searchDirPath());
+        // 対象ファイルを収集しながら検索を実行
+        int fileCount;
+        try (ExcelFileWalker walker = new ExcelFileWalker(cond.searchDirPath(), cond.walk(), cond.threads())) {
+            fileCount = scanFiles(walker.walk());
+        } finally {
+            if (journal != null) journal.close();
+        }
+        if (cache != null) {
+            cache.save();
+        }
 
         // 結果 保存
-        try (FileOutputStream fos = new FileOutputStream(resultFileName)) {
-            sxssfWorkbook.write(fos);
-        }finally {
-            // 結果ファイル閉じる
-            sxssfWorkbook.close();
+        ResultSaveEvent saveEvent = new ResultSaveEvent();
+        saveEvent.begin();
+        sink.close();
+        if (saveEvent.shouldCommit()) {
+            saveEvent.resultPath = (resultFile != null) ? resultFile.toString() : "";
+            saveEvent.format = format.name();
+            saveEvent.hits = hitCount;
+            saveEvent.bytes = (resultFile != null) ? resultFile.toFile().length() : -1;
+            saveEvent.commit();
+        }
+        if (store != null) {
+            store.register(new ResultStore.Run(now, title, cond.searchMode().name(), cond.replaceWord(),
+                cond.searchDirPath(), fileCount, hitCount, resultFile.getFileName().toString()));
+        }
+        if (resultFile != null) {
+            System.out.println("結果ファイル：" + resultFile);
         }
 
+        // 実行結果の集計
+        System.out.println("対象ファイル数：" + fileCount);
+        System.out.println("検索結果件数：" + hitCount);
+        if (preFilter != null) {
+            System.out.println("プレフィルタで除外したファイル数：" + preFilterRejected.get());
+        }
+        if (indexCandidates != null) {
+            System.out.println("索引で除外したファイル数：" + indexRejected.get());
+        }
+        if (cache != null) {
+            System.out.println("キャッシュ：ヒット " + cache.hitCount()
+                + " / 一部ヒット " + cache.partialCount() + " / ミス " + cache.missCount());
+        }
+        if (budgetStreamed.get() > 0) {
+            System.out.println("メモリの予算を超えるためストリーム読みにしたファイル数：" + budgetStreamed.get());
+        }
+        if (journal != null && cond.resume()) {
+            System.out.println("完了済みでスキップしたファイル数：" + journal.skippedCount()
+                + " (結果は前回の結果ファイルを参照)");
+        }
+        List<FileMetrics> errors = metrics.errors();
+        if (!errors.isEmpty()) {
+            System.out.println("読込みエラーのファイル数：" + errors.size());
+            for (FileMetrics error : errors) {
+                System.out.println("  " + error.path() + " : " + error.error());
+            }
+        }
+        if (cond.metricsPath() != null) {
+            metrics.write(Path.of(cond.metricsPath()), cond.metricsTop(), System.nanoTime() - runStart);
+        }
 
     }
 
-
     /**
-     * 指定したパスを検索する。
-     * 注意：再帰的に使用される
+     * 索引を読込み、候補ファイルを求める。
+     * 正規表現や2文字未満の検索文字列は索引で判定できないため、全ファイルを検索する。
      *
-     * @param targetPath ディレクトリパス
+     * @param words 検索文字列
      */
-    private boolean searchDir(final String targetPath) throws Exception {
-
-        File file = new File(targetPath);
-        File[] listFiles = file.listFiles((aDir, aName) -> {
-            // ドットで始まるファイルは対象外
-            if (aName.startsWith(".")) {
-                return false;
-            }
-
-            // 対象要素の絶対パスを取得
-            String absolutePath = aDir.getAbsolutePath() + File.separator + aName;
+    private void loadIndex(List<String> words) throws IOException {
+        if (cond.searchMode() == SearchMode.REGEX) {
+            System.out.println("索引：正規表現では使用できないため全ファイルを検索します");
+            return;
+        }
+        long start = System.nanoTime();
+        NgramIndex index = resources.index(Path.of(cond.indexPath()));
+        indexCandidates = index.candidates(words);
+        if (indexCandidates == null) {
+            System.out.println("索引：2文字未満の検索文字列があるため全ファイルを検索します");
+            return;
+        }
+        log.info("索引の照会 : {} ファイル {} ms", index.fileCount(), (System.nanoTime() - start) / 1_000_000);
+    }
 
-            // エクセルファイルのみ対象とする。
-            if (new File(absolutePath).isFile()
-                && (absolutePath.endsWith(".xls") || absolutePath
-                .endsWith(".xlsx"))) {
-                return true;
-            } else {
-                // ディレクトリの場合、再び同一メソッドを呼出す。
+    /**
+     * 収集したファイルを並列に検索し、結果をファイル順に書込む。
+     * <pre>
+     * 走査中のファイル数は並列数の2倍までとし、
+     * 先頭のファイルの結果を待ってから順番に書込む。
+     * ファイルは収集された順に投入するため、収集の完了は待たない。
+     * </pre>
+     *
+     * @param targets 対象ファイル
+     * @return 対象ファイル数
+     */
+    private int scanFiles(Iterator<ScanFile> targets) throws Exception {
+        int threads = cond.threads();
+        int count = 0;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            Deque<Scanning> pending = new ArrayDeque<>();
+            while (targets.hasNext() || !pending.isEmpty()) {
+                // 空きがある分だけ投入
+                while (pending.size() < threads * 2 && targets.hasNext()) {
+                    ScanFile target = targets.next();
+                    count++;
+                    FileMetrics fileMetrics = new FileMetrics(target.file().getAbsolutePath());
+                    pending.add(new Scanning(fileMetrics,
+                        executor.submit(() -> scanFile(target.fileIndex(), target.file(), fileMetrics))));
+                }
+                // 先頭から順番に書込む
+                Scanning scanning = pending.poll();
+                FileMetrics fileMetrics = scanning.metrics();
                 try {
-                    return searchDir(absolutePath);
-                } catch (Exception e) {
-                    log.error("検索エラー : {}",e.getMessage());
-                    return false;
+                    List<Hit> hits = scanning.hits().get();
+                    long start = System.nanoTime();
+                    for (Hit hit : hits) {
+                        sink.write(hit);
+                        hitCount++;
+                    }
+                    fileMetrics.add(Phase.RESULT_WRITE, start);
+                    fileMetrics.addTotal(start);
+                } catch (ExecutionException e) {
+                    log.error("検索エラー : {}", e.getCause().getMessage());
+                    fileMetrics.setError(String.valueOf(e.getCause().getMessage()));
                 }
+                metrics.add(fileMetrics);
             }
-        });
+        } finally {
+            executor.shutdownNow();
+        }
+        return count;
+    }
+
+    /**
+     * 走査中のファイル。
+     *
+     * @param metrics ファイルの計測結果
+     * @param hits 検索結果
+     */
+    private record Scanning(FileMetrics metrics, Future<List<Hit>> hits) { }
 
-        if (listFiles == null) {
-            log.info("対象ファイル収集 : {}", 0);
-            return false;
+    /**
+     * 1ファイルを検索する。キャッシュが有効な場合は、変更のないシートは前回の結果を使う。
+     * 置換する場合は、ジャーナルで完了済みのファイルを読まず、処理が終わったファイルを記録する。
+     * 走査スレッドから呼ばれる。
+     *
+     * @param fileIndex ファイルのインデックス
+     * @param file ファイルオブジェクト
+     * @param fileMetrics 計測結果の記録先
+     * @return 検索結果
+     */
+    private List<Hit> scanFile(int fileIndex, File file, FileMetrics fileMetrics) throws Exception {
+        long start = System.nanoTime();
+        WorkbookScanEvent event = new WorkbookScanEvent();
+        event.begin();
+        // 置換で変わる前のサイズ
+        if (event.isEnabled()) event.fileSize = file.length();
+        try {
+            List<Hit> hits = scanFileHits(fileIndex, file, fileMetrics);
+            fileMetrics.setHits(hits.size());
+            return hits;
+        } finally {
+            fileMetrics.addTotal(start);
+            if (event.shouldCommit()) {
+                event.filePath = fileMetrics.path();
+                event.route = (fileMetrics.route() == null) ? null : fileMetrics.route().name();
+                event.cells = fileMetrics.cells();
+                event.shapes = fileMetrics.shapes();
+                event.hits = fileMetrics.hits();
+                event.error = fileMetrics.error();
+                event.commit();
+            }
         }
-        log.info("対象ファイル収集 : {}", listFiles.length);
+    }
 
-        // 検索を実行
-        for (int i = 0; i < listFiles.length; i++) {
-            File f = listFiles[i];
-            if (f.isFile()) {
-                searchWord(i,f);
+    private List<Hit> scanFileHits(int fileIndex, File file, FileMetrics fileMetrics) throws Exception {
+        if (journal != null) {
+            if (journal.isDone(file)) {
+                fileMetrics.setRoute(FileMetrics.Route.JOURNAL);
+                return List.of();
             }
+            List<Hit> hits = searchWord(fileIndex, file, SheetFilter.ALL, fileMetrics);
+            // 読めなかったファイルは完了にせず、再開時にもう一度処理する
+            if (fileMetrics.error() == null) journal.done(file);
+            return hits;
+        }
+        if (cache == null) {
+            return searchWord(fileIndex, file, SheetFilter.ALL, fileMetrics);
         }
-        //System.out.println("検索が完了しました。");
-        return true;
+        ScanCache.Lookup lookup = cache.lookup(file);
+        if (lookup.isHit()) fileMetrics.setRoute(FileMetrics.Route.CACHE);
+        List<Hit> parsed = lookup.isHit() ? List.of()
+            : searchWord(fileIndex, file, lookup.sheetFilter(), fileMetrics);
+        // 読めなかったファイルは「一致なし」として保存しない
+        if (fileMetrics.error() != null) return parsed;
+        return lookup.complete(fileIndex, file, parsed);
     }
 
     /**
      * 対象のエクセルシートから文字列を検索し、リストに格納します。
+     * 走査スレッドから呼ばれるため、フィールドは cond 以外参照しない。
      *
      * @param file ファイルオブジェクト
+     * @param sheetFilter 読込むシートの判定
+     * @param fileMetrics 計測結果の記録先
+     * @return 検索結果
      */
-    private void searchWord(int fileIndex, File file) throws Exception {
+    private List<Hit> searchWord(int fileIndex, File file, SheetFilter sheetFilter, FileMetrics fileMetrics)
+        throws Exception {
 
         log.info("個別検索開始 : {}",file.getAbsolutePath());
 
-        SearchMode searchMode = cond.searchMode();
-        String searchWord = cond.searchWord() ;
-        String replaceWord = cond.replaceWord() ;
+        boolean replaces = cond.replaces();
+
+        // ZIPのバイト列で一致しえないファイルは開かない
+        if (preFilter != null && file.getName().endsWith(".xlsx") && !preFilter.mayContain(file)) {
+            preFilterRejected.incrementAndGet();
+            fileMetrics.setRoute(FileMetrics.Route.PREFILTER);
+            fileMetrics.addBytesRead(file.length());
+            log.info("プレフィルタで除外 : {}", file.getAbsolutePath());
+            return List.of();
+        }
+
+        // 索引で候補にならないファイルは開かない
+        if (indexCandidates != null && !indexCandidates.mayContain(file)) {
+            indexRejected.incrementAndGet();
+            fileMetrics.setRoute(FileMetrics.Route.INDEX);
+            log.info("索引で除外 : {}", file.getAbsolutePath());
+            return List.of();
+        }
+        // 索引で候補にならないシートは読まない
+        BitSet sheets = (indexCandidates != null) ? indexCandidates.sheets(file) : null;
+        SheetFilter filter = (sheets == null) ? sheetFilter
+            : (sheetIndex, partName) -> sheets.get(sheetIndex) && sheetFilter.parse(sheetIndex, partName);
+
+        // 読込み方法を決め、必要なメモリが予算に空くまで待つ
+        MemoryBudget.Estimate estimate = MemoryBudget.estimate(file);
+        // 図形だけを検索する場合は、シートを読まずに済むストリーム読み
+        boolean requested = (cond.streaming() || scope.shapesOnly()) && !replaces;
+        // ブック全体を読込むと予算を超えるファイルはストリーム読み
+        boolean overBudget = !replaces && !requested && !budget.fits(estimate.dom());
+        if (overBudget) {
+            budgetStreamed.incrementAndGet();
+            log.info("メモリの予算を超えるためストリーム読み : {} 見積もり {} MB",
+                file.getAbsolutePath(), estimate.dom() / (1024 * 1024));
+        }
+        boolean streaming = requested || overBudget;
+        boolean partial = streaming || (replaces && file.getName().endsWith(".xlsx"));
+        return budget.call(partial ? estimate.stream() : estimate.dom(),
+            () -> readWorkbook(fileIndex, file, filter, streaming, fileMetrics));
+    }
+
+    /**
+     * ファイルを読込んで検索・置換する。
+     *
+     * @param file ファイルオブジェクト
+     * @param sheetFilter 読込むシートの判定
+     * @param streaming ストリーム読みで検索する場合 true
+     * @param fileMetrics 計測結果の記録先
+     * @return 検索結果。読込みエラーの場合は空 (fileMetrics にエラーを記録する)
+     */
+    private List<Hit> readWorkbook(int fileIndex, File file, SheetFilter sheetFilter, boolean streaming,
+                                   FileMetrics fileMetrics) throws Exception {
+
+        boolean replaces = cond.replaces();
+
+        // 検索だけの場合はストリーム読み
+        if (streaming) {
+            if (file.getName().endsWith(".xlsx")) {
+                fileMetrics.setRoute(FileMetrics.Route.STREAM);
+                return new XlsxStreamScanner(cond, matcher, scope).scan(fileIndex, file, sheetFilter, fileMetrics);
+            } else if (file.getName().endsWith(".xls")) {
+                fileMetrics.setRoute(FileMetrics.Route.STREAM);
+                return new XlsStreamScanner(cond, matcher, scope).scan(fileIndex, file, sheetFilter, fileMetrics);
+            }
+        }
+
+        // .xlsx の置換は、一致したパートだけを書き換えて他のエントリはそのままコピーする
+        // (範囲を指定した場合は、範囲外のセルと共有する sharedStrings.xml の文字列を書き換えられないためブック全体を読む)
+        if (replaces && file.getName().endsWith(".xlsx") && scope.isAll()) {
+            fileMetrics.setRoute(FileMetrics.Route.PART_REPLACE);
+            List<Hit> hits = new XlsxStreamReplacer(cond, matcher, journal).replace(fileIndex, file, fileMetrics);
+            if (hits != null) return hits;
+        }
 
         // Excelファイルの読込み
-        InputStream inputStream = new FileInputStream(file);
+        fileMetrics.setRoute(FileMetrics.Route.DOM);
         Workbook workbook;
         try {
-            workbook = WorkbookFactory.create(inputStream);
+            workbook = openWorkbook(file, fileMetrics);
         } catch (Exception ex) {
-            return;
+            log.warn("読込みエラー : {} {}", file.getAbsolutePath(), ex.getMessage());
+            fileMetrics.setError(ex.getMessage());
+            return List.of();
         }
-        inputStream.close();
+
+        List<Hit> hits = new ArrayList<>();
+        // 共有文字列を先に検索しておき、セルは番号だけで判定する
+        SharedStringFilter sstFilter = (workbook instanceof XSSFWorkbook xssfWorkbook)
+            ? SharedStringFilter.of(xssfWorkbook.getSharedStringSource(), matcher)
+            : null;
+        NumberRenderer numbers = NumberRenderer.of(matcher, cond.displayFormat(), workbook);
+        // 共有文字列・数値が一致しえない場合、セルで一致しうるのはインライン文字列と数式だけ
+        // (--stream と同じく、シートXMLのバイト列にそれらがないシートはセルを読まない)
+        boolean textOnlyInline = sstFilter != null && sstFilter.isEmpty() && !numbers.mayMatchAny();
 
         // シート枚数を読込み
         int numberOfSheets = workbook.getNumberOfSheets();
@@ -183,64 +541,207 @@ public class SearchExcel {
             String path = file.getAbsolutePath();
             // シート
             Sheet sheet = workbook.getSheetAt(sheetIndex);
+            if (!scope.includesSheet(sheet.getSheetName(), workbook.getSheetVisibility(sheetIndex))) continue;
+            String partName = (sheet instanceof XSSFSheet xssfSheet)
+                ? xssfSheet.getPackagePart().getPartName().getName() : null;
+            if (!sheetFilter.parse(sheetIndex, partName)) continue;
             //シェープ
-            searchShape(
+            long start = System.nanoTime();
+            fileMetrics.addShapes(searchShape(
                 fileIndex, path,
-                sheet, searchWord, replaceWord, searchMode);
+                sheet, hits));
+            fileMetrics.add(Phase.SHAPE_SCAN, start);
+            if (scope.shapesOnly()) continue;
+            //コメント
+            searchNote(fileIndex, sheetIndex, path, sheet, commentsOf(sheet), hits);
+            if (textOnlyInline && !needsCellScan((XSSFSheet) sheet)) continue;
             //セル
-            searchCell(fileIndex, sheetIndex,
-                sheet, searchWord, replaceWord, searchMode,
-                path);
+            start = System.nanoTime();
+            fileMetrics.addCells(searchCell(fileIndex, sheetIndex,
+                sheet,
+                path, sstFilter, numbers, hits));
+            fileMetrics.add(Phase.CELL_SCAN, start);
+            //入力規則・ヘッダー/フッター
+            if (scope.includesSheetNotes()) {
+                searchNote(fileIndex, sheetIndex, path, sheet, sheetNotesOf(sheet), hits);
+            }
+
 
+        }
+
+        // 置換、一時ファイルに保存してから置換える
+        if(replaces){
+            long start = System.nanoTime();
+            ReplaceWriteEvent event = new ReplaceWriteEvent();
+            event.begin();
+            long bytesBefore = file.length();
+            journal.commit(file.toPath(), tmp -> {
+                try (OutputStream outputStream = new FileOutputStream(tmp.toFile())) {
+                    workbook.write(outputStream);
+                }
+            });
+            fileMetrics.add(Phase.REPLACE_WRITE, start);
+            if (event.shouldCommit()) {
+                event.filePath = file.getAbsolutePath();
+                event.route = FileMetrics.Route.DOM.name();
+                event.parts = -1;
+                event.bytesBefore = bytesBefore;
+                event.bytesAfter = file.length();
+                event.commit();
+            }
+        }
+        return hits;
+    }
 
+    /**
+     * シートXMLにインライン文字列・数式 (検索する場合は入力規則・ヘッダー/フッター) があるかを、
+     * バイト列だけで調べる (XlsxStreamScanner.needsParse)。
+     *
+     * @return セルを検索する必要がある場合 true
+     */
+    private boolean needsCellScan(XSSFSheet sheet) throws IOException {
+        try (InputStream sheetData = sheet.getPackagePart().getInputStream()) {
+            return XlsxStreamScanner.needsParse(sheetData, scope.includesSheetNotes());
         }
+    }
 
-        // 置換、上書き保存
-        if(replaceWord != null){
-            FileOutputStream outputStream = new FileOutputStream(file);
-            workbook.write(outputStream);
-            outputStream.close();
+    /**
+     * ブック全体を読込む。コンテナ (ZIP / POIFS) を開くまでを OPEN、ブックの作成を PARSE に計上する。
+     * 形式の判定と読込みは WorkbookFactory.create(InputStream) と同じ。
+     *
+     * @param file ファイルオブジェクト
+     * @param fileMetrics 計測結果の記録先
+     * @return ブック
+     */
+    private static Workbook openWorkbook(File file, FileMetrics fileMetrics) throws IOException {
+        long start = System.nanoTime();
+        WorkbookOpenEvent event = new WorkbookOpenEvent();
+        event.begin();
+        try (InputStream inputStream = FileMagic.prepareToCheckMagic(new FileInputStream(file))) {
+            Workbook workbook;
+            FileMagic magic = FileMagic.valueOf(inputStream);
+            if (magic == FileMagic.OOXML) {
+                OPCPackage pkg;
+                try {
+                    pkg = OPCPackage.open(inputStream);
+                } catch (Exception ex) {
+                    throw new IOException(ex.getMessage(), ex);
+                }
+                fileMetrics.add(Phase.OPEN, start);
+                start = System.nanoTime();
+                workbook = XSSFWorkbookFactory.createWorkbook(pkg);
+            } else if (magic == FileMagic.OLE2) {
+                POIFSFileSystem fs = new POIFSFileSystem(inputStream);
+                fileMetrics.add(Phase.OPEN, start);
+                start = System.nanoTime();
+                workbook = WorkbookFactory.create(fs);
+            } else {
+                // 対応しない形式はライブラリのエラーにする
+                workbook = WorkbookFactory.create(inputStream);
+            }
+            fileMetrics.add(Phase.PARSE, start);
+            fileMetrics.addBytesRead(file.length());
+            if (event.shouldCommit()) {
+                event.filePath = file.getAbsolutePath();
+                event.format = magic.name();
+                event.fileSize = file.length();
+                event.commit();
+            }
+            return workbook;
         }
     }
 
 
 
-    public void searchCell(
+    /**
+     * 指定したシートのセルの文字列を検索する。
+     *
+     * @param sheet Sheet
+     * @param numbers 数値・真偽値のセルの文字列化 (ブックごと)
+     * @param hits 検索結果の格納先
+     * @return 読んだセルの数
+     */
+    public long searchCell(
         int fileIndex,
         int sheetIndex, Sheet sheet,
-        String searchWord, String replaceWord, SearchMode searchMode,
-        String absPath
+        String absPath, SharedStringFilter sstFilter, NumberRenderer numbers, List<Hit> hits
     ) throws Exception {
+        SheetScanEvent event = new SheetScanEvent();
+        event.begin();
+        int hitsBefore = hits.size();
         // シート名
         String sheetName = sheet.getSheetName();
         // シートの最終行
         int lastRowNum = sheet.getLastRowNum();
+        // セル範囲の行だけ読む
+        int lastScopeRow = Math.min(lastRowNum, scope.lastRow());
+        boolean visibleOnly = scope.visibleOnly();
         // 対象ファイルの絶対パス
 
         int cellIndex=0;
+        long cellCount = 0;
+        FormulaTarget formula = cond.formula();
+        // .xls の文字列のセルは SST の項目を共有するため、同じ文字列は1回だけ判定する
+        Map<String, Boolean> stringMatches = (sheet instanceof HSSFSheet) ? new HashMap<>() : null;
         // 最終行までループ処理
-        for (int j = 0; j <= lastRowNum; j++) {
+        for (int j = scope.firstRow(); j <= lastScopeRow; j++) {
             // 行の取得
             Row row = sheet.getRow(j);
             if (row == null) continue;
+            if (visibleOnly && row.getZeroHeight()) continue;
 
             // 行内の最後のセルの位置
             short lastCellNum = row.getLastCellNum();
             // 行内の最後のセルまでループ処理
             for (int k = 0; k < lastCellNum; k++) {
+                if (!scope.includesCell(j, k) || (visibleOnly && sheet.isColumnHidden(k))) continue;
                 // セルを取得
                 Cell cell = row.getCell(k);
                 if (cell == null) continue;
-                // セルの値を文字列へ変換
-                String original = ExcelUtils.getStringValue(cell);
+                cellCount++;
+                // 共有文字列のセルは番号で判定し、一致しなければ文字列にしない (<v> のないセルは空)
+                if (sstFilter != null && cell instanceof XSSFCell xssfCell
+                    && xssfCell.getCTCell().getT() == STCellType.S
+                    && (!xssfCell.getCTCell().isSetV()
+                        || !sstFilter.matches(Integer.parseInt(xssfCell.getCTCell().getV().trim())))) {
+                    continue;
+                }
+                if (stringMatches != null && cell.getCellType() == CellType.STRING
+                    && !stringMatches.computeIfAbsent(cell.getStringCellValue(), s -> matcher.find(s).length > 0)) {
+                    continue;
+                }
+                // 数式のセルは --formula に応じて、数式の文字列と保存された計算結果を検索する
+                // (置換で計算結果が変わるため、計算結果は先に取り出す)
+                boolean formulaCell = cell.getCellType() == CellType.FORMULA;
+                String cached = (formulaCell && formula.value()) ? numbers.cachedFormulaValue(cell) : null;
+
+                // セルの値を文字列へ変換 (数値・真偽値は一致しえない場合は文字列にしない)
+                String original = (formulaCell && !formula.text()) ? null : numbers.value(cell);
 
-                if (original.contains(searchWord)) {
+                // 一致したキーワード
+                int[] found = (original == null) ? TextMatcher.NONE : matcher.find(original);
+                if (found.length > 0) {
                     // 置換処理を実行
-                    String result=replaceWord(cell,searchWord,replaceWord, searchMode);
-                    // 結果出力
-                    appendRecord( fileIndex, sheetIndex, cellIndex++,
-                        absPath, sheetName, ExcelUtils.convertCellPos(j, k),
-                        original, result);
+                    String result=replaceWord(cell, original, found);
+                    // 結果出力 (キーワードごとに1件)
+                    String position = ExcelUtils.convertCellPos(j, k);
+                    for (int id : found) {
+                        hits.add(new Hit( fileIndex, sheetIndex, cellIndex++,
+                            absPath, sheetName, position,
+                            original, result, cond.keywords().get(id).word(), LocationType.CELL));
+                    }
+                }
+                // 計算結果 : 数式の文字列で一致しなかったキーワードだけ。計算結果は置換しない
+                if (cached != null) {
+                    int[] valueFound = matcher.findExcept(cached, found);
+                    if (valueFound.length > 0) {
+                        String position = ExcelUtils.convertCellPos(j, k);
+                        for (int id : valueFound) {
+                            hits.add(new Hit(fileIndex, sheetIndex, cellIndex++,
+                                absPath, sheetName, position,
+                                cached, "", cond.keywords().get(id).word(), LocationType.CELL));
+                        }
+                    }
                 }
 
 //                if (!sb.isEmpty() && !sb.toString().endsWith("\n")) {
@@ -248,186 +749,225 @@ public class SearchExcel {
 //                }
             }
         }
+        if (event.shouldCommit()) {
+            event.filePath = absPath;
+            event.sheetName = sheetName;
+            event.rows = lastRowNum + 1;
+            event.cells = cellCount;
+            event.hits = hits.size() - hitsBefore;
+            event.commit();
+        }
+        return cellCount;
     }
 
 
 
 
-    private void setHeader() {
-        SXSSFRow row = sxssfSheet.createRow(sxssfSheet.getLastRowNum() + 1);
-        int c=0;
-        row.createCell(c++).setCellValue("fileIndex");
-        row.createCell(c++).setCellValue("sheetIndex");
-        row.createCell(c++).setCellValue("cellIndex");
-        row.createCell(c++).setCellValue("filePath");
-        row.createCell(c++).setCellValue("sheetName");
-        row.createCell(c++).setCellValue("position");
-        row.createCell(c++).setCellValue("value");
-        row.createCell(c++).setCellValue("replaced");
-        row.createCell(c).setCellValue("link");
+    /**
+     * シートのコメント (.xlsx はスレッド形式を含む) を読む。
+     */
+    private static List<SheetNoteScanner.NoteText> commentsOf(Sheet sheet) throws Exception {
+        return switch (sheet) {
+            case XSSFSheet xssfSheet -> SheetNoteScanner.readComments(xssfSheet.getPackagePart());
+            case HSSFSheet hssfSheet -> SheetNoteScanner.readComments(hssfSheet);
+            default -> List.of();
+        };
     }
 
+    /**
+     * シートの入力規則・ヘッダー/フッターを読む。
+     */
+    private static List<SheetNoteScanner.NoteText> sheetNotesOf(Sheet sheet) {
+        return switch (sheet) {
+            case XSSFSheet xssfSheet -> SheetNoteScanner.readSheetNotes(xssfSheet);
+            case HSSFSheet hssfSheet -> SheetNoteScanner.readSheetNotes(hssfSheet);
+            default -> List.of();
+        };
+    }
 
     /**
-     * 文字列バッファにファイルパス、シート名、セルの位置情報、値を設定して返却する。
+     * セル以外の文字列 (コメント・入力規則・ヘッダー/フッター) を検索する。置換はしない。
      *
-     * @param fileIndex fileIndex
-     * @param sheetIndex sheetIndex
-     * @param cellIndex cellIndex
-     * @param filePath ファイルパス
-     * @param sheetName シート名
-     * @param position セルの位置情報
-     * @param value セルの値
+     * @param notes 文字列
+     * @param hits 検索結果の格納先
      */
-    public void appendRecord(
-        int fileIndex,
-        int sheetIndex,
-        int cellIndex,
-        String filePath,
-        String sheetName,
-        String position,
-        String value,
-        String replaced
-    ) {
-        int c=0;
-        SXSSFRow row = sxssfSheet.createRow(sxssfSheet.getLastRowNum() + 1);
-        int r = row.getRowNum() + 1;
-        row.createCell(c++).setCellValue(fileIndex);
-        row.createCell(c++).setCellValue(sheetIndex);
-        row.createCell(c++).setCellValue(cellIndex);
-        row.createCell(c++).setCellValue(filePath);
-        row.createCell(c++).setCellValue(sheetName);
-        row.createCell(c++).setCellValue(position);
-        row.createCell(c++).setCellValue(value);
-        row.createCell(c++).setCellValue(replaced);
-        row.createCell(c).setCellFormula(String.format("HYPERLINK(D%s & \"#'\" & E%s & \"'!\" & F%s, \"LINK\")",r,r,r));
+    private void searchNote(int fileIndex, int sheetIndex, String filePath, Sheet sheet,
+                            List<SheetNoteScanner.NoteText> notes, List<Hit> hits) {
+        SheetNoteScanner.addHits(hits, notes, matcher, cond.words(), scope,
+            fileIndex, sheetIndex, filePath, sheet.getSheetName());
     }
 
-
-
     /**
      *
      * 指定したシートのシェイプの文字列を検索して返す
      *
      * @param sheet Sheet
-     * @param searchWord 検索ワード
+     * @param hits 検索結果の格納先
+     * @return 読んだシェイプの数
      */
-    public void searchShape(int fileIndex, String filePath, Sheet sheet, String searchWord, String replaceWord, SearchMode searchMode) throws Exception {
+    public long searchShape(int fileIndex, String filePath, Sheet sheet, List<Hit> hits) throws Exception {
+        ShapeScanEvent event = new ShapeScanEvent();
+        event.begin();
+        int hitsBefore = hits.size();
+        long shapeCount = searchShapeText(fileIndex, filePath, sheet, hits);
+        if (event.shouldCommit()) {
+            event.filePath = filePath;
+            event.sheetName = sheet.getSheetName();
+            event.shapes = shapeCount;
+            event.hits = hits.size() - hitsBefore;
+            event.commit();
+        }
+        return shapeCount;
+    }
+
+    private long searchShapeText(int fileIndex, String filePath, Sheet sheet, List<Hit> hits) throws Exception {
+
+        long shapeCount = 0;
+        if (sheet instanceof XSSFSheet xssfSheet && !cond.replaces()) {
+            // 検索だけの場合は描画パートを直接読む (ストリーム読みと同じく、グラフのタイトルも対象)
+            List<DrawingScanner.ShapeText> shapes = DrawingScanner.read(xssfSheet.getPackagePart());
+            String sheetName = sheet.getSheetName();
+            for (DrawingScanner.ShapeText shape : shapes) {
+                shapeCount++;
+                int[] found = matcher.find(shape.text());
+                for (int id : found) {
+                    Keyword keyword = cond.keywords().get(id);
+                    hits.add(new Hit(
+                        fileIndex,
+                        sheet.getWorkbook().getSheetIndex(sheetName),
+                        -1,
+                        filePath,
+                        sheetName,
+                        ExcelUtils.convertCellPos(shape.row(), shape.col()),
+                        shape.text(),
+                        keyword.replacement(),
+                        keyword.word(),
+                        LocationType.SHAPE
+                    ));
+                }
+            }
 
-        if (sheet instanceof XSSFSheet xssfSheet) {
+        } else if (sheet instanceof XSSFSheet xssfSheet) {
             XSSFDrawing drawing = xssfSheet.getDrawingPatriarch();
-            if (drawing == null) return;
+            if (drawing == null) return 0;
 
-            for (Shape shape : drawing.getShapes()) {
-                if (!(shape instanceof XSSFSimpleShape xshape)) continue;
+            // グループ内の図形も最上位のアンカーの位置で置換する (グラフのタイトル・コネクタは下で一致だけを出力する)
+            for (DrawingScanner.Placed<XSSFSimpleShape> placed : DrawingScanner.xssfShapes(drawing.getShapes())) {
+                XSSFSimpleShape xshape = placed.shape();
+                shapeCount++;
                 String text = xshape.getText();
-                if (text == null || !text.contains(searchWord)) continue;
+                if (text == null) continue;
+                int[] found = matcher.find(text);
+                if (found.length == 0) continue;
 
                 String result = text;
-                if( replaceWord !=null ){
-                    if(searchMode == SearchMode.FUZZY){
-                        //FUZZY
-                        Pattern pattern = Pattern.compile(searchWord);
-                        Matcher matcher = pattern.matcher(text);
-                        result = matcher.replaceAll(replaceWord);
-                    }else{
-                        //STRICT
-                        result = replaceWord;
-                    }
+                String replaced = matcher.replace(text, found);
+                if( replaced !=null ){
+                    result = replaced;
                     xshape.setText(result);
                 }
 
-                ClientAnchor anchor = (XSSFClientAnchor) xshape.getAnchor();
                 String sheetName = sheet.getSheetName();
 
-                appendRecord(
-                    fileIndex,
-                    sheet.getWorkbook().getSheetIndex(sheetName),
-                    -1,
-                    filePath,
-                    sheet.getSheetName(),
-                    ExcelUtils.convertCellPos(anchor.getRow1(), anchor.getCol1()),
-                    result,
-                    replaceWord
-                );
+                for (int id : found) {
+                    Keyword keyword = cond.keywords().get(id);
+                    hits.add(new Hit(
+                        fileIndex,
+                        sheet.getWorkbook().getSheetIndex(sheetName),
+                        -1,
+                        filePath,
+                        sheet.getSheetName(),
+                        ExcelUtils.convertCellPos(placed.row(), placed.col()),
+                        result,
+                        keyword.replacement(),
+                        keyword.word(),
+                        LocationType.SHAPE
+                    ));
+                }
+            }
+            // 置換しない文字列も、検索だけの場合と同じく出力する (replaced は null)
+            String sheetName = sheet.getSheetName();
+            for (DrawingScanner.ShapeText shape : DrawingScanner.read(xssfSheet.getPackagePart())) {
+                if (shape.simple()) continue;
+                shapeCount++;
+                for (int id : matcher.find(shape.text())) {
+                    hits.add(new Hit(
+                        fileIndex,
+                        sheet.getWorkbook().getSheetIndex(sheetName),
+                        -1,
+                        filePath,
+                        sheetName,
+                        ExcelUtils.convertCellPos(shape.row(), shape.col()),
+                        shape.text(),
+                        null,
+                        cond.words().get(id),
+                        LocationType.SHAPE
+                    ));
+                }
             }
 
         } else if (sheet instanceof HSSFSheet hssfSheet) {
             HSSFPatriarch patriarch = hssfSheet.getDrawingPatriarch();
-            if (patriarch == null) return ;
+            if (patriarch == null) return 0;
 
-            for (HSSFShape shape : patriarch.getChildren()) {
+            // グループ内の図形も最上位のアンカーの位置で検索する
+            for (DrawingScanner.Placed<HSSFSimpleShape> placed : DrawingScanner.hssfShapes(patriarch)) {
 
-                if (!(shape instanceof HSSFSimpleShape simpleShape)) continue;
+                HSSFSimpleShape simpleShape = placed.shape();
+                shapeCount++;
 
                 HSSFRichTextString rText = simpleShape.getString();
                 String text = (rText != null) ? rText.getString() : "";
-                if (!text.contains(searchWord)) continue;
-
-                String result = null;
-                if( replaceWord!=null && !replaceWord.isEmpty()){
-                    if(searchMode == SearchMode.FUZZY){
-                        //FUZZY
-                        Pattern pattern = Pattern.compile(searchWord);
-                        Matcher matcher = pattern.matcher(text);
-                        result = matcher.replaceAll(replaceWord);
-                    }else{
-                        //STRICT
-                        result = replaceWord;
-                    }
+                int[] found = matcher.find(text);
+                if (found.length == 0) continue;
+
+                // 置換文字列が空のキーワードでは置換しない
+                int[] replacing = IntStream.of(found).filter(id -> {
+                    String replacement = cond.keywords().get(id).replacement();
+                    return replacement != null && !replacement.isEmpty();
+                }).toArray();
+                String result = matcher.replace(text, replacing);
+                if( result!=null ){
                     // テキストボックスに文字列をセット
                     simpleShape.setString(new HSSFRichTextString(result));
                 }
 
-                HSSFAnchor anchor = shape.getAnchor();
-                if (!(anchor instanceof HSSFClientAnchor clientAnchor)) continue;
-
-                int row = clientAnchor.getRow1();
-                int col = clientAnchor.getCol1();
-
                 String sheetName = sheet.getSheetName();
-                appendRecord(
-                    fileIndex,
-                    sheet.getWorkbook().getSheetIndex(sheetName),
-                    -1,
-                    filePath,
-                    sheet.getSheetName(),
-                    ExcelUtils.convertCellPos(row, col),
-                    result,
-                    replaceWord
-                );
+                for (int id : found) {
+                    Keyword keyword = cond.keywords().get(id);
+                    hits.add(new Hit(
+                        fileIndex,
+                        sheet.getWorkbook().getSheetIndex(sheetName),
+                        -1,
+                        filePath,
+                        sheet.getSheetName(),
+                        ExcelUtils.convertCellPos(placed.row(), placed.col()),
+                        result,
+                        keyword.replacement(),
+                        keyword.word(),
+                        LocationType.SHAPE
+                    ));
+                }
             }
         }
 
-
+        return shapeCount;
     }
 
     /**
      *
      * @param cell Cell
-     * @param searchWord String search word
-     * @param replaceWord String replace word
-     * @param searchMode SearchMode mode
+     * @param original String セルの値
+     * @param found int[] 一致したキーワードの番号
      * @return String 置換した/しないときの実行した結果を返す
      */
-    private String replaceWord(Cell cell, String searchWord, String replaceWord, SearchMode searchMode){
+    private String replaceWord(Cell cell, String original, int[] found){
 
+        String result = matcher.replace(original, found);
         //置換ワードがない場合、何もしない
-        if(replaceWord == null)return "";
+        if(result == null)return "";
 
-        String result = replaceWord;
-
-        //モードで置換振り分け
-        if(searchMode == SearchMode.FUZZY){
-            //FUZZY
-            Pattern pattern = Pattern.compile(searchWord);
-            Matcher matcher = pattern.matcher(ExcelUtils.getStringValue(cell));
-            result = matcher.replaceAll(replaceWord);
-            cell.setCellValue(result);
-        }else{
-            //STRICT
-            cell.setCellValue(result);
-        }
+        cell.setCellValue(result);
         return result;
     }
 
@@ -0,0 +1,42 @@
+package jp.classicorange;
+
+import jp.classicorange.cache.ScanCache;
+import jp.classicorange.index.NgramIndex;
+import jp.classicorange.utils.CheckParameter;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * 検索が使う索引とキャッシュの取得元。
+ * <pre>
+ * 通常は実行ごとにファイルから読込む (FILES)。
+ * 常駐モード (ScanDaemon) では、読込んだ索引とキャッシュを実行をまたいでメモリに保持する。
+ * </pre>
+ */
+public interface SearchResources {
+
+    /** 実行ごとにファイルから読込む */
+    SearchResources FILES = new SearchResources() { };
+
+    /**
+     * 索引を取得する。
+     *
+     * @param indexPath 索引ファイル
+     * @return NgramIndex
+     */
+    default NgramIndex index(Path indexPath) throws IOException {
+        return NgramIndex.load(indexPath);
+    }
+
+    /**
+     * 検索条件に対応するキャッシュを取得する。検索の最後に save を呼ぶ。
+     *
+     * @param cacheDir キャッシュのディレクトリ
+     * @param cond 検索条件
+     * @return ScanCache
+     */
+    default ScanCache cache(Path cacheDir, CheckParameter.SearchCond cond) throws IOException {
+        return ScanCache.open(cacheDir, cond);
+    }
+}
@@ -0,0 +1,478 @@
+package jp.classicorange.cache;
+
+import jp.classicorange.matcher.Keyword;
+import jp.classicorange.scan.SheetFilter;
+import jp.classicorange.types.FormulaTarget;
+import jp.classicorange.types.LocationType;
+import jp.classicorange.utils.CheckParameter;
+import jp.classicorange.utils.entity.Hit;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * 前回の検索結果をファイルごとに保持し、変更のないファイルを読み直さないためのキャッシュ。
+ * <pre>
+ * 検索条件 (検索モード・キーワード・数式の検索対象) ごとに1つのキャッシュファイルを作り、
+ * ファイルごとに サイズ・更新日時・パートのハッシュ・検索結果 を保存する。
+ *
+ * 次回の判定は以下の順。
+ * ・サイズと更新日時が同じ : ヒット
+ * ・.xlsx で結果に関わるパートの CRC (ZIP の中央ディレクトリの値) が同じ : ヒット
+ * ・.xlsx で変わったのがシートのパート (xl/worksheets/sheetN.xml) だけ : 一部ヒット。変わったシートだけ読み直す
+ * ・.xls でファイル全体の CRC が同じ : ヒット
+ * ・それ以外 : ミス
+ * 共有文字列・ブック・図形・グラフ・コメントのパートが変わった場合は、シートの番号や文字列がずれうるため全体を読み直す。
+ *
+ * 走査スレッドから lookup / store を呼び、最後に呼出し元スレッドが save する。
+ * 今回の実行で見つからなかったファイルはキャッシュから消える。
+ * 常駐モードでは save の後に next で次の実行のキャッシュを作り、ファイルは読み直さない。
+ * </pre>
+ */
+public final class ScanCache {
+
+    private static final Logger log = LoggerFactory.getLogger(ScanCache.class);
+
+    /** ファイルの識別子 "XSCC" */
+    private static final int MAGIC = 0x58534343;
+    /**
+     * 版 (2 : グループ内の図形・グラフのタイトルも検索する。
+     * 3 : コメント・ヘッダー/フッター・入力規則も検索し、結果に場所の種類を持つ。古いキャッシュは使わない)
+     */
+    private static final int VERSION = 3;
+
+    private final Path cacheFile;
+    /** 前回の内容 (パス → エントリ) */
+    private final Map<String, Entry> previous;
+    /** 今回の内容 */
+    private final Map<String, Entry> current = new ConcurrentHashMap<>();
+
+    private final AtomicInteger hitCount = new AtomicInteger();
+    private final AtomicInteger partialCount = new AtomicInteger();
+    private final AtomicInteger missCount = new AtomicInteger();
+
+    /**
+     * ファイル1つ分のキャッシュ。
+     *
+     * @param size サイズ
+     * @param lastModified 更新日時
+     * @param parts パート名 → CRC (.xls は "" → ファイル全体の CRC)
+     * @param hits 検索結果 (fileIndex / filePath は使わない)
+     */
+    record Entry(long size, long lastModified, Map<String, Long> parts, List<Hit> hits) { }
+
+    private ScanCache(Path cacheFile, Map<String, Entry> previous) {
+        this.cacheFile = cacheFile;
+        this.previous = previous;
+    }
+
+    /**
+     * 検索条件に対応するキャッシュを読込む。ない場合や読めない場合は空のキャッシュになる。
+     *
+     * @param cacheDir キャッシュのディレクトリ
+     * @param cond 検索条件
+     * @return ScanCache
+     */
+    public static ScanCache open(Path cacheDir, CheckParameter.SearchCond cond) throws IOException {
+        Files.createDirectories(cacheDir);
+        Path cacheFile = cacheFile(cacheDir, cond);
+        Map<String, Entry> previous = new HashMap<>();
+        if (Files.exists(cacheFile)) {
+            try {
+                previous = read(cacheFile);
+            } catch (IOException e) {
+                log.warn("キャッシュを読込めません : {} {}", cacheFile, e.getMessage());
+            }
+        }
+        return new ScanCache(cacheFile, previous);
+    }
+
+    /**
+     * 今回の内容を前回の内容とする次の実行のキャッシュを作る。
+     * 常駐モード (ScanDaemon) で、キャッシュファイルを読み直さずに実行をまたいで使う。
+     * save の後に呼ぶ。
+     *
+     * @return 次の実行の ScanCache
+     */
+    public ScanCache next() {
+        return new ScanCache(cacheFile, new HashMap<>(current));
+    }
+
+    /**
+     * @param cacheDir キャッシュのディレクトリ
+     * @param cond 検索条件
+     * @return 検索条件に対応するキャッシュファイル
+     */
+    public static Path cacheFile(Path cacheDir, CheckParameter.SearchCond cond) {
+        return cacheDir.resolve(key(cond) + ".cache");
+    }
+
+    /**
+     * 結果に影響する検索条件からキャッシュのキーを作る。
+     */
+    static String key(CheckParameter.SearchCond cond) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(VERSION).append('\n').append(cond.searchMode()).append('\n');
+        for (Keyword keyword : cond.keywords()) {
+            sb.append(keyword.word()).append('\t').append(keyword.replacement()).append('\n');
+        }
+        // 既定 (数式の文字列・数値の既定の表記) の場合は、以前のキャッシュを使えるようにキーを変えない
+        if (cond.formula() != FormulaTarget.TEXT) {
+            sb.append("formula=").append(cond.formula()).append('\n');
+        }
+        if (cond.displayFormat()) {
+            sb.append("display-format\n");
+        }
+        if (!cond.scope().equals(CheckParameter.ScopeOptions.ALL)) {
+            sb.append("scope=").append(cond.scope()).append('\n');
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(sb.toString().getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 対象ファイルのキャッシュを調べる。走査スレッドから呼ばれる。
+     *
+     * @param file 対象ファイル
+     * @return 判定結果
+     */
+    public Lookup lookup(File file) {
+        Entry entry = previous.get(file.getAbsolutePath());
+        long size = file.length();
+        long lastModified = file.lastModified();
+        if (entry != null && entry.size() == size && entry.lastModified() == lastModified) {
+            return new Lookup(size, lastModified, entry.parts(), entry, Set.of(), Set.of());
+        }
+
+        Map<String, Long> parts = hashParts(file);
+        if (entry == null || parts.isEmpty()) {
+            return new Lookup(size, lastModified, parts, null, null, Set.of());
+        }
+        if (entry.parts().equals(parts)) {
+            return new Lookup(size, lastModified, parts, entry, Set.of(), Set.of());
+        }
+        // シートのパート以外が同じなら、変わったシートだけ読み直す
+        Map<String, Long> oldShared = new TreeMap<>(entry.parts());
+        Map<String, Long> newShared = new TreeMap<>(parts);
+        oldShared.keySet().removeIf(ScanCache::isSheetPart);
+        newShared.keySet().removeIf(ScanCache::isSheetPart);
+        if (!oldShared.equals(newShared) || !sheetParts(entry.parts()).equals(sheetParts(parts))) {
+            return new Lookup(size, lastModified, parts, null, null, Set.of());
+        }
+        Set<String> changed = new HashSet<>();
+        for (String name : sheetParts(parts)) {
+            if (!parts.get(name).equals(entry.parts().get(name))) changed.add("/" + name);
+        }
+        // 変わったシートの前回の結果は、読み直したかどうかによらず捨てるため、シートの番号を求めておく
+        List<String> order = sheetPartNames(file);
+        if (order == null) {
+            return new Lookup(size, lastModified, parts, null, null, Set.of());
+        }
+        Set<Integer> changedIndexes = new HashSet<>();
+        for (int i = 0; i < order.size(); i++) {
+            if (changed.contains(order.get(i))) changedIndexes.add(i);
+        }
+        return new Lookup(size, lastModified, parts, entry, changed, changedIndexes);
+    }
+
+    /**
+     * .xlsx のシートのパート名 (e.g. /xl/worksheets/sheet1.xml) をシートの順に返す。
+     * ブック (workbook.xml とそのリレーション) は前回と同じため、前回の結果のシートの番号と対応する。
+     *
+     * @return パート名。読めない場合は null
+     */
+    private static List<String> sheetPartNames(File file) {
+        try (OPCPackage pkg = OPCPackage.open(file, PackageAccess.READ)) {
+            List<String> names = new ArrayList<>();
+            XSSFReader.SheetIterator sheets = new XSSFReader(pkg).getSheetIterator();
+            while (sheets.hasNext()) {
+                // ストリームは開くだけで展開せずに閉じる
+                sheets.next().close();
+                names.add(sheets.getSheetPart().getPartName().getName());
+            }
+            return names;
+        } catch (Exception e) {
+            log.debug("シートの並びを読めません : {} {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 判定結果。
+     */
+    public final class Lookup {
+
+        private final long size;
+        private final long lastModified;
+        private final Map<String, Long> parts;
+        /** 再利用できる前回の結果 (ミスの場合は null) */
+        private final Entry cached;
+        /** 読み直すシートのパート名 (ミスの場合は null、ヒットの場合は空) */
+        private final Set<String> changedSheets;
+        /** 読み直すシートのインデックス (前回の結果を使わないシート) */
+        private final Set<Integer> changedSheetIndexes;
+
+        private Lookup(long size, long lastModified, Map<String, Long> parts, Entry cached,
+                       Set<String> changedSheets, Set<Integer> changedSheetIndexes) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.parts = parts;
+            this.cached = cached;
+            this.changedSheets = changedSheets;
+            this.changedSheetIndexes = changedSheetIndexes;
+        }
+
+        /**
+         * @return 読み直さずに前回の結果を使える場合 true
+         */
+        public boolean isHit() {
+            return cached != null && changedSheets.isEmpty();
+        }
+
+        /**
+         * 読込むシートの判定。ミスの場合はすべて、一部ヒットの場合は変わったシートだけを読む。
+         *
+         * @return 読込むシートの判定
+         */
+        public SheetFilter sheetFilter() {
+            if (cached == null) return SheetFilter.ALL;
+            return (sheetIndex, partName) -> changedSheets.contains(partName);
+        }
+
+        /**
+         * 今回読んだ結果と前回の結果を合わせ、キャッシュに保存する。
+         * 変わったシートの前回の結果は、読み直さなかった場合 (プレフィルタ・索引で除外した場合など) も使わない。
+         * 読込みエラーのファイルは前回の結果を残さないよう、呼ばずにおく (次回はミスになる)。
+         *
+         * @param fileIndex ファイルのインデックス
+         * @param file 対象ファイル
+         * @param parsed 今回読んだシートの結果 (ヒットの場合は空)
+         * @return ファイルの検索結果
+         */
+        public List<Hit> complete(int fileIndex, File file, List<Hit> parsed) {
+            String path = file.getAbsolutePath();
+            List<Hit> hits;
+            if (cached == null) {
+                missCount.incrementAndGet();
+                hits = parsed;
+            } else {
+                if (changedSheets.isEmpty()) hitCount.incrementAndGet();
+                else partialCount.incrementAndGet();
+                // 読み直さなかったシートは前回の結果。シートの順に並べる (シート内の順は保つ)
+                hits = new ArrayList<>(parsed);
+                for (Hit hit : cached.hits()) {
+                    if (changedSheetIndexes.contains(hit.sheetIndex())) continue;
+                    hits.add(withFile(hit, fileIndex, path));
+                }
+                hits.sort(Comparator.comparingInt(Hit::sheetIndex));
+            }
+            current.put(path, new Entry(size, lastModified, parts, hits));
+            return hits;
+        }
+    }
+
+    private static Hit withFile(Hit hit, int fileIndex, String filePath) {
+        return new Hit(fileIndex, hit.sheetIndex(), hit.cellIndex(), filePath, hit.sheetName(),
+            hit.position(), hit.value(), hit.replaced(), hit.keyword(), hit.location());
+    }
+
+    /**
+     * @return キャッシュのヒット数
+     */
+    public int hitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return 一部のシートだけ読み直したファイル数
+     */
+    public int partialCount() {
+        return partialCount.get();
+    }
+
+    /**
+     * @return キャッシュのミス数
+     */
+    public int missCount() {
+        return missCount.get();
+    }
+
+    /**
+     * 結果に影響するパートの CRC を求める。
+     * .xlsx は ZIP の中央ディレクトリの値を使うため展開しない。.xls はファイル全体の CRC。
+     *
+     * @param file 対象ファイル
+     * @return パート名 → CRC。読めない場合は空
+     */
+    static Map<String, Long> hashParts(File file) {
+        Map<String, Long> parts = new TreeMap<>();
+        if (file.getName().endsWith(".xlsx")) {
+            try (ZipFile zip = new ZipFile(file)) {
+                Enumeration<? extends ZipEntry> entries = zip.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    if (isResultPart(entry.getName())) parts.put(entry.getName(), entry.getCrc());
+                }
+            } catch (IOException e) {
+                return Map.of();
+            }
+        } else {
+            CRC32 crc = new CRC32();
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(file.toPath()))) {
+                byte[] buf = new byte[64 * 1024];
+                int n;
+                while ((n = in.read(buf)) > 0) crc.update(buf, 0, n);
+            } catch (IOException e) {
+                return Map.of();
+            }
+            parts.put("", crc.getValue());
+        }
+        return parts;
+    }
+
+    /**
+     * 検索結果に影響するパートか。 (書式・テーマ・文書プロパティなどは対象外)
+     */
+    static boolean isResultPart(String name) {
+        return name.equals("xl/workbook.xml")
+            || name.equals("xl/_rels/workbook.xml.rels")
+            || name.equals("xl/sharedStrings.xml")
+            || name.startsWith("xl/worksheets/")
+            || name.startsWith("xl/drawings/")
+            || name.startsWith("xl/charts/")
+            || name.startsWith("xl/comments")
+            || name.startsWith("xl/threadedComments/");
+    }
+
+    static boolean isSheetPart(String name) {
+        return name.startsWith("xl/worksheets/sheet") && name.indexOf('/', "xl/worksheets/".length()) < 0;
+    }
+
+    private static Set<String> sheetParts(Map<String, Long> parts) {
+        Set<String> names = new TreeSet<>(parts.keySet());
+        names.removeIf(name -> !isSheetPart(name));
+        return names;
+    }
+
+    /**
+     * 今回の内容をキャッシュファイルに書込む。一時ファイルに書いてから置き換える。
+     */
+    public void save() throws IOException {
+        Path temp = cacheFile.resolveSibling(cacheFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(current.size());
+            for (Map.Entry<String, Entry> e : current.entrySet()) {
+                Entry entry = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeLong(entry.size());
+                out.writeLong(entry.lastModified());
+                out.writeInt(entry.parts().size());
+                for (Map.Entry<String, Long> part : entry.parts().entrySet()) {
+                    out.writeUTF(part.getKey());
+                    out.writeLong(part.getValue());
+                }
+                out.writeInt(entry.hits().size());
+                for (Hit hit : entry.hits()) {
+                    out.writeInt(hit.sheetIndex());
+                    out.writeInt(hit.cellIndex());
+                    writeString(out, hit.sheetName());
+                    writeString(out, hit.position());
+                    writeString(out, hit.value());
+                    writeString(out, hit.replaced());
+                    writeString(out, hit.keyword());
+                    writeString(out, hit.location().name());
+                }
+            }
+        }
+        Files.move(temp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static Map<String, Entry> read(Path cacheFile) throws IOException {
+        Map<String, Entry> entries = new HashMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cacheFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("キャッシュの形式が違います");
+            }
+            int fileCount = in.readInt();
+            for (int i = 0; i < fileCount; i++) {
+                String path = in.readUTF();
+                long size = in.readLong();
+                long lastModified = in.readLong();
+                int partCount = in.readInt();
+                Map<String, Long> parts = new TreeMap<>();
+                for (int j = 0; j < partCount; j++) {
+                    parts.put(in.readUTF(), in.readLong());
+                }
+                int hitCount = in.readInt();
+                List<Hit> hits = new ArrayList<>(hitCount);
+                for (int j = 0; j < hitCount; j++) {
+                    int sheetIndex = in.readInt();
+                    int cellIndex = in.readInt();
+                    hits.add(new Hit(-1, sheetIndex, cellIndex, path, readString(in), readString(in),
+                        readString(in), readString(in), readString(in),
+                        LocationType.valueOf(readString(in))));
+                }
+                entries.put(path, new Entry(size, lastModified, parts, hits));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * null を含む文字列を書込む。 (writeUTF は 64KB までのため長さ + UTF-8)
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) return null;
+        byte[] bytes = in.readNBytes(length);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
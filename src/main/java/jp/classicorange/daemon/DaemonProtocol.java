@@ -0,0 +1,230 @@
+package jp.classicorange.daemon;
+
+import jp.classicorange.utils.CheckParameter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 常駐プロセス (ScanDaemon) とクライアント (ScanClient) の間の通信の形式。
+ * <pre>
+ * 要求 (クライアント → 常駐プロセス) は UTF-8 の行。
+ *   ExcelSheetScan 2
+ *   トークン (DaemonToken のファイルの内容)
+ *   run または shutdown
+ *   引数の数
+ *   引数 (1行に1つ。\ と改行は \\ \n \r で表す)
+ * 応答 (常駐プロセス → クライアント) は「種別[TAB]内容」の行を続け、X の行で終わる。
+ *   M  メッセージ (System.out への出力)
+ *   R  結果の1行
+ *   E  エラーの内容
+ *   X  終了コード
+ * 1つの接続で1つの要求を処理する。
+ * 常駐プロセスはトークンを引数より先に確かめ、一致しない要求は残りを読まずに断る。
+ * 引数の数 (MAX_ARGS まで) と1行の長さ (MAX_LINE まで) を超える要求も断る。
+ * </pre>
+ */
+final class DaemonProtocol {
+
+    static final String HEADER = "ExcelSheetScan 2";
+    static final String RUN = "run";
+    static final String SHUTDOWN = "shutdown";
+
+    static final byte MESSAGE = 'M';
+    static final byte RESULT = 'R';
+    static final byte ERROR = 'E';
+    static final byte EXIT = 'X';
+
+    /** 要求の引数の数の上限 */
+    static final int MAX_ARGS = 1024;
+    /** 要求の1行のバイト数の上限 */
+    static final int MAX_LINE = 64 * 1024;
+
+    /**
+     * 要求。
+     *
+     * @param token トークン
+     * @param command run / shutdown
+     * @param args 検索・索引作成の引数
+     */
+    record Request(String token, String command, List<String> args) { }
+
+    private DaemonProtocol() {
+    }
+
+    /**
+     * @return 接続先のアドレス
+     */
+    static SocketAddress address(CheckParameter.DaemonCond cond) {
+        if (cond.socketPath() != null) {
+            return UnixDomainSocketAddress.of(Path.of(cond.socketPath()).toAbsolutePath());
+        }
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), cond.port());
+    }
+
+    /**
+     * 待ち受けを開始する。Unix ドメインソケットのファイルが残っている場合は消してから作り、
+     * 起動したユーザーだけが接続できるようにする。
+     */
+    static ServerSocketChannel bind(CheckParameter.DaemonCond cond) throws IOException {
+        ServerSocketChannel server;
+        if (cond.socketPath() != null) {
+            Files.deleteIfExists(Path.of(cond.socketPath()));
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        } else {
+            server = ServerSocketChannel.open();
+        }
+        try {
+            server.bind(address(cond));
+            if (cond.socketPath() != null) DaemonToken.restrictToOwner(Path.of(cond.socketPath()));
+        } catch (IOException e) {
+            server.close();
+            throw e;
+        }
+        return server;
+    }
+
+    static SocketChannel connect(CheckParameter.DaemonCond cond) throws IOException {
+        return SocketChannel.open(address(cond));
+    }
+
+    static void writeRequest(OutputStream out, Request request) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append(HEADER).append('\n')
+            .append(request.token()).append('\n')
+            .append(request.command()).append('\n')
+            .append(request.args().size()).append('\n');
+        for (String arg : request.args()) {
+            sb.append(escape(arg)).append('\n');
+        }
+        out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    /**
+     * 要求を読む。トークンはヘッダーの次の行で確かめ、一致しない場合は残りを読まない。
+     *
+     * @param token 常駐プロセスのトークン
+     * @throws IOException 形式が違う・トークンが一致しない・上限を超える要求の場合
+     */
+    static Request readRequest(InputStream in, String token) throws IOException {
+        if (!HEADER.equals(readText(in))) {
+            throw new IOException("要求の形式が違います");
+        }
+        String requestToken = readText(in);
+        if (!DaemonToken.matches(token, requestToken)) {
+            throw new IOException("トークンが一致しません");
+        }
+        String command = readText(in);
+        if (!RUN.equals(command) && !SHUTDOWN.equals(command)) {
+            throw new IOException("不明な要求です : " + command);
+        }
+        int count;
+        try {
+            count = Integer.parseInt(String.valueOf(readText(in)));
+        } catch (NumberFormatException e) {
+            throw new IOException("引数の数が読めません", e);
+        }
+        if (count < 0 || count > MAX_ARGS) {
+            throw new IOException("引数の数が範囲外です : " + count);
+        }
+        List<String> args = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String arg = readText(in);
+            if (arg == null) throw new IOException("要求が途中で切れました");
+            args.add(unescape(arg));
+        }
+        return new Request(requestToken, command, args);
+    }
+
+    /**
+     * 応答の1行を書く。内容の改行は空白にする。
+     */
+    static void writeFrame(OutputStream out, byte type, String text) throws IOException {
+        String line = text.replace('\r', ' ').replace('\n', ' ');
+        synchronized (out) {
+            out.write(type);
+            out.write('\t');
+            out.write(line.getBytes(StandardCharsets.UTF_8));
+            out.write('\n');
+        }
+    }
+
+    /**
+     * 改行までのバイト列を読む (改行は含まない)。
+     *
+     * @return 1行。終端の場合は null
+     */
+    static byte[] readLine(InputStream in) throws IOException {
+        return readLine(in, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 改行までのバイト列を読む (改行は含まない)。
+     *
+     * @param max 1行のバイト数の上限
+     * @return 1行。終端の場合は null
+     * @throws IOException 上限を超える場合
+     */
+    static byte[] readLine(InputStream in, int max) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') return line.toByteArray();
+            if (line.size() >= max) throw new IOException("要求の行が長すぎます");
+            line.write(b);
+        }
+        return (line.size() == 0) ? null : line.toByteArray();
+    }
+
+    private static String readText(InputStream in) throws IOException {
+        byte[] line = readLine(in, MAX_LINE);
+        return (line == null) ? null : new String(line, StandardCharsets.UTF_8);
+    }
+
+    static String escape(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                default -> sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    static String unescape(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                char next = s.charAt(++i);
+                sb.append(switch (next) {
+                    case 'n' -> '\n';
+                    case 'r' -> '\r';
+                    default -> next;
+                });
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,110 @@
+package jp.classicorange.daemon;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.AclEntry;
+import java.nio.file.attribute.AclEntryPermission;
+import java.nio.file.attribute.AclEntryType;
+import java.nio.file.attribute.AclFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.EnumSet;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * 常駐プロセスの要求に付ける合言葉 (トークン) のファイル。
+ * <pre>
+ * 常駐プロセスは起動するたびに乱数のトークンを作り、起動したユーザーだけが読めるファイルに書く
+ * (POSIX は 0600、Windows は所有者だけの ACL)。クライアントはファイルを読んで要求ごとに送り、
+ * 常駐プロセスはトークンが一致しない要求を処理しない。
+ * 同じ PC の別のユーザー・プロセスから、起動したユーザーの権限でファイルを置換・書込みさせないため。
+ * 終了時にファイルを消す。
+ * </pre>
+ */
+final class DaemonToken {
+
+    private static final Logger log = LoggerFactory.getLogger(DaemonToken.class);
+
+    /** トークンのバイト数 */
+    private static final int TOKEN_BYTES = 32;
+
+    private DaemonToken() {
+    }
+
+    /**
+     * 新しいトークンを作り、起動したユーザーだけが読めるファイルに書く。
+     *
+     * @param file トークンのファイル
+     * @return トークン
+     */
+    static String create(Path file) throws IOException {
+        byte[] random = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(random);
+        String token = HexFormat.of().formatHex(random);
+
+        Path dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        // 権限を絞ってから書き、置換える (書いている途中のファイルを他から読ませない)
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            restrictToOwner(tmp);
+            Files.writeString(tmp, token + "\n", StandardCharsets.US_ASCII);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        return token;
+    }
+
+    /**
+     * @param file トークンのファイル
+     * @return トークン
+     * @throws IOException ファイルがない・読めない場合
+     */
+    static String read(Path file) throws IOException {
+        return Files.readString(file, StandardCharsets.US_ASCII).trim();
+    }
+
+    /**
+     * @return 要求のトークンが一致する場合 true (比較の時間は内容によらない)
+     */
+    static boolean matches(String expected, String actual) {
+        if (actual == null) return false;
+        return MessageDigest.isEqual(expected.getBytes(StandardCharsets.US_ASCII),
+            actual.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * ファイルを所有者だけが読み書きできるようにする (POSIX は 0600、Windows は所有者だけの ACL)。
+     * どちらにも対応しないファイルシステムでは何もしない。
+     */
+    static void restrictToOwner(Path file) throws IOException {
+        PosixFileAttributeView posix = Files.getFileAttributeView(file, PosixFileAttributeView.class);
+        if (posix != null) {
+            posix.setPermissions(PosixFilePermissions.fromString("rw-------"));
+            return;
+        }
+        AclFileAttributeView acl = Files.getFileAttributeView(file, AclFileAttributeView.class);
+        if (acl != null) {
+            UserPrincipal owner = acl.getOwner();
+            AclEntry entry = AclEntry.newBuilder()
+                .setType(AclEntryType.ALLOW)
+                .setPrincipal(owner)
+                .setPermissions(EnumSet.allOf(AclEntryPermission.class))
+                .build();
+            acl.setAcl(List.of(entry));
+            return;
+        }
+        log.warn("ファイルの権限を所有者だけにできません : {}", file);
+    }
+}
@@ -0,0 +1,77 @@
+package jp.classicorange.daemon;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 書込まれたバイト列を行に分け、「種別[TAB]行」の応答として送信するストリーム。
+ * <pre>
+ * メッセージ (System.out) と結果で同じ接続を共有するため、1行ずつ接続のストリームに書く。
+ * flush では書きかけの行は送らず、接続のストリームだけを flush する。
+ * close では書きかけの行を送るが、接続のストリームは閉じない。
+ * </pre>
+ */
+final class FramedOutputStream extends OutputStream {
+
+    private final OutputStream out;
+    private final byte type;
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream(1024);
+
+    /**
+     * @param out 接続のストリーム (種別の異なる FramedOutputStream と共有してよい)
+     * @param type 応答の種別
+     */
+    FramedOutputStream(OutputStream out, byte type) {
+        this.out = out;
+        this.type = type;
+    }
+
+    @Override
+    public synchronized void write(int b) throws IOException {
+        if (b == '\n') {
+            emit();
+        } else {
+            line.write(b);
+        }
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        int start = off;
+        int end = off + len;
+        for (int i = off; i < end; i++) {
+            if (b[i] == '\n') {
+                line.write(b, start, i - start);
+                emit();
+                start = i + 1;
+            }
+        }
+        line.write(b, start, end - start);
+    }
+
+    private void emit() throws IOException {
+        int size = line.size();
+        // Windows の改行で書かれた場合も CR は送らない
+        byte[] bytes = line.toByteArray();
+        if (size > 0 && bytes[size - 1] == '\r') size--;
+        synchronized (out) {
+            out.write(type);
+            out.write('\t');
+            out.write(bytes, 0, size);
+            out.write('\n');
+        }
+        line.reset();
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (line.size() > 0) emit();
+        out.flush();
+    }
+}
@@ -0,0 +1,169 @@
+package jp.classicorange.daemon;
+
+import jp.classicorange.utils.CheckParameter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 常駐プロセス (ScanDaemon) に要求を送るクライアント。
+ * <pre>
+ * 引数は Main と同じ検索・置換・索引作成の引数に、接続先 (--socket / --port) を加えたもの。
+ * --shutdown の場合は常駐プロセスを終了させる。
+ * 要求には常駐プロセスが起動時に作ったトークンのファイル (--token-file) の内容を付ける。
+ * 常駐プロセスとは作業ディレクトリが異なるため、ディレクトリとファイルの引数は絶対パスにして送る。
+ * --format / --output / --results がない場合は TSV の結果を受取り、標準出力に書く。
+ * メッセージとエラーは標準エラー出力に書き、常駐プロセスの終了コードで終わる。
+ * </pre>
+ */
+public final class ScanClient {
+
+    /** 値がファイル・ディレクトリのオプション */
+    private static final Set<String> PATH_OPTIONS =
+        Set.of("cache", "index", "journal", "metrics", "output", "results", "words");
+    /** クライアントが使い、送信しないオプション */
+    private static final Set<String> CLIENT_OPTIONS = Set.of("socket", "port", "token-file", "shutdown");
+
+    private ScanClient() {
+    }
+
+    /**
+     * 要求を送り、応答を受取る。
+     *
+     * @param args 引数
+     * @return 終了コード
+     */
+    public static int run(String[] args) throws IOException {
+        CheckParameter.DaemonCond cond = CheckParameter.checkDaemonParameter(args);
+        boolean shutdown = false;
+        List<String> forward = new ArrayList<>();
+        for (String arg : args) {
+            String name = optionName(arg);
+            if (name != null && CLIENT_OPTIONS.contains(name)) {
+                if (name.equals("shutdown")) shutdown = true;
+                continue;
+            }
+            forward.add(arg);
+        }
+        String token;
+        try {
+            token = DaemonToken.read(Path.of(cond.tokenPath()));
+        } catch (IOException e) {
+            System.err.println("常駐プロセスのトークンを読めません : " + cond.tokenPath()
+                + " (serve で起動してください) " + e.getMessage());
+            return 2;
+        }
+        DaemonProtocol.Request request = shutdown
+            ? new DaemonProtocol.Request(token, DaemonProtocol.SHUTDOWN, List.of())
+            : new DaemonProtocol.Request(token, DaemonProtocol.RUN, requestArgs(forward));
+
+        SocketChannel channel;
+        try {
+            channel = DaemonProtocol.connect(cond);
+        } catch (IOException e) {
+            System.err.println("常駐プロセスに接続できません : " + DaemonProtocol.address(cond)
+                + " (serve で起動してください) " + e.getMessage());
+            return 2;
+        }
+        try (channel) {
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel));
+            DaemonProtocol.writeRequest(out, request);
+            return receive(new BufferedInputStream(Channels.newInputStream(channel), 64 * 1024));
+        }
+    }
+
+    /**
+     * 応答を X の行まで読み、結果を標準出力、メッセージとエラーを標準エラー出力に書く。
+     *
+     * @return 終了コード
+     */
+    private static int receive(InputStream in) throws IOException {
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        byte[] line;
+        while ((line = DaemonProtocol.readLine(in)) != null) {
+            if (line.length < 2 || line[1] != '\t') continue;
+            switch (line[0]) {
+                case DaemonProtocol.RESULT -> {
+                    stdout.write(line, 2, line.length - 2);
+                    stdout.write('\n');
+                }
+                case DaemonProtocol.MESSAGE, DaemonProtocol.ERROR -> {
+                    stdout.flush();
+                    stderr.write(line, 2, line.length - 2);
+                    stderr.write('\n');
+                    stderr.flush();
+                }
+                case DaemonProtocol.EXIT -> {
+                    stdout.flush();
+                    return Integer.parseInt(new String(line, 2, line.length - 2, StandardCharsets.UTF_8).trim());
+                }
+                default -> { }
+            }
+        }
+        stdout.flush();
+        System.err.println("常駐プロセスからの応答が途中で切れました");
+        return 2;
+    }
+
+    /**
+     * 送信する引数を作る。
+     * <pre>
+     * ・ディレクトリ (検索は第一引数、索引作成は第二引数) とファイルのオプションを絶対パスにする
+     * ・検索で --journal がない場合は、作業ディレクトリの replace.journal を指定する
+     * ・検索で結果の出力先の指定がない場合は --format=tsv で結果を受取る
+     * </pre>
+     */
+    static List<String> requestArgs(List<String> args) {
+        boolean index = !args.isEmpty() && args.getFirst().equals("index");
+        int dirParam = index ? 1 : 0;
+        List<String> result = new ArrayList<>(args.size() + 2);
+        boolean journal = false;
+        boolean output = false;
+        int param = 0;
+        for (String arg : args) {
+            String name = optionName(arg);
+            if (name == null) {
+                result.add(param++ == dirParam ? absolute(arg) : arg);
+                continue;
+            }
+            int eq = arg.indexOf('=');
+            if (PATH_OPTIONS.contains(name) && eq >= 0) {
+                result.add(arg.substring(0, eq + 1) + absolute(arg.substring(eq + 1)));
+            } else {
+                result.add(arg);
+            }
+            journal |= name.equals("journal");
+            output |= name.equals("format") || name.equals("output") || name.equals("results");
+        }
+        if (!index) {
+            if (!journal) result.add("--journal=" + absolute("replace.journal"));
+            if (!output) result.add("--format=tsv");
+        }
+        return result;
+    }
+
+    /**
+     * @return オプションの名前。オプションでない場合は null
+     */
+    private static String optionName(String arg) {
+        if (!arg.startsWith("--")) return null;
+        int eq = arg.indexOf('=');
+        return (eq < 0) ? arg.substring(2) : arg.substring(2, eq);
+    }
+
+    private static String absolute(String path) {
+        return Path.of(path).toAbsolutePath().normalize().toString();
+    }
+}
@@ -0,0 +1,185 @@
+package jp.classicorange.daemon;
+
+import jp.classicorange.IndexExcel;
+import jp.classicorange.SearchExcel;
+import jp.classicorange.utils.CheckParameter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 検索・置換の要求を受付ける常駐プロセス。
+ * <pre>
+ * JVM を起動したままにし、読込んだ索引と前回の検索結果のキャッシュ (WarmResources) をメモリに保持する。
+ * JIT で最適化されたコードも実行をまたいで使われるため、同じ検索を繰返す場合に起動と読込みの時間がかからない。
+ *
+ * 待ち受けはループバック (127.0.0.1) の TCP か Unix ドメインソケット (--socket) だけ。
+ * 要求は起動したユーザーの権限でファイルを置換・書込むため、起動時に作るトークン (DaemonToken) が
+ * 一致する要求だけを処理する (同じ PC の別のユーザー・プロセスからの要求は断る)。
+ * 要求は ScanClient から受付け (形式は DaemonProtocol)、1つずつ処理する。
+ * 要求を読む時間には期限 (READ_TIMEOUT_SECONDS) を設け、送信しない接続で待ち受けが止まらないようにする。
+ * 1つの要求の中では --threads の通りに並列で走査する。
+ *
+ * 要求の引数は Main と同じ (第一引数が index の場合は索引の作成、それ以外は検索・置換)。
+ * 処理中の System.out は要求元に送信し、--output / --results がない場合の結果は
+ * ファイルに書かずに要求元に送信する。
+ * shutdown の要求で終了する。
+ * </pre>
+ */
+public final class ScanDaemon {
+
+    private static final Logger log = LoggerFactory.getLogger(ScanDaemon.class);
+
+    /** 接続から要求を読み終えるまでの期限 (秒) */
+    private static final long READ_TIMEOUT_SECONDS = 10;
+
+    private final CheckParameter.DaemonCond cond;
+    private final WarmResources resources = new WarmResources();
+    /** 期限を過ぎた接続を閉じる */
+    private final ScheduledExecutorService deadlines = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "daemon-deadline");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /** 要求に付けるトークン */
+    private String token;
+    private boolean running = true;
+
+    private ScanDaemon(CheckParameter.DaemonCond cond) {
+        this.cond = cond;
+    }
+
+    /**
+     * 常駐プロセスを起動し、shutdown の要求まで待ち受ける。
+     *
+     * @param args 引数 (--socket=ファイル / --port=N)
+     */
+    public static void serve(String[] args) throws IOException {
+        new ScanDaemon(CheckParameter.checkDaemonParameter(args)).run();
+    }
+
+    private void run() throws IOException {
+        Path tokenFile = Path.of(cond.tokenPath());
+        try (ServerSocketChannel server = DaemonProtocol.bind(cond)) {
+            token = DaemonToken.create(tokenFile);
+            System.out.println("待ち受け：" + server.getLocalAddress());
+            System.out.println("トークン：" + tokenFile.toAbsolutePath());
+            while (running) {
+                try (SocketChannel channel = server.accept()) {
+                    handle(channel);
+                } catch (IOException | RuntimeException e) {
+                    // 1つの接続の失敗で待ち受けを止めない
+                    log.warn("接続エラー : {}", String.valueOf(e));
+                }
+            }
+        } finally {
+            deadlines.shutdownNow();
+            // 待ち受けられなかった場合は、起動中の別の常駐プロセスのトークンを消さない
+            if (token != null) Files.deleteIfExists(tokenFile);
+            if (cond.socketPath() != null) {
+                Files.deleteIfExists(Path.of(cond.socketPath()));
+            }
+        }
+        System.out.println("終了しました");
+    }
+
+    /**
+     * 1つの接続の要求を処理する。
+     */
+    private void handle(SocketChannel channel) throws IOException {
+        InputStream in = new BufferedInputStream(Channels.newInputStream(channel));
+        OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024);
+
+        DaemonProtocol.Request request;
+        ScheduledFuture<?> deadline = deadlines.schedule(() -> closeQuietly(channel),
+            READ_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        try {
+            request = DaemonProtocol.readRequest(in, token);
+        } catch (IOException e) {
+            if (!channel.isOpen()) {
+                log.warn("要求を期限までに読めませんでした");
+                return;
+            }
+            log.warn("要求を断りました : {}", e.getMessage());
+            DaemonProtocol.writeFrame(out, DaemonProtocol.ERROR, e.getMessage());
+            DaemonProtocol.writeFrame(out, DaemonProtocol.EXIT, "2");
+            out.flush();
+            return;
+        } finally {
+            deadline.cancel(false);
+        }
+        if (request.command().equals(DaemonProtocol.SHUTDOWN)) {
+            running = false;
+            DaemonProtocol.writeFrame(out, DaemonProtocol.MESSAGE, "常駐プロセスを終了します");
+            DaemonProtocol.writeFrame(out, DaemonProtocol.EXIT, "0");
+            out.flush();
+            return;
+        }
+
+        long start = System.nanoTime();
+        int exitCode = 0;
+        PrintStream console = System.out;
+        FramedOutputStream results = new FramedOutputStream(out, DaemonProtocol.RESULT);
+        try (PrintStream messages = new PrintStream(
+            new FramedOutputStream(out, DaemonProtocol.MESSAGE), true, StandardCharsets.UTF_8)) {
+            System.setOut(messages);
+            try {
+                execute(request.args(), results);
+                resources.commit();
+            } catch (IllegalArgumentException e) {
+                exitCode = 1;
+                resources.rollback();
+                DaemonProtocol.writeFrame(out, DaemonProtocol.ERROR, String.valueOf(e.getMessage()));
+            } catch (Exception e) {
+                exitCode = 1;
+                resources.rollback();
+                log.error("要求の処理でエラー : {}", request.args(), e);
+                DaemonProtocol.writeFrame(out, DaemonProtocol.ERROR, String.valueOf(e));
+            } finally {
+                System.setOut(console);
+            }
+        }
+        results.close();
+        DaemonProtocol.writeFrame(out, DaemonProtocol.EXIT, String.valueOf(exitCode));
+        out.flush();
+        log.info("要求 : {} 終了コード {} {} ms ({})", request.args(), exitCode,
+            (System.nanoTime() - start) / 1_000_000, resources.describe());
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.debug("接続を閉じられません : {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Main と同じく、第一引数が index の場合は索引を作成し、それ以外は検索・置換する。
+     */
+    private void execute(List<String> args, OutputStream results) throws Exception {
+        String[] array = args.toArray(String[]::new);
+        if (!args.isEmpty() && args.getFirst().equals("index")) {
+            new IndexExcel().index(array);
+            return;
+        }
+        new SearchExcel(resources, results).search(array);
+    }
+}
@@ -0,0 +1,87 @@
+package jp.classicorange.daemon;
+
+import jp.classicorange.SearchResources;
+import jp.classicorange.cache.ScanCache;
+import jp.classicorange.index.NgramIndex;
+import jp.classicorange.utils.CheckParameter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 実行をまたいで索引とキャッシュを保持する SearchResources。
+ * <pre>
+ * 索引 : ファイルのサイズと更新日時が変わらない間は読込んだものを使う (index の再作成で読み直す)。
+ * キャッシュ : 検索条件ごとに、前回の実行の結果 (ScanCache.next) を次の実行の前回の内容にする。
+ *   キャッシュファイルは save で毎回書くが、読込むのは最初の1回だけ。
+ *   エントリはファイルごとにサイズ・更新日時・CRC で検証するため、他のプロセスが対象ファイルを変えてもよい。
+ * 要求は1つずつ処理するため、スレッドセーフでなくてよい。
+ * 要求が成功した場合は commit、失敗した場合は rollback を呼ぶ。
+ * </pre>
+ */
+final class WarmResources implements SearchResources {
+
+    /**
+     * 読込んだ索引。
+     *
+     * @param size 読込んだときのサイズ
+     * @param lastModified 読込んだときの更新日時
+     * @param index 索引
+     */
+    private record LoadedIndex(long size, long lastModified, NgramIndex index) { }
+
+    private final Map<Path, LoadedIndex> indexes = new HashMap<>();
+    /** キャッシュファイル → 次の実行で使うキャッシュ */
+    private final Map<Path, ScanCache> caches = new HashMap<>();
+    /** 実行中の要求に渡したキャッシュ */
+    private final Map<Path, ScanCache> lent = new HashMap<>();
+
+    @Override
+    public NgramIndex index(Path indexPath) throws IOException {
+        Path key = indexPath.toAbsolutePath().normalize();
+        long size = Files.size(key);
+        long lastModified = Files.getLastModifiedTime(key).toMillis();
+        LoadedIndex loaded = indexes.get(key);
+        if (loaded == null || loaded.size() != size || loaded.lastModified() != lastModified) {
+            loaded = new LoadedIndex(size, lastModified, NgramIndex.load(key));
+            indexes.put(key, loaded);
+        }
+        return loaded.index();
+    }
+
+    @Override
+    public ScanCache cache(Path cacheDir, CheckParameter.SearchCond cond) throws IOException {
+        Path key = ScanCache.cacheFile(cacheDir.toAbsolutePath().normalize(), cond);
+        ScanCache cache = caches.remove(key);
+        if (cache == null) {
+            cache = ScanCache.open(cacheDir, cond);
+        }
+        lent.put(key, cache);
+        return cache;
+    }
+
+    /**
+     * 要求が成功した場合に、渡したキャッシュの今回の内容を次の実行に引継ぐ。
+     */
+    void commit() {
+        lent.forEach((key, cache) -> caches.put(key, cache.next()));
+        lent.clear();
+    }
+
+    /**
+     * 要求が失敗した場合に、渡したキャッシュを捨てる (次の実行はキャッシュファイルから読込む)。
+     */
+    void rollback() {
+        lent.clear();
+    }
+
+    /**
+     * @return 保持している索引とキャッシュの数
+     */
+    String describe() {
+        return "索引 " + indexes.size() + " / キャッシュ " + caches.size();
+    }
+}
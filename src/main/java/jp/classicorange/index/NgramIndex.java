@@ -0,0 +1,381 @@
+package jp.classicorange.index;
+
+import jp.classicorange.utils.entity.CellText;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * セル・シェイプの文字列の 2-gram (bigram) 転置索引。
+ * <pre>
+ * 2文字ごとの組から、それを含むセルの一覧 (ファイル, シート, 行, 列) を引けるようにする。
+ * 日本語のように単語の区切りがない文字列でも、2文字以上の検索文字列なら部分一致の候補を絞込める。
+ * 大文字・小文字は畳み込んで登録するため、IGNORE_CASE の検索にも使える。
+ *
+ * 候補は「検索文字列のすべての 2-gram を同じセルが含む」ことで判定するので、
+ * 誤って候補にすることはあるが、誤って除外することはない。
+ * 索引作成後に追加・変更されたファイル (サイズ・更新日時で判定) は常に候補とする。
+ *
+ * ファイル形式 (ビッグエンディアン)
+ *   int 識別子, int 版, int ヘッダー長, ヘッダー, 出現位置の並び
+ *   ヘッダー : ファイル数, (パス, サイズ, 更新日時) の並び, 2-gram 数, 2-gram の並び, 出現位置の開始位置の並び
+ *   出現位置 : 件数, セル番号の差分 (可変長整数)
+ * 出現位置の並びはメモリマップして必要な 2-gram の分だけ読む。
+ * </pre>
+ */
+public final class NgramIndex {
+
+    /** ファイルの識別子 "XSIX" */
+    private static final int MAGIC = 0x58534958;
+    /**
+     * 版 (2 : 数式のセルの計算結果も登録する。3 : 数値の表示形式の文字列も登録する。
+     * 4 : グループ内の図形・グラフのタイトルも登録する。
+     * 5 : コメント・入力規則・ヘッダー/フッターも登録する。古い索引は作り直す)
+     */
+    private static final int VERSION = 5;
+
+    /** セル番号のビット数 */
+    private static final int COL_BITS = 14;
+    private static final int ROW_BITS = 20;
+    private static final int SHEET_BITS = 10;
+    private static final int FILE_BITS = 19;
+
+    /** 登録したファイル */
+    private final List<IndexedFile> files;
+    /** パス → ファイル番号 */
+    private final Map<String, Integer> fileIds = new HashMap<>();
+    /** 2-gram (昇順) */
+    private final int[] keys;
+    /** 2-gram ごとの出現位置の開始位置 (keys.length + 1 個) */
+    private final long[] offsets;
+    /** 出現位置の並び */
+    private final ByteBuffer postings;
+
+    /**
+     * 索引に登録したファイル。
+     *
+     * @param path 絶対パス
+     * @param size サイズ
+     * @param lastModified 更新日時
+     */
+    record IndexedFile(String path, long size, long lastModified) {
+
+        static IndexedFile of(File file) {
+            return new IndexedFile(file.getAbsolutePath(), file.length(), file.lastModified());
+        }
+    }
+
+    private NgramIndex(List<IndexedFile> files, int[] keys, long[] offsets, ByteBuffer postings) {
+        this.files = files;
+        this.keys = keys;
+        this.offsets = offsets;
+        this.postings = postings;
+        for (int i = 0; i < files.size(); i++) {
+            fileIds.put(files.get(i).path(), i);
+        }
+    }
+
+    /**
+     * 索引ファイルを読込む。
+     *
+     * @param path 索引ファイル
+     * @return NgramIndex
+     */
+    public static NgramIndex load(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer head = ByteBuffer.allocate(12);
+            while (head.hasRemaining() && channel.read(head) >= 0) { }
+            head.flip();
+            if (head.remaining() < 12 || head.getInt() != MAGIC || head.getInt() != VERSION) {
+                throw new IOException("索引ファイルの形式が違います (index で作り直してください) : " + path);
+            }
+            int headerLength = head.getInt();
+            ByteBuffer header = ByteBuffer.allocate(headerLength);
+            while (header.hasRemaining() && channel.read(header) >= 0) { }
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(header.array()));
+            int fileCount = in.readInt();
+            List<IndexedFile> files = new ArrayList<>(fileCount);
+            for (int i = 0; i < fileCount; i++) {
+                files.add(new IndexedFile(in.readUTF(), in.readLong(), in.readLong()));
+            }
+            int keyCount = in.readInt();
+            int[] keys = new int[keyCount];
+            for (int i = 0; i < keyCount; i++) keys[i] = in.readInt();
+            long[] offsets = new long[keyCount + 1];
+            for (int i = 0; i <= keyCount; i++) offsets[i] = in.readLong();
+
+            long start = 12L + headerLength;
+            ByteBuffer postings = channel.map(FileChannel.MapMode.READ_ONLY, start, channel.size() - start);
+            return new NgramIndex(files, keys, offsets, postings);
+        }
+    }
+
+    /**
+     * @return 登録したファイル数
+     */
+    public int fileCount() {
+        return files.size();
+    }
+
+    /**
+     * 検索文字列を含みうるファイルを返す。
+     *
+     * @param words 検索文字列 (いずれかを含むファイルが候補)
+     * @return 候補のファイル番号。2文字未満の検索文字列があり索引で判定できない場合は null
+     */
+    public Candidates candidates(List<String> words) {
+        BitSet result = new BitSet();
+        Map<Integer, BitSet> sheets = new HashMap<>();
+        for (String word : words) {
+            if (word.length() < 2) return null;
+            long[] cells = null;
+            for (int key : bigrams(word)) {
+                long[] next = postings(key);
+                cells = (cells == null) ? next : intersect(cells, next);
+                if (cells.length == 0) break;
+            }
+            for (long cell : cells) {
+                int fileId = (int) (cell >>> (COL_BITS + ROW_BITS + SHEET_BITS));
+                result.set(fileId);
+                sheets.computeIfAbsent(fileId, id -> new BitSet())
+                    .set((int) (cell >>> (COL_BITS + ROW_BITS)) & ((1 << SHEET_BITS) - 1));
+            }
+        }
+        return new Candidates(result, sheets);
+    }
+
+    /**
+     * 索引で求めた候補ファイル。
+     */
+    public final class Candidates {
+
+        private final BitSet fileIds;
+        /** ファイル番号 → 候補のシートのインデックス */
+        private final Map<Integer, BitSet> sheets;
+
+        private Candidates(BitSet fileIds, Map<Integer, BitSet> sheets) {
+            this.fileIds = fileIds;
+            this.sheets = sheets;
+        }
+
+        /**
+         * @param file 対象ファイル
+         * @return 候補の場合 true。索引にない、または索引作成後に変更されたファイルも true
+         */
+        public boolean mayContain(File file) {
+            Integer id = NgramIndex.this.fileIds.get(file.getAbsolutePath());
+            if (id == null || !files.get(id).equals(IndexedFile.of(file))) return true;
+            return fileIds.get(id);
+        }
+
+        /**
+         * @param file 対象ファイル
+         * @return 候補のシートのインデックス。索引にない、または索引作成後に変更されたファイルは null (すべてが候補)
+         */
+        public BitSet sheets(File file) {
+            Integer id = NgramIndex.this.fileIds.get(file.getAbsolutePath());
+            if (id == null || !files.get(id).equals(IndexedFile.of(file))) return null;
+            return sheets.getOrDefault(id, new BitSet());
+        }
+    }
+
+    /**
+     * 2-gram の出現位置 (セル番号の昇順) を読む。
+     */
+    private long[] postings(int key) {
+        int i = Arrays.binarySearch(keys, key);
+        if (i < 0) return new long[0];
+        ByteBuffer buf = postings.duplicate();
+        buf.position((int) offsets[i]);
+        int count = (int) readVarLong(buf);
+        long[] cells = new long[count];
+        long cell = 0;
+        for (int j = 0; j < count; j++) {
+            cell += readVarLong(buf);
+            cells[j] = cell;
+        }
+        return cells;
+    }
+
+    private static long[] intersect(long[] a, long[] b) {
+        long[] out = new long[Math.min(a.length, b.length)];
+        int i = 0, j = 0, k = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) i++;
+            else if (a[i] > b[j]) j++;
+            else {
+                out[k++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(out, k);
+    }
+
+    /**
+     * 文字列の 2-gram (大文字・小文字を畳み込んだもの、重複なし)。
+     */
+    static int[] bigrams(String text) {
+        int[] keys = new int[Math.max(0, text.length() - 1)];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = (fold(text.charAt(i)) << 16) | fold(text.charAt(i + 1));
+        }
+        return Arrays.stream(keys).distinct().toArray();
+    }
+
+    /**
+     * 大文字・小文字を畳み込む。 String.equalsIgnoreCase と同じ規則。
+     */
+    private static char fold(char c) {
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    private static long readVarLong(ByteBuffer buf) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buf.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    /**
+     * 索引の作成。ファイル番号の順に add を呼び、最後に write する。
+     */
+    public static final class Writer {
+
+        private final List<IndexedFile> files = new ArrayList<>();
+        /** 2-gram → セル番号 */
+        private final Map<Integer, LongList> postings = new HashMap<>();
+
+        /**
+         * ファイル1つ分の文字列を登録する。
+         *
+         * @param file 対象ファイル
+         * @param texts セル・シェイプの文字列
+         */
+        public void add(File file, List<CellText> texts) {
+            int fileId = files.size();
+            if (fileId >= (1 << FILE_BITS)) {
+                throw new IllegalStateException("索引に登録できるファイル数を超えています : " + file);
+            }
+            files.add(IndexedFile.of(file));
+            for (CellText text : texts) {
+                if (text.sheetIndex() >= (1 << SHEET_BITS)) {
+                    throw new IllegalStateException("索引に登録できるシート数を超えています : " + file);
+                }
+                long cell = ((long) fileId << (COL_BITS + ROW_BITS + SHEET_BITS))
+                    | ((long) text.sheetIndex() << (COL_BITS + ROW_BITS))
+                    | ((long) text.row() << COL_BITS)
+                    | text.col();
+                for (int key : bigrams(text.text())) {
+                    postings.computeIfAbsent(key, k -> new LongList()).add(cell);
+                }
+            }
+        }
+
+        /**
+         * @return 登録したファイル数
+         */
+        public int fileCount() {
+            return files.size();
+        }
+
+        /**
+         * 索引ファイルに書込む。
+         *
+         * @param path 索引ファイル
+         */
+        public void write(Path path) throws IOException {
+            int[] keys = postings.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+
+            // 出現位置の並び
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            long[] offsets = new long[keys.length + 1];
+            for (int i = 0; i < keys.length; i++) {
+                offsets[i] = body.size();
+                long[] cells = postings.get(keys[i]).sortedDistinct();
+                writeVarLong(body, cells.length);
+                long prev = 0;
+                for (long cell : cells) {
+                    writeVarLong(body, cell - prev);
+                    prev = cell;
+                }
+            }
+            offsets[keys.length] = body.size();
+
+            // ヘッダー
+            ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+            DataOutputStream header = new DataOutputStream(headerBytes);
+            header.writeInt(files.size());
+            for (IndexedFile f : files) {
+                header.writeUTF(f.path());
+                header.writeLong(f.size());
+                header.writeLong(f.lastModified());
+            }
+            header.writeInt(keys.length);
+            for (int key : keys) header.writeInt(key);
+            for (long offset : offsets) header.writeLong(offset);
+            header.flush();
+
+            try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(path)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(headerBytes.size());
+                headerBytes.writeTo(out);
+                body.writeTo(out);
+            }
+        }
+
+        private static void writeVarLong(ByteArrayOutputStream out, long value) {
+            while ((value & ~0x7FL) != 0) {
+                out.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.write((int) value);
+        }
+    }
+
+    /**
+     * long の可変長配列。
+     */
+    private static final class LongList {
+
+        private long[] values = new long[4];
+        private int size;
+
+        void add(long value) {
+            // 同じセルの重複は末尾だけ確認 (セルは順に登録される)
+            if (size > 0 && values[size - 1] == value) return;
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        long[] sortedDistinct() {
+            long[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            return Arrays.stream(sorted).distinct().toArray();
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package jp.classicorange.journal;
+
+import jp.classicorange.matcher.Keyword;
+import jp.classicorange.types.FormulaTarget;
+import jp.classicorange.utils.AtomicFiles;
+import jp.classicorange.utils.CheckParameter;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Enumeration;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * 置換の進み具合をファイルごとに記録するジャーナル。
+ * <pre>
+ * 置換する実行では、ファイルごとに次の状態を1行ずつ追記する (タブ区切り、UTF-8)。
+ * ・PENDING  : 書込み開始。元のファイルのサイズ・更新日時
+ * ・WRITTEN  : 一時ファイルから元のファイルへの置換え (AtomicFiles) が完了。書込み後のサイズ・更新日時
+ * ・VERIFIED : 書込んだファイルが読めることを確認した。置換するものがなかったファイルもこの状態にする
+ * PENDING と WRITTEN はディスクへ書出してから次へ進むため、途中で止まってもどこまで進んだかが残る。
+ *
+ * --resume で再開する場合、ファイルごとに最後の状態で判定する。
+ * ・VERIFIED で、サイズ・更新日時が記録と同じ : 完了済みとしてスキップ
+ * ・WRITTEN、または PENDING でサイズ・更新日時が元と異なる (置換えの直後に止まった) : 検証できればスキップ
+ * ・PENDING でサイズ・更新日時が元のまま (置換え前に止まった) や記録がない : もう一度処理する
+ * 置換後の文字列が検索文字列を含む場合 (Jakarta → Jakarta City など) も、置換済みのファイルを二重に置換しない。
+ *
+ * 1行目は置換条件 (検索モード・キーワード・置換文字列・対象フォルダ・数式の検索対象・検索範囲) のキーで、
+ * 条件が異なるジャーナルからは再開しない。
+ * 走査スレッドから isDone / commit / done を呼ぶ。
+ * </pre>
+ */
+public final class ReplaceJournal implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplaceJournal.class);
+
+    /** 1行目の接頭辞 */
+    private static final String HEADER = "# ExcelSheetScan replace journal 1\t";
+
+    /**
+     * ファイルの状態
+     */
+    enum State { PENDING, WRITTEN, VERIFIED }
+
+    /**
+     * ファイルごとの最後の記録。
+     *
+     * @param state 状態
+     * @param size サイズ
+     * @param lastModified 更新日時
+     */
+    record Entry(State state, long size, long lastModified) {
+
+        boolean matches(File file) {
+            return size == file.length() && lastModified == file.lastModified();
+        }
+    }
+
+    private final Path journalFile;
+    private final FileChannel channel;
+    /** パス → 最後の記録 (再開の場合は前回の分を含む) */
+    private final Map<String, Entry> entries;
+    /** 完了済みでスキップしたファイル数 */
+    private final AtomicInteger skipped = new AtomicInteger();
+
+    private ReplaceJournal(Path journalFile, FileChannel channel, Map<String, Entry> entries) {
+        this.journalFile = journalFile;
+        this.channel = channel;
+        this.entries = entries;
+    }
+
+    /**
+     * ジャーナルを開く。
+     * 再開する場合は前回の記録を読込んで追記し、それ以外は新しく作る。
+     * 再開を指定してもジャーナルがない場合は、最初から実行する。
+     *
+     * @param journalFile ジャーナルファイル
+     * @param cond 検索条件
+     * @param resume 前回の続きから再開する場合 true
+     * @return ReplaceJournal
+     */
+    public static ReplaceJournal open(Path journalFile, CheckParameter.SearchCond cond, boolean resume)
+        throws IOException {
+        String header = HEADER + key(cond);
+        Map<String, Entry> entries = new ConcurrentHashMap<>();
+        boolean append = resume && Files.exists(journalFile);
+        if (resume && !append) {
+            System.out.println("ジャーナルがないため、最初から実行します：" + journalFile);
+        }
+        boolean tornLine = false;
+        if (append) {
+            String content = Files.readString(journalFile, StandardCharsets.UTF_8);
+            // 強制終了で最後の行が途中までの場合は、改行してから追記する (次の行とつながらないように)
+            tornLine = !content.isEmpty() && !content.endsWith("\n");
+            List<String> lines = content.lines().toList();
+            if (lines.isEmpty() || !lines.getFirst().equals(header)) {
+                throw new IllegalArgumentException("ジャーナルの置換条件が今回と異なるため再開できません : " + journalFile);
+            }
+            for (String line : lines.subList(1, lines.size())) {
+                read(line, entries);
+            }
+        }
+
+        Path parent = journalFile.toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+        FileChannel channel = append
+            ? FileChannel.open(journalFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND)
+            : FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        ReplaceJournal journal = new ReplaceJournal(journalFile, channel, entries);
+        if (!append) {
+            journal.write(header + "\n", true);
+        } else if (tornLine) {
+            journal.write("\n", true);
+        }
+        return journal;
+    }
+
+    /**
+     * 置換条件からジャーナルのキーを作る。
+     */
+    static String key(CheckParameter.SearchCond cond) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(Path.of(cond.searchDirPath()).toAbsolutePath().normalize()).append('\n');
+        sb.append(cond.searchMode()).append('\n');
+        for (Keyword keyword : cond.keywords()) {
+            sb.append(keyword.word()).append('\t').append(keyword.replacement()).append('\n');
+        }
+        // 置換する対象が変わる条件。既定の場合は、以前のジャーナルから再開できるようにキーを変えない
+        if (cond.formula() != FormulaTarget.TEXT) {
+            sb.append("formula=").append(cond.formula()).append('\n');
+        }
+        if (cond.displayFormat()) {
+            sb.append("display-format\n");
+        }
+        if (!cond.scope().equals(CheckParameter.ScopeOptions.ALL)) {
+            sb.append("scope=").append(cond.scope()).append('\n');
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(sb.toString().getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 1行を読込む。強制終了で途中までしか書かれていない行は無視する。
+     */
+    private static void read(String line, Map<String, Entry> entries) {
+        String[] cols = line.split("\t", 4);
+        if (cols.length < 4) return;
+        try {
+            entries.put(cols[3], new Entry(State.valueOf(cols[0]), Long.parseLong(cols[1]), Long.parseLong(cols[2])));
+        } catch (IllegalArgumentException e) {
+            log.debug("ジャーナルの行を読み飛ばします : {}", line);
+        }
+    }
+
+    /**
+     * 前回までに完了しているファイルかを返す。
+     * 置換えの直後に止まったファイルは、ここで検証して完了にする。
+     *
+     * @param file 対象ファイル
+     * @return 完了済みでスキップする場合 true
+     */
+    public boolean isDone(File file) throws IOException {
+        String path = file.getAbsolutePath();
+        Entry entry = entries.get(path);
+        if (entry == null) return false;
+        boolean done = switch (entry.state()) {
+            case VERIFIED -> entry.matches(file);
+            case WRITTEN -> entry.matches(file) && verified(file);
+            case PENDING -> !entry.matches(file) && verified(file);
+        };
+        if (done) {
+            skipped.incrementAndGet();
+            log.info("完了済みのためスキップ : {}", path);
+        }
+        return done;
+    }
+
+    /**
+     * 一時ファイル経由でファイルを置換え、状態を記録する。
+     *
+     * @param file 置換えるファイル
+     * @param writer 一時ファイルへの書込み
+     * @throws IOException 書込んだファイルが読めない場合
+     */
+    public void commit(Path file, AtomicFiles.Writer writer) throws Exception {
+        File target = file.toFile();
+        append(State.PENDING, target, true);
+        AtomicFiles.replace(file, writer);
+        append(State.WRITTEN, target, true);
+        if (!verify(target)) {
+            throw new IOException("書込んだファイルを読込めません : " + target.getAbsolutePath());
+        }
+        append(State.VERIFIED, target, false);
+    }
+
+    /**
+     * ファイルの処理が終わったことを記録する。置換えたファイルは commit で記録済み。
+     * 読込めなかったファイルには呼ばない (再開時にもう一度処理する)。
+     *
+     * @param file 対象ファイル
+     */
+    public void done(File file) throws IOException {
+        Entry entry = entries.get(file.getAbsolutePath());
+        if (entry != null && entry.state() == State.VERIFIED && entry.matches(file)) return;
+        append(State.VERIFIED, file, false);
+    }
+
+    /**
+     * @return 完了済みでスキップしたファイル数
+     */
+    public int skippedCount() {
+        return skipped.get();
+    }
+
+    /**
+     * @return ジャーナルファイル
+     */
+    public Path path() {
+        return journalFile;
+    }
+
+    /**
+     * 検証して VERIFIED を記録する。
+     */
+    private boolean verified(File file) throws IOException {
+        if (!verify(file)) {
+            log.warn("置換後のファイルを読込めないため、もう一度処理します : {}", file.getAbsolutePath());
+            return false;
+        }
+        append(State.VERIFIED, file, false);
+        return true;
+    }
+
+    /**
+     * 書込んだファイルが読めるかを調べる。
+     * .xlsx はすべてのエントリを展開して CRC を比べ、.xls は POIFS として開く。
+     *
+     * @param file 対象ファイル
+     * @return 読める場合 true
+     */
+    static boolean verify(File file) {
+        String name = file.getName();
+        try {
+            if (name.endsWith(".xlsx")) {
+                try (ZipFile zip = new ZipFile(file)) {
+                    byte[] buf = new byte[64 * 1024];
+                    Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+                    while (zipEntries.hasMoreElements()) {
+                        ZipEntry entry = zipEntries.nextElement();
+                        try (CheckedInputStream in = new CheckedInputStream(zip.getInputStream(entry), new CRC32())) {
+                            while (in.read(buf) >= 0) {
+                                // 読み捨てて CRC だけを求める
+                            }
+                            if (entry.getCrc() != -1 && in.getChecksum().getValue() != entry.getCrc()) return false;
+                        }
+                    }
+                }
+            } else if (name.endsWith(".xls")) {
+                try (POIFSFileSystem fs = new POIFSFileSystem(file, true)) {
+                    return fs.getRoot().hasEntry("Workbook") || fs.getRoot().hasEntry("Book");
+                }
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    private void append(State state, File file, boolean force) throws IOException {
+        String path = file.getAbsolutePath();
+        Entry entry = new Entry(state, file.length(), file.lastModified());
+        write(state + "\t" + entry.size() + "\t" + entry.lastModified() + "\t" + path + "\n", force);
+        entries.put(path, entry);
+    }
+
+    private synchronized void write(String line, boolean force) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+        if (force) channel.force(false);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.force(false);
+        channel.close();
+    }
+}
@@ -0,0 +1,293 @@
+package jp.classicorange.matcher;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.IntFunction;
+
+/**
+ * 複数のキーワードを1回の走査で検索する Aho-Corasick オートマトン。
+ * <pre>
+ * 文字 (char) 単位でも、UTF-8 のバイト単位でも作成できる。
+ * 文字単位の場合は大文字・小文字を区別しないこともできる (1文字ずつ畳み込むため位置はずれない)。
+ * 作成後は変更しないため、複数スレッドから同時に使用できる。
+ * 一致しない場合は割当てを行わない。
+ * </pre>
+ */
+public final class AhoCorasick {
+
+    /** 一致なし */
+    private static final int[] NONE = new int[0];
+
+    /** ノードごとの遷移文字 (昇順) */
+    private final int[][] symbols;
+    /** ノードごとの遷移先 (symbols と同じ並び) */
+    private final int[][] targets;
+    /** 失敗時の遷移先 */
+    private final int[] fail;
+    /** ノードで一致するキーワード番号 (失敗リンク先の分も含む) */
+    private final int[][] outputs;
+    /** キーワードの長さ (文字数またはバイト数) */
+    private final int[] lengths;
+    /** 大文字・小文字を区別しない */
+    private final boolean ignoreCase;
+
+    private AhoCorasick(List<int[]> words, boolean ignoreCase) {
+        this.ignoreCase = ignoreCase;
+        // トライ木を作成
+        List<Map<Integer, Integer>> trie = new ArrayList<>();
+        List<List<Integer>> own = new ArrayList<>();
+        trie.add(new TreeMap<>());
+        own.add(new ArrayList<>());
+        lengths = new int[words.size()];
+        for (int id = 0; id < words.size(); id++) {
+            int[] word = words.get(id);
+            lengths[id] = word.length;
+            int node = 0;
+            for (int symbol : word) {
+                Integer next = trie.get(node).get(symbol);
+                if (next == null) {
+                    next = trie.size();
+                    trie.add(new TreeMap<>());
+                    own.add(new ArrayList<>());
+                    trie.get(node).put(symbol, next);
+                }
+                node = next;
+            }
+            own.get(node).add(id);
+        }
+
+        int size = trie.size();
+        symbols = new int[size][];
+        targets = new int[size][];
+        for (int node = 0; node < size; node++) {
+            Map<Integer, Integer> edges = trie.get(node);
+            symbols[node] = edges.keySet().stream().mapToInt(Integer::intValue).toArray();
+            targets[node] = edges.values().stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        // 幅優先で失敗リンクと出力を作成
+        fail = new int[size];
+        outputs = new int[size][];
+        outputs[0] = toArray(own.get(0));
+        Deque<Integer> queue = new ArrayDeque<>();
+        for (int child : targets[0]) {
+            fail[child] = 0;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            int[] merged = merge(toArray(own.get(node)), outputs[fail[node]]);
+            outputs[node] = merged;
+            for (int i = 0; i < symbols[node].length; i++) {
+                int child = targets[node][i];
+                int f = fail[node];
+                int t;
+                while ((t = edge(f, symbols[node][i])) < 0 && f != 0) {
+                    f = fail[f];
+                }
+                fail[child] = (t >= 0 && t != child) ? t : 0;
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * 文字単位のオートマトンを作成する。
+     *
+     * @param words キーワード (空文字は不可)
+     * @return AhoCorasick
+     */
+    public static AhoCorasick ofChars(List<String> words) {
+        return ofChars(words, false);
+    }
+
+    /**
+     * 文字単位のオートマトンを作成する。
+     *
+     * @param words キーワード (空文字は不可)
+     * @param ignoreCase 大文字・小文字を区別しない場合 true
+     * @return AhoCorasick
+     */
+    public static AhoCorasick ofChars(List<String> words, boolean ignoreCase) {
+        List<int[]> list = new ArrayList<>();
+        for (String word : words) {
+            list.add(word.chars().map(c -> ignoreCase ? fold((char) c) : c).toArray());
+        }
+        return new AhoCorasick(list, ignoreCase);
+    }
+
+    /**
+     * UTF-8 のバイト単位のオートマトンを作成する。
+     *
+     * @param words キーワード (空文字は不可)
+     * @return AhoCorasick
+     */
+    public static AhoCorasick ofUtf8(List<String> words) {
+        List<int[]> list = new ArrayList<>();
+        for (String word : words) {
+            byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+            int[] symbols = new int[bytes.length];
+            for (int i = 0; i < bytes.length; i++) {
+                symbols[i] = bytes[i] & 0xFF;
+            }
+            list.add(symbols);
+        }
+        return new AhoCorasick(list, false);
+    }
+
+    /**
+     * @return キーワードの数
+     */
+    public int size() {
+        return lengths.length;
+    }
+
+    /**
+     * 次の状態を返す。ストリームを少しずつ読む場合に使う。
+     *
+     * @param state 現在の状態 (最初は 0)
+     * @param symbol 文字またはバイト (0-255)
+     * @return 次の状態
+     */
+    public int next(int state, int symbol) {
+        while (true) {
+            int t = edge(state, symbol);
+            if (t >= 0) return t;
+            if (state == 0) return 0;
+            state = fail[state];
+        }
+    }
+
+    /**
+     * @param state 状態
+     * @return その状態でいずれかのキーワードが一致している場合 true
+     */
+    public boolean isMatch(int state) {
+        return outputs[state].length > 0;
+    }
+
+    /**
+     * いずれかのキーワードを含むかを返す。
+     *
+     * @param text 検索対象
+     * @return 含む場合 true
+     */
+    public boolean matches(CharSequence text) {
+        int state = 0;
+        for (int i = 0, len = text.length(); i < len; i++) {
+            state = next(state, symbol(text.charAt(i)));
+            if (outputs[state].length > 0) return true;
+        }
+        return false;
+    }
+
+    /**
+     * 含まれるキーワードの番号を返す。
+     *
+     * @param text 検索対象
+     * @return キーワード番号 (昇順、重複なし)。一致しない場合は長さ0の共有配列
+     */
+    public int[] find(CharSequence text) {
+        int[] found = NONE;
+        int state = 0;
+        for (int i = 0, len = text.length(); i < len; i++) {
+            state = next(state, symbol(text.charAt(i)));
+            if (outputs[state].length > 0) {
+                found = (found.length == 0) ? outputs[state].clone() : merge(found, outputs[state]);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * 一致した箇所を置換する。
+     * <pre>
+     * 左端から、同じ位置では最も長いキーワードを優先し、重ならないように置換する。
+     * 置換文字列が null のキーワードはそのまま残す。
+     * </pre>
+     *
+     * @param text 対象
+     * @param replacement キーワード番号から置換文字列を返す関数
+     * @return 置換後の文字列
+     */
+    public String replace(CharSequence text, IntFunction<String> replacement) {
+        // 一致位置ごとに最も長いキーワード
+        Map<Integer, Integer> longestAt = new HashMap<>();
+        int state = 0;
+        for (int i = 0, len = text.length(); i < len; i++) {
+            state = next(state, symbol(text.charAt(i)));
+            for (int id : outputs[state]) {
+                int start = i + 1 - lengths[id];
+                Integer current = longestAt.get(start);
+                if (current == null || lengths[current] < lengths[id]) {
+                    longestAt.put(start, id);
+                }
+            }
+        }
+        if (longestAt.isEmpty()) return text.toString();
+
+        StringBuilder sb = new StringBuilder(text.length());
+        int pos = 0;
+        while (pos < text.length()) {
+            Integer id = longestAt.get(pos);
+            String rep = (id != null) ? replacement.apply(id) : null;
+            if (rep != null) {
+                sb.append(rep);
+                pos += lengths[id];
+            } else {
+                sb.append(text.charAt(pos++));
+            }
+        }
+        return sb.toString();
+    }
+
+    private int symbol(char c) {
+        return ignoreCase ? fold(c) : c;
+    }
+
+    /**
+     * 大文字・小文字を畳み込む。 String.equalsIgnoreCase と同じ規則。
+     */
+    private static char fold(char c) {
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    private int edge(int node, int symbol) {
+        int i = Arrays.binarySearch(symbols[node], symbol);
+        return i >= 0 ? targets[node][i] : -1;
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        return list.isEmpty() ? NONE : list.stream().mapToInt(Integer::intValue).sorted().toArray();
+    }
+
+    /**
+     * 昇順の配列2つを重複なしで結合する。
+     */
+    private static int[] merge(int[] a, int[] b) {
+        if (b.length == 0) return a;
+        if (a.length == 0) return b;
+        int[] out = new int[a.length + b.length];
+        int i = 0, j = 0, k = 0;
+        while (i < a.length || j < b.length) {
+            int v;
+            if (j >= b.length || (i < a.length && a[i] < b[j])) {
+                v = a[i++];
+            } else if (i >= a.length || b[j] < a[i]) {
+                v = b[j++];
+            } else {
+                v = a[i++];
+                j++;
+            }
+            out[k++] = v;
+        }
+        return k == out.length ? out : Arrays.copyOf(out, k);
+    }
+}
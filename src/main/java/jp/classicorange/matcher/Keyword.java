@@ -0,0 +1,9 @@
+package jp.classicorange.matcher;
+
+/**
+ * 検索キーワード。
+ *
+ * @param word 検索文字列
+ * @param replacement 置換文字列 (置換しない場合は null)
+ */
+public record Keyword(String word, String replacement) { }
@@ -0,0 +1,60 @@
+package jp.classicorange.matcher;
+
+import java.util.List;
+
+/**
+ * 文字列を含むかで判定する照合器。 (FUZZY / IGNORE_CASE)
+ * <pre>
+ * 全キーワードを1つの Aho-Corasick にまとめ、1回の走査で判定する。
+ * 置換は左端から、同じ位置では長いキーワードを優先して1回で行う。
+ * </pre>
+ */
+final class LiteralMatcher implements TextMatcher {
+
+    private final List<Keyword> keywords;
+    private final AhoCorasick automaton;
+    private final boolean mayMatchNumber;
+    private final List<String> words;
+    private final boolean ignoreCase;
+
+    LiteralMatcher(List<Keyword> keywords, boolean ignoreCase) {
+        this.keywords = keywords;
+        this.words = keywords.stream().map(Keyword::word).toList();
+        this.ignoreCase = ignoreCase;
+        this.automaton = AhoCorasick.ofChars(words, ignoreCase);
+        this.mayMatchNumber = words.stream().anyMatch(w -> NumberText.mayMatch(w, ignoreCase));
+    }
+
+    @Override
+    public boolean matches(String text) {
+        return automaton.matches(text);
+    }
+
+    @Override
+    public int[] find(String text) {
+        return automaton.find(text);
+    }
+
+    @Override
+    public String replace(String text, int[] found) {
+        boolean replaces = false;
+        for (int id : found) {
+            if (keywords.get(id).replacement() != null) {
+                replaces = true;
+                break;
+            }
+        }
+        if (!replaces) return null;
+        return automaton.replace(text, id -> keywords.get(id).replacement());
+    }
+
+    @Override
+    public boolean mayMatchNumber() {
+        return mayMatchNumber;
+    }
+
+    @Override
+    public boolean mayMatchFormatted(String formatString) {
+        return words.stream().anyMatch(w -> NumberText.mayMatchFormatted(w, ignoreCase, formatString));
+    }
+}
@@ -0,0 +1,64 @@
+package jp.classicorange.matcher;
+
+/**
+ * 数値・真偽値のセルを文字列にしたときの判定。
+ * <pre>
+ * ExcelUtils.getStringValue は数値を String.valueOf(double)、
+ * 真偽値を true / false にするため、それ以外の文字を含む検索文字列は一致しない。
+ * 表示形式で書式化する場合 (--display-format) は、数字・記号と表示形式に書かれた文字だけが現れる。
+ * </pre>
+ */
+final class NumberText {
+
+    /** 数値・真偽値を文字列にしたときに現れる文字 */
+    private static final String NUMBER_CHARS = "0123456789.-E";
+    /** 数値を表示形式で書式化したときに、表示形式の文字以外で現れる文字 (符号・区切り・指数) */
+    private static final String FORMATTED_CHARS = "0123456789.,-+E ";
+
+    private NumberText() { }
+
+    /**
+     * 数値・真偽値のセルが検索文字列を含みうるかを返す。
+     *
+     * @param word 検索文字列
+     * @param ignoreCase 大文字・小文字を区別しない場合 true
+     * @return 一致しうる場合 true
+     */
+    static boolean mayMatch(String word, boolean ignoreCase) {
+        String[] words = {"true", "false", "Infinity", "NaN"};
+        for (String w : words) {
+            if (ignoreCase ? containsIgnoreCase(w, word) : w.contains(word)) return true;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            char c = ignoreCase ? Character.toUpperCase(word.charAt(i)) : word.charAt(i);
+            if (NUMBER_CHARS.indexOf(c) < 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * 数値のセルを表示形式で書式化した文字列が検索文字列を含みうるかを返す。
+     *
+     * @param word 検索文字列
+     * @param ignoreCase 大文字・小文字を区別しない場合 true
+     * @param formatString 表示形式
+     * @return 一致しうる場合 true
+     */
+    static boolean mayMatchFormatted(String word, boolean ignoreCase, String formatString) {
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            if (FORMATTED_CHARS.indexOf(ignoreCase ? Character.toUpperCase(c) : c) >= 0) continue;
+            if (ignoreCase ? !containsIgnoreCase(formatString, String.valueOf(c)) : formatString.indexOf(c) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean containsIgnoreCase(String text, String word) {
+        for (int i = 0; i + word.length() <= text.length(); i++) {
+            if (text.regionMatches(true, i, word, 0, word.length())) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,74 @@
+package jp.classicorange.matcher;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 正規表現で判定する照合器。 (REGEX)
+ * <pre>
+ * Pattern は作成時に1回だけコンパイルする。
+ * Matcher はスレッドごとに1つ作って reset で使い回すため、セルごとの割当ては行わない。
+ * 置換は一致したキーワードの順に replaceAll する ($1 などのグループ参照が使える)。
+ * </pre>
+ */
+final class RegexMatcher implements TextMatcher {
+
+    private final List<Keyword> keywords;
+    private final Pattern[] patterns;
+    /** スレッドごとの Matcher (patterns と同じ並び) */
+    private final ThreadLocal<Matcher[]> matchers;
+
+    RegexMatcher(List<Keyword> keywords) {
+        this.keywords = keywords;
+        this.patterns = keywords.stream().map(k -> Pattern.compile(k.word())).toArray(Pattern[]::new);
+        this.matchers = ThreadLocal.withInitial(() ->
+            Arrays.stream(patterns).map(p -> p.matcher("")).toArray(Matcher[]::new));
+    }
+
+    @Override
+    public boolean matches(String text) {
+        Matcher[] ms = matchers.get();
+        for (Matcher m : ms) {
+            if (m.reset(text).find()) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public int[] find(String text) {
+        Matcher[] ms = matchers.get();
+        int[] found = NONE;
+        int count = 0;
+        for (int id = 0; id < ms.length; id++) {
+            if (!ms[id].reset(text).find()) continue;
+            if (found == NONE) found = new int[ms.length - id];
+            found[count++] = id;
+        }
+        return count == found.length ? found : Arrays.copyOf(found, count);
+    }
+
+    @Override
+    public String replace(String text, int[] found) {
+        Matcher[] ms = matchers.get();
+        String result = null;
+        for (int id : found) {
+            String replacement = keywords.get(id).replacement();
+            if (replacement == null) continue;
+            result = ms[id].reset(result == null ? text : result).replaceAll(replacement);
+        }
+        return result;
+    }
+
+    @Override
+    public boolean mayMatchNumber() {
+        // 正規表現からは判定できない
+        return true;
+    }
+
+    @Override
+    public boolean mayMatchFormatted(String formatString) {
+        return true;
+    }
+}
@@ -0,0 +1,88 @@
+package jp.classicorange.matcher;
+
+import jp.classicorange.types.SearchMode;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 検索モードごとの照合器。
+ * <pre>
+ * 実行ごとに1回だけ作成し、全ファイル・全セルで共有する。
+ * 判定と置換は同じ照合器で行い、一致しないセルでは割当てを行わない。
+ * キーワード番号は作成時に渡した keywords の並び。
+ * </pre>
+ */
+public interface TextMatcher {
+
+    /** 一致なし */
+    int[] NONE = new int[0];
+
+    /**
+     * @param text 検索対象
+     * @return いずれかのキーワードが一致する場合 true
+     */
+    boolean matches(String text);
+
+    /**
+     * @param text 検索対象
+     * @return 一致したキーワード番号 (昇順、重複なし)。一致しない場合は NONE
+     */
+    int[] find(String text);
+
+    /**
+     * exclude に含まれないキーワードのうち、一致したものを返す。
+     * 数式の文字列と計算結果の両方を検索する場合に、同じキーワードを2件にしないために使う。
+     *
+     * @param text 検索対象
+     * @param exclude 除くキーワード番号 (昇順)
+     * @return 一致したキーワード番号 (昇順、重複なし)。一致しない場合は NONE
+     */
+    default int[] findExcept(String text, int[] exclude) {
+        int[] found = find(text);
+        if (found.length == 0 || exclude.length == 0) return found;
+        return Arrays.stream(found).filter(id -> Arrays.binarySearch(exclude, id) < 0).toArray();
+    }
+
+    /**
+     * 一致したキーワードの置換文字列で置換する。
+     *
+     * @param text 対象
+     * @param found find で得たキーワード番号
+     * @return 置換後の文字列。置換文字列を持つキーワードがない場合は null
+     */
+    String replace(String text, int[] found);
+
+    /**
+     * 数値・真偽値のセル (String.valueOf(double) / true / false) が一致しうるかを返す。
+     *
+     * @return 一致しうる場合 true
+     */
+    boolean mayMatchNumber();
+
+    /**
+     * 数値のセルを表示形式 (--display-format) で文字列にしたときに一致しうるかを返す。
+     * 日付の表示形式は月名なども現れるため、呼出し側で判定する。
+     *
+     * @param formatString セルの表示形式 e.g. #,##0 / 0.00%
+     * @return 一致しうる場合 true
+     */
+    boolean mayMatchFormatted(String formatString);
+
+    /**
+     * 検索モードに応じた照合器を作成する。
+     *
+     * @param searchMode 検索モード
+     * @param keywords キーワード
+     * @return TextMatcher
+     * @throws java.util.regex.PatternSyntaxException REGEX で正規表現が不正な場合
+     */
+    static TextMatcher of(SearchMode searchMode, List<Keyword> keywords) {
+        return switch (searchMode) {
+            case FUZZY -> new LiteralMatcher(keywords, false);
+            case IGNORE_CASE -> new LiteralMatcher(keywords, true);
+            case STRICTLY -> new WholeCellMatcher(keywords);
+            case REGEX -> new RegexMatcher(keywords);
+        };
+    }
+}
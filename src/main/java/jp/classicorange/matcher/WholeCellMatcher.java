@@ -0,0 +1,67 @@
+package jp.classicorange.matcher;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 値全体がキーワードと一致するかで判定する照合器。 (STRICTLY)
+ * <pre>
+ * キーワードからキーワード番号へのハッシュ表を引くだけなので、キーワード数によらず一定。
+ * 置換は値全体を置換文字列にする。
+ * </pre>
+ */
+final class WholeCellMatcher implements TextMatcher {
+
+    private final List<Keyword> keywords;
+    /** キーワード → キーワード番号 (同じ文字列のキーワードはまとめる) */
+    private final Map<String, int[]> index = new HashMap<>();
+    private final boolean mayMatchNumber;
+
+    WholeCellMatcher(List<Keyword> keywords) {
+        this.keywords = keywords;
+        for (int id = 0; id < keywords.size(); id++) {
+            int[] ids = index.get(keywords.get(id).word());
+            if (ids == null) {
+                ids = new int[]{id};
+            } else {
+                ids = Arrays.copyOf(ids, ids.length + 1);
+                ids[ids.length - 1] = id;
+            }
+            index.put(keywords.get(id).word(), ids);
+        }
+        this.mayMatchNumber = keywords.stream().anyMatch(k -> NumberText.mayMatch(k.word(), false));
+    }
+
+    @Override
+    public boolean matches(String text) {
+        return index.containsKey(text);
+    }
+
+    @Override
+    public int[] find(String text) {
+        int[] ids = index.get(text);
+        // 呼出し側で変更されないよう複製して返す
+        return ids == null ? NONE : ids.clone();
+    }
+
+    @Override
+    public String replace(String text, int[] found) {
+        for (int id : found) {
+            String replacement = keywords.get(id).replacement();
+            if (replacement != null) return replacement;
+        }
+        return null;
+    }
+
+    @Override
+    public boolean mayMatchNumber() {
+        return mayMatchNumber;
+    }
+
+    @Override
+    public boolean mayMatchFormatted(String formatString) {
+        return index.keySet().stream().anyMatch(w -> NumberText.mayMatchFormatted(w, false, formatString));
+    }
+}
@@ -0,0 +1,149 @@
+package jp.classicorange.metrics;
+
+/**
+ * 1ファイルの処理時間と件数。
+ * <pre>
+ * 走査スレッドが段階ごとの時間・件数を記録し、結果の書込みと合計は書込みスレッドが記録する
+ * (走査の完了を Future で待ってから書込むため、同時には更新しない)。
+ * 時間は System.nanoTime() で測った開始時刻を add に渡す。
+ * </pre>
+ */
+public final class FileMetrics {
+
+    /**
+     * ファイルの読み方、または読まなかった理由。
+     */
+    public enum Route {
+        /** ブック全体を読込んだ */
+        DOM,
+        /** ストリーム読み */
+        STREAM,
+        /** .xlsx のパート単位の置換 */
+        PART_REPLACE,
+        /** プレフィルタで除外 */
+        PREFILTER,
+        /** 索引で除外 */
+        INDEX,
+        /** キャッシュの結果を使った */
+        CACHE,
+        /** ジャーナルで完了済み */
+        JOURNAL
+    }
+
+    private final String path;
+    private final long[] nanos = new long[Phase.values().length];
+    private long totalNanos;
+    private long bytesRead;
+    private long cells;
+    private long shapes;
+    private int hits;
+    private Route route;
+    private String error;
+
+    /**
+     * @param path 対象ファイルの絶対パス
+     */
+    public FileMetrics(String path) {
+        this.path = path;
+    }
+
+    /**
+     * 段階の時間を加える。
+     *
+     * @param phase 段階
+     * @param startNanos System.nanoTime() で測った開始時刻
+     */
+    public void add(Phase phase, long startNanos) {
+        nanos[phase.ordinal()] += System.nanoTime() - startNanos;
+    }
+
+    /**
+     * 段階の時間を加える。
+     *
+     * @param phase 段階
+     * @param elapsedNanos 経過時間
+     */
+    public void addNanos(Phase phase, long elapsedNanos) {
+        nanos[phase.ordinal()] += elapsedNanos;
+    }
+
+    /**
+     * ファイル全体の時間を加える。
+     *
+     * @param startNanos System.nanoTime() で測った開始時刻
+     */
+    public void addTotal(long startNanos) {
+        totalNanos += System.nanoTime() - startNanos;
+    }
+
+    public void addBytesRead(long bytes) {
+        bytesRead += bytes;
+    }
+
+    public void addCells(long count) {
+        cells += count;
+    }
+
+    public void addShapes(long count) {
+        shapes += count;
+    }
+
+    public void setHits(int count) {
+        hits = count;
+    }
+
+    public void setRoute(Route route) {
+        this.route = route;
+    }
+
+    /**
+     * 読込みエラーを記録する。
+     *
+     * @param message エラーの内容
+     */
+    public void setError(String message) {
+        error = (message == null) ? "" : message;
+    }
+
+    public String path() {
+        return path;
+    }
+
+    public long nanos(Phase phase) {
+        return nanos[phase.ordinal()];
+    }
+
+    public long totalNanos() {
+        return totalNanos;
+    }
+
+    public long bytesRead() {
+        return bytesRead;
+    }
+
+    public long cells() {
+        return cells;
+    }
+
+    public long shapes() {
+        return shapes;
+    }
+
+    public int hits() {
+        return hits;
+    }
+
+    /**
+     * @return 読み方 (記録されていない場合は null)
+     */
+    public Route route() {
+        return route;
+    }
+
+    /**
+     * @return 読込みエラーの内容 (エラーがない場合は null)
+     */
+    public String error() {
+        return error;
+    }
+}
@@ -0,0 +1,36 @@
+package jp.classicorange.metrics;
+
+/**
+ * 1ファイルの処理の段階。
+ * <pre>
+ * ストリーム読み (SAX / HSSF のイベント) は読込みと判定を同時に行うため、
+ * シートのセルを流す時間は CELL_SCAN に計上する。
+ * </pre>
+ */
+public enum Phase {
+    /** ファイル・ZIP / POIFS のコンテナを開く */
+    OPEN("open"),
+    /** ブック (DOM) の作成、ストリーム読みの場合は共有文字列の読込み */
+    PARSE("parse"),
+    /** セルの判定 */
+    CELL_SCAN("cellScan"),
+    /** シェイプの判定 */
+    SHAPE_SCAN("shapeScan"),
+    /** 置換したファイルの書込み (ジャーナルの記録と検証を含む) */
+    REPLACE_WRITE("replaceWrite"),
+    /** 結果の出力先への書込み */
+    RESULT_WRITE("resultWrite");
+
+    private final String key;
+
+    Phase(String key) {
+        this.key = key;
+    }
+
+    /**
+     * @return 集計 (JSON) の項目名
+     */
+    public String key() {
+        return key;
+    }
+}
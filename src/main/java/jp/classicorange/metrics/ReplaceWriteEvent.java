@@ -0,0 +1,36 @@
+package jp.classicorange.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * 置換したファイルの書込み (JFR のイベント)。一時ファイルへの書込み・置換え・確認まで。
+ */
+@Name("jp.classicorange.ReplaceWrite")
+@Label("置換の書込み")
+@Description("置換したファイルの書込み。route は DOM (ブック全体、パート数は -1) か PART_REPLACE (パート単位)")
+@Category({"ExcelSheetScan"})
+@StackTrace(false)
+public final class ReplaceWriteEvent extends jdk.jfr.Event {
+
+    @Label("ファイル")
+    public String filePath;
+
+    @Label("書込み方")
+    public String route;
+
+    @Label("書き直したパート数")
+    public int parts;
+
+    @Label("書込み前のサイズ")
+    @DataAmount
+    public long bytesBefore;
+
+    @Label("書込み後のサイズ")
+    @DataAmount
+    public long bytesAfter;
+}
@@ -0,0 +1,34 @@
+package jp.classicorange.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * 結果ファイルの保存 (JFR のイベント)。結果の出力先を閉じるまで (xlsx は閉じるときに書出す)。
+ */
+@Name("jp.classicorange.ResultSave")
+@Label("結果の保存")
+@Description("結果ファイルの保存")
+@Category({"ExcelSheetScan"})
+@StackTrace(false)
+public final class ResultSaveEvent extends jdk.jfr.Event {
+
+    /** 常駐モードで送信した場合は空 */
+    @Label("結果ファイル")
+    public String resultPath;
+
+    @Label("出力形式")
+    public String format;
+
+    @Label("件数")
+    public int hits;
+
+    /** 常駐モードで送信した場合は -1 */
+    @Label("サイズ")
+    @DataAmount
+    public long bytes;
+}
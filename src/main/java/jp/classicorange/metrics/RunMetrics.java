@@ -0,0 +1,208 @@
+package jp.classicorange.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * 1回の実行のファイルごとの計測結果を集め、JSON の集計を書出す。
+ * <pre>
+ * {"files":15,"wallMs":1234.5,"errors":0,
+ *  "routes":{"DOM":15},
+ *  "totals":{"bytesRead":..,"cells":..,"shapes":..,"hits":..},
+ *  "fileMs":{"count":15,"sum":..,"p50":..,"p90":..,"p99":..,"max":..},
+ *  "phasesMs":{"open":{...},"parse":{...},...},
+ *  "slowest":[{"path":"..","totalMs":..,"route":"DOM","bytesRead":..,"cells":..,"shapes":..,"hits":..,
+ *              "phasesMs":{"open":..,...},"error":null}],
+ *  "errorFiles":[{"path":"..","message":".."}]}
+ * </pre>
+ * 段階ごとのパーセンタイルは、その段階の時間が 0 でないファイルだけで求める (nearest-rank)。
+ * add は結果の書込みスレッドだけが呼ぶ。
+ */
+public final class RunMetrics {
+
+    private final List<FileMetrics> files = new ArrayList<>();
+
+    /**
+     * 処理が終わったファイルを加える。
+     */
+    public void add(FileMetrics metrics) {
+        files.add(metrics);
+    }
+
+    /**
+     * @return 読込みエラーになったファイル
+     */
+    public List<FileMetrics> errors() {
+        return files.stream().filter(f -> f.error() != null).toList();
+    }
+
+    /**
+     * 集計を JSON で書出す。
+     *
+     * @param file 出力先
+     * @param top 時間のかかったファイルを何件まで出すか
+     * @param wallNanos 実行全体の時間
+     */
+    public void write(Path file, int top, long wallNanos) throws IOException {
+        StringBuilder json = new StringBuilder(4096);
+        List<FileMetrics> errors = errors();
+        json.append("{\"files\":").append(files.size())
+            .append(",\"wallMs\":").append(ms(wallNanos))
+            .append(",\"errors\":").append(errors.size());
+
+        Map<FileMetrics.Route, Integer> routes = new EnumMap<>(FileMetrics.Route.class);
+        for (FileMetrics f : files) {
+            if (f.route() != null) routes.merge(f.route(), 1, Integer::sum);
+        }
+        json.append(",\"routes\":{");
+        String sep = "";
+        for (Map.Entry<FileMetrics.Route, Integer> e : routes.entrySet()) {
+            json.append(sep).append('"').append(e.getKey().name()).append("\":").append(e.getValue());
+            sep = ",";
+        }
+        json.append('}');
+
+        json.append(",\"totals\":{\"bytesRead\":").append(sum(FileMetrics::bytesRead))
+            .append(",\"cells\":").append(sum(FileMetrics::cells))
+            .append(",\"shapes\":").append(sum(FileMetrics::shapes))
+            .append(",\"hits\":").append(sum(FileMetrics::hits))
+            .append('}');
+
+        json.append(",\"fileMs\":");
+        distribution(json, FileMetrics::totalNanos);
+        json.append(",\"phasesMs\":{");
+        sep = "";
+        for (Phase phase : Phase.values()) {
+            json.append(sep).append('"').append(phase.key()).append("\":");
+            distribution(json, f -> f.nanos(phase));
+            sep = ",";
+        }
+        json.append('}');
+
+        json.append(",\"slowest\":[");
+        sep = "";
+        List<FileMetrics> slowest = files.stream()
+            .sorted(Comparator.comparingLong(FileMetrics::totalNanos).reversed())
+            .limit(top)
+            .toList();
+        for (FileMetrics f : slowest) {
+            json.append(sep);
+            file(json, f);
+            sep = ",";
+        }
+        json.append(']');
+
+        json.append(",\"errorFiles\":[");
+        sep = "";
+        for (FileMetrics f : errors) {
+            json.append(sep).append("{\"path\":");
+            quote(json, f.path());
+            json.append(",\"message\":");
+            quote(json, f.error());
+            json.append('}');
+            sep = ",";
+        }
+        json.append("]}\n");
+
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write(json.toString());
+        }
+    }
+
+    private long sum(ToLongFunction<FileMetrics> value) {
+        long total = 0;
+        for (FileMetrics f : files) total += value.applyAsLong(f);
+        return total;
+    }
+
+    /**
+     * 0 でない値の件数・合計・パーセンタイルを書く。
+     */
+    private void distribution(StringBuilder json, ToLongFunction<FileMetrics> value) {
+        long[] values = files.stream().mapToLong(value).filter(v -> v > 0).toArray();
+        Arrays.sort(values);
+        long total = 0;
+        for (long v : values) total += v;
+        json.append("{\"count\":").append(values.length)
+            .append(",\"sum\":").append(ms(total))
+            .append(",\"p50\":").append(ms(percentile(values, 50)))
+            .append(",\"p90\":").append(ms(percentile(values, 90)))
+            .append(",\"p99\":").append(ms(percentile(values, 99)))
+            .append(",\"max\":").append(ms(values.length == 0 ? 0 : values[values.length - 1]))
+            .append('}');
+    }
+
+    /**
+     * @param sorted 昇順の値
+     * @param p パーセント
+     * @return nearest-rank のパーセンタイル。値がない場合は 0
+     */
+    static long percentile(long[] sorted, int p) {
+        if (sorted.length == 0) return 0;
+        int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+
+    private static void file(StringBuilder json, FileMetrics f) {
+        json.append("{\"path\":");
+        quote(json, f.path());
+        json.append(",\"totalMs\":").append(ms(f.totalNanos()))
+            .append(",\"route\":").append(f.route() == null ? "null" : "\"" + f.route().name() + "\"")
+            .append(",\"bytesRead\":").append(f.bytesRead())
+            .append(",\"cells\":").append(f.cells())
+            .append(",\"shapes\":").append(f.shapes())
+            .append(",\"hits\":").append(f.hits())
+            .append(",\"phasesMs\":{");
+        String sep = "";
+        for (Phase phase : Phase.values()) {
+            json.append(sep).append('"').append(phase.key()).append("\":").append(ms(f.nanos(phase)));
+            sep = ",";
+        }
+        json.append("},\"error\":");
+        quote(json, f.error());
+        json.append('}');
+    }
+
+    private static String ms(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    private static void quote(StringBuilder json, String s) {
+        if (s == null) {
+            json.append("null");
+            return;
+        }
+        json.append('"');
+        for (int i = 0, len = s.length(); i < len; i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> json.append("\\\"");
+                case '\\' -> json.append("\\\\");
+                case '\n' -> json.append("\\n");
+                case '\r' -> json.append("\\r");
+                case '\t' -> json.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+                }
+            }
+        }
+        json.append('"');
+    }
+}
@@ -0,0 +1,30 @@
+package jp.classicorange.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * 1シートのシェイプの検索 (JFR のイベント)。
+ */
+@Name("jp.classicorange.ShapeScan")
+@Label("シェイプの検索")
+@Description("1シートのシェイプの検索")
+@Category({"ExcelSheetScan"})
+@StackTrace(false)
+public final class ShapeScanEvent extends jdk.jfr.Event {
+
+    @Label("ファイル")
+    public String filePath;
+
+    @Label("シート")
+    public String sheetName;
+
+    @Label("シェイプ数")
+    public long shapes;
+
+    @Label("ヒット件数")
+    public int hits;
+}
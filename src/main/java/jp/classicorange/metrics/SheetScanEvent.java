@@ -0,0 +1,33 @@
+package jp.classicorange.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * 1シートのセルの検索 (JFR のイベント)。
+ */
+@Name("jp.classicorange.SheetScan")
+@Label("シートの検索")
+@Description("1シートのセルの検索。ストリーム読みの場合、行数は -1")
+@Category({"ExcelSheetScan"})
+@StackTrace(false)
+public final class SheetScanEvent extends jdk.jfr.Event {
+
+    @Label("ファイル")
+    public String filePath;
+
+    @Label("シート")
+    public String sheetName;
+
+    @Label("行数")
+    public int rows;
+
+    @Label("セル数")
+    public long cells;
+
+    @Label("ヒット件数")
+    public int hits;
+}
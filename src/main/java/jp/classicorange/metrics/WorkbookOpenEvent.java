@@ -0,0 +1,29 @@
+package jp.classicorange.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * ブック全体の読込み (JFR のイベント)。コンテナを開いてからブックを作り終えるまで。
+ */
+@Name("jp.classicorange.WorkbookOpen")
+@Label("ブックの読込み")
+@Description("ブック全体 (DOM) の読込み")
+@Category({"ExcelSheetScan"})
+@StackTrace(false)
+public final class WorkbookOpenEvent extends jdk.jfr.Event {
+
+    @Label("ファイル")
+    public String filePath;
+
+    @Label("形式")
+    public String format;
+
+    @Label("ファイルサイズ")
+    @DataAmount
+    public long fileSize;
+}
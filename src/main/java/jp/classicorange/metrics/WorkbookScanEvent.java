@@ -0,0 +1,42 @@
+package jp.classicorange.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * 1ファイルの検索 (JFR のイベント)。キャッシュ・ジャーナルでスキップした場合も含む。
+ * 記録していない場合はほぼ無償 (値は shouldCommit() のときだけ設定する)。
+ */
+@Name("jp.classicorange.WorkbookScan")
+@Label("ブックの検索")
+@Description("1ファイルの検索・置換。route は読み方、または読まなかった理由")
+@Category({"ExcelSheetScan"})
+@StackTrace(false)
+public final class WorkbookScanEvent extends jdk.jfr.Event {
+
+    @Label("ファイル")
+    public String filePath;
+
+    @Label("読み方")
+    public String route;
+
+    @Label("ファイルサイズ")
+    @DataAmount
+    public long fileSize;
+
+    @Label("セル数")
+    public long cells;
+
+    @Label("シェイプ数")
+    public long shapes;
+
+    @Label("ヒット件数")
+    public int hits;
+
+    @Label("エラー")
+    public String error;
+}
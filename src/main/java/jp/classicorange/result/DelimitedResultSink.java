@@ -0,0 +1,79 @@
+package jp.classicorange.result;
+
+import jp.classicorange.utils.entity.Hit;
+
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * TSV / CSV の出力先。1行目は列名。
+ * <pre>
+ * TSV : 値の中のタブ・改行・\ は \t \n \r \\ で表し、1件が必ず1行になるようにする。
+ * CSV : RFC 4180 の通り、区切り・改行・" を含む値を " で囲む。Excel で文字化けしないよう BOM をつける。
+ * </pre>
+ */
+final class DelimitedResultSink extends TextResultSink {
+
+    private static final String[] HEADER = {"fileIndex", "sheetIndex", "cellIndex", "filePath",
+        "sheetName", "position", "value", "replaced", "keyword", "location"};
+
+    private final char separator;
+
+    DelimitedResultSink(WritableByteChannel channel, char separator) {
+        super(channel);
+        this.separator = separator;
+        if (separator == ',') buffer.append('\uFEFF');
+        for (int i = 0; i < HEADER.length; i++) {
+            if (i > 0) buffer.append(separator);
+            buffer.append(HEADER[i]);
+        }
+        buffer.append('\n');
+    }
+
+    @Override
+    protected void append(Hit hit) {
+        buffer.append(hit.fileIndex()).append(separator)
+            .append(hit.sheetIndex()).append(separator)
+            .append(hit.cellIndex()).append(separator);
+        value(hit.filePath());
+        buffer.append(separator);
+        value(hit.sheetName());
+        buffer.append(separator);
+        value(hit.position());
+        buffer.append(separator);
+        value(hit.value());
+        buffer.append(separator);
+        value(hit.replaced());
+        buffer.append(separator);
+        value(hit.keyword());
+        buffer.append(separator);
+        value(hit.location().name());
+        buffer.append('\n');
+    }
+
+    private void value(String s) {
+        if (s == null) return;
+        if (separator == '\t') {
+            for (int i = 0, len = s.length(); i < len; i++) {
+                char c = s.charAt(i);
+                switch (c) {
+                    case '\t' -> buffer.append("\\t");
+                    case '\n' -> buffer.append("\\n");
+                    case '\r' -> buffer.append("\\r");
+                    case '\\' -> buffer.append("\\\\");
+                    default -> buffer.append(c);
+                }
+            }
+        } else if (s.indexOf(separator) >= 0 || s.indexOf('"') >= 0
+            || s.indexOf('\n') >= 0 || s.indexOf('\r') >= 0) {
+            buffer.append('"');
+            for (int i = 0, len = s.length(); i < len; i++) {
+                char c = s.charAt(i);
+                if (c == '"') buffer.append('"');
+                buffer.append(c);
+            }
+            buffer.append('"');
+        } else {
+            buffer.append(s);
+        }
+    }
+}
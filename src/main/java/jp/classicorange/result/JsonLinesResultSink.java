@@ -0,0 +1,62 @@
+package jp.classicorange.result;
+
+import jp.classicorange.utils.entity.Hit;
+
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * JSON Lines の出力先。1行に1件のオブジェクトを書く。
+ * <pre>
+ * {"fileIndex":0,"sheetIndex":0,"cellIndex":0,"filePath":"...","sheetName":"...","position":"A1",
+ *  "value":"...","replaced":"","keyword":"...","location":"CELL"}
+ * 値がない項目は null。
+ * </pre>
+ */
+final class JsonLinesResultSink extends TextResultSink {
+
+    JsonLinesResultSink(WritableByteChannel channel) {
+        super(channel);
+    }
+
+    @Override
+    protected void append(Hit hit) {
+        buffer.append("{\"fileIndex\":").append(hit.fileIndex())
+            .append(",\"sheetIndex\":").append(hit.sheetIndex())
+            .append(",\"cellIndex\":").append(hit.cellIndex());
+        field("filePath", hit.filePath());
+        field("sheetName", hit.sheetName());
+        field("position", hit.position());
+        field("value", hit.value());
+        field("replaced", hit.replaced());
+        field("keyword", hit.keyword());
+        field("location", hit.location().name());
+        buffer.append("}\n");
+    }
+
+    private void field(String name, String s) {
+        buffer.append(",\"").append(name).append("\":");
+        if (s == null) {
+            buffer.append("null");
+            return;
+        }
+        buffer.append('"');
+        for (int i = 0, len = s.length(); i < len; i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> buffer.append("\\\"");
+                case '\\' -> buffer.append("\\\\");
+                case '\n' -> buffer.append("\\n");
+                case '\r' -> buffer.append("\\r");
+                case '\t' -> buffer.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        buffer.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        buffer.append(c);
+                    }
+                }
+            }
+        }
+        buffer.append('"');
+    }
+}
@@ -0,0 +1,66 @@
+package jp.classicorange.result;
+
+import jp.classicorange.types.ResultFormat;
+import jp.classicorange.utils.entity.Hit;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Path;
+
+/**
+ * 検索結果の出力先。
+ * <pre>
+ * 結果は呼出し元スレッドだけがファイル順に書込むため、実装はスレッドセーフでなくてよい。
+ * 列は fileIndex, sheetIndex, cellIndex, filePath, sheetName, position, value, replaced, keyword, location の順
+ * (XLSX はセルへのリンクの列を replaced と keyword の間に持つ)。location は見つかった場所の種類 (LocationType の名前)。
+ * </pre>
+ */
+public interface ResultSink extends AutoCloseable {
+
+    /**
+     * 検索結果 1件を書込む。
+     *
+     * @param hit 検索結果
+     */
+    void write(Hit hit) throws IOException;
+
+    /**
+     * 残りを書出してファイルを閉じる。
+     */
+    @Override
+    void close() throws IOException;
+
+    /**
+     * 出力形式に応じた出力先を開く。
+     *
+     * @param format 出力形式
+     * @param file 出力ファイル
+     * @param title 実行の見出し (XLSX のシート名に使う)
+     * @return 出力先
+     */
+    static ResultSink open(ResultFormat format, Path file, String title) throws IOException {
+        return switch (format) {
+            case XLSX -> XlsxResultSink.open(file, title);
+            case TSV -> new DelimitedResultSink(TextResultSink.openFile(file), '\t');
+            case CSV -> new DelimitedResultSink(TextResultSink.openFile(file), ',');
+            case JSONL -> new JsonLinesResultSink(TextResultSink.openFile(file));
+        };
+    }
+
+    /**
+     * テキスト形式の出力先をストリームに開く。常駐モード (ScanDaemon) で結果を送信する場合に使う。
+     *
+     * @param format 出力形式 (XLSX は不可)
+     * @param out 書込み先。close で閉じる
+     * @return 出力先
+     */
+    static ResultSink open(ResultFormat format, OutputStream out) {
+        return switch (format) {
+            case XLSX -> throw new IllegalArgumentException("xlsx の結果はファイルにだけ出力できます (--output を指定してください)");
+            case TSV -> new DelimitedResultSink(Channels.newChannel(out), '\t');
+            case CSV -> new DelimitedResultSink(Channels.newChannel(out), ',');
+            case JSONL -> new JsonLinesResultSink(Channels.newChannel(out));
+        };
+    }
+}
@@ -0,0 +1,182 @@
+package jp.classicorange.result;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+/**
+ * 実行ごとに結果ファイルを分けて保存する結果ストア。
+ * <pre>
+ * result.xlsx に追記する方式は、毎回それまでの結果をすべて読込んで書き直すため、
+ * 実行を重ねるほど起動と保存が遅くなる。
+ * 結果ストアでは、実行ごとに新しい結果ファイルへストリームで書込み、過去の結果には触れない。
+ *
+ * ディレクトリ構成
+ * ・yyyyMMdd_HHmmss_検索文字列.xlsx  1回分の結果 (--format に応じて .tsv / .csv / .jsonl)
+ * ・runs.tsv   実行の一覧 (追記のみ)
+ * ・runs.xlsx  実行の一覧を結果ファイルへのリンクつきで表示するブック (runs.tsv から毎回作り直す)
+ * runs.tsv の1行は数十バイトのため、一覧の作り直しは結果の件数に比べて無視できる。
+ * </pre>
+ */
+public final class ResultStore {
+
+    private static final Logger log = LoggerFactory.getLogger(ResultStore.class);
+
+    /** 実行の一覧 (追記のみ) */
+    static final String RUNS_TSV = "runs.tsv";
+    /** 実行の一覧のブック */
+    static final String RUNS_XLSX = "runs.xlsx";
+
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss");
+    private static final DateTimeFormatter DISPLAY_TIME = DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm:ss");
+
+    private final Path dir;
+
+    /**
+     * 1回分の実行の情報。
+     *
+     * @param time 実行日時
+     * @param words 検索文字列 (複数の場合は " 他N")
+     * @param searchMode 検索モード
+     * @param replaceWord 置換文字列 (なしの場合は null)
+     * @param searchDirPath 検索対象のディレクトリパス
+     * @param fileCount 対象ファイル数
+     * @param hitCount 検索結果件数
+     * @param resultFile 結果ファイル名 (ストアのディレクトリからの相対)
+     */
+    public record Run(LocalDateTime time, String words, String searchMode, String replaceWord,
+                      String searchDirPath, int fileCount, int hitCount, String resultFile) {}
+
+    private ResultStore(Path dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * 結果ストアを開く。ディレクトリがなければ作成する。
+     *
+     * @param dir 結果ストアのディレクトリ
+     * @return 結果ストア
+     */
+    public static ResultStore open(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        return new ResultStore(dir);
+    }
+
+    /**
+     * 今回の実行の結果ファイルのパスを返す。同じ名前のファイルがある場合は連番をつける。
+     *
+     * @param time 実行日時
+     * @param title 検索文字列
+     * @param extension 拡張子 (ドットなし)
+     * @return 結果ファイルのパス (まだ作成しない)
+     */
+    public Path newResultFile(LocalDateTime time, String title, String extension) {
+        String base = time.format(FILE_TIME) + "_" + safeFileName(title);
+        Path file = dir.resolve(base + "." + extension);
+        for (int i = 2; Files.exists(file); i++) {
+            file = dir.resolve(base + "_" + i + "." + extension);
+        }
+        return file;
+    }
+
+    /**
+     * 実行を一覧に登録し、一覧のブックを作り直す。
+     *
+     * @param run 実行の情報
+     */
+    public void register(Run run) throws IOException {
+        String line = String.join("\t",
+            run.time().format(DISPLAY_TIME),
+            clean(run.words()),
+            run.searchMode(),
+            clean(run.replaceWord() == null ? "" : run.replaceWord()),
+            clean(run.searchDirPath()),
+            String.valueOf(run.fileCount()),
+            String.valueOf(run.hitCount()),
+            clean(run.resultFile())) + "\n";
+        try (BufferedWriter w = Files.newBufferedWriter(dir.resolve(RUNS_TSV), StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            w.write(line);
+        }
+        writeRunsWorkbook();
+    }
+
+    /**
+     * runs.tsv から一覧のブックを作る。新しい実行を上にする。
+     * 一時ファイルに書いてから置換えるため、Excel で開いている場合も runs.tsv は更新済み。
+     */
+    private void writeRunsWorkbook() throws IOException {
+        List<String> lines = Files.readAllLines(dir.resolve(RUNS_TSV), StandardCharsets.UTF_8);
+        Path tmp = dir.resolve(RUNS_XLSX + ".tmp");
+        try (SXSSFWorkbook wb = new SXSSFWorkbook(100)) {
+            Sheet sheet = wb.createSheet("runs");
+            Row header = sheet.createRow(0);
+            String[] titles = {"実行日時", "検索文字列", "検索方法", "置換文字列", "検索対象フォルダ",
+                "対象ファイル数", "検索結果件数", "結果ファイル"};
+            for (int c = 0; c < titles.length; c++) {
+                header.createCell(c).setCellValue(titles[c]);
+            }
+            int r = 1;
+            for (int i = lines.size() - 1; i >= 0; i--) {
+                String[] cols = lines.get(i).split("\t", -1);
+                if (cols.length < titles.length) continue;
+                Row row = sheet.createRow(r++);
+                for (int c = 0; c < 5; c++) {
+                    row.createCell(c).setCellValue(cols[c]);
+                }
+                row.createCell(5).setCellValue(parseInt(cols[5]));
+                row.createCell(6).setCellValue(parseInt(cols[6]));
+                row.createCell(7).setCellFormula("HYPERLINK(\"" + cols[7].replace("\"", "\"\"") + "\", \""
+                    + cols[7].replace("\"", "\"\"") + "\")");
+            }
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                wb.write(out);
+            }
+        }
+        try {
+            Files.move(tmp, dir.resolve(RUNS_XLSX), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            // Excel で開いている場合など。一覧は次回作り直される
+            log.warn("一覧のブックを更新できません : {}", e.getMessage());
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static int parseInt(String s) {
+        try {
+            return Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * TSV の区切りになる文字を空白にする。
+     */
+    private static String clean(String s) {
+        return s.replace('\t', ' ').replace('\r', ' ').replace('\n', ' ');
+    }
+
+    /**
+     * ファイル名に使えない文字を _ にし、長すぎる場合は切詰める。
+     */
+    static String safeFileName(String s) {
+        String name = s.replaceAll("[\\\\/:*?\"<>|\\p{Cntrl}]", "_").strip();
+        if (name.length() > 40) name = name.substring(0, 40);
+        return name.isEmpty() ? "_" : name;
+    }
+}
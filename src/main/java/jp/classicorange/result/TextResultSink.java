@@ -0,0 +1,92 @@
+package jp.classicorange.result;
+
+import jp.classicorange.utils.entity.Hit;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 1行に1件を書くテキスト形式の出力先の共通部分。
+ * <pre>
+ * 行は StringBuilder にためておき、一定の文字数を超えたら UTF-8 に変換してチャネルにまとめて書く。
+ * 書込み先はファイル (FileChannel) のほか、常駐モードで結果を送信するストリームにもできる。
+ * 1件ごとに Writer を通さないため、件数が多い場合も書込みの呼出し回数は少ない。
+ * </pre>
+ */
+abstract class TextResultSink implements ResultSink {
+
+    /** まとめて書出す文字数 */
+    private static final int BATCH = 64 * 1024;
+
+    private final WritableByteChannel channel;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    private final ByteBuffer bytes = ByteBuffer.allocate(BATCH * 3);
+    /** 書出し待ちの行 */
+    protected final StringBuilder buffer = new StringBuilder(BATCH + 1024);
+
+    /**
+     * @param channel 書込み先。close で閉じる
+     */
+    TextResultSink(WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * 出力ファイルを開く (既存の内容は捨てる)。
+     */
+    static WritableByteChannel openFile(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * 1件分の行を buffer に追加する (改行を含む)。
+     *
+     * @param hit 検索結果
+     */
+    protected abstract void append(Hit hit);
+
+    @Override
+    public void write(Hit hit) throws IOException {
+        append(hit);
+        if (buffer.length() >= BATCH) flush();
+    }
+
+    /**
+     * buffer の内容を書出す。
+     */
+    protected void flush() throws IOException {
+        CharBuffer chars = CharBuffer.wrap(buffer);
+        while (true) {
+            CoderResult result = encoder.encode(chars, bytes, true);
+            drain();
+            if (result.isUnderflow()) break;
+            if (result.isError()) result.throwException();
+        }
+        encoder.reset();
+        buffer.setLength(0);
+    }
+
+    private void drain() throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        bytes.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (channel) {
+            flush();
+        }
+    }
+}
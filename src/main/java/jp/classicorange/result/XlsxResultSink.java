@@ -0,0 +1,123 @@
+package jp.classicorange.result;
+
+import jp.classicorange.types.LocationType;
+import jp.classicorange.utils.entity.Hit;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.apache.poi.ss.util.WorkbookUtil;
+import org.apache.poi.xssf.streaming.SXSSFRow;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Excel ブックの出力先。
+ * <pre>
+ * 1回の実行を1シートとし、先頭に追加してアクティブにする。
+ * 出力ファイルが既にある場合はブックを読込んでシートを追加する (結果が増えるほど遅くなるため、
+ * 結果が多い場合は結果ストアか TSV / CSV / JSON Lines を使う)。
+ * 行は SXSSF で100行ごとに一時ファイルへ書出し、閉じる時にブックを保存する。
+ * </pre>
+ */
+final class XlsxResultSink implements ResultSink {
+
+    private final Path file;
+    private final SXSSFWorkbook sxssfWorkbook;
+    private final SXSSFSheet sxssfSheet;
+
+    private XlsxResultSink(Path file, SXSSFWorkbook workbook, String title) {
+        this.file = file;
+        this.sxssfWorkbook = workbook;
+        // Excelのシート名に使える文字をセット。禁止文字は_に置換
+        sxssfSheet = sxssfWorkbook.createSheet(WorkbookUtil.createSafeSheetName(title, '_'));
+        // 一番左に移動
+        sxssfWorkbook.setSheetOrder(sxssfSheet.getSheetName(), 0);
+        // アクティブシートを新シートに
+        int idx = sxssfWorkbook.getSheetIndex(sxssfSheet);
+        sxssfWorkbook.setActiveSheet(idx);
+        sxssfWorkbook.setSelectedTab(idx);
+        // シートにヘッダー生成
+        setHeader();
+    }
+
+    /**
+     * @param file 出力ファイル
+     * @param title シート名
+     * @return 出力先
+     */
+    static XlsxResultSink open(Path file, String title) throws IOException {
+        if (!Files.exists(file)) {
+            return new XlsxResultSink(file, new SXSSFWorkbook(100), title);
+        }
+        Workbook wb;
+        try (InputStream in = Files.newInputStream(file)) {
+            wb = WorkbookFactory.create(in);
+        }
+        if (wb instanceof XSSFWorkbook xssfWorkbook) {
+            // xlsx → SXSSFWorkbookにラップして追記可能
+            return new XlsxResultSink(file, new SXSSFWorkbook(xssfWorkbook, 100), title);
+        }
+        wb.close();
+        throw new IllegalStateException("結果ファイルが .xlsx 形式ではありません : " + file);
+    }
+
+    private void setHeader() {
+        SXSSFRow row = sxssfSheet.createRow(sxssfSheet.getLastRowNum() + 1);
+        int c=0;
+        row.createCell(c++).setCellValue("fileIndex");
+        row.createCell(c++).setCellValue("sheetIndex");
+        row.createCell(c++).setCellValue("cellIndex");
+        row.createCell(c++).setCellValue("filePath");
+        row.createCell(c++).setCellValue("sheetName");
+        row.createCell(c++).setCellValue("position");
+        row.createCell(c++).setCellValue("value");
+        row.createCell(c++).setCellValue("replaced");
+        row.createCell(c++).setCellValue("link");
+        row.createCell(c++).setCellValue("keyword");
+        row.createCell(c).setCellValue("location");
+    }
+
+    /**
+     * 検索結果 1件を結果シートへ書込む。
+     * link 列には、ファイルパス・シート名・セルの位置から作るリンクの数式を設定する。
+     * ヘッダー/フッターは position がセルではないため、シートの A1 へのリンクとする。
+     *
+     * @param hit 検索結果
+     */
+    @Override
+    public void write(Hit hit) {
+        int c=0;
+        SXSSFRow row = sxssfSheet.createRow(sxssfSheet.getLastRowNum() + 1);
+        int r = row.getRowNum() + 1;
+        row.createCell(c++).setCellValue(hit.fileIndex());
+        row.createCell(c++).setCellValue(hit.sheetIndex());
+        row.createCell(c++).setCellValue(hit.cellIndex());
+        row.createCell(c++).setCellValue(hit.filePath());
+        row.createCell(c++).setCellValue(hit.sheetName());
+        row.createCell(c++).setCellValue(hit.position());
+        row.createCell(c++).setCellValue(hit.value());
+        row.createCell(c++).setCellValue(hit.replaced());
+        String cell = (hit.location() == LocationType.HEADER_FOOTER) ? "\"A1\"" : "F" + r;
+        row.createCell(c++).setCellFormula(
+            String.format("HYPERLINK(D%s & \"#'\" & E%s & \"'!\" & %s, \"LINK\")",r,r,cell));
+        row.createCell(c++).setCellValue(hit.keyword());
+        row.createCell(c).setCellValue(hit.location().name());
+    }
+
+    @Override
+    public void close() throws IOException {
+        // 結果 保存
+        try (FileOutputStream fos = new FileOutputStream(file.toFile())) {
+            sxssfWorkbook.write(fos);
+        } finally {
+            // 結果ファイル閉じる
+            sxssfWorkbook.close();
+        }
+    }
+}
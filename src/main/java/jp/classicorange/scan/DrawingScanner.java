@@ -0,0 +1,323 @@
+package jp.classicorange.scan;
+
+import org.apache.poi.hssf.usermodel.HSSFClientAnchor;
+import org.apache.poi.hssf.usermodel.HSSFComment;
+import org.apache.poi.hssf.usermodel.HSSFPatriarch;
+import org.apache.poi.hssf.usermodel.HSSFShape;
+import org.apache.poi.hssf.usermodel.HSSFShapeGroup;
+import org.apache.poi.hssf.usermodel.HSSFSimpleShape;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.openxml4j.opc.PackageRelationship;
+import org.apache.poi.ss.usermodel.ClientAnchor;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.usermodel.XSSFRelation;
+import org.apache.poi.xssf.usermodel.XSSFShape;
+import org.apache.poi.xssf.usermodel.XSSFShapeGroup;
+import org.apache.poi.xssf.usermodel.XSSFSimpleShape;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * シートの図形の文字列を読む。
+ * <pre>
+ * 描画パート (xl/drawings/drawingN.xml) を StAX で直接読み、XSSFDrawing もシートXMLも作らない。
+ * ・図形 (sp) / コネクタ (cxnSp) : txBody の文字列 (XSSFSimpleShape.getText と同じく段落は改行でつなぐ)。
+ *   文字列を持たないコネクタは返さない
+ * ・グループ (grpSp) : 中の図形・グループをすべて
+ * ・グラフ (graphicFrame の c:chart) : グラフのパート (xl/charts/chartN.xml) のタイトル・軸タイトル
+ * 位置はアンカー (twoCellAnchor / oneCellAnchor の from) のセルで、グループ内の図形も
+ * SearchExcel.searchShape と同じく最上位のアンカーの位置とする。absoluteAnchor はセルを持たないため A1。
+ * mc:AlternateContent は mc:Choice だけを読む (mc:Fallback は同じ図形の代替のため)。
+ *
+ * 置換するためにブックを読込んだ場合は、xssfShapes / hssfShapes でグループの中の図形も同じ位置で列挙する。
+ * 置換するのは図形 (XSSFSimpleShape) だけで、グラフのタイトルと文字列を持つコネクタ (ShapeText.simple が false) は
+ * 置換する場合も read で読んで一致だけを出力する (検索だけの場合と同じ件数にするため)。
+ * .xls のコメント (HSSFComment) は図形ではなくコメントとして扱うため含めない (SheetNoteScanner)。
+ * </pre>
+ */
+public final class DrawingScanner {
+
+    private static final String NS_MC = "http://schemas.openxmlformats.org/markup-compatibility/2006";
+    private static final String NS_DRAWING_MAIN = "http://schemas.openxmlformats.org/drawingml/2006/main";
+    private static final String NS_CHART = "http://schemas.openxmlformats.org/drawingml/2006/chart";
+    private static final String NS_RELATIONSHIPS =
+        "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+
+    private DrawingScanner() {
+    }
+
+    /**
+     * 図形1つ分の文字列。
+     *
+     * @param row アンカーの行 (0から)
+     * @param col アンカーの列 (0から)
+     * @param text 文字列 (文字列を持たない図形は空文字)
+     * @param simple 図形 (sp。XSSFSimpleShape として読込まれ、置換できる) の場合 true。グラフのタイトル・コネクタは false
+     */
+    public record ShapeText(int row, int col, String text, boolean simple) { }
+
+    /**
+     * 読込み済みの図形と、その位置 (最上位のアンカーのセル)。
+     *
+     * @param shape 図形
+     * @param row アンカーの行 (0から)
+     * @param col アンカーの列 (0から)
+     */
+    public record Placed<S>(S shape, int row, int col) { }
+
+    /**
+     * シートに紐づく描画パートの図形を読む。
+     *
+     * @param sheetPart シートXMLのパート (中身は読まない)
+     * @return 図形の文字列 (文書の順)
+     */
+    public static List<ShapeText> read(PackagePart sheetPart) throws Exception {
+        List<ShapeText> shapes = new ArrayList<>();
+        for (PackageRelationship rel : sheetPart.getRelationshipsByType(XSSFRelation.DRAWINGS.getRelation())) {
+            PackagePart drawing = sheetPart.getRelatedPart(rel);
+            if (drawing != null) readDrawing(drawing, shapes);
+        }
+        return shapes;
+    }
+
+    /**
+     * 描画パート1つを読む。
+     */
+    static void readDrawing(PackagePart drawing, List<ShapeText> shapes) throws Exception {
+        try (InputStream in = drawing.getInputStream()) {
+            XMLStreamReader xml = XMLHelper.newXMLInputFactory().createXMLStreamReader(in);
+            try {
+                readDrawing(xml, drawing, shapes);
+            } finally {
+                xml.close();
+            }
+        }
+    }
+
+    private static void readDrawing(XMLStreamReader xml, PackagePart drawing, List<ShapeText> shapes)
+        throws Exception {
+        int row = 0;
+        int col = 0;
+        // from の中の row / col
+        boolean inFrom = false;
+        StringBuilder number = null;
+        // 処理中の図形の文字列 (図形の外は null)
+        StringBuilder text = null;
+        int shapeDepth = 0;
+        boolean inTextBody = false;
+        boolean inText = false;
+        int fallbackDepth = 0;
+        int depth = 0;
+
+        while (xml.hasNext()) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+                if (fallbackDepth > 0) continue;
+                String name = xml.getLocalName();
+                String ns = xml.getNamespaceURI();
+                if (NS_MC.equals(ns)) {
+                    if (name.equals("Fallback")) fallbackDepth = depth;
+                    continue;
+                }
+                switch (name) {
+                    case "twoCellAnchor", "oneCellAnchor", "absoluteAnchor" -> {
+                        row = 0;
+                        col = 0;
+                    }
+                    case "from" -> inFrom = text == null;
+                    case "row", "col" -> {
+                        if (inFrom) number = new StringBuilder();
+                    }
+                    case "sp", "cxnSp" -> {
+                        if (shapeDepth++ == 0) text = new StringBuilder();
+                    }
+                    case "txBody" -> inTextBody = text != null;
+                    case "p" -> {
+                        if (inTextBody && NS_DRAWING_MAIN.equals(ns) && !text.isEmpty()) text.append('\n');
+                    }
+                    case "br" -> {
+                        if (inTextBody && NS_DRAWING_MAIN.equals(ns)) text.append('\n');
+                    }
+                    case "t" -> inText = inTextBody && NS_DRAWING_MAIN.equals(ns);
+                    case "chart" -> {
+                        if (NS_CHART.equals(ns)) {
+                            String id = xml.getAttributeValue(NS_RELATIONSHIPS, "id");
+                            for (String title : chartTitles(drawing, id)) {
+                                shapes.add(new ShapeText(row, col, title, false));
+                            }
+                        }
+                    }
+                    default -> { }
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                if (fallbackDepth > 0) {
+                    if (fallbackDepth == depth) fallbackDepth = 0;
+                    depth--;
+                    continue;
+                }
+                depth--;
+                switch (xml.getLocalName()) {
+                    case "from" -> inFrom = false;
+                    case "row" -> {
+                        if (number != null) row = Integer.parseInt(number.toString().trim());
+                        number = null;
+                    }
+                    case "col" -> {
+                        if (number != null) col = Integer.parseInt(number.toString().trim());
+                        number = null;
+                    }
+                    case "sp", "cxnSp" -> {
+                        // コネクタは文字列を持つ場合だけ
+                        if (--shapeDepth == 0) {
+                            boolean simple = xml.getLocalName().equals("sp");
+                            if (simple || !text.isEmpty()) {
+                                shapes.add(new ShapeText(row, col, text.toString(), simple));
+                            }
+                            text = null;
+                        }
+                    }
+                    case "txBody" -> inTextBody = false;
+                    case "t" -> inText = false;
+                    default -> { }
+                }
+            } else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) {
+                if (fallbackDepth > 0) continue;
+                if (number != null) {
+                    number.append(xml.getText());
+                } else if (inText) {
+                    text.append(xml.getText());
+                }
+            }
+        }
+    }
+
+    /**
+     * グラフのパートのタイトル (グラフ・軸) を読む。
+     * リッチテキストは段落を改行でつなぎ、セル参照のタイトルは保存された文字列 (strCache) を使う。
+     *
+     * @param drawing 描画パート
+     * @param id グラフへのリレーションID
+     * @return タイトル (グラフのパートがない場合は空)
+     */
+    static List<String> chartTitles(PackagePart drawing, String id) throws Exception {
+        if (id == null) return List.of();
+        PackageRelationship rel = drawing.getRelationship(id);
+        if (rel == null) return List.of();
+        PackagePart chart = drawing.getRelatedPart(rel);
+        if (chart == null) return List.of();
+        try (InputStream in = chart.getInputStream()) {
+            return chartTitles(in);
+        }
+    }
+
+    static List<String> chartTitles(InputStream in) throws XMLStreamException, IOException {
+        List<String> titles = new ArrayList<>();
+        XMLStreamReader xml = XMLHelper.newXMLInputFactory().createXMLStreamReader(in);
+        try {
+            StringBuilder title = null;
+            int titleDepth = 0;
+            boolean inText = false;
+            int depth = 0;
+            while (xml.hasNext()) {
+                int event = xml.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                    String name = xml.getLocalName();
+                    String ns = xml.getNamespaceURI();
+                    if (title == null) {
+                        if (name.equals("title") && NS_CHART.equals(ns)) {
+                            title = new StringBuilder();
+                            titleDepth = depth;
+                        }
+                        continue;
+                    }
+                    switch (name) {
+                        case "p" -> {
+                            if (NS_DRAWING_MAIN.equals(ns) && !title.isEmpty()) title.append('\n');
+                        }
+                        case "br" -> {
+                            if (NS_DRAWING_MAIN.equals(ns)) title.append('\n');
+                        }
+                        // a:t (リッチテキスト) / c:v (セル参照の文字列)
+                        case "t", "v" -> inText = true;
+                        default -> { }
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    if (title != null && depth == titleDepth) {
+                        titles.add(title.toString());
+                        title = null;
+                    }
+                    inText = false;
+                    depth--;
+                } else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) {
+                    if (inText) title.append(xml.getText());
+                }
+            }
+        } finally {
+            xml.close();
+        }
+        return titles;
+    }
+
+    /**
+     * 読込み済みの .xlsx の図形 (文字列を持つ XSSFSimpleShape) を、グループの中も含めて列挙する。
+     *
+     * @param shapes 最上位の図形 (XSSFDrawing.getShapes)
+     * @return 図形と最上位のアンカーの位置
+     */
+    public static List<Placed<XSSFSimpleShape>> xssfShapes(List<XSSFShape> shapes) {
+        List<Placed<XSSFSimpleShape>> placed = new ArrayList<>();
+        for (XSSFShape shape : shapes) {
+            // absoluteAnchor はセルを持たないため A1 (read と同じ)
+            if (shape.getAnchor() instanceof ClientAnchor anchor) {
+                addXssfShapes(shape, anchor.getRow1(), anchor.getCol1(), placed);
+            } else {
+                addXssfShapes(shape, 0, 0, placed);
+            }
+        }
+        return placed;
+    }
+
+    private static void addXssfShapes(XSSFShape shape, int row, int col, List<Placed<XSSFSimpleShape>> placed) {
+        if (shape instanceof XSSFSimpleShape simpleShape) {
+            placed.add(new Placed<>(simpleShape, row, col));
+        } else if (shape instanceof XSSFShapeGroup group) {
+            for (XSSFShape child : group) {
+                addXssfShapes(child, row, col, placed);
+            }
+        }
+    }
+
+    /**
+     * 読込み済みの .xls の図形 (HSSFSimpleShape。コメントを含む) を、グループの中も含めて列挙する。
+     *
+     * @param patriarch 描画
+     * @return 図形と最上位のアンカーの位置
+     */
+    public static List<Placed<HSSFSimpleShape>> hssfShapes(HSSFPatriarch patriarch) {
+        List<Placed<HSSFSimpleShape>> placed = new ArrayList<>();
+        for (HSSFShape shape : patriarch.getChildren()) {
+            if (!(shape.getAnchor() instanceof HSSFClientAnchor anchor)) continue;
+            addHssfShapes(shape, anchor.getRow1(), anchor.getCol1(), placed);
+        }
+        return placed;
+    }
+
+    private static void addHssfShapes(HSSFShape shape, int row, int col, List<Placed<HSSFSimpleShape>> placed) {
+        if (shape instanceof HSSFComment) return;
+        if (shape instanceof HSSFSimpleShape simpleShape) {
+            placed.add(new Placed<>(simpleShape, row, col));
+        } else if (shape instanceof HSSFShapeGroup group) {
+            for (HSSFShape child : group.getChildren()) {
+                addHssfShapes(child, row, col, placed);
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package jp.classicorange.scan;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.concurrent.Callable;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * ブックの読込みに使うメモリの予算。
+ * <pre>
+ * ファイルごとに読込みに必要なメモリを見積もり、並列に読込むファイルの合計が予算に収まるまで待たせる。
+ * ・.xlsx : ZIP の中央ディレクトリにある展開後のサイズから見積もる (ファイルは展開しない)
+ *           XML のパートは XMLBeans の DOM になるため展開後の XML_FACTOR 倍、画像などはそのままの大きさ
+ * ・.xls  : ファイルサイズの XLS_FACTOR 倍 (POIFS の読込み + レコード)
+ * ストリーム読みは、シートを1つずつ流すため、図形の XML (DOM で読む) と固定分だけとする。
+ * 見積もりは目安で、実際の使用量は書式やセルの数で変わる。
+ *
+ * ブック全体を読込むと1つでも予算を超えるファイルは、呼出し側でストリーム読みに切替える。
+ * 切替えられない場合 (.xls の置換・索引の作成) は予算いっぱいを確保し、他のファイルと同時には読込まない。
+ * 走査スレッドから call で読込みの処理を渡し、処理の間だけ確保する。
+ * </pre>
+ */
+public final class MemoryBudget {
+
+    /** XML のパートを DOM にした場合の倍率 */
+    private static final int XML_FACTOR = 8;
+    /** .xls を HSSFWorkbook にした場合の倍率 */
+    private static final int XLS_FACTOR = 4;
+    /** ストリーム読みの固定分 (SAX のバッファ・一致した共有文字列など) */
+    private static final long STREAM_BASE = 8L * 1024 * 1024;
+
+    /** 予算 (バイト) */
+    private final long budget;
+    /** 確保中の合計 */
+    private long used;
+
+    /**
+     * 読込みに必要なメモリの見積もり。
+     *
+     * @param dom ブック全体を読込む場合 (バイト)
+     * @param stream ストリーム読みの場合 (バイト)
+     */
+    public record Estimate(long dom, long stream) { }
+
+    /**
+     * @param budget 予算 (バイト)
+     */
+    public MemoryBudget(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * @return 最大ヒープの 60%
+     */
+    public static long defaultBudget() {
+        return Runtime.getRuntime().maxMemory() / 10 * 6;
+    }
+
+    /**
+     * @return 予算 (バイト)
+     */
+    public long budget() {
+        return budget;
+    }
+
+    /**
+     * @param cost 必要なメモリ
+     * @return 予算に収まる場合 true
+     */
+    public boolean fits(long cost) {
+        return cost <= budget;
+    }
+
+    /**
+     * 予算に空きができるまで待ってから確保し、処理を実行して返却する。
+     * 予算を超える分は予算いっぱいとし、他の確保がなくなるまで待つ。
+     *
+     * @param cost 必要なメモリ
+     * @param task 読込みの処理
+     * @return 処理の結果
+     */
+    public <T> T call(long cost, Callable<T> task) throws Exception {
+        long acquired = acquire(cost);
+        try {
+            return task.call();
+        } finally {
+            release(acquired);
+        }
+    }
+
+    /**
+     * @return 確保したメモリ
+     */
+    private synchronized long acquire(long cost) throws InterruptedException {
+        long c = Math.min(Math.max(cost, 0), budget);
+        while (used > 0 && used + c > budget) {
+            wait();
+        }
+        used += c;
+        return c;
+    }
+
+    private synchronized void release(long cost) {
+        used -= cost;
+        notifyAll();
+    }
+
+    /**
+     * ファイルの読込みに必要なメモリを見積もる。
+     * ZIP として読めない .xlsx はファイルサイズを XML とみなす。
+     *
+     * @param file 対象ファイル
+     * @return 見積もり
+     */
+    public static Estimate estimate(File file) {
+        long size = file.length();
+        if (!file.getName().endsWith(".xlsx")) {
+            return new Estimate(size * XLS_FACTOR, size + STREAM_BASE);
+        }
+        long xml = 0;
+        long binary = 0;
+        long drawing = 0;
+        try (ZipFile zip = new ZipFile(file)) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                long entrySize = Math.max(entry.getSize(), entry.getCompressedSize());
+                String name = entry.getName();
+                if (name.endsWith(".xml") || name.endsWith(".rels")) {
+                    xml += entrySize;
+                    if (name.startsWith("xl/drawings/")) drawing = Math.max(drawing, entrySize);
+                } else {
+                    binary += entrySize;
+                }
+            }
+        } catch (IOException e) {
+            xml = size;
+        }
+        return new Estimate(xml * XML_FACTOR + binary, drawing * XML_FACTOR + STREAM_BASE);
+    }
+}
@@ -0,0 +1,252 @@
+package jp.classicorange.scan;
+
+import jp.classicorange.matcher.TextMatcher;
+import jp.classicorange.utils.ExcelUtils;
+import org.apache.poi.ss.usermodel.BuiltinFormats;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFCell;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.function.IntFunction;
+
+/**
+ * 数値・真偽値のセルを検索する文字列にする。
+ * <pre>
+ * 既定は ExcelUtils.getStringValue と同じく String.valueOf(double) / true / false。
+ * --display-format の場合は Excel の表示と同じく、セルの表示形式で書式化する (DataFormatter)。
+ * ・数値・日付 : 1,200 / 2024/04/01 / 12.5% など (組込みの日付形式 14 は日本語版と同じ yyyy/m/d)
+ * ・真偽値 : TRUE / FALSE
+ * どのキーワードも一致しえないセルは文字列にしない (null を返す)。照合器を渡さない場合 (索引の作成) はすべて文字列にする。
+ * 表示形式と一致しうるかはスタイル番号ごとに1回だけ求めて保持する。
+ * DataFormatter はスレッドセーフでないため、ブックごとに作成する。
+ * </pre>
+ */
+public final class NumberRenderer {
+
+    /** 日本語版の Excel で組込みの表示形式 14 / 22 が表示する形 */
+    private static final String JA_DATE = "yyyy/m/d";
+    private static final String JA_DATE_TIME = "yyyy/m/d h:mm";
+
+    /**
+     * スタイル番号 (.xlsx の s 属性 / .xls の XF 番号) から表示形式を引く。
+     */
+    public interface Formats {
+
+        /**
+         * @param style スタイル番号
+         * @return 表示形式の番号
+         */
+        int formatIndex(int style);
+
+        /**
+         * @param style スタイル番号
+         * @return 表示形式。不明な場合は null
+         */
+        String formatString(int style);
+
+        /**
+         * @return スタイルの数。不明な場合は -1
+         */
+        int styleCount();
+
+        /**
+         * ブックのスタイル (Workbook::getCellStyleAt / StylesTable::getStyleAt) から表示形式を引く。
+         *
+         * @param styles スタイル番号 → スタイル
+         * @param styleCount スタイルの数
+         * @return Formats
+         */
+        static Formats of(IntFunction<? extends CellStyle> styles, int styleCount) {
+            return new Formats() {
+                @Override
+                public int formatIndex(int style) {
+                    CellStyle cellStyle = styles.apply(style);
+                    return cellStyle == null ? 0 : cellStyle.getDataFormat();
+                }
+
+                @Override
+                public String formatString(int style) {
+                    CellStyle cellStyle = styles.apply(style);
+                    return cellStyle == null ? null : cellStyle.getDataFormatString();
+                }
+
+                @Override
+                public int styleCount() {
+                    return styleCount;
+                }
+            };
+        }
+    }
+
+    /**
+     * スタイル番号ごとに求めた表示形式。
+     *
+     * @param index 表示形式の番号
+     * @param pattern 表示形式
+     * @param mayMatch 書式化した文字列がいずれかのキーワードと一致しうる場合 true
+     */
+    private record Style(int index, String pattern, boolean mayMatch) { }
+
+    private final TextMatcher matcher;
+    private final boolean display;
+    private final Formats formats;
+    /** 既定の表記 (String.valueOf) で一致しうるか */
+    private final boolean rawMayMatch;
+    /** TRUE / FALSE が一致しうるか */
+    private final boolean boolMayMatch;
+    /** 表示形式で書式化する場合だけ作成する */
+    private final DataFormatter formatter;
+    private Style[] styles = new Style[0];
+
+    /**
+     * @param matcher 照合器 (null の場合は一致しうるかを判定しない)
+     * @param display 表示形式で書式化する場合 true
+     * @param formats 表示形式の取得元 (display が false の場合は使わない)
+     */
+    public NumberRenderer(TextMatcher matcher, boolean display, Formats formats) {
+        this.matcher = matcher;
+        this.display = display;
+        this.formats = formats;
+        this.rawMayMatch = matcher == null || matcher.mayMatchNumber();
+        this.boolMayMatch = matcher == null || matcher.matches("TRUE") || matcher.matches("FALSE");
+        this.formatter = display ? new DataFormatter(Locale.JAPAN) : null;
+    }
+
+    /**
+     * 読込み済みのブックのスタイルで書式化する。
+     *
+     * @param matcher 照合器 (null の場合は一致しうるかを判定しない)
+     * @param display 表示形式で書式化する場合 true
+     * @param workbook ブック
+     * @return NumberRenderer
+     */
+    public static NumberRenderer of(TextMatcher matcher, boolean display, Workbook workbook) {
+        return new NumberRenderer(matcher, display,
+            Formats.of(workbook::getCellStyleAt, workbook.getNumCellStyles()));
+    }
+
+    /**
+     * @param value 数値
+     * @param style セルのスタイル番号
+     * @return 検索する文字列。一致しえない場合は null
+     */
+    public String number(double value, int style) {
+        if (!display) return rawMayMatch ? String.valueOf(value) : null;
+        Style s = style(style);
+        return s.mayMatch() ? formatter.formatRawCellContents(value, s.index(), s.pattern()) : null;
+    }
+
+    /**
+     * 文字列にする前に、数値のセルが一致しうるかを返す (数値を読む手間も省く場合に使う)。
+     *
+     * @param style セルのスタイル番号
+     * @return 一致しうる場合 true
+     */
+    public boolean mayMatch(int style) {
+        return display ? style(style).mayMatch() : rawMayMatch;
+    }
+
+    /**
+     * @param value 真偽値
+     * @return 検索する文字列。一致しえない場合は null
+     */
+    public String bool(boolean value) {
+        if (!display) return rawMayMatch ? String.valueOf(value) : null;
+        return boolMayMatch ? (value ? "TRUE" : "FALSE") : null;
+    }
+
+    /**
+     * 数値・真偽値のセルがいずれかのキーワードと一致しうるかを返す。
+     * スタイルの数が不明な場合は一致しうるものとする。
+     *
+     * @return 一致しうる場合 true
+     */
+    public boolean mayMatchAny() {
+        if (!display) return rawMayMatch;
+        if (boolMayMatch || formats.styleCount() < 0) return true;
+        // s 属性のないセルはスタイル 0
+        for (int i = 0; i < Math.max(formats.styleCount(), 1); i++) {
+            if (style(i).mayMatch()) return true;
+        }
+        return false;
+    }
+
+    /**
+     * 読込み済みのセルの値を ExcelUtils.getStringValue と同じ形の文字列にする。数値・真偽値はこの規則で文字列にする。
+     *
+     * @param cell Cell
+     * @return 値。数値・真偽値で一致しえない場合は null
+     */
+    public String value(Cell cell) {
+        return switch (cell.getCellType()) {
+            case NUMERIC -> number(cell);
+            case BOOLEAN -> bool(cell.getBooleanCellValue());
+            default -> ExcelUtils.getStringValue(cell);
+        };
+    }
+
+    /**
+     * 数式のセルに保存された計算結果を ExcelUtils.getCachedFormulaValue と同じ形の文字列にする。
+     * 数値・真偽値はこの規則で文字列にする。
+     *
+     * @param cell Cell
+     * @return 計算結果。数式のセルでない場合、エラー値、計算結果が保存されていない場合、一致しえない場合は null
+     */
+    public String cachedFormulaValue(Cell cell) {
+        if (cell.getCellType() != CellType.FORMULA) return null;
+        if (cell instanceof XSSFCell xssfCell && !xssfCell.getCTCell().isSetV()) return null;
+        return switch (cell.getCachedFormulaResultType()) {
+            case STRING -> cell.getStringCellValue();
+            case NUMERIC -> number(cell);
+            case BOOLEAN -> bool(cell.getBooleanCellValue());
+            default -> null;
+        };
+    }
+
+    private String number(Cell cell) {
+        if (!display) return rawMayMatch ? String.valueOf(cell.getNumericCellValue()) : null;
+        return number(cell.getNumericCellValue(), styleIndex(cell));
+    }
+
+    /**
+     * @return セルのスタイル番号。.xlsx はスタイルのオブジェクトを作らずに s 属性を読む
+     */
+    private static int styleIndex(Cell cell) {
+        if (cell instanceof XSSFCell xssfCell) {
+            return xssfCell.getCTCell().isSetS() ? (int) xssfCell.getCTCell().getS() : 0;
+        }
+        return cell.getCellStyle().getIndex();
+    }
+
+    private Style style(int style) {
+        if (style < 0) style = 0;
+        if (style >= styles.length) {
+            styles = Arrays.copyOf(styles, Math.max(style + 1, styles.length * 2));
+        }
+        Style s = styles[style];
+        if (s == null) {
+            int index = formats.formatIndex(style);
+            String pattern = switch (index) {
+                case 14 -> JA_DATE;
+                case 22 -> JA_DATE_TIME;
+                default -> {
+                    String p = formats.formatString(style);
+                    yield (p != null) ? p : BuiltinFormats.getBuiltinFormat(index);
+                }
+            };
+            if (pattern == null) pattern = "General";
+            // 日付は月名・曜日なども現れるため、表示形式の文字では判定しない
+            boolean mayMatch = matcher == null
+                || DateUtil.isADateFormat(index, pattern) || matcher.mayMatchFormatted(pattern);
+            s = new Style(index, pattern, mayMatch);
+            styles[style] = s;
+        }
+        return s;
+    }
+}
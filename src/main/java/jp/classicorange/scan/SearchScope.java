@@ -0,0 +1,208 @@
+package jp.classicorange.scan;
+
+import jp.classicorange.utils.CheckParameter;
+import org.apache.poi.ss.usermodel.SheetVisibility;
+import org.apache.poi.ss.util.CellReference;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * 検索する範囲 (シート名・セル範囲・表示状態) の判定。
+ * <pre>
+ * ・シート名 : --sheet の glob (* / ?) か --sheet-regex の正規表現のいずれかに全体が一致するシート
+ * ・セル範囲 : --range の A1 形式 (A1:D100 / A:D / 1:100 / B5) のいずれかに含まれるセル
+ * ・表示状態 : --visible-only の場合、非表示・完全に非表示のシート、非表示の行・列のセルを除く
+ * ・図形だけ : --shapes-only の場合、セルは検索しない (シートXML・セルのレコードを読まない)
+ * 指定のない条件はすべてを対象とする。セル範囲と行・列の表示状態はセルだけに適用し、
+ * 対象のシートのシェイプはすべて検索する。コメントはセル範囲で絞り込み、
+ * セル範囲を指定した場合は入力規則・ヘッダー/フッター (シートXMLの末尾) は検索しない。
+ * 図形だけの場合はコメント・入力規則・ヘッダー/フッターも検索しない。
+ * 行は上から順に現れるため、lastRow を過ぎたらシートの残りは読まなくてよい。
+ * 作成後は変更しないため、スレッド間で共有できる。
+ * </pre>
+ */
+public final class SearchScope {
+
+    /** すべてを対象とする */
+    public static final SearchScope ALL = new SearchScope(CheckParameter.ScopeOptions.ALL);
+
+    /** A1 形式のセル参照 ($ は無視する) */
+    private static final Pattern CELL_REF = Pattern.compile("\\$?([A-Za-z]{0,3})\\$?([0-9]{0,7})");
+
+    /**
+     * セル範囲。行・列は0から、両端を含む。
+     */
+    private record CellRange(int firstRow, int lastRow, int firstCol, int lastCol) {
+
+        boolean contains(int row, int col) {
+            return firstRow <= row && row <= lastRow && firstCol <= col && col <= lastCol;
+        }
+    }
+
+    private final List<Pattern> sheetPatterns = new ArrayList<>();
+    private final List<CellRange> ranges = new ArrayList<>();
+    private final boolean visibleOnly;
+    private final boolean shapesOnly;
+    private final int firstRow;
+    private final int lastRow;
+
+    /**
+     * @param options 範囲の指定
+     * @throws IllegalArgumentException 正規表現・セル範囲が不正な場合
+     */
+    public SearchScope(CheckParameter.ScopeOptions options) {
+        for (String glob : options.sheets()) {
+            sheetPatterns.add(Pattern.compile(globToRegex(glob)));
+        }
+        for (String regex : options.sheetRegexes()) {
+            try {
+                sheetPatterns.add(Pattern.compile(regex));
+            } catch (PatternSyntaxException e) {
+                throw new IllegalArgumentException("--sheet-regex の正規表現が不正です : " + regex, e);
+            }
+        }
+        for (String range : options.ranges()) {
+            ranges.add(parseRange(range));
+        }
+        this.visibleOnly = options.visibleOnly();
+        this.shapesOnly = options.shapesOnly();
+        this.firstRow = ranges.isEmpty() ? 0 : ranges.stream().mapToInt(CellRange::firstRow).min().orElse(0);
+        this.lastRow = ranges.isEmpty() ? Integer.MAX_VALUE
+            : ranges.stream().mapToInt(CellRange::lastRow).max().orElse(Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return すべてを対象とする場合 true
+     */
+    public boolean isAll() {
+        return sheetPatterns.isEmpty() && ranges.isEmpty() && !visibleOnly && !shapesOnly;
+    }
+
+    /**
+     * @return 非表示の行・列・シートを除く場合 true
+     */
+    public boolean visibleOnly() {
+        return visibleOnly;
+    }
+
+    /**
+     * @return セルを検索しない (図形だけを検索する) 場合 true
+     */
+    public boolean shapesOnly() {
+        return shapesOnly;
+    }
+
+    /**
+     * @return コメントを検索する場合 true
+     */
+    public boolean includesComments() {
+        return !shapesOnly;
+    }
+
+    /**
+     * @return 入力規則・ヘッダー/フッターを検索する場合 true (セル範囲の指定がなく、図形だけでない)
+     */
+    public boolean includesSheetNotes() {
+        return ranges.isEmpty() && !shapesOnly;
+    }
+
+    /**
+     * @param name シート名
+     * @param visibility シートの表示状態
+     * @return 対象のシートの場合 true
+     */
+    public boolean includesSheet(String name, SheetVisibility visibility) {
+        if (visibleOnly && visibility != SheetVisibility.VISIBLE) return false;
+        if (sheetPatterns.isEmpty()) return true;
+        for (Pattern pattern : sheetPatterns) {
+            if (pattern.matcher(name).matches()) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param row 行番号 (0から)
+     * @param col 列番号 (0から)
+     * @return セル範囲に含まれる場合 true
+     */
+    public boolean includesCell(int row, int col) {
+        if (ranges.isEmpty()) return true;
+        for (CellRange range : ranges) {
+            if (range.contains(row, col)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return セル範囲の最初の行 (0から)
+     */
+    public int firstRow() {
+        return firstRow;
+    }
+
+    /**
+     * @return セル範囲の最後の行 (0から)。行の指定がない場合は Integer.MAX_VALUE
+     */
+    public int lastRow() {
+        return lastRow;
+    }
+
+    /**
+     * glob をシート名全体に一致する正規表現にする。
+     */
+    private static String globToRegex(String glob) {
+        StringBuilder sb = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' || c == '?') {
+                if (!literal.isEmpty()) sb.append(Pattern.quote(literal.toString()));
+                literal.setLength(0);
+                sb.append(c == '*' ? ".*" : ".");
+            } else {
+                literal.append(c);
+            }
+        }
+        if (!literal.isEmpty()) sb.append(Pattern.quote(literal.toString()));
+        return sb.toString();
+    }
+
+    /**
+     * A1 形式のセル範囲を読む。列だけ・行だけの指定はその行・列のすべて。
+     */
+    private static CellRange parseRange(String text) {
+        String[] parts = text.trim().split(":", -1);
+        if (parts.length > 2) throw invalidRange(text);
+        int[] first = parseRef(parts[0], text);
+        int[] last = (parts.length == 2) ? parseRef(parts[1], text) : first;
+        // 片側だけ列 (または行) がない指定 e.g. A1:10 は受け付けない
+        if ((first[1] < 0) != (last[1] < 0) || (first[0] < 0) != (last[0] < 0)) throw invalidRange(text);
+        int firstRow = (first[0] < 0) ? 0 : Math.min(first[0], last[0]);
+        int lastRow = (first[0] < 0) ? Integer.MAX_VALUE : Math.max(first[0], last[0]);
+        int firstCol = (first[1] < 0) ? 0 : Math.min(first[1], last[1]);
+        int lastCol = (first[1] < 0) ? Integer.MAX_VALUE : Math.max(first[1], last[1]);
+        return new CellRange(firstRow, lastRow, firstCol, lastCol);
+    }
+
+    /**
+     * @return {行, 列} (0から)。指定のない側は -1
+     */
+    private static int[] parseRef(String ref, String text) {
+        Matcher m = CELL_REF.matcher(ref.trim());
+        if (!m.matches() || (m.group(1).isEmpty() && m.group(2).isEmpty())) throw invalidRange(text);
+        int row = m.group(2).isEmpty() ? -1 : Integer.parseInt(m.group(2)) - 1;
+        int col = m.group(1).isEmpty() ? -1
+            : CellReference.convertColStringToIndex(m.group(1).toUpperCase(Locale.ROOT));
+        if (m.group(2).length() > 0 && row < 0) throw invalidRange(text);
+        return new int[]{row, col};
+    }
+
+    private static IllegalArgumentException invalidRange(String text) {
+        return new IllegalArgumentException("--range は A1:D100 / A:D / 1:100 の形式で指定してください : " + text);
+    }
+}
@@ -0,0 +1,195 @@
+package jp.classicorange.scan;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * .xlsx の共有数式 (&lt;f t="shared" si="…"&gt;) の定義。
+ * <pre>
+ * 数式の文字列を持つのは先頭のセルだけで、従属セルは si だけを持つ。
+ * 従属セルの数式は、先頭セルの数式の相対参照 ($ のない行・列) を先頭セルからのずれだけ動かしたもの
+ * (XSSFCell.getCellFormula が共有数式を展開した結果と同じ参照)。
+ * ・文字列 ("…")・シート名 ('…')・構造化参照 ([…]) の中は変えない
+ * ・A1 / $A$1 形式のセル参照と、A:C (列だけ)・1:3 (行だけ) の範囲を動かす
+ * ・関数名 (直後が "(")・シート名 (直後が "!")・テーブル名 (直後が "[")・定義名は動かさない
+ * 数式の空白は先頭セルのまま残す (XSSFCell は数式を組立て直すため、空白を含む数式は表記が異なりうる)。
+ * </pre>
+ *
+ * @param formula 先頭セルの数式の文字列
+ * @param firstRow 共有する範囲 (ref) の先頭の行 (0から)
+ * @param firstCol 共有する範囲 (ref) の先頭の列 (0から)
+ */
+record SharedFormula(String formula, int firstRow, int firstCol) {
+
+    /** A1 形式のセル参照 */
+    private static final Pattern CELL = Pattern.compile("(\\$?)([A-Za-z]{1,3})(\\$?)([0-9]{1,7})");
+    /** 列だけの参照 (A:C の片側) */
+    private static final Pattern COLUMN = Pattern.compile("(\\$?)([A-Za-z]{1,3})");
+    /** 行だけの参照 (1:3 の片側) */
+    private static final Pattern ROW = Pattern.compile("(\\$?)([0-9]{1,7})");
+
+    /** Excel の最大の行・列 (1から) */
+    private static final int MAX_ROW = 1048576;
+    private static final int MAX_COL = 16384;
+
+    /**
+     * @param row 従属セルの行 (0から)
+     * @param col 従属セルの列 (0から)
+     * @return 従属セルの数式の文字列
+     */
+    String formulaAt(int row, int col) {
+        return shift(formula, row - firstRow, col - firstCol);
+    }
+
+    /**
+     * 数式の相対参照を動かす。
+     *
+     * @param formula 数式の文字列
+     * @param rows 動かす行数
+     * @param cols 動かす列数
+     * @return 動かした数式
+     */
+    static String shift(String formula, int rows, int cols) {
+        if (rows == 0 && cols == 0) return formula;
+        StringBuilder sb = new StringBuilder(formula.length() + 8);
+        int n = formula.length();
+        int i = 0;
+        while (i < n) {
+            char c = formula.charAt(i);
+            if (c == '"' || c == '\'') {
+                int end = quoteEnd(formula, i, c);
+                sb.append(formula, i, end);
+                i = end;
+            } else if (c == '[') {
+                int end = bracketEnd(formula, i);
+                sb.append(formula, i, end);
+                i = end;
+            } else if (isNameChar(c)) {
+                int end = i;
+                while (end < n && isNameChar(formula.charAt(end))) end++;
+                sb.append(shiftToken(formula, i, end, rows, cols));
+                i = end;
+            } else {
+                sb.append(c);
+                i++;
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 名前・参照・数値の1語を、参照であれば動かす。
+     */
+    private static String shiftToken(String formula, int start, int end, int rows, int cols) {
+        String token = formula.substring(start, end);
+        char next = (end < formula.length()) ? formula.charAt(end) : 0;
+        if (next == '(' || next == '!' || next == '[') return token;
+        Matcher m = CELL.matcher(token);
+        if (m.matches() && columnIndex(m.group(2)) <= MAX_COL) {
+            return m.group(1) + column(m.group(1), m.group(2), cols) + m.group(3) + row(m.group(3), m.group(4), rows);
+        }
+        // A:C / 1:3 は ":" の両側が同じ種類の場合だけ
+        String other = rangeOtherSide(formula, start, end);
+        if (other == null) return token;
+        m = COLUMN.matcher(token);
+        if (m.matches() && COLUMN.matcher(other).matches() && columnIndex(m.group(2)) <= MAX_COL) {
+            return m.group(1) + column(m.group(1), m.group(2), cols);
+        }
+        m = ROW.matcher(token);
+        if (m.matches() && ROW.matcher(other).matches()) {
+            return m.group(1) + row(m.group(1), m.group(2), rows);
+        }
+        return token;
+    }
+
+    /**
+     * @return ":" でつながった反対側の語。範囲でない場合は null
+     */
+    private static String rangeOtherSide(String formula, int start, int end) {
+        if (end < formula.length() && formula.charAt(end) == ':') {
+            int to = end + 1;
+            while (to < formula.length() && isNameChar(formula.charAt(to))) to++;
+            return formula.substring(end + 1, to);
+        }
+        if (start > 0 && formula.charAt(start - 1) == ':') {
+            int from = start - 1;
+            while (from > 0 && isNameChar(formula.charAt(from - 1))) from--;
+            return formula.substring(from, start - 1);
+        }
+        return null;
+    }
+
+    private static String column(String absolute, String letters, int cols) {
+        if (!absolute.isEmpty()) return letters;
+        return columnName(Math.floorMod(columnIndex(letters) - 1 + cols, MAX_COL) + 1);
+    }
+
+    private static String row(String absolute, String digits, int rows) {
+        int index = Integer.parseInt(digits);
+        if (!absolute.isEmpty() || index > MAX_ROW) return digits;
+        return String.valueOf(Math.floorMod(index - 1 + rows, MAX_ROW) + 1);
+    }
+
+    /**
+     * @return 列番号 (1から)
+     */
+    private static int columnIndex(String letters) {
+        int index = 0;
+        for (int i = 0; i < letters.length(); i++) {
+            index = index * 26 + (Character.toUpperCase(letters.charAt(i)) - 'A' + 1);
+        }
+        return index;
+    }
+
+    /**
+     * @param index 列番号 (1から)
+     */
+    private static String columnName(int index) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = index; i > 0; i = (i - 1) / 26) {
+            sb.insert(0, (char) ('A' + (i - 1) % 26));
+        }
+        return sb.toString();
+    }
+
+    private static boolean isNameChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '.' || c == '$' || c == '\\';
+    }
+
+    /**
+     * @return 引用符で囲まれた部分の次の位置 (閉じていない場合は末尾)。引用符を2つ重ねたものは閉じない
+     */
+    private static int quoteEnd(String formula, int start, char quote) {
+        int i = start + 1;
+        while (i < formula.length()) {
+            if (formula.charAt(i) == quote) {
+                if (i + 1 < formula.length() && formula.charAt(i + 1) == quote) {
+                    i += 2;
+                    continue;
+                }
+                return i + 1;
+            }
+            i++;
+        }
+        return formula.length();
+    }
+
+    /**
+     * @return 構造化参照の角括弧 (入れ子を含む) の次の位置
+     */
+    private static int bracketEnd(String formula, int start) {
+        int depth = 0;
+        for (int i = start; i < formula.length(); i++) {
+            char c = formula.charAt(i);
+            if (c == '\'' && depth > 0) {
+                // 構造化参照の中の ' は次の1文字のエスケープ
+                i++;
+            } else if (c == '[') {
+                depth++;
+            } else if (c == ']' && --depth == 0) {
+                return i + 1;
+            }
+        }
+        return formula.length();
+    }
+}
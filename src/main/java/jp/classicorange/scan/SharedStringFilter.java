@@ -0,0 +1,190 @@
+package jp.classicorange.scan;
+
+import jp.classicorange.matcher.TextMatcher;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.model.SharedStrings;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.InputStream;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntFunction;
+import java.util.function.ObjIntConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 共有文字列テーブル (SST) を先に1回だけ検索した結果。
+ * <pre>
+ * テキストのセルのほとんどは SST の番号を持つだけなので、
+ * いずれかのキーワードを含む SST の番号をビットセットにしておけば、
+ * セルごとに文字列を取り出さずに番号だけで判定できる。
+ * 一致した文字列だけを保持するため、SST 全体はメモリに載せない。
+ * </pre>
+ */
+public final class SharedStringFilter {
+
+    /** Excel の文字エスケープ e.g. _x000D_ */
+    private static final Pattern UTF_ESCAPE = Pattern.compile("_x([0-9A-Fa-f]{4})_");
+
+    private final BitSet matched = new BitSet();
+    private final Map<Integer, String> strings = new HashMap<>();
+
+    private SharedStringFilter() { }
+
+    /**
+     * sharedStrings.xml をSAXで読んで作成する。
+     *
+     * @param sharedStringsData sharedStrings.xml。ない場合は null
+     * @param keywords キーワード
+     * @return SharedStringFilter
+     */
+    public static SharedStringFilter read(InputStream sharedStringsData, TextMatcher keywords) throws Exception {
+        SharedStringFilter filter = new SharedStringFilter();
+        if (sharedStringsData == null) return filter;
+
+        XMLReader parser = XMLHelper.newXMLReader();
+        parser.setContentHandler(filter.new Handler(keywords));
+        parser.parse(new InputSource(sharedStringsData));
+        return filter;
+    }
+
+    /**
+     * 読込み済みの SST から作成する。 (XSSFWorkbook 用)
+     *
+     * @param sharedStrings SST
+     * @param keywords キーワード
+     * @return SharedStringFilter
+     */
+    public static SharedStringFilter of(SharedStrings sharedStrings, TextMatcher keywords) {
+        SharedStringFilter filter = new SharedStringFilter();
+        int count = sharedStrings.getUniqueCount();
+        for (int i = 0; i < count; i++) {
+            filter.add(i, sharedStrings.getItemAt(i).getString(), keywords);
+        }
+        return filter;
+    }
+
+    /**
+     * 文字列の配列から作成する。 (.xls の SST 用)
+     *
+     * @param count 文字列の数
+     * @param items 番号から文字列を返す関数
+     * @param keywords キーワード
+     * @return SharedStringFilter
+     */
+    public static SharedStringFilter of(int count, IntFunction<String> items, TextMatcher keywords) {
+        SharedStringFilter filter = new SharedStringFilter();
+        for (int i = 0; i < count; i++) {
+            filter.add(i, items.apply(i), keywords);
+        }
+        return filter;
+    }
+
+    private void add(int index, String text, TextMatcher keywords) {
+        if (keywords.matches(text)) {
+            matched.set(index);
+            strings.put(index, text);
+        }
+    }
+
+    /**
+     * @param index SST の番号
+     * @return いずれかのキーワードを含む場合 true
+     */
+    public boolean matches(int index) {
+        return matched.get(index);
+    }
+
+    /**
+     * @param index SST の番号 (matches が true のもの)
+     * @return 文字列
+     */
+    public String getString(int index) {
+        return strings.get(index);
+    }
+
+    /**
+     * 一致した SST を番号順に渡す。
+     *
+     * @param action 番号と文字列を受け取る処理
+     */
+    public void forEach(ObjIntConsumer<String> action) {
+        for (int i = matched.nextSetBit(0); i >= 0; i = matched.nextSetBit(i + 1)) {
+            action.accept(strings.get(i), i);
+        }
+    }
+
+    /**
+     * @return 一致する SST がない場合 true
+     */
+    public boolean isEmpty() {
+        return matched.isEmpty();
+    }
+
+    /**
+     * Excel の文字エスケープ (_xHHHH_) を戻す。 XSSFRichTextString.getString と同じ。
+     *
+     * @param text 文字列
+     * @return 戻した文字列
+     */
+    static String utfDecode(String text) {
+        if (text.indexOf("_x") < 0) return text;
+        Matcher m = UTF_ESCAPE.matcher(text);
+        StringBuilder sb = new StringBuilder();
+        while (m.find()) {
+            m.appendReplacement(sb, Matcher.quoteReplacement(
+                String.valueOf((char) Integer.parseInt(m.group(1), 16))));
+        }
+        m.appendTail(sb);
+        return sb.toString();
+    }
+
+    /**
+     * &lt;si&gt; ごとに &lt;t&gt; の文字列を連結して判定する。ふりがな (rPh) は除く。
+     */
+    private class Handler extends DefaultHandler {
+
+        private final TextMatcher keywords;
+        private final StringBuilder text = new StringBuilder();
+        private int index = -1;
+        private boolean inText;
+        private boolean inPhonetic;
+
+        Handler(TextMatcher keywords) {
+            this.keywords = keywords;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            switch (localName) {
+                case "si" -> {
+                    index++;
+                    text.setLength(0);
+                }
+                case "rPh" -> inPhonetic = true;
+                case "t" -> inText = !inPhonetic;
+                default -> { }
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            switch (localName) {
+                case "si" -> add(index, utfDecode(text.toString()), keywords);
+                case "rPh" -> inPhonetic = false;
+                case "t" -> inText = false;
+                default -> { }
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (inText) text.append(ch, start, length);
+        }
+    }
+}
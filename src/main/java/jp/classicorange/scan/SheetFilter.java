@@ -0,0 +1,23 @@
+package jp.classicorange.scan;
+
+/**
+ * 読込むシートの判定。
+ * <pre>
+ * 読まないシートは検索結果を返さない。 (呼出し側が別の手段で補う)
+ * ・ScanCache : 変更されていないシートは前回の結果を使う
+ * ・NgramIndex : 索引で候補にならないシートは一致しない
+ * </pre>
+ */
+@FunctionalInterface
+public interface SheetFilter {
+
+    /** すべてのシートを読む */
+    SheetFilter ALL = (sheetIndex, partName) -> true;
+
+    /**
+     * @param sheetIndex シートのインデックス
+     * @param partName シートのパート名 e.g. /xl/worksheets/sheet1.xml (.xls は null)
+     * @return 読む場合 true
+     */
+    boolean parse(int sheetIndex, String partName);
+}
@@ -0,0 +1,339 @@
+package jp.classicorange.scan;
+
+import jp.classicorange.matcher.TextMatcher;
+import jp.classicorange.types.LocationType;
+import jp.classicorange.utils.entity.Hit;
+import org.apache.poi.hssf.record.FooterRecord;
+import org.apache.poi.hssf.record.HeaderRecord;
+import org.apache.poi.hssf.record.aggregates.PageSettingsBlock;
+import org.apache.poi.hssf.usermodel.HSSFComment;
+import org.apache.poi.hssf.usermodel.HSSFDataValidation;
+import org.apache.poi.hssf.usermodel.HSSFRichTextString;
+import org.apache.poi.hssf.usermodel.HSSFSheet;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.openxml4j.opc.PackageRelationship;
+import org.apache.poi.ss.util.CellAddress;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.usermodel.XSSFRelation;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTDataValidation;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTHeaderFooter;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTWorksheet;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * セル以外のシートの文字列 (コメント・ヘッダー/フッター・入力規則) を読む。
+ * <pre>
+ * ・コメント : .xlsx はシートに紐づくコメントのパート (xl/commentsN.xml) と
+ *   スレッド形式のコメントのパート (xl/threadedComments/threadedCommentN.xml) を StAX で直接読む。
+ *   スレッド形式のコメントは返信も1件ずつとし、同じセルの旧形式のコメント (Excel が互換用に書く写し) は除く。
+ *   .xls は HSSFComment / TXO の文字列。セルの順 (行、列) に並べる
+ * ・ヘッダー/フッター : 書式・フィールドのコード (&amp;P / &amp;"フォント" / &amp;12 など) を除き、
+ *   左・中央・右の順に改行でつなぐ。position は oddHeader / oddFooter / evenHeader / evenFooter /
+ *   firstHeader / firstFooter (.xls は oddHeader / oddFooter だけ)
+ * ・入力規則 : 入力時メッセージのタイトル・本文、エラーメッセージのタイトル・本文を1件ずつ。
+ *   position は対象のセル範囲の先頭
+ * .xlsx のヘッダー/フッター・入力規則はシートXMLの末尾にあるため、ストリーム読みでは XlsxSheetHandler が
+ * セルと同じ解析で読む。ブックを読込んだ場合は、読込み済みのシートの値を同じ規則で文字列にする。
+ * シート内の出力順は、図形、コメント、セル、入力規則、ヘッダー/フッター。いずれも置換はしない。
+ * </pre>
+ */
+public final class SheetNoteScanner {
+
+    /** スレッド形式のコメントのリレーション */
+    static final String THREADED_COMMENTS =
+        "http://schemas.microsoft.com/office/2017/10/relationships/threadedComment";
+
+    /** ヘッダー/フッターの要素名 (シートXMLの順) */
+    static final List<String> HEADER_FOOTER = List.of(
+        "oddHeader", "oddFooter", "evenHeader", "evenFooter", "firstHeader", "firstFooter");
+
+    private SheetNoteScanner() {
+    }
+
+    /**
+     * セル以外の文字列1件分。
+     *
+     * @param type 場所の種類
+     * @param row 行 (0から)。コメントはコメントのセル、入力規則は範囲の先頭、ヘッダー/フッターは 0
+     * @param col 列 (0から)
+     * @param position 結果の position 列の値
+     * @param text 文字列
+     */
+    public record NoteText(LocationType type, int row, int col, String position, String text) { }
+
+    /**
+     * 文字列の一致を結果に加える。キーワードごとに1件とし、置換はしない (replaced は null)。
+     *
+     * @param notes 文字列
+     * @param scope 検索する範囲 (コメントはセル範囲で絞り込む)
+     */
+    public static void addHits(List<Hit> hits, List<NoteText> notes, TextMatcher matcher, List<String> words,
+                               SearchScope scope, int fileIndex, int sheetIndex, String filePath, String sheetName) {
+        for (NoteText note : notes) {
+            if (note.type() == LocationType.COMMENT && !scope.includesCell(note.row(), note.col())) continue;
+            for (int id : matcher.find(note.text())) {
+                hits.add(new Hit(fileIndex, sheetIndex, -1, filePath, sheetName, note.position(),
+                    note.text(), null, words.get(id), note.type()));
+            }
+        }
+    }
+
+    /**
+     * .xlsx のシートに紐づくコメントを読む。
+     *
+     * @param sheetPart シートXMLのパート (中身は読まない)
+     * @return コメント (セルの順)
+     */
+    public static List<NoteText> readComments(PackagePart sheetPart) throws Exception {
+        List<NoteText> notes = new ArrayList<>();
+        Set<String> threaded = new HashSet<>();
+        for (PackageRelationship rel : sheetPart.getRelationshipsByType(THREADED_COMMENTS)) {
+            PackagePart part = sheetPart.getRelatedPart(rel);
+            if (part != null) readComments(part, "threadedComment", Set.of(), notes, threaded);
+        }
+        for (PackageRelationship rel : sheetPart.getRelationshipsByType(XSSFRelation.SHEET_COMMENTS.getRelation())) {
+            PackagePart part = sheetPart.getRelatedPart(rel);
+            if (part != null) readComments(part, "comment", threaded, notes, new HashSet<>());
+        }
+        notes.sort(CELL_ORDER);
+        return notes;
+    }
+
+    /**
+     * コメントのパート1つを読む。&lt;comment ref&gt; / &lt;threadedComment ref&gt; の &lt;text&gt; の文字列 (ふりがなを除く)。
+     *
+     * @param element コメントの要素名
+     * @param skip 読まないセル
+     * @param refs 読んだコメントのセルの記録先
+     */
+    private static void readComments(PackagePart part, String element, Set<String> skip,
+                                     List<NoteText> notes, Set<String> refs) throws Exception {
+        try (InputStream in = part.getInputStream()) {
+            XMLStreamReader xml = XMLHelper.newXMLInputFactory().createXMLStreamReader(in);
+            try {
+                String ref = null;
+                StringBuilder text = null;
+                boolean inText = false;
+                boolean inPhonetic = false;
+                while (xml.hasNext()) {
+                    int event = xml.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        String name = xml.getLocalName();
+                        if (name.equals(element)) {
+                            ref = xml.getAttributeValue(null, "ref");
+                            text = (ref == null || skip.contains(ref)) ? null : new StringBuilder();
+                        } else if (name.equals("rPh")) {
+                            inPhonetic = true;
+                        } else if (text != null && !inPhonetic) {
+                            // 旧形式は <text><r><t>、スレッド形式は <text> が文字列
+                            inText = name.equals(element.equals("comment") ? "t" : "text");
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT) {
+                        String name = xml.getLocalName();
+                        if (name.equals(element) && text != null) {
+                            CellReference cell = new CellReference(ref);
+                            notes.add(new NoteText(LocationType.COMMENT, cell.getRow(), cell.getCol(),
+                                ref, text.toString()));
+                            refs.add(ref);
+                            text = null;
+                        } else if (name.equals("rPh")) {
+                            inPhonetic = false;
+                        }
+                        inText = false;
+                    } else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) {
+                        if (inText) text.append(xml.getText());
+                    }
+                }
+            } finally {
+                xml.close();
+            }
+        }
+    }
+
+    /**
+     * 読込み済みの .xls のシートのコメントを読む。
+     *
+     * @param sheet シート
+     * @return コメント (セルの順)
+     */
+    public static List<NoteText> readComments(HSSFSheet sheet) {
+        List<NoteText> notes = new ArrayList<>();
+        for (Map.Entry<CellAddress, HSSFComment> e : sheet.getCellComments().entrySet()) {
+            HSSFRichTextString rText = e.getValue().getString();
+            String text = (rText != null) ? rText.getString() : "";
+            notes.add(comment(e.getKey().getRow(), e.getKey().getColumn(), text));
+        }
+        notes.sort(CELL_ORDER);
+        return notes;
+    }
+
+    /**
+     * @return コメント1件
+     */
+    static NoteText comment(int row, int col, String text) {
+        return new NoteText(LocationType.COMMENT, row, col, new CellAddress(row, col).formatAsString(), text);
+    }
+
+    /** セルの順 (同じセルは元の順) */
+    static final Comparator<NoteText> CELL_ORDER =
+        Comparator.comparingInt(NoteText::row).thenComparingInt(NoteText::col);
+
+    /**
+     * 読込み済みの .xlsx のシートの入力規則・ヘッダー/フッターを読む (XlsxSheetHandler と同じ順・規則)。
+     *
+     * @param sheet シート
+     * @return 入力規則、ヘッダー/フッターの順
+     */
+    public static List<NoteText> readSheetNotes(XSSFSheet sheet) {
+        List<NoteText> notes = new ArrayList<>();
+        CTWorksheet ws = sheet.getCTWorksheet();
+        if (ws.isSetDataValidations()) {
+            for (CTDataValidation dv : ws.getDataValidations().getDataValidationArray()) {
+                List<?> sqref = dv.getSqref();
+                String first = (sqref == null || sqref.isEmpty()) ? null : sqref.get(0).toString();
+                addValidation(notes, first, dv.getPromptTitle(), dv.getPrompt(), dv.getErrorTitle(), dv.getError());
+            }
+        }
+        if (ws.isSetHeaderFooter()) {
+            CTHeaderFooter hf = ws.getHeaderFooter();
+            addHeaderFooter(notes, "oddHeader", hf.getOddHeader());
+            addHeaderFooter(notes, "oddFooter", hf.getOddFooter());
+            addHeaderFooter(notes, "evenHeader", hf.getEvenHeader());
+            addHeaderFooter(notes, "evenFooter", hf.getEvenFooter());
+            addHeaderFooter(notes, "firstHeader", hf.getFirstHeader());
+            addHeaderFooter(notes, "firstFooter", hf.getFirstFooter());
+        }
+        return notes;
+    }
+
+    /**
+     * 読込み済みの .xls のシートの入力規則・ヘッダー/フッターを読む (XlsStreamScanner と同じ順・規則)。
+     *
+     * @param sheet シート
+     * @return 入力規則、ヘッダー/フッターの順
+     */
+    public static List<NoteText> readSheetNotes(HSSFSheet sheet) {
+        List<NoteText> notes = new ArrayList<>();
+        for (HSSFDataValidation dv : sheet.getDataValidations()) {
+            CellRangeAddress[] regions = dv.getRegions().getCellRangeAddresses();
+            String first = (regions.length == 0) ? null : regions[0].formatAsString();
+            addValidation(notes, first, dv.getPromptBoxTitle(), dv.getPromptBoxText(),
+                dv.getErrorBoxTitle(), dv.getErrorBoxText());
+        }
+        // HSSFHeader の getLeft などは &&L を区切りと読むため、XlsStreamScanner と同じくレコードの文字列を使う
+        PageSettingsBlock pageSettings = sheet.getSheet().getPageSettings();
+        HeaderRecord header = pageSettings.getHeader();
+        FooterRecord footer = pageSettings.getFooter();
+        if (header != null) addHeaderFooter(notes, "oddHeader", header.getText());
+        if (footer != null) addHeaderFooter(notes, "oddFooter", footer.getText());
+        return notes;
+    }
+
+    /**
+     * 入力規則のメッセージを加える。空のメッセージは加えない。
+     *
+     * @param sqref 対象のセル範囲 (.xlsx の sqref は空白区切りのため先頭だけを使う)
+     * @param texts 入力時メッセージのタイトル・本文、エラーメッセージのタイトル・本文
+     */
+    static void addValidation(List<NoteText> notes, String sqref, String... texts) {
+        if (sqref == null || sqref.isBlank()) return;
+        String first = sqref.trim().split("\\s+")[0];
+        CellReference cell = new CellReference(first.split(":")[0]);
+        for (String text : texts) {
+            // .xls は空の文字列を "\0" で持つ
+            if (text == null || text.isEmpty() || text.equals("\0")) continue;
+            notes.add(new NoteText(LocationType.VALIDATION, cell.getRow(), cell.getCol(), first, text));
+        }
+    }
+
+    /**
+     * ヘッダー/フッターを加える。コードを除いて空になるものは加えない。
+     *
+     * @param kind 種類 (oddHeader など)
+     * @param raw コードを含む文字列 (null 可)
+     */
+    static void addHeaderFooter(List<NoteText> notes, String kind, String raw) {
+        if (raw == null) return;
+        String text = headerFooterText(raw);
+        if (!text.isEmpty()) notes.add(new NoteText(LocationType.HEADER_FOOTER, 0, 0, kind, text));
+    }
+
+    /**
+     * ヘッダー/フッターのコードを除いた文字列にする。
+     * <pre>
+     * &amp;L / &amp;C / &amp;R で区切られた左・中央・右の部分を、その順に改行でつなぐ (空の部分は除く)。
+     * 区切りより前の文字列は中央とする。
+     * ・&amp;&amp; : &amp;
+     * ・&amp;"フォント,スタイル" / &amp;12 (文字の大きさ) / &amp;Krrggbb (色) : 除く
+     * ・&amp;P / &amp;N / &amp;D / &amp;T / &amp;A / &amp;F / &amp;Z / &amp;G / &amp;B / &amp;I / &amp;U など : 除く
+     * </pre>
+     *
+     * @param raw コードを含む文字列
+     * @return 文字列
+     */
+    public static String headerFooterText(String raw) {
+        StringBuilder[] parts = {new StringBuilder(), new StringBuilder(), new StringBuilder()};
+        stripCodes(raw, parts);
+        return join(parts[0], parts[1], parts[2]);
+    }
+
+    /**
+     * コードを除いた文字列を左・中央・右の parts に書く。
+     * 文字列は1回だけ読むため、&amp;&amp; から戻した &amp; をコードとして読むことはない。
+     */
+    private static void stripCodes(String raw, StringBuilder[] parts) {
+        StringBuilder part = parts[1];
+        int i = 0;
+        int len = raw.length();
+        while (i < len) {
+            char c = raw.charAt(i++);
+            if (c != '&' || i >= len) {
+                part.append(c);
+                continue;
+            }
+            char code = raw.charAt(i++);
+            switch (code) {
+                case '&' -> part.append('&');
+                case 'L' -> part = parts[0];
+                case 'C' -> part = parts[1];
+                case 'R' -> part = parts[2];
+                case '"' -> {
+                    int end = raw.indexOf('"', i);
+                    i = (end < 0) ? len : end + 1;
+                }
+                // 色 &Krrggbb / テーマの色 &KttSnnn
+                case 'K' -> i = Math.min(len, i + 6);
+                default -> {
+                    if (Character.isDigit(code)) {
+                        while (i < len && Character.isDigit(raw.charAt(i))) i++;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 空でない部分を改行でつなぐ。
+     */
+    private static String join(CharSequence... parts) {
+        StringBuilder sb = new StringBuilder();
+        for (CharSequence part : parts) {
+            if (part.isEmpty()) continue;
+            if (!sb.isEmpty()) sb.append('\n');
+            sb.append(part);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,631 @@
+package jp.classicorange.scan;
+
+import jp.classicorange.matcher.TextMatcher;
+import jp.classicorange.metrics.FileMetrics;
+import jp.classicorange.metrics.Phase;
+import jp.classicorange.types.FormulaTarget;
+import jp.classicorange.types.LocationType;
+import jp.classicorange.utils.CheckParameter;
+import jp.classicorange.utils.ExcelUtils;
+import jp.classicorange.utils.entity.Hit;
+import org.apache.poi.hssf.eventusermodel.AbortableHSSFListener;
+import org.apache.poi.hssf.eventusermodel.EventWorkbookBuilder;
+import org.apache.poi.hssf.eventusermodel.HSSFEventFactory;
+import org.apache.poi.hssf.eventusermodel.HSSFListener;
+import org.apache.poi.hssf.eventusermodel.HSSFRequest;
+import org.apache.poi.hssf.model.HSSFFormulaParser;
+import org.apache.poi.hssf.record.*;
+import org.apache.poi.hssf.record.Record;
+import org.apache.poi.hssf.usermodel.HSSFRichTextString;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+import org.apache.poi.ss.formula.ptg.ExpPtg;
+import org.apache.poi.ss.formula.ptg.Ptg;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.SheetVisibility;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.util.LittleEndian;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * .xls を HSSF のイベントAPIで1回だけ読み通す検索専用スキャナ。
+ * <pre>
+ * HSSFWorkbook / HSSFPatriarch は作らず、レコードを受け取りながら判定する。
+ * ・SST / LABELSST / LABEL / NUMBER / RK / MULRK / BOOLERR / FORMULA : セル
+ * ・STRING : 直前の FORMULA の文字列の計算結果 (--formula=value / both の場合)
+ * ・SHRFMLA / ARRAY / TABLE : 共有数式・配列数式・データテーブルの定義 (先頭セルの FORMULA の直後に来る)
+ * ・FORMAT / XF : 数値のセルの表示形式 (--display-format の場合に NumberRenderer が使う)
+ * ・MSODRAWING のクライアントアンカー + TXO : シェイプ (グループ内のシェイプはグループのアンカーの位置)
+ * ・OBJ (コメント) + TXO と NOTE : コメント (NOTE の shapeId が OBJ の objectId に対応する)
+ * ・HEADER / FOOTER : ヘッダー/フッター (oddHeader / oddFooter。偶数・先頭ページのものは対象外)
+ * ・DV : 入力規則のメッセージ
+ * SST は読込んだ時点で1回だけ検索し、LABELSST は番号だけで判定する。
+ * 範囲 (SearchScope) の外のシートと SheetFilter で読まないシート (索引で候補にならないシートなど) のレコードは判定せず、
+ * 対象の最後のシートを読み終えたら残りは読まない。
+ * --visible-only の場合、ROW の非表示の行・COLINFO の非表示の列のセルは判定しない。
+ * --shapes-only の場合、SST もセル・コメントのレコードも判定しない。
+ * 埋込みグラフ (シート内の CHART サブストリーム) のタイトルは対象外。
+ * シート内の出力順は SearchExcel.searchWord と同じく、シェイプ、コメント、セル、入力規則、ヘッダー/フッターの順。
+ * </pre>
+ */
+public class XlsStreamScanner {
+
+    private static final Logger log = LoggerFactory.getLogger(XlsStreamScanner.class);
+
+    /** Escher のクライアントアンカー (シート上の位置) */
+    private static final int ESCHER_CLIENT_ANCHOR = 0xF010;
+
+    private final CheckParameter.SearchCond cond;
+    /** キーワードの照合器 (cond.words() と同じ並び) */
+    private final TextMatcher matcher;
+    /** 検索する範囲 */
+    private final SearchScope scope;
+
+    public XlsStreamScanner(CheckParameter.SearchCond cond, TextMatcher matcher) {
+        this(cond, matcher, new SearchScope(cond.scope()));
+    }
+
+    public XlsStreamScanner(CheckParameter.SearchCond cond, TextMatcher matcher, SearchScope scope) {
+        this.cond = cond;
+        this.matcher = matcher;
+        this.scope = scope;
+    }
+
+    /**
+     * 対象ファイルを検索する。
+     *
+     * @param fileIndex ファイルのインデックス
+     * @param file 対象ファイル
+     * @return 検索結果
+     */
+    public List<Hit> scan(int fileIndex, File file) throws Exception {
+        return scan(fileIndex, file, SheetFilter.ALL, new FileMetrics(file.getAbsolutePath()));
+    }
+
+    /**
+     * 対象ファイルを検索し、段階ごとの時間と件数を記録する。
+     * レコードの読込みとセルの判定は同時に行うため、シェイプ (TXO) 以外は CELL_SCAN に計上する。
+     *
+     * @param fileIndex ファイルのインデックス
+     * @param file 対象ファイル
+     * @param sheetFilter 読込むシートの判定 (.xls のパート名は null)
+     * @param metrics 計測結果の記録先
+     * @return 検索結果。読込みエラーの場合は空 (metrics にエラーを記録する)
+     */
+    public List<Hit> scan(int fileIndex, File file, SheetFilter sheetFilter, FileMetrics metrics) throws Exception {
+        String path = file.getAbsolutePath();
+        SheetListener listener = new SheetListener(fileIndex, path, sheetFilter);
+        EventWorkbookBuilder.SheetRecordCollectingListener collector =
+            new EventWorkbookBuilder.SheetRecordCollectingListener(listener);
+        listener.collector = collector;
+
+        HSSFRequest request = new HSSFRequest();
+        // 範囲内のシートを読み終えたら残りのレコードは読まない
+        request.addListenerForAllRecords(new AbortableHSSFListener() {
+            @Override
+            public short abortableProcessRecord(Record rec) {
+                collector.processRecord(rec);
+                return listener.finished ? (short) 1 : 0;
+            }
+        });
+        long start = System.nanoTime();
+        try (POIFSFileSystem fs = new POIFSFileSystem(file, true)) {
+            metrics.add(Phase.OPEN, start);
+            metrics.addBytesRead(file.length());
+            start = System.nanoTime();
+            new HSSFEventFactory().abortableProcessWorkbookEvents(request, fs);
+            metrics.addNanos(Phase.CELL_SCAN, System.nanoTime() - start - listener.shapeNanos);
+        } catch (Exception ex) {
+            log.warn("読込みエラー : {} {}", path, ex.getMessage());
+            metrics.setError(ex.getMessage());
+            return List.of();
+        }
+        metrics.addNanos(Phase.SHAPE_SCAN, listener.shapeNanos);
+        metrics.addCells(listener.cellCount);
+        metrics.addShapes(listener.shapeCount);
+        return listener.hits;
+    }
+
+    /**
+     * レコードを受け取り、シート単位で結果を組み立てるリスナー。
+     */
+    private class SheetListener implements HSSFListener {
+
+        private final int fileIndex;
+        private final String filePath;
+        /** 読込むシートの判定 */
+        private final SheetFilter sheetFilter;
+        private final List<String> words = cond.words();
+        private final FormulaTarget formulaTarget = cond.formula();
+        /** 表示形式の番号 → 表示形式 (ブックで定義したもの) */
+        private final Map<Integer, String> formatStrings = new HashMap<>();
+        /** XF 番号 → 表示形式の番号 */
+        private final List<Integer> xfFormats = new ArrayList<>();
+        private final NumberRenderer numbers = new NumberRenderer(matcher, cond.displayFormat(),
+            new NumberRenderer.Formats() {
+                @Override
+                public int formatIndex(int style) {
+                    return style < xfFormats.size() ? xfFormats.get(style) : 0;
+                }
+
+                @Override
+                public String formatString(int style) {
+                    return formatStrings.get(formatIndex(style));
+                }
+
+                @Override
+                public int styleCount() {
+                    return -1;
+                }
+            });
+        private final List<Hit> hits = new ArrayList<>();
+
+        private EventWorkbookBuilder.SheetRecordCollectingListener collector;
+
+        /** BoundSheet の並び (DOM の sheetIndex 順) */
+        private final List<BoundSheetRecord> boundSheets = new ArrayList<>();
+        /** BOF の位置順に並べた BoundSheet */
+        private BoundSheetRecord[] sheetsInStreamOrder;
+        /** キーワードを含む SST の番号 */
+        private SharedStringFilter sst = SharedStringFilter.of(0, i -> "", matcher);
+
+        /** BOF の入れ子の深さ (埋込みグラフは深さ2) */
+        private int depth = 0;
+        /** 読込み済みのシート数 */
+        private int sheetCount = 0;
+        /** 範囲内のシートのうち、まだ読んでいないものの数 (BoundSheet をすべて読むまでは -1) */
+        private int remainingSheets = -1;
+        /** 範囲内のシートをすべて読み終えた */
+        private boolean finished;
+
+        /** 非表示の行・列 (--visible-only の場合だけ記録する) */
+        private final BitSet hiddenRows = new BitSet();
+        private final BitSet hiddenCols = new BitSet();
+
+        private int sheetIndex = -1;
+        private String sheetName;
+        private int cellIndex;
+        private final List<Hit> shapeHits = new ArrayList<>();
+        private final List<Hit> cellHits = new ArrayList<>();
+        /** コメント (NOTE の順。シートの終わりにセルの順に並べる) */
+        private final List<SheetNoteScanner.NoteText> comments = new ArrayList<>();
+        /** 入力規則とヘッダー/フッター */
+        private final List<SheetNoteScanner.NoteText> validations = new ArrayList<>();
+        private final List<SheetNoteScanner.NoteText> headerFooters = new ArrayList<>();
+        /** コメントの objectId → 文字列 (TXO) */
+        private final Map<Integer, String> commentTexts = new HashMap<>();
+        /** 直前の OBJ がコメントの場合、その objectId (それ以外は -1) */
+        private int commentObjectId = -1;
+
+        /** 読んだセルのレコード数 */
+        private long cellCount;
+        /** 読んだシェイプ (TXO) の数と、その判定の時間 */
+        private long shapeCount;
+        private long shapeNanos;
+
+        /** 直前のシェイプのアンカー {row, col}。グループ内のシェイプはグループのアンカー */
+        private int[] anchor;
+
+        /** 共有数式・配列数式・データテーブルの定義 (先頭セルの行,列 → 定義) */
+        private final Map<Long, SharedValueRecordBase> sharedValues = new HashMap<>();
+        /** 定義 (SHRFMLA / ARRAY / TABLE) より先に来た先頭セルの数式 */
+        private FormulaRecord pendingSharedFormula;
+        /** 文字列の計算結果 (STRING) を待っている数式のセル */
+        private FormulaRecord pendingString;
+        /** pendingString の数式の文字列で一致したキーワード */
+        private int[] pendingStringFound;
+
+        SheetListener(int fileIndex, String filePath, SheetFilter sheetFilter) {
+            this.fileIndex = fileIndex;
+            this.filePath = filePath;
+            this.sheetFilter = sheetFilter;
+        }
+
+        @Override
+        public void processRecord(Record rec) {
+            try {
+                process(rec);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+        }
+
+        private void process(Record rec) throws Exception {
+            switch (rec) {
+                case BOFRecord bof -> startSubstream(bof);
+                case EOFRecord ignored -> endSubstream();
+                case BoundSheetRecord bsr -> boundSheets.add(bsr);
+                case SSTRecord sstRecord -> {
+                    if (!scope.shapesOnly()) {
+                        sst = SharedStringFilter.of(sstRecord.getNumUniqueStrings(),
+                            i -> sstRecord.getString(i).getString(), matcher);
+                    }
+                }
+                case FormatRecord f -> formatStrings.put(f.getIndexCode(), f.getFormatString());
+                case ExtendedFormatRecord xf -> {
+                    // ブックの XF だけ (シートは XF を持たない)
+                    if (sheetIndex < 0) xfFormats.add((int) xf.getFormatIndex());
+                }
+                default -> {
+                    // シート内 (埋込みグラフを除く) のレコードだけ処理
+                    if (depth == 1 && sheetIndex >= 0) sheetRecord(rec);
+                }
+            }
+        }
+
+        private void startSubstream(BOFRecord bof) {
+            depth++;
+            if (depth != 1 || bof.getType() == BOFRecord.TYPE_WORKBOOK) return;
+
+            if (sheetsInStreamOrder == null) {
+                sheetsInStreamOrder = BoundSheetRecord.orderByBofPosition(boundSheets);
+                remainingSheets = (int) boundSheets.stream().filter(this::inScope).count();
+                finished = remainingSheets == 0;
+            }
+            if (sheetCount >= sheetsInStreamOrder.length) return;
+            BoundSheetRecord bsr = sheetsInStreamOrder[sheetCount++];
+            // 範囲外のシートはレコードを判定しない
+            if (!inScope(bsr)) return;
+            remainingSheets--;
+            sheetIndex = boundSheets.indexOf(bsr);
+            sheetName = bsr.getSheetname();
+            cellIndex = 0;
+            anchor = null;
+            commentObjectId = -1;
+            sharedValues.clear();
+            pendingSharedFormula = null;
+            pendingString = null;
+            hiddenRows.clear();
+            hiddenCols.clear();
+        }
+
+        private boolean inScope(BoundSheetRecord bsr) {
+            SheetVisibility visibility = bsr.isVeryHidden() ? SheetVisibility.VERY_HIDDEN
+                : bsr.isHidden() ? SheetVisibility.HIDDEN : SheetVisibility.VISIBLE;
+            return scope.includesSheet(bsr.getSheetname(), visibility)
+                && sheetFilter.parse(boundSheets.indexOf(bsr), null);
+        }
+
+        private void endSubstream() throws Exception {
+            if (depth == 1 && sheetIndex >= 0) {
+                flushSharedFormula();
+                // シェイプ、コメント、セル、入力規則、ヘッダー/フッターの順に出力
+                hits.addAll(shapeHits);
+                comments.sort(SheetNoteScanner.CELL_ORDER);
+                addNoteHits(comments);
+                hits.addAll(cellHits);
+                addNoteHits(validations);
+                addNoteHits(headerFooters);
+                shapeHits.clear();
+                cellHits.clear();
+                comments.clear();
+                validations.clear();
+                headerFooters.clear();
+                commentTexts.clear();
+                sheetIndex = -1;
+                finished = remainingSheets == 0;
+            }
+            depth--;
+        }
+
+        private void sheetRecord(Record rec) throws Exception {
+            if (scope.shapesOnly()) {
+                shapeRecord(rec);
+                return;
+            }
+            // 定義が続かなかった数式は、定義なしで判定する
+            if (!(rec instanceof SharedValueRecordBase)) flushSharedFormula();
+            if (rec instanceof CellValueRecordInterface) {
+                cellCount++;
+            } else if (rec instanceof MulRKRecord r) {
+                cellCount += r.getNumColumns();
+            }
+            switch (rec) {
+                case RowRecord r -> {
+                    if (scope.visibleOnly() && r.getZeroHeight()) hiddenRows.set(r.getRowNumber());
+                }
+                case ColumnInfoRecord r -> {
+                    if (scope.visibleOnly() && r.getHidden()) {
+                        hiddenCols.set(r.getFirstColumn(), r.getLastColumn() + 1);
+                    }
+                }
+                case LabelSSTRecord r -> {
+                    // 一致しない番号は文字列を取り出さない
+                    if (sst.matches(r.getSSTIndex())) cell(r.getRow(), r.getColumn(), sst.getString(r.getSSTIndex()));
+                }
+                case LabelRecord r -> cell(r.getRow(), r.getColumn(), r.getValue());
+                case NumberRecord r ->
+                    numberCell(r.getRow(), r.getColumn(), numbers.number(r.getValue(), r.getXFIndex()));
+                case RKRecord r ->
+                    numberCell(r.getRow(), r.getColumn(), numbers.number(r.getRKNumber(), r.getXFIndex()));
+                case MulRKRecord r -> {
+                    for (int i = 0; i < r.getNumColumns(); i++) {
+                        numberCell(r.getRow(), r.getFirstColumn() + i,
+                            numbers.number(r.getRKNumberAt(i), r.getXFAt(i)));
+                    }
+                }
+                case BoolErrRecord r -> {
+                    if (r.isBoolean()) numberCell(r.getRow(), r.getColumn(), numbers.bool(r.getBooleanValue()));
+                }
+                case FormulaRecord r -> formula(r);
+                case StringRecord r -> cachedString(r);
+                case SharedValueRecordBase r -> sharedValue(r);
+                case HeaderRecord r -> {
+                    if (scope.includesSheetNotes()) {
+                        SheetNoteScanner.addHeaderFooter(headerFooters, "oddHeader", r.getText());
+                    }
+                }
+                case FooterRecord r -> {
+                    if (scope.includesSheetNotes()) {
+                        SheetNoteScanner.addHeaderFooter(headerFooters, "oddFooter", r.getText());
+                    }
+                }
+                case DVRecord r -> {
+                    if (scope.includesSheetNotes()) validation(r);
+                }
+                case NoteRecord r -> {
+                    String text = commentTexts.get(r.getShapeId());
+                    if (text != null) comments.add(SheetNoteScanner.comment(r.getRow(), r.getColumn(), text));
+                }
+                default -> shapeRecord(rec);
+            }
+        }
+
+        private void shapeRecord(Record rec) throws Exception {
+            switch (rec) {
+                case DrawingRecord r -> anchor = readAnchor(r.getRecordData(), anchor);
+                case ObjRecord r -> commentObjectId = commentObjectId(r);
+                case TextObjectRecord r -> {
+                    if (commentObjectId < 0) {
+                        shape(r);
+                    } else if (!scope.shapesOnly()) {
+                        HSSFRichTextString rText = r.getStr();
+                        commentTexts.put(commentObjectId, (rText != null) ? rText.getString() : "");
+                    }
+                }
+                default -> { }
+            }
+        }
+
+        /**
+         * 数式のセル。共有数式・配列数式は定義を展開してから文字列にする。
+         * 計算結果も検索する場合は、数式の文字列で一致しなかったキーワードだけを計算結果で判定する。
+         */
+        private void formula(FormulaRecord rec) throws Exception {
+            String text = formulaTarget.text() ? formulaText(rec) : null;
+            if (formulaTarget.text() && text == null) {
+                // 先頭セルは定義 (SHRFMLA / ARRAY / TABLE) より先に来る
+                pendingSharedFormula = rec;
+                return;
+            }
+            formulaCell(rec, text);
+        }
+
+        /**
+         * @param text 数式の文字列。判定しない場合・定義がない場合は null
+         */
+        private void formulaCell(FormulaRecord rec, String text) throws Exception {
+            int[] found = (text != null) ? cell(rec.getRow(), rec.getColumn(), text) : TextMatcher.NONE;
+            if (formulaTarget.value()) cachedValue(rec, found);
+        }
+
+        /**
+         * @return 数式の文字列。共有数式・配列数式・データテーブルで定義がまだない場合は null
+         */
+        private String formulaText(FormulaRecord rec) throws Exception {
+            Ptg[] ptgs = rec.getParsedExpression();
+            if (ptgs.length == 1 && ptgs[0] instanceof ExpPtg exp) {
+                switch (sharedValues.get(key(exp.getRow(), exp.getColumn()))) {
+                    case SharedFormulaRecord shared -> ptgs = shared.getFormulaTokens(rec);
+                    case ArrayRecord array -> ptgs = array.getFormulaTokens();
+                    case TableRecord table -> {
+                        return tableText(table);
+                    }
+                    case null, default -> {
+                        return null;
+                    }
+                }
+            }
+            return HSSFFormulaParser.toFormulaString(collector.getStubHSSFWorkbook(), ptgs);
+        }
+
+        /**
+         * FORMULA レコードに保存された計算結果。文字列は次の STRING レコードにある。
+         *
+         * @param found 数式の文字列で一致したキーワード
+         */
+        private void cachedValue(FormulaRecord rec, int[] found) throws Exception {
+            CellType type = rec.getCachedResultTypeEnum();
+            if (type == CellType.STRING) {
+                if (rec.hasCachedResultString()) {
+                    pendingString = rec;
+                    pendingStringFound = found;
+                }
+            } else if (type == CellType.NUMERIC) {
+                String value = numbers.number(rec.getValue(), rec.getXFIndex());
+                if (value != null) valueCell(rec.getRow(), rec.getColumn(), value, found);
+            } else if (type == CellType.BOOLEAN) {
+                String value = numbers.bool(rec.getCachedBooleanValue());
+                if (value != null) valueCell(rec.getRow(), rec.getColumn(), value, found);
+            }
+        }
+
+        private void cachedString(StringRecord rec) throws Exception {
+            if (pendingString == null) return;
+            FormulaRecord formula = pendingString;
+            pendingString = null;
+            valueCell(formula.getRow(), formula.getColumn(), rec.getString(), pendingStringFound);
+        }
+
+        private void sharedValue(SharedValueRecordBase rec) throws Exception {
+            sharedValues.put(key(rec.getFirstRow(), rec.getFirstColumn()), rec);
+            flushSharedFormula();
+        }
+
+        /**
+         * 定義を待っている数式を判定する。定義がない場合は数式の文字列は判定せず、計算結果だけを判定する。
+         */
+        private void flushSharedFormula() throws Exception {
+            if (pendingSharedFormula == null) return;
+            FormulaRecord pending = pendingSharedFormula;
+            pendingSharedFormula = null;
+            formulaCell(pending, formulaText(pending));
+        }
+
+        /**
+         * @return 一致したキーワード。範囲外のセルは NONE
+         */
+        private int[] cell(int row, int col, String original) throws Exception {
+            if (!inScope(row, col)) return TextMatcher.NONE;
+            int[] found = matcher.find(original);
+            addCellHits(row, col, original, found);
+            return found;
+        }
+
+        /**
+         * 数値・真偽値のセル。
+         *
+         * @param text NumberRenderer で文字列にした値。一致しえない場合は null
+         */
+        private void numberCell(int row, int col, String text) throws Exception {
+            if (text != null) cell(row, col, text);
+        }
+
+        /**
+         * 数式の計算結果。数式の文字列で一致したキーワードは除く。
+         */
+        private void valueCell(int row, int col, String value, int[] textFound) throws Exception {
+            if (!inScope(row, col)) return;
+            addCellHits(row, col, value, matcher.findExcept(value, textFound));
+        }
+
+        private boolean inScope(int row, int col) {
+            return scope.includesCell(row, col) && !hiddenRows.get(row) && !hiddenCols.get(col);
+        }
+
+        private void addCellHits(int row, int col, String value, int[] found) throws Exception {
+            if (found.length == 0) return;
+            String position = ExcelUtils.convertCellPos(row, col);
+            for (int id : found) {
+                cellHits.add(new Hit(fileIndex, sheetIndex, cellIndex++,
+                    filePath, sheetName, position,
+                    value, "", words.get(id), LocationType.CELL));
+            }
+        }
+
+        /**
+         * シェイプの文字列 (TXO)。直前の MSODRAWING のアンカー位置で出力する。
+         * SearchExcel.searchShape と同じく、グループ内のシェイプはグループのアンカー位置とする。
+         */
+        private void shape(TextObjectRecord rec) throws Exception {
+            long start = System.nanoTime();
+            shapeCount++;
+            try {
+                shapeText(rec);
+            } finally {
+                shapeNanos += System.nanoTime() - start;
+            }
+        }
+
+        private void shapeText(TextObjectRecord rec) throws Exception {
+            HSSFRichTextString rText = rec.getStr();
+            String text = (rText != null) ? rText.getString() : "";
+            if (anchor == null) return;
+            int[] found = matcher.find(text);
+            for (int id : found) {
+                shapeHits.add(new Hit(fileIndex, sheetIndex, -1,
+                    filePath, sheetName, ExcelUtils.convertCellPos(anchor[0], anchor[1]),
+                    null, null, words.get(id), LocationType.SHAPE));
+            }
+        }
+
+        /**
+         * @return コメントの OBJ の場合は objectId、それ以外は -1
+         */
+        private int commentObjectId(ObjRecord rec) {
+            if (!rec.getSubRecords().isEmpty()
+                && rec.getSubRecords().getFirst() instanceof CommonObjectDataSubRecord cmo
+                && cmo.getObjectType() == CommonObjectDataSubRecord.OBJECT_TYPE_COMMENT) {
+                return cmo.getObjectId();
+            }
+            return -1;
+        }
+
+        /**
+         * 入力規則のメッセージ。対象のセル範囲の先頭の位置で出力する。
+         */
+        private void validation(DVRecord rec) {
+            CellRangeAddress[] regions = rec.getCellRangeAddress().getCellRangeAddresses();
+            String first = (regions.length == 0) ? null : regions[0].formatAsString();
+            SheetNoteScanner.addValidation(validations, first,
+                rec.getPromptTitle(), rec.getPromptText(), rec.getErrorTitle(), rec.getErrorText());
+        }
+
+        private void addNoteHits(List<SheetNoteScanner.NoteText> notes) {
+            SheetNoteScanner.addHits(hits, notes, matcher, words, scope, fileIndex, sheetIndex, filePath, sheetName);
+        }
+
+        private long key(int row, int col) {
+            return ((long) row << 16) | col;
+        }
+    }
+
+    /**
+     * データテーブルの数式を Excel の表示 (TABLE(行の代入セル,列の代入セル)) の形にする。
+     * 単入力のテーブルは使わない側を空にする。
+     */
+    static String tableText(TableRecord table) throws Exception {
+        String first = ExcelUtils.convertCellPos(table.getRowInputRow(), table.getColInputRow());
+        if (table.isOneNotTwoVar()) {
+            return table.isRowOrColInpCell() ? "TABLE(" + first + ",)" : "TABLE(," + first + ")";
+        }
+        String second = ExcelUtils.convertCellPos(table.getRowInputCol(), table.getColInputCol());
+        return "TABLE(" + first + "," + second + ")";
+    }
+
+    /**
+     * MSODRAWING のデータから最後のシェイプのアンカーを取り出す。
+     * <pre>
+     * Escher レコードは 8バイトのヘッダー (ver/inst, recId, length) を持ち、
+     * ver が 0xF のものはコンテナとして中へ進む。
+     * 1つの MSODRAWING の長さがコンテナの長さより短い場合もあるため、
+     * ライブラリのパーサーは使わずにデータの範囲だけを読む。
+     * </pre>
+     *
+     * @param data MSODRAWING のデータ
+     * @param current 現在のアンカー
+     * @return {row, col}。アンカーがなければ current
+     *         (グループ内のシェイプの子アンカーは読まないため、グループのアンカーのまま)
+     */
+    static int[] readAnchor(byte[] data, int[] current) {
+        int[] result = current;
+        int pos = 0;
+        while (pos + 8 <= data.length) {
+            int verInst = LittleEndian.getUShort(data, pos);
+            int recId = LittleEndian.getUShort(data, pos + 2);
+            int length = LittleEndian.getInt(data, pos + 4);
+            if ((verInst & 0x0F) == 0x0F) {
+                // コンテナは中へ
+                pos += 8;
+                continue;
+            }
+            if (recId == ESCHER_CLIENT_ANCHOR && length >= 8 && pos + 16 <= data.length) {
+                int col = LittleEndian.getUShort(data, pos + 8 + 2);
+                int row = LittleEndian.getUShort(data, pos + 8 + 6);
+                result = new int[]{row, col};
+            }
+            if (length < 0) break;
+            pos += 8 + length;
+        }
+        return result;
+    }
+}
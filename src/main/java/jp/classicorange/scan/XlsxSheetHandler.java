@@ -0,0 +1,373 @@
+package jp.classicorange.scan;
+
+import jp.classicorange.matcher.TextMatcher;
+import jp.classicorange.types.FormulaTarget;
+import jp.classicorange.types.LocationType;
+import jp.classicorange.utils.ExcelUtils;
+import jp.classicorange.utils.entity.Hit;
+import org.apache.poi.ss.util.CellReference;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.Serial;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * シートXML (xl/worksheets/sheetN.xml) をSAXで読み、セルの値を検索するハンドラ。
+ * <pre>
+ * セルの値は ExcelUtils.getStringValue と同じ規則で文字列にする。
+ * ・共有文字列 / インライン文字列 : 文字列
+ * ・数値 : String.valueOf(double)
+ * ・真偽値 : true / false
+ * (--display-format の場合、数値・真偽値は NumberRenderer で c 要素の s 属性のスタイルの表示形式にする)
+ * ・数式 : 数式の文字列。共有数式の従属セルは、先頭セルの数式を SharedFormula で展開したもの
+ * 数式の計算結果も検索する場合 (--formula=value / both) は、数式のセルの &lt;v&gt; を t 属性に応じて文字列にし、
+ * 数式の文字列で一致しなかったキーワードだけを判定する。計算結果は置換しない。
+ * 共有文字列のセルは SharedStringFilter の番号だけで判定し、
+ * 数値・真偽値のセルはどのキーワードも一致しえない場合は文字列にしない (NumberRenderer が null を返す)。
+ * 1つのセルが複数のキーワードを含む場合、キーワードごとに1件とする。
+ * 保持するのは処理中のセル1つ分だけなので、シートの大きさによらずメモリは一定。
+ * 範囲 (SearchScope) の外のセル、--visible-only の場合は非表示の行 (row の hidden) と
+ * 列 (cols の col の hidden) のセルは判定しない。範囲の最後の行を過ぎたら EndOfScope で解析を止める。
+ * セル範囲の指定がない場合は、セルの後にある入力規則 (dataValidation の prompt / error 属性) と
+ * ヘッダー/フッター (headerFooter の子要素) も SheetNoteScanner の規則で検索する (出現順に出力する)。
+ *
+ * 置換する場合 (edits を渡した場合) は、結果の replaced に置換後の値を設定し、
+ * シートXMLを書き換える必要があるセル (共有文字列以外) を edits に記録する。
+ * 共有文字列のセルは sharedStrings.xml の側で置換するため記録しない。
+ * </pre>
+ */
+class XlsxSheetHandler extends DefaultHandler {
+
+    private final SharedStringFilter sharedStrings;
+    private final TextMatcher matcher;
+    private final List<String> words;
+    /** 数式のセルで検索する対象 */
+    private final FormulaTarget formulaTarget;
+    /** 数値・真偽値のセルの文字列化 */
+    private final NumberRenderer numbers;
+    /** 検索する範囲 */
+    private final SearchScope scope;
+    /** 非表示の列 (--visible-only の場合だけ記録する) */
+    private final BitSet hiddenCols = new BitSet();
+    /** 処理中の行が非表示 (--visible-only の場合だけ) */
+    private boolean rowHidden;
+    private final List<Hit> hits;
+    /** 書き換えるセル (行,列 → 置換後の値)。置換しない場合は null */
+    private final Map<Long, CellEdit> edits;
+
+    private final int fileIndex;
+    private final int sheetIndex;
+    private final String filePath;
+    private final String sheetName;
+
+    /** シート内のヒット連番 */
+    private int cellIndex = 0;
+    /** 読んだセルの数 */
+    private long cellCount = 0;
+
+    /** 処理中の行番号 (0から) */
+    private int rowNum = -1;
+    /** 処理中の列番号 (0から) */
+    private int colNum = -1;
+    /** 処理中のセルの型 (t属性) */
+    private String cellType;
+    /** 処理中のセルのスタイル番号 (s属性) */
+    private int cellStyle;
+
+    private final StringBuilder value = new StringBuilder();
+    private final StringBuilder formula = new StringBuilder();
+    private final StringBuilder inlineText = new StringBuilder();
+    /** 処理中のヘッダー/フッター */
+    private final StringBuilder headerFooter = new StringBuilder();
+    /** 入力規則・ヘッダー/フッターを検索する */
+    private final boolean sheetNotes;
+    private boolean hasFormula;
+    /** 処理中のセルの共有数式の番号 (si 属性)。共有数式でない場合は null */
+    private String sharedIndex;
+    /** 処理中のセルの共有数式の範囲 (ref 属性。先頭セルだけが持つ) */
+    private String sharedRef;
+    /** 共有数式の定義 (si → 定義)。範囲外のセルの定義も記録する */
+    private final Map<String, SharedFormula> sharedFormulas = new HashMap<>();
+
+    /** 文字を取り込む先 (null は取り込まない) */
+    private StringBuilder capture;
+    /** ふりがな (rPh) の中 */
+    private boolean inPhonetic;
+
+    /**
+     * シートXMLで書き換えるセル。
+     *
+     * @param text 置換後の値
+     * @param formula 数式のセル (数式は残し、計算結果を置換後の値にする)
+     */
+    record CellEdit(String text, boolean formula) {}
+
+    /**
+     * 範囲の最後の行を過ぎたため、シートの残りを読まずに解析を止める。
+     */
+    static final class EndOfScope extends SAXException {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        EndOfScope() {
+            super("範囲の最後の行を過ぎました");
+        }
+    }
+
+    XlsxSheetHandler(SharedStringFilter sharedStrings, TextMatcher matcher, List<String> words,
+                     FormulaTarget formulaTarget, NumberRenderer numbers, SearchScope scope, List<Hit> hits,
+                     int fileIndex, int sheetIndex, String filePath, String sheetName) {
+        this(sharedStrings, matcher, words, formulaTarget, numbers, scope, hits, null,
+            fileIndex, sheetIndex, filePath, sheetName);
+    }
+
+    XlsxSheetHandler(SharedStringFilter sharedStrings, TextMatcher matcher, List<String> words,
+                     FormulaTarget formulaTarget, NumberRenderer numbers, SearchScope scope, List<Hit> hits,
+                     Map<Long, CellEdit> edits, int fileIndex, int sheetIndex, String filePath, String sheetName) {
+        this.sharedStrings = sharedStrings;
+        this.matcher = matcher;
+        this.words = words;
+        this.formulaTarget = formulaTarget;
+        this.numbers = numbers;
+        this.scope = scope;
+        this.hits = hits;
+        this.edits = edits;
+        this.fileIndex = fileIndex;
+        this.sheetIndex = sheetIndex;
+        this.filePath = filePath;
+        this.sheetName = sheetName;
+        this.sheetNotes = scope.includesSheetNotes();
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes)
+        throws SAXException {
+        switch (localName) {
+            case "row" -> {
+                String r = attributes.getValue("r");
+                rowNum = (r != null) ? Integer.parseInt(r) - 1 : rowNum + 1;
+                colNum = -1;
+                if (rowNum > scope.lastRow()) throw new EndOfScope();
+                rowHidden = scope.visibleOnly() && isTrue(attributes.getValue("hidden"));
+            }
+            case "col" -> {
+                // <cols><col min="1" max="3" hidden="1"/> (列番号は1から)
+                if (scope.visibleOnly() && isTrue(attributes.getValue("hidden"))) {
+                    hiddenCols.set(Integer.parseInt(attributes.getValue("min")) - 1,
+                        Integer.parseInt(attributes.getValue("max")));
+                }
+            }
+            case "c" -> {
+                String r = attributes.getValue("r");
+                colNum = (r != null) ? new CellReference(r).getCol() : colNum + 1;
+                cellType = attributes.getValue("t");
+                String style = attributes.getValue("s");
+                cellStyle = (style != null) ? Integer.parseInt(style) : 0;
+                value.setLength(0);
+                formula.setLength(0);
+                inlineText.setLength(0);
+                hasFormula = false;
+                sharedIndex = null;
+                cellCount++;
+            }
+            case "v" -> capture = value;
+            case "f" -> {
+                hasFormula = true;
+                capture = formula;
+                boolean shared = "shared".equals(attributes.getValue("t"));
+                sharedIndex = shared ? attributes.getValue("si") : null;
+                sharedRef = shared ? attributes.getValue("ref") : null;
+            }
+            case "rPh" -> inPhonetic = true;
+            case "t" -> {
+                if (!inPhonetic) capture = inlineText;
+            }
+            case "dataValidation" -> {
+                if (sheetNotes) {
+                    List<SheetNoteScanner.NoteText> notes = new ArrayList<>();
+                    SheetNoteScanner.addValidation(notes, attributes.getValue("sqref"),
+                        attributes.getValue("promptTitle"), attributes.getValue("prompt"),
+                        attributes.getValue("errorTitle"), attributes.getValue("error"));
+                    addNoteHits(notes);
+                }
+            }
+            default -> {
+                if (sheetNotes && SheetNoteScanner.HEADER_FOOTER.contains(localName)) {
+                    headerFooter.setLength(0);
+                    capture = headerFooter;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+        switch (localName) {
+            case "v", "t" -> capture = null;
+            case "f" -> {
+                capture = null;
+                if (sharedIndex != null) sharedFormula();
+            }
+            case "rPh" -> inPhonetic = false;
+            case "c" -> endCell();
+            default -> {
+                if (capture == headerFooter && SheetNoteScanner.HEADER_FOOTER.contains(localName)) {
+                    capture = null;
+                    List<SheetNoteScanner.NoteText> notes = new ArrayList<>();
+                    SheetNoteScanner.addHeaderFooter(notes, localName, headerFooter.toString());
+                    addNoteHits(notes);
+                }
+            }
+        }
+    }
+
+    /**
+     * 共有数式の先頭セルは定義を記録し、従属セルは先頭セルの数式を展開する。
+     */
+    private void sharedFormula() {
+        if (!formula.isEmpty()) {
+            int firstRow = rowNum;
+            int firstCol = colNum;
+            if (sharedRef != null) {
+                CellReference first = new CellReference(sharedRef.split(":", 2)[0]);
+                firstRow = first.getRow();
+                firstCol = first.getCol();
+            }
+            sharedFormulas.put(sharedIndex, new SharedFormula(formula.toString(), firstRow, firstCol));
+        } else {
+            SharedFormula shared = sharedFormulas.get(sharedIndex);
+            if (shared != null) formula.append(shared.formulaAt(rowNum, colNum));
+        }
+    }
+
+    /**
+     * 入力規則・ヘッダー/フッターの一致を出力する。
+     */
+    private void addNoteHits(List<SheetNoteScanner.NoteText> notes) {
+        SheetNoteScanner.addHits(hits, notes, matcher, words, scope, fileIndex, sheetIndex, filePath, sheetName);
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) {
+        if (capture != null) {
+            capture.append(ch, start, length);
+        }
+    }
+
+    /**
+     * セル1つ分を読み終えたら値を判定する。
+     */
+    private void endCell() throws SAXException {
+        if (rowHidden || !scope.includesCell(rowNum, colNum) || hiddenCols.get(colNum)) return;
+        String original = cellValue();
+        int[] found = (original == null) ? TextMatcher.NONE : matcher.find(original);
+        if (found.length > 0) addTextHits(original, found);
+        // 計算結果 : 数式の文字列で一致しなかったキーワードだけ (SearchExcel.searchCell と同じ順)
+        if (hasFormula && formulaTarget.value()) {
+            String cached = cachedValue();
+            if (cached != null) addHits(cached, "", matcher.findExcept(cached, found));
+        }
+    }
+
+    /**
+     * セルの値 (数式は数式の文字列) の一致を出力し、置換する場合は書き換えるセルを記録する。
+     */
+    private void addTextHits(String original, int[] found) throws SAXException {
+        // 置換する場合は SearchExcel.replaceWord と同じく、置換しない場合は空文字
+        String replaced = "";
+        if (edits != null) {
+            String result = matcher.replace(original, found);
+            if (result != null) {
+                replaced = result;
+                boolean sharedString = !hasFormula && "s".equals(cellType);
+                if (!sharedString) edits.put(key(rowNum, colNum), new CellEdit(result, hasFormula));
+            }
+        }
+        addHits(original, replaced, found);
+    }
+
+    private void addHits(String value, String replaced, int[] found) throws SAXException {
+        if (found.length == 0) return;
+        try {
+            String position = ExcelUtils.convertCellPos(rowNum, colNum);
+            for (int id : found) {
+                hits.add(new Hit(fileIndex, sheetIndex, cellIndex++,
+                    filePath, sheetName, position,
+                    value, replaced, words.get(id), LocationType.CELL));
+            }
+        } catch (Exception e) {
+            throw new SAXException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return 読んだセル (&lt;c&gt;) の数
+     */
+    long cellCount() {
+        return cellCount;
+    }
+
+    private static boolean isTrue(String value) {
+        return "1".equals(value) || "true".equals(value);
+    }
+
+    /**
+     * @return edits のキー
+     */
+    static long key(int row, int col) {
+        return ((long) row << 16) | col;
+    }
+
+    /**
+     * セルの値を ExcelUtils.getStringValue と同じ形の文字列で返す。
+     *
+     * @return 値。値を持たないセルは null
+     */
+    private String cellValue() {
+        if (hasFormula) {
+            return (!formulaTarget.text() || formula.isEmpty()) ? null : formula.toString();
+        }
+        if (cellType == null || cellType.equals("n")) {
+            if (!numbers.mayMatch(cellStyle)) return null;
+            String v = value.toString().trim();
+            return v.isEmpty() ? null : numbers.number(Double.parseDouble(v), cellStyle);
+        }
+        return switch (cellType) {
+            case "s" -> {
+                // 値 (<v>) のないセルは空。一致しない番号は文字列を取り出さない
+                String v = value.toString().trim();
+                if (v.isEmpty()) yield null;
+                int index = Integer.parseInt(v);
+                yield sharedStrings.matches(index) ? sharedStrings.getString(index) : null;
+            }
+            case "inlineStr" -> SharedStringFilter.utfDecode(inlineText.toString());
+            case "str" -> value.toString();
+            case "b" -> numbers.bool("1".equals(value.toString().trim()));
+            default -> null;
+        };
+    }
+
+    /**
+     * 数式のセルに保存された計算結果を ExcelUtils.getCachedFormulaValue と同じ形の文字列で返す。
+     *
+     * @return 計算結果。エラー値と、&lt;v&gt; がないセルは null
+     */
+    private String cachedValue() {
+        if (value.isEmpty()) return null;
+        if (cellType == null || cellType.equals("n")) {
+            if (!numbers.mayMatch(cellStyle)) return null;
+            return numbers.number(Double.parseDouble(value.toString().trim()), cellStyle);
+        }
+        return switch (cellType) {
+            case "str" -> value.toString();
+            case "b" -> numbers.bool("1".equals(value.toString().trim()));
+            default -> null;
+        };
+    }
+}
@@ -0,0 +1,457 @@
+package jp.classicorange.scan;
+
+import jp.classicorange.journal.ReplaceJournal;
+import jp.classicorange.matcher.Keyword;
+import jp.classicorange.matcher.TextMatcher;
+import jp.classicorange.metrics.FileMetrics;
+import jp.classicorange.metrics.Phase;
+import jp.classicorange.metrics.ReplaceWriteEvent;
+import jp.classicorange.metrics.SheetScanEvent;
+import jp.classicorange.types.LocationType;
+import jp.classicorange.utils.CheckParameter;
+import jp.classicorange.utils.ExcelUtils;
+import jp.classicorange.utils.entity.Hit;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.usermodel.XSSFDrawing;
+import org.apache.poi.xssf.usermodel.XSSFRelation;
+import org.apache.poi.xssf.usermodel.XSSFShape;
+import org.apache.poi.xssf.usermodel.XSSFSimpleShape;
+import org.apache.xmlbeans.XmlOptions;
+import org.openxmlformats.schemas.drawingml.x2006.spreadsheetDrawing.CTDrawing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipException;
+
+import static org.apache.poi.ooxml.POIXMLTypeLoader.DEFAULT_XML_OPTIONS;
+
+/**
+ * .xlsx の置換を、ブック全体を保存せずに ZIP のパート単位で行う。
+ * <pre>
+ * 1. XSSFReader でシートを1つずつSAXで読み、検索結果と書き換えるセルを求める (XlsxSheetHandler)
+ * 2. 一致したパートだけを書き換え、それ以外のエントリは圧縮されたままコピーする (ZipPartRewriter)
+ *    ・xl/sharedStrings.xml : 置換する &lt;si&gt; だけを置換後の文字列にする
+ *    ・シートXML : 共有文字列以外のセル (インライン文字列・数値・真偽値・数式) があるシートだけ
+ *    ・図形XML : 置換した図形 (グループ内を含む) があるものだけ。POI の図形で setText し、保存と同じ形で出力する
+ * 3. 一時ファイルに書いてから元のファイルと置換える (ReplaceJournal.commit)
+ * 置換の結果は SearchExcel.searchWord (ブック全体を読込む場合) と同じ。
+ * ・共有文字列は SST の項目を置換するため、同じ文字列のセルはすべて置換される (DOM と同じ結果)
+ * ・数値・真偽値のセルはインライン文字列に、数式のセルは数式を残して計算結果を置換後の値にする
+ * ・インライン文字列は &lt;is&gt; を置換える
+ * ・共有数式の従属セルは、展開した数式の文字列で判定する (XlsxSheetHandler)。&lt;f&gt; はそのまま残す
+ * 範囲 (--sheet / --range / --visible-only / --shapes-only) を指定した場合は使わない (SST の項目は範囲外のセルと共有しうるため)。
+ * グラフのタイトル・コメント・入力規則・ヘッダー/フッターは置換しない (検索だけ)。
+ * 置換するものがないファイルは書込まない。
+ * </pre>
+ */
+public class XlsxStreamReplacer {
+
+    private static final Logger log = LoggerFactory.getLogger(XlsxStreamReplacer.class);
+
+    private final CheckParameter.SearchCond cond;
+    /** キーワードの照合器 (cond.keywords() と同じ並び) */
+    private final TextMatcher matcher;
+
+    /** 書込みと進み具合の記録 */
+    private final ReplaceJournal journal;
+
+    public XlsxStreamReplacer(CheckParameter.SearchCond cond, TextMatcher matcher, ReplaceJournal journal) {
+        this.cond = cond;
+        this.matcher = matcher;
+        this.journal = journal;
+    }
+
+    /**
+     * 対象ファイルを検索・置換する。
+     *
+     * @param fileIndex ファイルのインデックス
+     * @param file 対象ファイル
+     * @return 検索結果。パート単位で書き換えられない ZIP (ZIP64 など) の場合は null
+     */
+    public List<Hit> replace(int fileIndex, File file) throws Exception {
+        return replace(fileIndex, file, new FileMetrics(file.getAbsolutePath()));
+    }
+
+    /**
+     * 対象ファイルを検索・置換し、段階ごとの時間と件数を記録する。
+     *
+     * @param fileIndex ファイルのインデックス
+     * @param file 対象ファイル
+     * @param metrics 計測結果の記録先
+     * @return 検索結果。パート単位で書き換えられない ZIP (ZIP64 など) の場合は null。
+     *         読込みエラーの場合は空 (metrics にエラーを記録する)
+     */
+    public List<Hit> replace(int fileIndex, File file, FileMetrics metrics) throws Exception {
+        String path = file.getAbsolutePath();
+        List<Hit> hits = new ArrayList<>();
+        Map<String, ZipPartRewriter.PartWriter> writers = new LinkedHashMap<>();
+
+        long start = System.nanoTime();
+        OPCPackage pkg;
+        try {
+            pkg = OPCPackage.open(file, PackageAccess.READ);
+        } catch (Exception ex) {
+            log.warn("読込みエラー : {} {}", path, ex.getMessage());
+            metrics.setError(ex.getMessage());
+            return hits;
+        }
+        metrics.add(Phase.OPEN, start);
+        metrics.addBytesRead(file.length());
+
+        try (pkg) {
+            start = System.nanoTime();
+            XSSFReader reader = new XSSFReader(pkg);
+
+            // 共有文字列 : 置換する番号と置換後の文字列
+            SharedStringFilter sharedStrings;
+            List<PackagePart> sstParts = pkg.getPartsByContentType(XSSFRelation.SHARED_STRINGS.getContentType());
+            if (sstParts.isEmpty()) {
+                sharedStrings = SharedStringFilter.read(null, matcher);
+            } else {
+                try (InputStream in = sstParts.getFirst().getInputStream()) {
+                    sharedStrings = SharedStringFilter.read(in, matcher);
+                }
+                Map<Integer, String> sstEdits = new HashMap<>();
+                sharedStrings.forEach((text, index) -> {
+                    String result = matcher.replace(text, matcher.find(text));
+                    if (result != null) sstEdits.put(index, result);
+                });
+                if (!sstEdits.isEmpty()) {
+                    writers.put(entryName(sstParts.getFirst()), (in, out) -> rewriteSharedStrings(in, out, sstEdits));
+                }
+            }
+            NumberRenderer numbers = XlsxStreamScanner.numberRenderer(reader, matcher, cond.displayFormat());
+            boolean textOnlyInline = sharedStrings.isEmpty() && !numbers.mayMatchAny();
+            metrics.add(Phase.PARSE, start);
+
+            XSSFReader.SheetIterator sheets = reader.getSheetIterator();
+            for (int sheetIndex = 0; sheets.hasNext(); sheetIndex++) {
+                try (InputStream sheetData = sheets.next()) {
+                    String sheetName = sheets.getSheetName();
+                    PackagePart sheetPart = sheets.getSheetPart();
+                    //シェープ
+                    start = System.nanoTime();
+                    replaceShape(fileIndex, sheetIndex, path, sheetName, sheetPart, sheets.getShapes(), hits, writers, metrics);
+                    metrics.add(Phase.SHAPE_SCAN, start);
+                    //コメント (置換しない)
+                    SheetNoteScanner.addHits(hits, SheetNoteScanner.readComments(sheetPart), matcher, cond.words(),
+                        SearchScope.ALL, fileIndex, sheetIndex, path, sheetName);
+                    //セル
+                    start = System.nanoTime();
+                    Map<Long, XlsxSheetHandler.CellEdit> edits = new HashMap<>();
+                    if (textOnlyInline) {
+                        if (XlsxStreamScanner.needsParse(sheetData, true)) {
+                            try (InputStream again = sheetPart.getInputStream()) {
+                                parseSheet(again, sharedStrings, numbers, hits, edits,
+                                    fileIndex, sheetIndex, path, sheetName, metrics);
+                            }
+                        }
+                    } else {
+                        parseSheet(sheetData, sharedStrings, numbers, hits, edits,
+                            fileIndex, sheetIndex, path, sheetName, metrics);
+                    }
+                    if (!edits.isEmpty()) {
+                        writers.put(entryName(sheetPart), (in, out) -> rewriteSheet(in, out, edits));
+                    }
+                    metrics.add(Phase.CELL_SCAN, start);
+                }
+            }
+        }
+
+        if (writers.isEmpty()) return hits;
+        start = System.nanoTime();
+        ReplaceWriteEvent event = new ReplaceWriteEvent();
+        event.begin();
+        long bytesBefore = file.length();
+        try {
+            journal.commit(file.toPath(), tmp -> ZipPartRewriter.rewrite(file.toPath(), tmp, writers));
+        } catch (ZipException e) {
+            log.info("パート単位で置換できないため、ブック全体を保存します : {} {}", path, e.getMessage());
+            return null;
+        } finally {
+            metrics.add(Phase.REPLACE_WRITE, start);
+        }
+        if (event.shouldCommit()) {
+            event.filePath = path;
+            event.route = FileMetrics.Route.PART_REPLACE.name();
+            event.parts = writers.size();
+            event.bytesBefore = bytesBefore;
+            event.bytesAfter = file.length();
+            event.commit();
+        }
+        return hits;
+    }
+
+    private void parseSheet(InputStream sheetData, SharedStringFilter sharedStrings, NumberRenderer numbers,
+                            List<Hit> hits, Map<Long, XlsxSheetHandler.CellEdit> edits,
+                            int fileIndex, int sheetIndex, String path, String sheetName,
+                            FileMetrics metrics) throws Exception {
+        XMLReader parser = XMLHelper.newXMLReader();
+        XlsxSheetHandler handler = new XlsxSheetHandler(
+            sharedStrings, matcher, cond.words(), cond.formula(), numbers, SearchScope.ALL, hits, edits,
+            fileIndex, sheetIndex, path, sheetName);
+        SheetScanEvent event = new SheetScanEvent();
+        event.begin();
+        int hitsBefore = hits.size();
+        parser.setContentHandler(handler);
+        parser.parse(new InputSource(sheetData));
+        metrics.addCells(handler.cellCount());
+        if (event.shouldCommit()) {
+            event.filePath = path;
+            event.sheetName = sheetName;
+            event.rows = -1;
+            event.cells = handler.cellCount();
+            event.hits = hits.size() - hitsBefore;
+            event.commit();
+        }
+    }
+
+    /**
+     * シートに紐づく図形の文字列を検索・置換する。
+     * SearchExcel.searchShape と同じく、グループ内を含む XSSFSimpleShape を置換する。
+     * グラフのタイトルと文字列を持つコネクタは置換せず、一致だけを出力する (replaced は null)。
+     * 置換した図形XMLは、XSSFDrawing の保存と同じ形で書出す。
+     */
+    private void replaceShape(int fileIndex, int sheetIndex, String filePath, String sheetName,
+                              PackagePart sheetPart, List<XSSFShape> shapes, List<Hit> hits,
+                              Map<String, ZipPartRewriter.PartWriter> writers,
+                              FileMetrics metrics) throws Exception {
+        if (shapes == null) return;
+
+        Map<String, XSSFDrawing> changed = new LinkedHashMap<>();
+        // グループ内の図形も最上位のアンカーの位置で置換する
+        for (DrawingScanner.Placed<XSSFSimpleShape> placed : DrawingScanner.xssfShapes(shapes)) {
+            XSSFSimpleShape xshape = placed.shape();
+            metrics.addShapes(1);
+            String text = xshape.getText();
+            if (text == null) continue;
+            int[] found = matcher.find(text);
+            if (found.length == 0) continue;
+
+            String result = text;
+            String replaced = matcher.replace(text, found);
+            if (replaced != null) {
+                result = replaced;
+                xshape.setText(result);
+                XSSFDrawing drawing = xshape.getDrawing();
+                changed.put(entryName(drawing.getPackagePart()), drawing);
+            }
+
+            for (int id : found) {
+                Keyword keyword = cond.keywords().get(id);
+                hits.add(new Hit(fileIndex, sheetIndex, -1, filePath, sheetName,
+                    ExcelUtils.convertCellPos(placed.row(), placed.col()),
+                    result, keyword.replacement(), keyword.word(), LocationType.SHAPE));
+            }
+        }
+        for (DrawingScanner.ShapeText shape : DrawingScanner.read(sheetPart)) {
+            if (shape.simple()) continue;
+            metrics.addShapes(1);
+            for (int id : matcher.find(shape.text())) {
+                hits.add(new Hit(fileIndex, sheetIndex, -1, filePath, sheetName,
+                    ExcelUtils.convertCellPos(shape.row(), shape.col()),
+                    shape.text(), null, cond.words().get(id), LocationType.SHAPE));
+            }
+        }
+
+        XmlOptions options = new XmlOptions(DEFAULT_XML_OPTIONS);
+        options.setSaveSyntheticDocumentElement(
+            new QName(CTDrawing.type.getName().getNamespaceURI(), "wsDr", "xdr"));
+        for (Map.Entry<String, XSSFDrawing> e : changed.entrySet()) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            e.getValue().getCTDrawing().save(bytes, options);
+            byte[] data = bytes.toByteArray();
+            writers.put(e.getKey(), (in, out) -> out.write(data));
+        }
+    }
+
+    private static String entryName(PackagePart part) {
+        return part.getPartName().getName().substring(1);
+    }
+
+    /**
+     * sharedStrings.xml の置換する &lt;si&gt; の中身を、置換後の文字列1つにする。
+     * (SearchExcel.replaceWord の setCellValue と同じく、書式つきの文字列も書式なしになる)
+     */
+    static void rewriteSharedStrings(InputStream in, OutputStream out, Map<Integer, String> edits)
+        throws XMLStreamException {
+        XMLEventReader reader = XMLHelper.newXMLInputFactory().createXMLEventReader(in);
+        XMLEventWriter writer = newWriter(out);
+        XMLEventFactory events = XMLHelper.newXMLEventFactory();
+        int index = -1;
+        while (reader.hasNext()) {
+            XMLEvent event = reader.nextEvent();
+            writer.add(event);
+            if (!event.isStartElement()) continue;
+            StartElement start = event.asStartElement();
+            if (!start.getName().getLocalPart().equals("si")) continue;
+            String text = edits.get(++index);
+            if (text == null) continue;
+            // 元の中身を読み飛ばし、</si> の前に置換後の文字列を書く
+            skipToEnd(reader);
+            writeText(writer, events, start.getName(), "t", text);
+            writer.add(events.createEndElement(start.getName(), null));
+        }
+        writer.flush();
+    }
+
+    /**
+     * シートXMLの書き換えるセルを置換後の値にする。
+     * 行・列の求め方は XlsxSheetHandler と同じ。
+     */
+    static void rewriteSheet(InputStream in, OutputStream out, Map<Long, XlsxSheetHandler.CellEdit> edits)
+        throws XMLStreamException {
+        XMLEventReader reader = XMLHelper.newXMLInputFactory().createXMLEventReader(in);
+        XMLEventWriter writer = newWriter(out);
+        XMLEventFactory events = XMLHelper.newXMLEventFactory();
+        int rowNum = -1;
+        int colNum = -1;
+        while (reader.hasNext()) {
+            XMLEvent event = reader.nextEvent();
+            if (!event.isStartElement()) {
+                writer.add(event);
+                continue;
+            }
+            StartElement start = event.asStartElement();
+            switch (start.getName().getLocalPart()) {
+                case "row" -> {
+                    String r = value(start, "r");
+                    rowNum = (r != null) ? Integer.parseInt(r) - 1 : rowNum + 1;
+                    colNum = -1;
+                }
+                case "c" -> {
+                    String r = value(start, "r");
+                    colNum = (r != null) ? new CellReference(r).getCol() : colNum + 1;
+                    XlsxSheetHandler.CellEdit edit = edits.get(XlsxSheetHandler.key(rowNum, colNum));
+                    if (edit != null) {
+                        rewriteCell(reader, writer, events, start, edit);
+                        continue;
+                    }
+                }
+                default -> { }
+            }
+            writer.add(event);
+        }
+        writer.flush();
+    }
+
+    /**
+     * セル1つを書き換える。
+     * <pre>
+     * 数式 : t="str" とし、&lt;f&gt; は残して &lt;v&gt; を置換後の値にする
+     * それ以外 : t="inlineStr" とし、&lt;is&gt;&lt;t&gt;置換後の値&lt;/t&gt;&lt;/is&gt; だけにする
+     * </pre>
+     */
+    private static void rewriteCell(XMLEventReader reader, XMLEventWriter writer, XMLEventFactory events,
+                                    StartElement cell, XlsxSheetHandler.CellEdit edit) throws XMLStreamException {
+        List<Attribute> attributes = new ArrayList<>();
+        for (Iterator<Attribute> it = cell.getAttributes(); it.hasNext(); ) {
+            Attribute a = it.next();
+            if (!a.getName().getLocalPart().equals("t") || !a.getName().getNamespaceURI().isEmpty()) {
+                attributes.add(a);
+            }
+        }
+        attributes.add(events.createAttribute("t", edit.formula() ? "str" : "inlineStr"));
+        writer.add(events.createStartElement(cell.getName(), attributes.iterator(), cell.getNamespaces()));
+
+        QName name = cell.getName();
+        int depth = 0;
+        boolean copying = false;
+        while (reader.hasNext()) {
+            XMLEvent event = reader.nextEvent();
+            if (event.isStartElement()) {
+                depth++;
+                // 数式の <f> だけ残す
+                if (depth == 1) copying = edit.formula() && event.asStartElement().getName().getLocalPart().equals("f");
+                if (copying) writer.add(event);
+            } else if (event.isEndElement()) {
+                if (depth == 0) break;
+                if (copying) writer.add(event);
+                depth--;
+                if (depth == 0) copying = false;
+            } else if (copying) {
+                writer.add(event);
+            }
+        }
+        if (edit.formula()) {
+            writer.add(events.createStartElement(new QName(name.getNamespaceURI(), "v", name.getPrefix()), null, null));
+            writer.add(events.createCharacters(edit.text()));
+            writer.add(events.createEndElement(new QName(name.getNamespaceURI(), "v", name.getPrefix()), null));
+        } else {
+            QName is = new QName(name.getNamespaceURI(), "is", name.getPrefix());
+            writer.add(events.createStartElement(is, null, null));
+            writeText(writer, events, name, "t", edit.text());
+            writer.add(events.createEndElement(is, null));
+        }
+        writer.add(events.createEndElement(name, null));
+    }
+
+    /**
+     * 空白を保持する &lt;t&gt; 要素を書く。名前空間は parent と同じ。
+     */
+    private static void writeText(XMLEventWriter writer, XMLEventFactory events, QName parent, String localName,
+                                  String text) throws XMLStreamException {
+        QName t = new QName(parent.getNamespaceURI(), localName, parent.getPrefix());
+        Attribute space = events.createAttribute("xml", XMLConstants.XML_NS_URI, "space", "preserve");
+        writer.add(events.createStartElement(t, List.of(space).iterator(), null));
+        writer.add(events.createCharacters(text));
+        writer.add(events.createEndElement(t, null));
+    }
+
+    /**
+     * 現在の要素の終了タグまで読み飛ばす (終了タグも読む)。
+     */
+    private static void skipToEnd(XMLEventReader reader) throws XMLStreamException {
+        int depth = 0;
+        while (reader.hasNext()) {
+            XMLEvent event = reader.nextEvent();
+            if (event.isStartElement()) {
+                depth++;
+            } else if (event.isEndElement()) {
+                if (depth == 0) return;
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * 名前空間を補わない (元の接頭辞・宣言のまま書く) ライターを作る。
+     */
+    private static XMLEventWriter newWriter(OutputStream out) throws XMLStreamException {
+        XMLOutputFactory factory = XMLOutputFactory.newFactory();
+        factory.setProperty(XMLOutputFactory.IS_REPAIRING_NAMESPACES, false);
+        return factory.createXMLEventWriter(out, "UTF-8");
+    }
+
+    private static String value(StartElement element, String localName) {
+        Attribute a = element.getAttributeByName(new QName(localName));
+        return (a != null) ? a.getValue() : null;
+    }
+}
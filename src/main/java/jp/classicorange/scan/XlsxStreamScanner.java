@@ -0,0 +1,330 @@
+package jp.classicorange.scan;
+
+import jp.classicorange.matcher.TextMatcher;
+import jp.classicorange.metrics.FileMetrics;
+import jp.classicorange.metrics.Phase;
+import jp.classicorange.metrics.SheetScanEvent;
+import jp.classicorange.types.LocationType;
+import jp.classicorange.utils.CheckParameter;
+import jp.classicorange.utils.ExcelUtils;
+import jp.classicorange.utils.entity.Hit;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.ss.usermodel.SheetVisibility;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFRelation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * .xlsx を XSSFReader でストリーム読みする検索専用スキャナ。
+ * <pre>
+ * Workbook のオブジェクトモデルは作らず、シートXMLを1つずつSAXで流して
+ * セルの値を判定する。置換はできないため、置換文字列がない場合だけ使う。
+ * 結果は SearchExcel.searchWord と同じ fileIndex / sheetIndex / cellIndex で返す。
+ *
+ * 先に共有文字列テーブルだけを検索し (SharedStringFilter)、一致がなく数値も一致しえない場合 (NumberRenderer)、
+ * インライン文字列・数式を持たないシートはSAXで解析しない。
+ * 範囲 (SearchScope) の外のシートは、シートXMLも図形も読まない。
+ * 図形は DrawingScanner で描画パートを直接読む (グループ内の図形・グラフのタイトルを含む)。
+ * コメントは SheetNoteScanner でコメントのパートを直接読み、入力規則・ヘッダー/フッターはセルと同じ解析で読む。
+ * --shapes-only の場合は共有文字列もシートXMLもコメントも読まない。
+ * 範囲の最後の行を過ぎたら、シートの残りは解析しない (XlsxSheetHandler.EndOfScope)。
+ * </pre>
+ */
+public class XlsxStreamScanner {
+
+    private static final Logger log = LoggerFactory.getLogger(XlsxStreamScanner.class);
+
+    private final CheckParameter.SearchCond cond;
+    /** キーワードの照合器 (cond.words() と同じ並び) */
+    private final TextMatcher matcher;
+    /** 検索する範囲 */
+    private final SearchScope scope;
+
+    public XlsxStreamScanner(CheckParameter.SearchCond cond, TextMatcher matcher) {
+        this(cond, matcher, new SearchScope(cond.scope()));
+    }
+
+    public XlsxStreamScanner(CheckParameter.SearchCond cond, TextMatcher matcher, SearchScope scope) {
+        this.cond = cond;
+        this.matcher = matcher;
+        this.scope = scope;
+    }
+
+    /**
+     * 対象ファイルを検索する。
+     *
+     * @param fileIndex ファイルのインデックス
+     * @param file 対象ファイル
+     * @return 検索結果
+     */
+    public List<Hit> scan(int fileIndex, File file) throws Exception {
+        return scan(fileIndex, file, SheetFilter.ALL);
+    }
+
+    /**
+     * 対象ファイルの指定したシートだけを検索する。
+     *
+     * @param fileIndex ファイルのインデックス
+     * @param file 対象ファイル
+     * @param sheetFilter 読込むシートの判定
+     * @return 検索結果
+     */
+    public List<Hit> scan(int fileIndex, File file, SheetFilter sheetFilter) throws Exception {
+        return scan(fileIndex, file, sheetFilter, new FileMetrics(file.getAbsolutePath()));
+    }
+
+    /**
+     * 対象ファイルの指定したシートだけを検索し、段階ごとの時間と件数を記録する。
+     *
+     * @param fileIndex ファイルのインデックス
+     * @param file 対象ファイル
+     * @param sheetFilter 読込むシートの判定
+     * @param metrics 計測結果の記録先
+     * @return 検索結果。読込みエラーの場合は空 (metrics にエラーを記録する)
+     */
+    public List<Hit> scan(int fileIndex, File file, SheetFilter sheetFilter, FileMetrics metrics) throws Exception {
+        String path = file.getAbsolutePath();
+        List<Hit> hits = new ArrayList<>();
+
+        long start = System.nanoTime();
+        OPCPackage pkg;
+        try {
+            pkg = OPCPackage.open(file, PackageAccess.READ);
+        } catch (Exception ex) {
+            log.warn("読込みエラー : {} {}", path, ex.getMessage());
+            metrics.setError(ex.getMessage());
+            return hits;
+        }
+        metrics.add(Phase.OPEN, start);
+        metrics.addBytesRead(file.length());
+
+        try (pkg) {
+            start = System.nanoTime();
+            XSSFReader reader = new XSSFReader(pkg);
+            boolean cells = !scope.shapesOnly();
+            SharedStringFilter sharedStrings = cells ? readSharedStrings(pkg, matcher) : null;
+            NumberRenderer numbers = cells ? numberRenderer(reader, matcher, cond.displayFormat()) : null;
+            // 共有文字列・数値で一致しえない場合、セルはインライン文字列と数式だけ見ればよい
+            boolean textOnlyInline = cells && sharedStrings.isEmpty() && !numbers.mayMatchAny();
+            Map<String, SheetVisibility> states = scope.visibleOnly() ? sheetStates(reader) : Map.of();
+            metrics.add(Phase.PARSE, start);
+
+            XSSFReader.SheetIterator sheets = reader.getSheetIterator();
+            for (int sheetIndex = 0; sheets.hasNext(); sheetIndex++) {
+                // ストリームを開くだけで、範囲外のシートは展開しない
+                try (InputStream sheetData = sheets.next()) {
+                    String sheetName = sheets.getSheetName();
+                    if (!scope.includesSheet(sheetName, states.getOrDefault(sheetName, SheetVisibility.VISIBLE))) {
+                        continue;
+                    }
+                    if (!sheetFilter.parse(sheetIndex, sheets.getSheetPart().getPartName().getName())) continue;
+                    //シェープ
+                    start = System.nanoTime();
+                    searchShape(fileIndex, sheetIndex, path, sheetName, sheets.getSheetPart(), hits, metrics);
+                    metrics.add(Phase.SHAPE_SCAN, start);
+                    if (!cells) continue;
+                    //コメント
+                    searchComment(fileIndex, sheetIndex, path, sheetName, sheets.getSheetPart(), hits);
+                    //セル
+                    start = System.nanoTime();
+                    if (textOnlyInline) {
+                        if (needsParse(sheetData, scope.includesSheetNotes())) {
+                            try (InputStream again = sheets.getSheetPart().getInputStream()) {
+                                parseSheet(again, sharedStrings, numbers, hits,
+                                    fileIndex, sheetIndex, path, sheetName, metrics);
+                            }
+                        }
+                    } else {
+                        parseSheet(sheetData, sharedStrings, numbers, hits,
+                            fileIndex, sheetIndex, path, sheetName, metrics);
+                    }
+                    metrics.add(Phase.CELL_SCAN, start);
+                }
+            }
+        }
+        return hits;
+    }
+
+    private void parseSheet(InputStream sheetData, SharedStringFilter sharedStrings, NumberRenderer numbers,
+                            List<Hit> hits,
+                            int fileIndex, int sheetIndex, String path, String sheetName,
+                            FileMetrics metrics) throws Exception {
+        XMLReader parser = XMLHelper.newXMLReader();
+        XlsxSheetHandler handler = new XlsxSheetHandler(
+            sharedStrings, matcher, cond.words(), cond.formula(), numbers, scope, hits,
+            fileIndex, sheetIndex, path, sheetName);
+        SheetScanEvent event = new SheetScanEvent();
+        event.begin();
+        int hitsBefore = hits.size();
+        parser.setContentHandler(handler);
+        try {
+            parser.parse(new InputSource(sheetData));
+        } catch (XlsxSheetHandler.EndOfScope e) {
+            // 範囲の最後の行を過ぎた
+        }
+        metrics.addCells(handler.cellCount());
+        if (event.shouldCommit()) {
+            event.filePath = path;
+            event.sheetName = sheetName;
+            event.rows = -1;
+            event.cells = handler.cellCount();
+            event.hits = hits.size() - hitsBefore;
+            event.commit();
+        }
+    }
+
+    /**
+     * 共有文字列テーブルを検索する。
+     */
+    private static SharedStringFilter readSharedStrings(OPCPackage pkg, TextMatcher matcher) throws Exception {
+        List<PackagePart> parts = pkg.getPartsByContentType(XSSFRelation.SHARED_STRINGS.getContentType());
+        if (parts.isEmpty()) {
+            return SharedStringFilter.read(null, matcher);
+        }
+        try (InputStream in = parts.get(0).getInputStream()) {
+            return SharedStringFilter.read(in, matcher);
+        }
+    }
+
+    /**
+     * workbook.xml の &lt;sheet name state&gt; からシートの表示状態を読む。
+     *
+     * @return シート名 → 表示状態 (state のないシートは含まない)
+     */
+    static Map<String, SheetVisibility> sheetStates(XSSFReader reader) throws Exception {
+        Map<String, SheetVisibility> states = new HashMap<>();
+        XMLReader parser = XMLHelper.newXMLReader();
+        parser.setContentHandler(new DefaultHandler() {
+            @Override
+            public void startElement(String uri, String localName, String qName, Attributes attributes) {
+                if (!localName.equals("sheet")) return;
+                String state = attributes.getValue("state");
+                if (state == null) return;
+                states.put(attributes.getValue("name"), switch (state) {
+                    case "hidden" -> SheetVisibility.HIDDEN;
+                    case "veryHidden" -> SheetVisibility.VERY_HIDDEN;
+                    default -> SheetVisibility.VISIBLE;
+                });
+            }
+        });
+        try (InputStream in = reader.getWorkbookData()) {
+            parser.parse(new InputSource(in));
+        }
+        return states;
+    }
+
+    /**
+     * 数値・真偽値のセルの文字列化を作る。表示形式で書式化する場合だけ styles.xml を読む。
+     */
+    static NumberRenderer numberRenderer(XSSFReader reader, TextMatcher matcher, boolean display) throws Exception {
+        if (!display) return new NumberRenderer(matcher, false, null);
+        StylesTable styles = reader.getStylesTable();
+        NumberRenderer.Formats formats = (styles == null)
+            ? NumberRenderer.Formats.of(i -> null, 0)
+            : NumberRenderer.Formats.of(styles::getStyleAt, styles.getNumCellStyles());
+        return new NumberRenderer(matcher, true, formats);
+    }
+
+    /**
+     * シートXMLがインライン文字列 (&lt;is&gt;) か数式 (&lt;f&gt;)、
+     * notes の場合は入力規則 (&lt;dataValidations&gt;) かヘッダー/フッター (&lt;headerFooter&gt;) を含むかを
+     * バイト列だけで調べる。SAXで解析するより大幅に軽い。
+     *
+     * @param sheetData シートXML
+     * @param notes 入力規則・ヘッダー/フッターも調べる
+     * @return 含む場合 true
+     */
+    public static boolean needsParse(InputStream sheetData, boolean notes) throws IOException {
+        InputStream in = new BufferedInputStream(sheetData, 64 * 1024);
+        byte[] name = new byte[16];
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b != '<') continue;
+            // 要素名を読む (接頭辞つきも可 e.g. x:f)
+            int len = 0;
+            while ((b = in.read()) != -1 && b != ' ' && b != '>' && b != '/' && b != '\t'
+                && b != '\r' && b != '\n' && len < name.length) {
+                name[len++] = (byte) b;
+            }
+            int start = 0;
+            for (int i = 0; i < len; i++) {
+                if (name[i] == ':') start = i + 1;
+            }
+            int n = len - start;
+            if ((n == 1 && name[start] == 'f')
+                || (n == 2 && name[start] == 'i' && name[start + 1] == 's')) {
+                return true;
+            }
+            if (notes && (isName(name, start, n, DATA_VALIDATIONS) || isName(name, start, n, HEADER_FOOTER))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final byte[] DATA_VALIDATIONS = "dataValidations".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEADER_FOOTER = "headerFooter".getBytes(StandardCharsets.US_ASCII);
+
+    private static boolean isName(byte[] name, int start, int n, byte[] expected) {
+        return n == expected.length && Arrays.equals(name, start, start + n, expected, 0, n);
+    }
+
+    /**
+     * シートに紐づく図形の文字列を検索する。
+     * グループ内の図形・グラフのタイトルも、最上位のアンカーの位置で出力する。
+     */
+    private void searchShape(int fileIndex, int sheetIndex, String filePath, String sheetName,
+                             PackagePart sheetPart, List<Hit> hits, FileMetrics metrics) throws Exception {
+        List<DrawingScanner.ShapeText> shapes = DrawingScanner.read(sheetPart);
+        metrics.addShapes(shapes.size());
+
+        for (DrawingScanner.ShapeText shape : shapes) {
+            int[] found = matcher.find(shape.text());
+            if (found.length == 0) continue;
+
+            for (int id : found) {
+                hits.add(new Hit(
+                    fileIndex,
+                    sheetIndex,
+                    -1,
+                    filePath,
+                    sheetName,
+                    ExcelUtils.convertCellPos(shape.row(), shape.col()),
+                    shape.text(),
+                    null,
+                    cond.words().get(id),
+                    LocationType.SHAPE
+                ));
+            }
+        }
+    }
+
+    /**
+     * シートに紐づくコメント (スレッド形式を含む) を検索する。
+     */
+    private void searchComment(int fileIndex, int sheetIndex, String filePath, String sheetName,
+                               PackagePart sheetPart, List<Hit> hits) throws Exception {
+        SheetNoteScanner.addHits(hits, SheetNoteScanner.readComments(sheetPart), matcher, cond.words(), scope,
+            fileIndex, sheetIndex, filePath, sheetName);
+    }
+}
@@ -0,0 +1,272 @@
+package jp.classicorange.scan;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+/**
+ * ZIP の一部のエントリだけを書き換えて別のファイルに書出す。
+ * <pre>
+ * 書き換えないエントリは、ローカルヘッダーから圧縮済みのデータ (データディスクリプタを含む) までを
+ * 展開せずにそのままコピーする (FileChannel.transferTo)。
+ * 書き換えるエントリだけを展開して渡し、出力を deflate してデータディスクリプタつきで書く。
+ * エントリの並び・名前・日時・コメントは元のまま。
+ * ZIP64 (4GB 超、65535 エントリ超) には対応せず ZipException とする。
+ * </pre>
+ */
+public final class ZipPartRewriter {
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL = 0x06054b50;
+    private static final int DATA_DESCRIPTOR = 0x08074b50;
+    /** 中央ディレクトリ終端の固定部の長さ */
+    private static final int END_LENGTH = 22;
+    /** 中央ディレクトリのエントリの固定部の長さ */
+    private static final int CENTRAL_LENGTH = 46;
+
+    /**
+     * エントリの書き換え。
+     */
+    @FunctionalInterface
+    public interface PartWriter {
+
+        /**
+         * @param original 元のエントリの内容 (展開済み)
+         * @param out 書き換えた内容の出力先
+         */
+        void write(InputStream original, OutputStream out) throws Exception;
+    }
+
+    /**
+     * 中央ディレクトリの1エントリ。
+     *
+     * @param record 中央ディレクトリのレコード (固定部・名前・拡張・コメント)
+     * @param name エントリ名
+     * @param localOffset ローカルヘッダーの位置
+     */
+    private record Entry(byte[] record, String name, long localOffset) {}
+
+    private ZipPartRewriter() { }
+
+    /**
+     * 指定したエントリだけを書き換えたZIPを出力する。
+     *
+     * @param source 元のファイル
+     * @param target 出力先 (元のファイルとは別)
+     * @param writers エントリ名から書き換え処理
+     */
+    public static void rewrite(Path source, Path target, Map<String, PartWriter> writers) throws Exception {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             ZipFile zip = new ZipFile(source.toFile());
+             FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                 StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            ByteBuffer end = readEnd(in);
+            int entryCount = end.getShort(10) & 0xFFFF;
+            long centralSize = end.getInt(12) & 0xFFFFFFFFL;
+            long centralOffset = end.getInt(16) & 0xFFFFFFFFL;
+            if (entryCount == 0xFFFF || centralSize == 0xFFFFFFFFL || centralOffset == 0xFFFFFFFFL) {
+                throw new ZipException("ZIP64 には対応していません");
+            }
+            List<Entry> entries = readCentral(in, centralOffset, centralSize, entryCount);
+            for (String name : writers.keySet()) {
+                if (entries.stream().noneMatch(e -> e.name().equals(name))) {
+                    throw new ZipException("エントリがありません : " + name);
+                }
+            }
+
+            // ローカルヘッダーの位置順 (元の並び) に出力
+            List<Entry> ordered = new ArrayList<>(entries);
+            ordered.sort(Comparator.comparingLong(Entry::localOffset));
+            List<byte[]> central = new ArrayList<>();
+            for (int i = 0; i < ordered.size(); i++) {
+                Entry entry = ordered.get(i);
+                long start = entry.localOffset();
+                long next = (i + 1 < ordered.size()) ? ordered.get(i + 1).localOffset() : centralOffset;
+                long newOffset = out.position();
+                PartWriter writer = writers.get(entry.name());
+                byte[] record;
+                if (writer == null) {
+                    // 展開せずにそのままコピー
+                    transfer(in, start, next - start, out);
+                    record = entry.record().clone();
+                } else {
+                    record = writeEntry(zip, entry, writer, out);
+                }
+                ByteBuffer.wrap(record).order(ByteOrder.LITTLE_ENDIAN).putInt(42, (int) checkSize(newOffset));
+                central.add(record);
+            }
+
+            long newCentralOffset = out.position();
+            for (byte[] record : central) {
+                writeFully(out, ByteBuffer.wrap(record));
+            }
+            long newCentralSize = out.position() - newCentralOffset;
+            end.putInt(12, (int) checkSize(newCentralSize));
+            end.putInt(16, (int) checkSize(newCentralOffset));
+            end.rewind();
+            writeFully(out, end);
+        }
+    }
+
+    /**
+     * 書き換えるエントリを出力し、中央ディレクトリのレコードを返す。
+     */
+    private static byte[] writeEntry(ZipFile zip, Entry entry, PartWriter writer, FileChannel out) throws Exception {
+        ByteBuffer original = ByteBuffer.wrap(entry.record()).order(ByteOrder.LITTLE_ENDIAN);
+        int nameLength = original.getShort(28) & 0xFFFF;
+        int commentLength = original.getShort(32) & 0xFFFF;
+        // 名前の UTF-8 フラグだけを残し、データディスクリプタを使う
+        short flags = (short) ((original.getShort(8) & 0x0800) | 0x0008);
+        short time = original.getShort(12);
+        short date = original.getShort(14);
+        byte[] name = new byte[nameLength];
+        System.arraycopy(entry.record(), CENTRAL_LENGTH, name, 0, nameLength);
+
+        ByteBuffer local = ByteBuffer.allocate(30 + nameLength).order(ByteOrder.LITTLE_ENDIAN);
+        local.putInt(LOCAL_HEADER).putShort((short) 20).putShort(flags).putShort((short) 8)
+            .putShort(time).putShort(date).putInt(0).putInt(0).putInt(0)
+            .putShort((short) nameLength).putShort((short) 0).put(name);
+        local.flip();
+        writeFully(out, local);
+
+        // 展開 → 書き換え → 圧縮
+        long dataStart = out.position();
+        CRC32 crc = new CRC32();
+        long[] size = {0};
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try (InputStream in = zip.getInputStream(zip.getEntry(entry.name()))) {
+            // チャネルは閉じないため、deflate も close しない
+            DeflaterOutputStream deflate = new DeflaterOutputStream(Channels.newOutputStream(out), deflater, 64 * 1024);
+            OutputStream counting = new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    crc.update(b);
+                    size[0]++;
+                    deflate.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    crc.update(b, off, len);
+                    size[0] += len;
+                    deflate.write(b, off, len);
+                }
+            };
+            writer.write(in, counting);
+            deflate.finish();
+            deflate.flush();
+        } finally {
+            deflater.end();
+        }
+        long compressed = out.position() - dataStart;
+
+        ByteBuffer descriptor = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+        descriptor.putInt(DATA_DESCRIPTOR).putInt((int) crc.getValue())
+            .putInt((int) checkSize(compressed)).putInt((int) checkSize(size[0]));
+        descriptor.flip();
+        writeFully(out, descriptor);
+
+        // 中央ディレクトリ : 拡張フィールドは除き、コメントは残す
+        byte[] record = new byte[CENTRAL_LENGTH + nameLength + commentLength];
+        ByteBuffer r = ByteBuffer.wrap(record).order(ByteOrder.LITTLE_ENDIAN);
+        r.putInt(CENTRAL_HEADER).putShort(original.getShort(4)).putShort((short) 20).putShort(flags)
+            .putShort((short) 8).putShort(time).putShort(date).putInt((int) crc.getValue())
+            .putInt((int) compressed).putInt((int) size[0])
+            .putShort((short) nameLength).putShort((short) 0).putShort((short) commentLength)
+            .putShort(original.getShort(34)).putShort(original.getShort(36)).putInt(original.getInt(38))
+            .putInt(0).put(name);
+        int extraLength = original.getShort(30) & 0xFFFF;
+        r.put(entry.record(), CENTRAL_LENGTH + nameLength + extraLength, commentLength);
+        return record;
+    }
+
+    /**
+     * 中央ディレクトリ終端を探す (末尾のコメントは最大 65535 バイト)。
+     */
+    private static ByteBuffer readEnd(FileChannel in) throws IOException {
+        long size = in.size();
+        int length = (int) Math.min(size, END_LENGTH + 0xFFFF);
+        ByteBuffer tail = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(in, tail, size - length);
+        for (int pos = length - END_LENGTH; pos >= 0; pos--) {
+            if (tail.getInt(pos) == END_OF_CENTRAL) {
+                int commentLength = tail.getShort(pos + 20) & 0xFFFF;
+                if (pos + END_LENGTH + commentLength > length) continue;
+                ByteBuffer end = ByteBuffer.allocate(END_LENGTH + commentLength).order(ByteOrder.LITTLE_ENDIAN);
+                end.put(tail.array(), pos, END_LENGTH + commentLength);
+                return end;
+            }
+        }
+        throw new ZipException("ZIP の終端が見つかりません");
+    }
+
+    private static List<Entry> readCentral(FileChannel in, long offset, long size, int count) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(in, buf, offset);
+        List<Entry> entries = new ArrayList<>(count);
+        int pos = 0;
+        for (int i = 0; i < count; i++) {
+            if (pos + CENTRAL_LENGTH > size || buf.getInt(pos) != CENTRAL_HEADER) {
+                throw new ZipException("中央ディレクトリが壊れています");
+            }
+            int flags = buf.getShort(pos + 8) & 0xFFFF;
+            int nameLength = buf.getShort(pos + 28) & 0xFFFF;
+            int extraLength = buf.getShort(pos + 30) & 0xFFFF;
+            int commentLength = buf.getShort(pos + 32) & 0xFFFF;
+            long localOffset = buf.getInt(pos + 42) & 0xFFFFFFFFL;
+            if (localOffset == 0xFFFFFFFFL) throw new ZipException("ZIP64 には対応していません");
+            int length = CENTRAL_LENGTH + nameLength + extraLength + commentLength;
+            byte[] record = new byte[length];
+            buf.get(pos, record);
+            String name = new String(record, CENTRAL_LENGTH, nameLength,
+                (flags & 0x0800) != 0 ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1);
+            entries.add(new Entry(record, name, localOffset));
+            pos += length;
+        }
+        return entries;
+    }
+
+    private static void transfer(FileChannel in, long position, long count, FileChannel out) throws IOException {
+        long done = 0;
+        while (done < count) {
+            long n = in.transferTo(position + done, count - done, out);
+            if (n <= 0) throw new ZipException("ZIP の途中で終わっています");
+            done += n;
+        }
+    }
+
+    private static void readFully(FileChannel in, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            if (in.read(buf, position + buf.position()) < 0) throw new ZipException("ZIP の途中で終わっています");
+        }
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+    }
+
+    private static long checkSize(long value) throws ZipException {
+        if (value >= 0xFFFFFFFFL) throw new ZipException("ZIP64 には対応していません");
+        return value;
+    }
+}
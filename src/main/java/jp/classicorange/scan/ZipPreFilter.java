@@ -0,0 +1,329 @@
+package jp.classicorange.scan;
+
+import jp.classicorange.matcher.AhoCorasick;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * .xlsx を POI で開く前に、ZIP のままバイト列で一致の可能性を調べる前処理。
+ * <pre>
+ * 文字列を持つパートだけを展開し、UTF-8 にした検索文字列を Boyer-Moore-Horspool で探す。
+ * キーワードが複数の場合は、バイト単位の Aho-Corasick で1回の走査で探す。
+ * ・xl/sharedStrings.xml
+ * ・xl/worksheets/sheet*.xml
+ * ・xl/drawings/*.xml
+ * ・xl/charts/chart*.xml
+ * ・xl/comments*.xml
+ * ・xl/threadedComments/threadedComment*.xml
+ * タグを除き、文字参照 (&amp;amp; &amp;#12354; など) を戻した文字データだけを対象にするため、
+ * 書式で分割された文字列 (&lt;r&gt;&lt;t&gt;Ja&lt;/t&gt;&lt;/r&gt;&lt;r&gt;&lt;t&gt;karta...) や
+ * エスケープされた文字も見落とさない。
+ * 入力規則のメッセージは属性に持つため、&lt;dataValidation&gt; のタグだけは属性値も文字データとして扱う。
+ * ヘッダー/フッター (&lt;oddHeader&gt; など) は書式のコード (&amp;B / &amp;12 / &amp;"フォント" など) が文字列を分割するため、
+ * 要素を読み終えたところで SheetNoteScanner.headerFooterText と同じくコードを除いた文字列にする。
+ * 要素をまたいで連結した文字列で判定するので誤って通すことはあるが、誤って除外することはない。
+ * </pre>
+ */
+public final class ZipPreFilter {
+
+    /** 一度に処理するバイト数 */
+    private static final int CHUNK = 64 * 1024;
+    /** 文字参照として扱う最大の長さ e.g. #x1F600 */
+    private static final int MAX_ENTITY = 10;
+    /** 属性値も文字データとして扱う要素 (接頭辞を除いた名前) */
+    private static final byte[] TEXT_ATTRIBUTE_ELEMENT = "dataValidation".getBytes(StandardCharsets.US_ASCII);
+    /** CDATA セクションの始まり (ヘッダー/フッターは CDATA で書かれることがある) */
+    private static final byte[] CDATA_START = "![CDATA[".getBytes(StandardCharsets.US_ASCII);
+    /** ヘッダー/フッターの要素 (接頭辞を除いた名前) */
+    private static final List<byte[]> HEADER_FOOTER_ELEMENTS = List.of("oddHeader", "oddFooter",
+            "evenHeader", "evenFooter", "firstHeader", "firstFooter").stream()
+        .map(element -> element.getBytes(StandardCharsets.US_ASCII)).toList();
+    /** コードを除かずに残すヘッダー/フッターの最大のバイト数 (Excel は255文字まで。超える場合は含みうるとする) */
+    private static final int MAX_HEADER_FOOTER = CHUNK / 2;
+
+    private final byte[] needle;
+    /** Horspool のずらし幅 */
+    private final int[] shift = new int[256];
+    /** キーワードが複数の場合のオートマトン (1つの場合は null) */
+    private final AhoCorasick automaton;
+    /** 最も長いキーワードのバイト数 */
+    private final int maxLength;
+
+    /**
+     * @param searchWord 検索文字列 (空文字は不可)
+     */
+    public ZipPreFilter(String searchWord) {
+        this(List.of(searchWord));
+    }
+
+    /**
+     * @param words キーワード (空文字は不可)
+     */
+    public ZipPreFilter(List<String> words) {
+        this.needle = words.getFirst().getBytes(StandardCharsets.UTF_8);
+        this.automaton = (words.size() > 1) ? AhoCorasick.ofUtf8(words) : null;
+        this.maxLength = words.stream()
+            .mapToInt(w -> w.getBytes(StandardCharsets.UTF_8).length).max().orElse(0);
+        int m = needle.length;
+        Arrays.fill(shift, m);
+        for (int i = 0; i < m - 1; i++) {
+            shift[needle[i] & 0xFF] = m - 1 - i;
+        }
+    }
+
+    /**
+     * 対象ファイルが検索文字列を含みうるかを返す。
+     * ZIP として読めないファイルは判定できないため true を返す。
+     *
+     * @param file .xlsx ファイル
+     * @return 含みうる場合 true、確実に含まない場合 false
+     */
+    public boolean mayContain(File file) {
+        try (ZipFile zip = new ZipFile(file)) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (!isTextPart(entry.getName())) continue;
+                try (InputStream in = zip.getInputStream(entry)) {
+                    if (contains(in)) return true;
+                }
+            }
+            return false;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    /**
+     * 文字列を持つパートかを返す。
+     *
+     * @param name ZIP のエントリ名
+     * @return 対象の場合 true
+     */
+    static boolean isTextPart(String name) {
+        if (!name.endsWith(".xml")) return false;
+        return name.equals("xl/sharedStrings.xml")
+            || (name.startsWith("xl/worksheets/sheet") && name.indexOf('/', "xl/worksheets/".length()) < 0)
+            || (name.startsWith("xl/drawings/") && name.indexOf('/', "xl/drawings/".length()) < 0)
+            || (name.startsWith("xl/charts/chart") && name.indexOf('/', "xl/charts/".length()) < 0)
+            || (name.startsWith("xl/comments") && name.indexOf('/', "xl/".length()) < 0)
+            || (name.startsWith("xl/threadedComments/threadedComment")
+                && name.indexOf('/', "xl/threadedComments/".length()) < 0);
+    }
+
+    /**
+     * XMLの文字データに検索文字列が含まれるかを返す。
+     * タグを読み飛ばし、文字参照を戻しながら一定サイズごとに検索する。
+     * &lt;dataValidation&gt; のタグは属性値 (引用符の中) だけを文字データとする。
+     * CDATA セクションの中は文字参照を戻さずにそのまま文字データとする。
+     * ヘッダー/フッターの要素の文字データは、要素の終わりで書式のコードを除く。
+     *
+     * @param xml XML
+     * @return 含む場合 true
+     */
+    boolean contains(InputStream xml) throws IOException {
+        int m = maxLength;
+        byte[] raw = new byte[CHUNK];
+        byte[] text = new byte[CHUNK + m + 2 * MAX_ENTITY];
+        byte[] entity = new byte[MAX_ENTITY];
+        int textLen = 0;
+        boolean inTag = false;
+        int entityLen = -1;
+        // タグの要素名 (読み終えたら -1) と、属性値を文字データとするか・属性値の引用符 (外は 0)
+        byte[] name = new byte[TEXT_ATTRIBUTE_ELEMENT.length + 16];
+        int nameLen = -1;
+        boolean textAttributes = false;
+        byte quote = 0;
+        // CDATA セクションの中と、直前に続く ']' の数
+        boolean cdata = false;
+        int brackets = 0;
+        // ヘッダー/フッターの開始タグの中か、タグの直前のバイト、ヘッダー/フッターの文字データの開始位置 (外は -1)
+        boolean headerFooterTag = false;
+        byte lastTagByte = 0;
+        int headerFooterStart = -1;
+
+        int n;
+        while ((n = xml.read(raw)) > 0) {
+            for (int i = 0; i < n; i++) {
+                byte b = raw[i];
+                if (cdata) {
+                    if (b == '>' && brackets >= 2) {
+                        cdata = false;
+                    } else {
+                        brackets = (b == ']') ? brackets + 1 : 0;
+                        text[textLen++] = b;
+                    }
+                } else if (inTag && quote == 0) {
+                    if (nameLen >= 0) {
+                        if (b == ' ' || b == '\t' || b == '\r' || b == '\n' || b == '/' || b == '>') {
+                            // ヘッダー/フッターの要素は文字データ (CDATA を含む) だけを持つので、次のタグで終わる
+                            if (headerFooterStart >= 0) {
+                                textLen = decodeHeaderFooter(text, headerFooterStart, textLen);
+                                headerFooterStart = -1;
+                            }
+                            textAttributes = isTextAttributeElement(name, nameLen);
+                            headerFooterTag = isHeaderFooterElement(name, nameLen);
+                            nameLen = -1;
+                        } else if (b == ':') {
+                            nameLen = 0;
+                        } else if (nameLen < name.length) {
+                            name[nameLen++] = b;
+                            if (nameLen == CDATA_START.length
+                                && Arrays.equals(name, 0, nameLen, CDATA_START, 0, nameLen)) {
+                                inTag = false;
+                                nameLen = -1;
+                                cdata = true;
+                                brackets = 0;
+                            }
+                        }
+                    }
+                    if (b == '>') {
+                        inTag = false;
+                        if (headerFooterTag && lastTagByte != '/') headerFooterStart = textLen;
+                        headerFooterTag = false;
+                    } else if (textAttributes && (b == '"' || b == '\'')) {
+                        quote = b;
+                    }
+                    lastTagByte = b;
+                } else if (inTag && b == quote && entityLen < 0) {
+                    quote = 0;
+                } else if (entityLen >= 0) {
+                    if (b == ';') {
+                        textLen = appendEntity(entity, entityLen, text, textLen);
+                        entityLen = -1;
+                    } else if (entityLen < MAX_ENTITY) {
+                        entity[entityLen++] = b;
+                    } else {
+                        // 文字参照ではないのでそのまま
+                        text[textLen++] = '&';
+                        System.arraycopy(entity, 0, text, textLen, entityLen);
+                        textLen += entityLen;
+                        entityLen = -1;
+                        text[textLen++] = b;
+                    }
+                } else if (b == '<' && !inTag) {
+                    inTag = true;
+                    nameLen = 0;
+                    textAttributes = false;
+                } else if (b == '&') {
+                    entityLen = 0;
+                } else {
+                    text[textLen++] = b;
+                }
+
+                if (textLen >= CHUNK) {
+                    if (found(text, textLen)) return true;
+                    // 境界をまたぐ一致のため末尾 m-1 バイトを残す (読んでいるヘッダー/フッターは全体を残す)
+                    int from = textLen - Math.min(m - 1, textLen);
+                    if (headerFooterStart >= 0) {
+                        if (textLen - headerFooterStart > MAX_HEADER_FOOTER) return true;
+                        from = Math.min(from, headerFooterStart);
+                        headerFooterStart -= from;
+                    }
+                    System.arraycopy(text, from, text, 0, textLen - from);
+                    textLen -= from;
+                }
+            }
+        }
+        if (headerFooterStart >= 0) textLen = decodeHeaderFooter(text, headerFooterStart, textLen);
+        return found(text, textLen);
+    }
+
+    private static boolean isTextAttributeElement(byte[] name, int len) {
+        return Arrays.equals(name, 0, len, TEXT_ATTRIBUTE_ELEMENT, 0, TEXT_ATTRIBUTE_ELEMENT.length);
+    }
+
+    private static boolean isHeaderFooterElement(byte[] name, int len) {
+        for (byte[] element : HEADER_FOOTER_ELEMENTS) {
+            if (Arrays.equals(name, 0, len, element, 0, element.length)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * text[start, end) のヘッダー/フッターの文字列を、コードを除いた文字列 (SheetNoteScanner.headerFooterText) に置換える。
+     * コードを除いた文字列は元の文字列より長くならない。
+     *
+     * @return 置換えた後の text の長さ
+     */
+    private static int decodeHeaderFooter(byte[] text, int start, int end) {
+        String raw = new String(text, start, end - start, StandardCharsets.UTF_8);
+        byte[] decoded = SheetNoteScanner.headerFooterText(raw).getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(decoded, 0, text, start, decoded.length);
+        return start + decoded.length;
+    }
+
+    /**
+     * いずれかのキーワードを含むかを返す。
+     */
+    private boolean found(byte[] hay, int len) {
+        if (automaton == null) return indexOf(hay, len) >= 0;
+        int state = 0;
+        for (int i = 0; i < len; i++) {
+            state = automaton.next(state, hay[i] & 0xFF);
+            if (automaton.isMatch(state)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * 文字参照を UTF-8 に戻して追加する。
+     */
+    private static int appendEntity(byte[] entity, int len, byte[] text, int textLen) {
+        String name = new String(entity, 0, len, StandardCharsets.US_ASCII);
+        int codePoint = switch (name) {
+            case "amp" -> '&';
+            case "lt" -> '<';
+            case "gt" -> '>';
+            case "quot" -> '"';
+            case "apos" -> '\'';
+            default -> {
+                try {
+                    if (name.startsWith("#x") || name.startsWith("#X")) {
+                        yield Integer.parseInt(name.substring(2), 16);
+                    } else if (name.startsWith("#")) {
+                        yield Integer.parseInt(name.substring(1));
+                    }
+                } catch (NumberFormatException ignored) {
+                    // 下でそのまま追加
+                }
+                yield -1;
+            }
+        };
+        byte[] bytes = (codePoint >= 0 && Character.isValidCodePoint(codePoint))
+            ? new String(Character.toChars(codePoint)).getBytes(StandardCharsets.UTF_8)
+            : ("&" + name + ";").getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(bytes, 0, text, textLen, bytes.length);
+        return textLen + bytes.length;
+    }
+
+    /**
+     * Boyer-Moore-Horspool で検索する。
+     *
+     * @param hay 検索対象
+     * @param len 検索対象の長さ
+     * @return 見つかった位置。ない場合は -1
+     */
+    int indexOf(byte[] hay, int len) {
+        int m = needle.length;
+        int last = m - 1;
+        int pos = 0;
+        while (pos <= len - m) {
+            int j = last;
+            while (hay[pos + j] == needle[j]) {
+                if (j == 0) return pos;
+                j--;
+            }
+            pos += shift[hay[pos + last] & 0xFF];
+        }
+        return -1;
+    }
+}
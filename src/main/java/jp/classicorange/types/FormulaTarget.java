@@ -0,0 +1,32 @@
+package jp.classicorange.types;
+
+/**
+ * 数式のセルで検索する対象のENUM。
+ * <pre>
+ * 計算結果はファイルに保存された値 (.xlsx の &lt;v&gt;、.xls の FORMULA レコードの値) を使い、再計算はしない。
+ * 計算結果は数式の文字列と同じ規則で文字列にする (数値は String.valueOf(double)、真偽値は true / false)。
+ * エラー値と、計算結果が保存されていないセルは対象外。
+ * </pre>
+ */
+public enum FormulaTarget {
+    /** 数式の文字列 e.g. CONCATENATE(A1,"様") */
+    TEXT,
+    /** 保存された計算結果 e.g. 山田様 */
+    VALUE,
+    /** 数式の文字列と計算結果の両方 */
+    BOTH;
+
+    /**
+     * @return 数式の文字列を検索する場合 true
+     */
+    public boolean text() {
+        return this != VALUE;
+    }
+
+    /**
+     * @return 計算結果を検索する場合 true
+     */
+    public boolean value() {
+        return this != TEXT;
+    }
+}
@@ -0,0 +1,20 @@
+package jp.classicorange.types;
+
+/**
+ * 検索結果が見つかった場所の種類のENUM。
+ * <pre>
+ * 結果の location 列に名前を出力する。position 列の意味は種類ごとに違う。
+ * </pre>
+ */
+public enum LocationType {
+    /** セルの値 (position はセル e.g. A1) */
+    CELL,
+    /** 図形・グラフのタイトル (position は最上位のアンカーのセル) */
+    SHAPE,
+    /** セルのコメント・スレッド形式のコメント (position はコメントのセル) */
+    COMMENT,
+    /** 印刷のヘッダー・フッター (position は oddHeader / oddFooter など種類の名前) */
+    HEADER_FOOTER,
+    /** 入力規則の入力時・エラー時のメッセージ (position は対象のセル範囲の先頭 e.g. B2:B100) */
+    VALIDATION
+}
@@ -0,0 +1,31 @@
+package jp.classicorange.types;
+
+/**
+ * 結果の出力形式のENUM。
+ * <pre>
+ * 出力は jp.classicorange.result.ResultSink の実装が行う。
+ * </pre>
+ */
+public enum ResultFormat {
+    /** Excel ブック (セルへのリンクつき。既存の result.xlsx にはシートを追加する) */
+    XLSX("xlsx"),
+    /** タブ区切り (タブ・改行・\ は \t \n \r \\ で表す) */
+    TSV("tsv"),
+    /** カンマ区切り (RFC 4180。Excel で開けるよう BOM つき) */
+    CSV("csv"),
+    /** 1行に1件の JSON */
+    JSONL("jsonl");
+
+    private final String extension;
+
+    ResultFormat(String extension) {
+        this.extension = extension;
+    }
+
+    /**
+     * @return ファイルの拡張子 (ドットなし)
+     */
+    public String extension() {
+        return extension;
+    }
+}
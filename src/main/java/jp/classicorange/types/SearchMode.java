@@ -2,13 +2,27 @@ package jp.classicorange.types;
 
 /**
  * 検索モードのENUM。
+ * <pre>
+ * 判定と置換は jp.classicorange.matcher.TextMatcher で、実行ごとに1回だけ作成した照合器が行う。
+ * </pre>
  *
  * @author Hav-pixel
  *
  */
 public enum SearchMode {
-    /** あいまい検索 */
+    /** あいまい検索 (文字列を含む) */
     FUZZY,
-    /** 完全一致検索 */
-    STRICTLY
+    /** 完全一致検索 (セルの値全体が一致) */
+    STRICTLY,
+    /** 正規表現検索 (置換文字列では $1 などのグループ参照が使える) */
+    REGEX,
+    /** 大文字・小文字を区別しないあいまい検索 */
+    IGNORE_CASE;
+
+    /**
+     * @return 検索文字列がそのままの文字列としてファイル内に現れる場合 true
+     */
+    public boolean isLiteral() {
+        return this == FUZZY || this == STRICTLY;
+    }
 }
@@ -0,0 +1,68 @@
+package jp.classicorange.utils;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+
+/**
+ * ファイルを一時ファイル経由で置換える。
+ * <pre>
+ * 同じディレクトリに "." で始まる一時ファイルを作って書込み、ディスクへ書出してから元のファイルと置換える。
+ * 途中で止まっても、元のファイルは書込み前か書込み後のどちらかで、途中まで書いた状態にはならない。
+ * 一時ファイルは "." で始まるため、検索対象にはならない。
+ * </pre>
+ */
+public final class AtomicFiles {
+
+    /**
+     * 一時ファイルへの書込み。
+     */
+    @FunctionalInterface
+    public interface Writer {
+        /**
+         * @param tmp 書込み先の一時ファイル (空のファイル)
+         */
+        void write(Path tmp) throws Exception;
+    }
+
+    private AtomicFiles() {
+    }
+
+    /**
+     * 一時ファイルに書込み、元のファイルと置換える。
+     * 置換えはできれば ATOMIC_MOVE で行い、対応していないファイルシステムでは通常の移動にする。
+     * 一時ファイルは所有者だけの権限で作られるため、元のファイルの権限を写す。
+     *
+     * @param file 置換えるファイル
+     * @param writer 一時ファイルへの書込み
+     */
+    public static void replace(Path file, Writer writer) throws Exception {
+        Path dir = file.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(dir, "." + file.getFileName(), ".tmp");
+        try {
+            writer.write(tmp);
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            copyPermissions(file, tmp);
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static void copyPermissions(Path from, Path to) throws IOException {
+        PosixFileAttributeView view = Files.getFileAttributeView(from, PosixFileAttributeView.class);
+        if (view == null) return;
+        Files.setPosixFilePermissions(to, view.readAttributes().permissions());
+    }
+}
@@ -1,56 +1,550 @@
 package jp.classicorange.utils;
 
+import jp.classicorange.matcher.Keyword;
+import jp.classicorange.scan.MemoryBudget;
+import jp.classicorange.scan.SearchScope;
+import jp.classicorange.types.FormulaTarget;
+import jp.classicorange.types.ResultFormat;
 import jp.classicorange.types.SearchMode;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
 public class CheckParameter {
 
-    public record SearchCond(String searchDirPath, String searchWord, SearchMode searchMode, String replaceWord) {}
+    /**
+     * 検索条件
+     *
+     * @param searchDirPath 検索対象のディレクトリパス
+     * @param searchWord 検索対象文字列
+     * @param searchMode 検索モード
+     * @param replaceWord 置換文字列 (任意)
+     * @param threads 同時に走査するファイル数
+     * @param streaming 置換しない場合、ストリーム読みで検索する
+     * @param preFilter .xlsx を開く前にZIPのバイト列で一致の可能性を調べる
+     * @param keywords 検索キーワードの一覧 (第二引数・第四引数の分を含む)
+     * @param indexPath 候補ファイルの絞込みに使う索引ファイル (任意)
+     * @param cacheDir 前回の検索結果を再利用するキャッシュのディレクトリ (任意)
+     * @param walk 対象ファイルの収集条件
+     * @param resultDir 実行ごとに結果ファイルを作る結果ストアのディレクトリ (任意。省略時は result.xlsx に追記)
+     * @param resultFormat 結果の出力形式
+     * @param outputPath 結果の出力ファイル (任意。省略時は result.拡張子)
+     * @param journalPath 置換の進み具合を記録するジャーナルファイル
+     * @param resume 置換をジャーナルの続きから再開する
+     * @param memoryBudget 並列に読込むブックのメモリの予算 (バイト)
+     * @param metricsPath ファイルごとの処理時間の集計 (JSON) の出力先 (任意)
+     * @param metricsTop 集計に載せる時間のかかったファイルの件数
+     * @param formula 数式のセルで検索する対象 (数式の文字列 / 保存された計算結果)
+     * @param displayFormat 数値・日付・真偽値のセルを Excel の表示形式で書式化した文字列で検索する
+     * @param scope 検索するシート・セル範囲・表示状態
+     */
+    public record SearchCond(String searchDirPath, String searchWord, SearchMode searchMode, String replaceWord,
+                             int threads, boolean streaming, boolean preFilter, List<Keyword> keywords,
+                             String indexPath, String cacheDir, WalkOptions walk, String resultDir,
+                             ResultFormat resultFormat, String outputPath, String journalPath, boolean resume,
+                             long memoryBudget, String metricsPath, int metricsTop, FormulaTarget formula,
+                             boolean displayFormat, ScopeOptions scope) {
+
+        /**
+         * @return キーワードの検索文字列の一覧
+         */
+        public List<String> words() {
+            return keywords.stream().map(Keyword::word).toList();
+        }
+
+        /**
+         * @return いずれかのキーワードに置換文字列がある場合 true
+         */
+        public boolean replaces() {
+            return keywords.stream().anyMatch(k -> k.replacement() != null);
+        }
+    }
+
+    /**
+     * 索引作成の条件
+     *
+     * @param searchDirPath 対象のディレクトリパス
+     * @param indexPath 作成する索引ファイル
+     * @param threads 同時に読込むファイル数
+     * @param walk 対象ファイルの収集条件
+     * @param memoryBudget 並列に読込むブックのメモリの予算 (バイト)
+     */
+    public record IndexCond(String searchDirPath, String indexPath, int threads, WalkOptions walk,
+                            long memoryBudget) {}
+
+    /**
+     * 常駐モードの接続先
+     *
+     * @param socketPath Unix ドメインソケットのファイル (任意。省略時はループバックの TCP)
+     * @param port ループバックの TCP のポート番号
+     * @param tokenPath 要求に付けるトークンのファイル (常駐プロセスが起動時に作る)
+     */
+    public record DaemonCond(String socketPath, int port, String tokenPath) {}
+
+    /** 常駐モードの既定のポート番号 */
+    public static final int DEFAULT_DAEMON_PORT = 47100;
+
+    /**
+     * 対象ファイルの収集条件
+     *
+     * @param includes 対象とするファイルの glob (空の場合はすべて)
+     * @param excludes 除外するファイル・ディレクトリの glob
+     * @param maxDepth 読込むサブディレクトリの深さ (-1 は無制限、0 は対象ディレクトリだけ)
+     */
+    public record WalkOptions(List<String> includes, List<String> excludes, int maxDepth) {
+
+        /** 条件なし */
+        public static final WalkOptions ALL = new WalkOptions(List.of(), List.of(), -1);
+    }
+
+    /**
+     * 検索する範囲
+     *
+     * @param sheets 対象のシート名の glob (* / ?)
+     * @param sheetRegexes 対象のシート名の正規表現
+     * @param ranges 対象のセル範囲 (A1 形式)
+     * @param visibleOnly 非表示のシート・行・列を除く
+     * @param shapesOnly セルは検索せず、図形だけを検索する
+     */
+    public record ScopeOptions(List<String> sheets, List<String> sheetRegexes, List<String> ranges,
+                               boolean visibleOnly, boolean shapesOnly) {
+
+        /** 条件なし */
+        public static final ScopeOptions ALL = new ScopeOptions(List.of(), List.of(), List.of(), false, false);
+    }
 
     /**
      * 渡された検索条件の配列をフィールドにセット
+     * <pre>
+     * "--" で始まる引数はオプションとして扱い、それ以外を順番通りの引数とする。
+     * ・--threads=N  同時に走査するファイル数 (省略時はCPUコア数)
+     * ・--stream     置換しない場合、ブックを丸ごと読込まずにストリーム読みで検索する
+     * ・--prefilter  .xlsx を開く前にZIPのバイト列を調べ、一致しえないファイルを除外する
+     * ・--word=文字列  検索文字列を追加する (複数指定可)
+     * ・--words=ファイル  1行に1つ「検索文字列[TAB置換文字列]」を書いたファイル (UTF-8) から追加する
+     * ・--index=ファイル  索引 (index コマンドで作成) で候補ファイルを絞込む
+     * ・--cache=ディレクトリ  変更のないファイルは前回の検索結果を使う (置換する場合は無効)
+     * ・--include=glob  対象とするファイル (複数指定可)
+     * ・--exclude=glob  除外するファイル・ディレクトリ (複数指定可)
+     * ・--max-depth=N  読込むサブディレクトリの深さ (0 は対象ディレクトリだけ)
+     * ・--results=ディレクトリ  result.xlsx に追記せず、実行ごとの結果ファイルと一覧 (runs.xlsx) を作る
+     * ・--format=xlsx|tsv|csv|jsonl  結果の出力形式 (省略時は xlsx)
+     * ・--output=ファイル  結果の出力ファイル (省略時は result.拡張子。xlsx 以外は上書き)
+     * ・--journal=ファイル  置換の進み具合を記録するジャーナル (省略時は replace.journal)
+     * ・--resume  置換をジャーナルの続きから再開し、完了済みのファイルはスキップする
+     * ・--heap-budget=MB  並列に読込むブックのメモリの予算 (省略時は最大ヒープの60%)
+     * ・--metrics=ファイル  ファイルごと・段階ごとの処理時間の集計を JSON で書出す
+     * ・--metrics-top=N  集計に載せる時間のかかったファイルの件数 (省略時は10)
+     * ・--formula=text|value|both  数式のセルで検索する対象 (省略時は text)
+     * ・--display-format  数値・日付・真偽値のセルを表示形式で書式化した文字列 (1,200 / 2024/04/01 / TRUE) で検索する
+     * ・--sheet=glob  対象のシート名 (* / ? が使える。複数指定可)
+     * ・--sheet-regex=正規表現  対象のシート名 (複数指定可)
+     * ・--range=A1:D100  対象のセル範囲 (A:D / 1:100 も可。複数指定可)
+     * ・--visible-only  非表示のシート・行・列を除く
+     * ・--shapes-only  セルは検索せず、図形 (グループ内の図形・グラフのタイトルを含む) だけを検索する
+     * 第二引数を空文字にした場合、オプションで指定したキーワードだけで検索する。
+     * </pre>
      *
      * @param args 検索条件
      * @return 検索パス
      */
     public static SearchCond checkParameter(String[] args){
 
-        int argLen = args.length;
+        // オプションと順番通りの引数を分ける
+        List<String> params = new ArrayList<>();
+        Map<String, List<String>> options = new LinkedHashMap<>();
+        parseArgs(args, params, options);
+
+        int argLen = params.size();
         if(argLen < 3){
             System.out.println("""
                  設定する引数は以下の通り。
                  ・第一引数：検索対象のディレクトリパス  e.g.  .\\testData\\
                  ・第二引数：検索対象文字列  e.g. Apple
-                 ・第三引数：検索モード  FUZZY あいまい検索, STRICTLY 完全一致
+                 ・第三引数：検索モード  FUZZY あいまい検索, STRICTLY 完全一致, REGEX 正規表現, IGNORE_CASE 大文字小文字を区別しない
                  ・第四引数：置換文字列  e.g. りんご
-                
+
+                 オプション：
+                 ・--threads=N  同時に走査するファイル数 (省略時はCPUコア数)
+                 ・--stream     置換しない場合、ストリーム読みで検索する (.xlsx/.xls)
+                 ・--prefilter  .xlsx を開く前にZIPのバイト列を調べ、一致しえないファイルを除外する
+                 ・--word=文字列  検索文字列を追加する (複数指定可)
+                 ・--words=ファイル  1行に1つ「検索文字列[TAB置換文字列]」を書いたファイルから追加する
+                 ・--index=ファイル  索引で候補ファイルを絞込む
+                 ・--cache=ディレクトリ  変更のないファイルは前回の検索結果を使う (置換する場合は無効)
+                 ・--include=glob  対象とするファイル e.g. "**/2024*.xlsx" (複数指定可)
+                 ・--exclude=glob  除外するファイル・ディレクトリ e.g. "old" (複数指定可)
+                 ・--max-depth=N  読込むサブディレクトリの深さ (0 は対象ディレクトリだけ)
+                 ・--results=ディレクトリ  result.xlsx に追記せず、実行ごとの結果ファイルと一覧 (runs.xlsx) を作る
+                 ・--format=xlsx|tsv|csv|jsonl  結果の出力形式 (省略時は xlsx)
+                 ・--output=ファイル  結果の出力ファイル (省略時は result.拡張子。xlsx 以外は上書き)
+                 ・--journal=ファイル  置換の進み具合を記録するジャーナル (省略時は replace.journal)
+                 ・--resume  置換をジャーナルの続きから再開し、完了済みのファイルはスキップする
+                 ・--heap-budget=MB  並列に読込むブックのメモリの予算 (省略時は最大ヒープの60%)
+                 ・--metrics=ファイル  ファイルごと・段階ごとの処理時間の集計を JSON で書出す
+                 ・--metrics-top=N  集計に載せる時間のかかったファイルの件数 (省略時は10)
+                 ・--formula=text|value|both  数式のセルで検索する対象 (数式の文字列 / 保存された計算結果 / 両方。省略時は text)
+                 ・--display-format  数値・日付・真偽値のセルを表示形式の文字列で検索する e.g. 1,200 / 2024/04/01
+                 ・--sheet=glob  対象のシート名 e.g. "表紙" "2024*" (複数指定可)
+                 ・--sheet-regex=正規表現  対象のシート名 (複数指定可)
+                 ・--range=A1:D100  対象のセル範囲 e.g. A:D / 1:100 (複数指定可。シェイプには適用せず、入力規則・ヘッダー/フッターは検索しない)
+                 ・--visible-only  非表示のシート・行・列を除く
+                 ・--shapes-only  セル・コメントなどは検索せず、図形・グラフのタイトルだけを検索する (シートXMLを読まない)
+
+                索引の作成：
+                 index 対象ディレクトリ --index=ファイル [--threads=N] [--heap-budget=MB] [--include/--exclude/--max-depth]
+
+                常駐モード：
+                 serve [--port=N | --socket=ファイル] [--token-file=ファイル]  常駐プロセスを起動する (省略時はループバックの 47100 番)
+                 client [--port=N | --socket=ファイル] [--token-file=ファイル] 検索・索引作成の引数  常駐プロセスに要求する (--shutdown で終了)
+                 (要求にはホームの .excelsheetscan/daemon.token のトークンを付ける。起動したユーザーだけが読める)
+
                 例：
                 .\\build\\install\\SearchDocs\\bin\\SearchDocs.bat .\\testData\\ "Apple" FUZZY
                 """);
 
-            System.exit(1);
+            // 常駐モードで終了しないよう、終了は呼出し元 (Main) に任せる
+            throw new IllegalArgumentException("引数が足りません");
         }
 
 
         // 引数から情報を取得
-        String searchDirPath = args[0];
-        String searchWord = args[1];
+        String searchDirPath = params.get(0);
+        String searchWord = params.get(1);
         String replaceWord = null;
-        SearchMode searchMode = SearchMode.valueOf(args[2]);
+        SearchMode searchMode = SearchMode.valueOf(params.get(2));
         // 置換処理は任意
-        if(args.length > 3){
-            replaceWord = args[3];
+        if(argLen > 3){
+            replaceWord = params.get(3);
+        }
+        // キーワード : 第二引数、--word、--words の順
+        List<Keyword> keywords = new ArrayList<>();
+        if (!searchWord.isEmpty()) {
+            keywords.add(new Keyword(searchWord, replaceWord));
+        }
+        for (String word : options.getOrDefault("word", List.of())) {
+            if (!word.isEmpty()) keywords.add(new Keyword(word, null));
         }
+        for (String file : options.getOrDefault("words", List.of())) {
+            keywords.addAll(readKeywords(Path.of(file)));
+        }
+        if (keywords.isEmpty()) {
+            throw new IllegalArgumentException("検索文字列を指定してください");
+        }
+
+        int threads = intOption(options, "threads", Runtime.getRuntime().availableProcessors());
+        boolean streaming = options.containsKey("stream");
+        boolean preFilter = options.containsKey("prefilter");
+        String indexPath = stringOption(options, "index");
+        String cacheDir = stringOption(options, "cache");
+        WalkOptions walk = walkOptions(options);
+        String resultDir = stringOption(options, "results");
+        String formatName = stringOption(options, "format");
+        ResultFormat resultFormat = (formatName == null) ? ResultFormat.XLSX
+            : ResultFormat.valueOf(formatName.toUpperCase(Locale.ROOT));
+        String outputPath = stringOption(options, "output");
+        String journalPath = stringOption(options, "journal");
+        if (journalPath == null) journalPath = "replace.journal";
+        boolean resume = options.containsKey("resume");
+        long memoryBudget = memoryBudget(options);
+        String metricsPath = stringOption(options, "metrics");
+        int metricsTop = intOption(options, "metrics-top", 10);
+        String formulaName = stringOption(options, "formula");
+        FormulaTarget formula;
+        try {
+            formula = (formulaName == null) ? FormulaTarget.TEXT
+                : FormulaTarget.valueOf(formulaName.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("--formula は text / value / both で指定してください : " + formulaName, e);
+        }
+        boolean displayFormat = options.containsKey("display-format");
+        ScopeOptions scope = new ScopeOptions(
+            List.copyOf(options.getOrDefault("sheet", List.of())),
+            List.copyOf(options.getOrDefault("sheet-regex", List.of())),
+            List.copyOf(options.getOrDefault("range", List.of())),
+            options.containsKey("visible-only"),
+            options.containsKey("shapes-only"));
+        // 正規表現・セル範囲の誤りは検索を始める前に知らせる
+        new SearchScope(scope);
 
         // メッセージを表示
         System.out.println("以下の条件でgrep検索を実行します。");
         System.out.println("検索対象フォルダ：" + searchDirPath);
-        System.out.println("検索文字列：" + searchWord);
+        System.out.println("検索文字列：" + (keywords.size() == 1 ? keywords.getFirst().word() : keywords.size() + "件"));
         System.out.println("検索方法：" + searchMode);
-        if(args.length > 3){
+        if(argLen > 3){
             System.out.println("置換文字列：" + replaceWord);
         }
+        System.out.println("並列数：" + threads);
+        System.out.println("メモリの予算：" + memoryBudget / (1024 * 1024) + " MB");
+        boolean replaces = keywords.stream().anyMatch(k -> k.replacement() != null);
+        if(streaming){
+            System.out.println("読込み方法：ストリーム" + (replaces ? " (置換ありのため無効)" : ""));
+        }
+        if(preFilter){
+            System.out.println("プレフィルタ：有効");
+        }
+        if(indexPath != null){
+            System.out.println("索引：" + indexPath);
+        }
+        if(cacheDir != null){
+            System.out.println("キャッシュ：" + cacheDir + (replaces ? " (置換ありのため無効)" : ""));
+        }
+        printWalkOptions(walk);
+        if(resultDir != null){
+            System.out.println("結果ストア：" + resultDir);
+        }
+        if(resultFormat != ResultFormat.XLSX){
+            System.out.println("出力形式：" + resultFormat);
+        }
+        if(replaces){
+            System.out.println("ジャーナル：" + journalPath + (resume ? " (再開)" : ""));
+        } else if(resume){
+            System.out.println("再開：置換なしのため無効");
+        }
+        if(metricsPath != null){
+            System.out.println("計測結果：" + metricsPath);
+        }
+        if(formula != FormulaTarget.TEXT){
+            System.out.println("数式：" + (formula == FormulaTarget.VALUE ? "計算結果" : "数式と計算結果")
+                + (replaces ? " (計算結果の一致は置換しない)" : ""));
+        }
+        if(displayFormat){
+            System.out.println("数値の表記：表示形式" + (preFilter ? " (プレフィルタは無効)" : ""));
+        }
+        printScopeOptions(scope);
 
-        return new SearchCond(searchDirPath,searchWord, searchMode, replaceWord);
+        return new SearchCond(searchDirPath,searchWord, searchMode, replaceWord, threads, streaming, preFilter,
+            List.copyOf(keywords), indexPath, cacheDir, walk, resultDir,
+            resultFormat, outputPath, journalPath, resume, memoryBudget, metricsPath, metricsTop, formula,
+            displayFormat, scope);
+    }
+
+    /**
+     * 索引作成の引数を検査する。
+     * <pre>
+     * ・第一引数：index
+     * ・第二引数：対象のディレクトリパス
+     * ・--index=ファイル  作成する索引ファイル (必須)
+     * ・--threads=N  同時に読込むファイル数 (省略時はCPUコア数)
+     * ・--heap-budget / --include / --exclude / --max-depth  検索と同じ
+     * </pre>
+     *
+     * @param args 引数
+     * @return 索引作成の条件
+     */
+    public static IndexCond checkIndexParameter(String[] args) {
+        List<String> params = new ArrayList<>();
+        Map<String, List<String>> options = new LinkedHashMap<>();
+        parseArgs(args, params, options);
+
+        String indexPath = stringOption(options, "index");
+        if (params.size() < 2 || indexPath == null) {
+            System.out.println("""
+                 索引の作成：
+                 ・第一引数：index
+                 ・第二引数：対象のディレクトリパス  e.g.  .\\testData\\
+                 ・--index=ファイル  作成する索引ファイル
+                 ・--threads=N  同時に読込むファイル数 (省略時はCPUコア数)
+                 ・--heap-budget=MB / --include=glob / --exclude=glob / --max-depth=N  検索と同じ
+                """);
+            throw new IllegalArgumentException("引数が足りません");
+        }
+        String searchDirPath = params.get(1);
+        int threads = intOption(options, "threads", Runtime.getRuntime().availableProcessors());
+        WalkOptions walk = walkOptions(options);
+        long memoryBudget = memoryBudget(options);
+
+        System.out.println("以下の条件で索引を作成します。");
+        System.out.println("対象フォルダ：" + searchDirPath);
+        System.out.println("索引ファイル：" + indexPath);
+        System.out.println("並列数：" + threads);
+        System.out.println("メモリの予算：" + memoryBudget / (1024 * 1024) + " MB");
+        printWalkOptions(walk);
+        return new IndexCond(searchDirPath, indexPath, threads, walk, memoryBudget);
+    }
+
+    /**
+     * 常駐モード (serve / client) の接続先の引数を検査する。
+     * <pre>
+     * ・--socket=ファイル  Unix ドメインソケットで待ち受ける・接続する
+     * ・--port=N  ループバック (127.0.0.1) の TCP のポート番号 (省略時は 47100)
+     * ・--token-file=ファイル  要求に付けるトークンのファイル (省略時はホームの .excelsheetscan/daemon.token)
+     * 他の引数は無視する (client は検索の引数として送信する)。
+     * </pre>
+     *
+     * @param args 引数
+     * @return 接続先
+     */
+    public static DaemonCond checkDaemonParameter(String[] args) {
+        List<String> params = new ArrayList<>();
+        Map<String, List<String>> options = new LinkedHashMap<>();
+        parseArgs(args, params, options);
+        String socketPath = stringOption(options, "socket");
+        int port = intOption(options, "port", DEFAULT_DAEMON_PORT);
+        if (port > 65535) {
+            throw new IllegalArgumentException("--port は 65535 以下で指定してください : " + port);
+        }
+        String tokenPath = stringOption(options, "token-file");
+        if (tokenPath == null) {
+            tokenPath = Path.of(System.getProperty("user.home"), ".excelsheetscan", "daemon.token").toString();
+        }
+        return new DaemonCond(socketPath, port, tokenPath);
+    }
+
+    /**
+     * 対象ファイルの収集条件を取得する。
+     *
+     * @param options オプション
+     * @return 収集条件
+     */
+    private static WalkOptions walkOptions(Map<String, List<String>> options) {
+        List<String> includes = List.copyOf(options.getOrDefault("include", List.of()));
+        List<String> excludes = List.copyOf(options.getOrDefault("exclude", List.of()));
+        int maxDepth = -1;
+        String depth = stringOption(options, "max-depth");
+        if (depth != null) {
+            try {
+                maxDepth = Math.max(0, Integer.parseInt(depth));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("--max-depth は数値で指定してください : " + depth, e);
+            }
+        }
+        return new WalkOptions(includes, excludes, maxDepth);
+    }
+
+    /**
+     * ブックの読込みに使うメモリの予算を取得する。
+     *
+     * @param options オプション
+     * @return 予算 (バイト)。省略時は最大ヒープの60%
+     */
+    private static long memoryBudget(Map<String, List<String>> options) {
+        if (!options.containsKey("heap-budget")) {
+            return MemoryBudget.defaultBudget();
+        }
+        return intOption(options, "heap-budget", 1) * 1024L * 1024;
+    }
+
+    private static void printScopeOptions(ScopeOptions scope) {
+        List<String> sheets = new ArrayList<>(scope.sheets());
+        scope.sheetRegexes().forEach(regex -> sheets.add("/" + regex + "/"));
+        if (!sheets.isEmpty()) {
+            System.out.println("対象シート：" + String.join(", ", sheets));
+        }
+        if (!scope.ranges().isEmpty()) {
+            System.out.println("セル範囲：" + String.join(", ", scope.ranges()));
+        }
+        if (scope.visibleOnly()) {
+            System.out.println("表示状態：表示されているシート・行・列だけ");
+        }
+        if (scope.shapesOnly()) {
+            System.out.println("検索対象：図形だけ");
+        }
+    }
+
+    private static void printWalkOptions(WalkOptions walk) {
+        if (!walk.includes().isEmpty()) {
+            System.out.println("対象ファイル：" + String.join(", ", walk.includes()));
+        }
+        if (!walk.excludes().isEmpty()) {
+            System.out.println("除外：" + String.join(", ", walk.excludes()));
+        }
+        if (walk.maxDepth() >= 0) {
+            System.out.println("サブディレクトリの深さ：" + walk.maxDepth());
+        }
+    }
+
+    /**
+     * "--" で始まる引数をオプション、それ以外を順番通りの引数に分ける。
+     * "--key" だけの場合は値を "true" とする。同じオプションは複数指定できる。
+     *
+     * @param args 引数
+     * @param params 順番通りの引数の格納先
+     * @param options オプションの格納先
+     */
+    private static void parseArgs(String[] args, List<String> params, Map<String, List<String>> options) {
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                int eq = arg.indexOf('=');
+                String key = (eq < 0) ? arg.substring(2) : arg.substring(2, eq);
+                String value = (eq < 0) ? "true" : arg.substring(eq + 1);
+                options.computeIfAbsent(key, k -> new ArrayList<>()).add(value);
+            } else {
+                params.add(arg);
+            }
+        }
+    }
+
+    /**
+     * 文字列オプションを取得する。
+     *
+     * @param options オプション
+     * @param key キー
+     * @return 値。指定がない場合は null
+     */
+    private static String stringOption(Map<String, List<String>> options, String key) {
+        List<String> values = options.get(key);
+        return (values == null) ? null : values.getLast();
+    }
+
+    /**
+     * 数値オプションを取得する。
+     *
+     * @param options オプション
+     * @param key キー
+     * @param defaultValue 省略時の値
+     * @return 値 (1以上)
+     */
+    private static int intOption(Map<String, List<String>> options, String key, int defaultValue) {
+        List<String> values = options.get(key);
+        if (values == null) return defaultValue;
+        String value = values.getLast();
+        try {
+            return Math.max(1, Integer.parseInt(value));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("--" + key + " は数値で指定してください : " + value, e);
+        }
+    }
+
+    /**
+     * キーワードファイルを読込む。
+     * <pre>
+     * 1行に1つ「検索文字列」または「検索文字列[TAB]置換文字列」。
+     * 空行と # で始まる行は読み飛ばす。
+     * </pre>
+     *
+     * @param file キーワードファイル (UTF-8)
+     * @return キーワード
+     */
+    static List<Keyword> readKeywords(Path file) {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException("キーワードファイルを読込めません : " + file, e);
+        }
+        List<Keyword> keywords = new ArrayList<>();
+        for (String line : lines) {
+            // BOM を除く
+            if (line.startsWith("\uFEFF")) line = line.substring(1);
+            if (line.isBlank() || line.startsWith("#")) continue;
+            int tab = line.indexOf('\t');
+            if (tab < 0) {
+                keywords.add(new Keyword(line, null));
+            } else if (tab > 0) {
+                keywords.add(new Keyword(line.substring(0, tab), line.substring(tab + 1)));
+            }
+        }
+        return keywords;
     }
 
 }
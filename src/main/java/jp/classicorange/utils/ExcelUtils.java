@@ -14,6 +14,7 @@ import org.apache.poi.ss.usermodel.*;
 import org.apache.poi.ss.usermodel.ClientAnchor.AnchorType;
 import org.apache.poi.ss.util.CellRangeAddress;
 import org.apache.poi.util.Units;
+import org.apache.poi.xssf.usermodel.XSSFCell;
 import org.apache.poi.xssf.usermodel.XSSFSimpleShape;
 import org.openxmlformats.schemas.drawingml.x2006.main.CTPositiveFixedPercentage;
 import org.openxmlformats.schemas.drawingml.x2006.main.CTSRgbColor;
@@ -626,4 +627,23 @@ public interface ExcelUtils {
             default -> "";
         };
     }
+
+    /**
+     * 数式のセルに保存された計算結果を getStringValue と同じ形の文字列で返す。
+     * FormulaEvaluator は使わず、再計算はしない。
+     *
+     * @param cell Cell
+     * @return 計算結果。数式のセルでない場合、エラー値、計算結果が保存されていない場合は null
+     */
+    static String getCachedFormulaValue(Cell cell) {
+        if (cell.getCellType() != CellType.FORMULA) return null;
+        // .xlsx は <v> がないと数値の 0 を返すため、保存されていないものとして扱う
+        if (cell instanceof XSSFCell xssfCell && !xssfCell.getCTCell().isSetV()) return null;
+        return switch (cell.getCachedFormulaResultType()) {
+            case STRING -> cell.getStringCellValue();
+            case NUMERIC -> String.valueOf(cell.getNumericCellValue());
+            case BOOLEAN -> String.valueOf(cell.getBooleanCellValue());
+            default -> null;
+        };
+    }
 }
@@ -0,0 +1,19 @@
+package jp.classicorange.utils.entity;
+
+/**
+ * 索引に登録するセル・シェイプの文字列 1件分。
+ * <pre>
+ * シェイプはアンカーの左上のセル位置で登録する。
+ * </pre>
+ *
+ * @param sheetIndex シートのインデックス
+ * @param row 行番号 (0から)
+ * @param col 列番号 (0から)
+ * @param text 文字列 (ExcelUtils.getStringValue と同じ形)
+ */
+public record CellText(
+    int sheetIndex,
+    int row,
+    int col,
+    String text
+) { }
@@ -0,0 +1,35 @@
+package jp.classicorange.utils.entity;
+
+import jp.classicorange.types.LocationType;
+
+/**
+ * 検索結果 1件分。
+ * <pre>
+ * 走査スレッドで生成され、結果シートを所有する書込み側へ渡される。
+ * cellIndex はセル以外 (シェイプ・コメント・ヘッダー/フッター・入力規則) の場合 -1 となる。
+ * 1つのセルが複数のキーワードを含む場合、キーワードごとに1件となる。
+ * </pre>
+ *
+ * @param fileIndex ファイルのインデックス
+ * @param sheetIndex シートのインデックス
+ * @param cellIndex シート内のヒット連番
+ * @param filePath ファイルの絶対パス
+ * @param sheetName シート名
+ * @param position セルの位置情報 e.g. A1
+ * @param value 値
+ * @param replaced 置換後の値
+ * @param keyword 一致したキーワード
+ * @param location 見つかった場所の種類
+ */
+public record Hit(
+    int fileIndex,
+    int sheetIndex,
+    int cellIndex,
+    String filePath,
+    String sheetName,
+    String position,
+    String value,
+    String replaced,
+    String keyword,
+    LocationType location
+) { }
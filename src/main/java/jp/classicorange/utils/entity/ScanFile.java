@@ -0,0 +1,11 @@
+package jp.classicorange.utils.entity;
+
+import java.io.File;
+
+/**
+ * 走査対象のファイル。
+ *
+ * @param fileIndex ディレクトリ内でのインデックス（逐次実行時と同じ採番）
+ * @param file 対象ファイル
+ */
+public record ScanFile(int fileIndex, File file) { }
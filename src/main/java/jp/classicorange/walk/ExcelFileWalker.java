@@ -0,0 +1,234 @@
+package jp.classicorange.walk;
+
+import jp.classicorange.utils.CheckParameter;
+import jp.classicorange.utils.entity.ScanFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * 対象のエクセルファイルを NIO で収集する。
+ * <pre>
+ * サブディレクトリの一覧は複数スレッドで並列に取得し、見つかったファイルから順に返すため、
+ * ツリー全体の一覧を待たずに検索を始められる。
+ * 属性はディレクトリの読込みで得られる BasicFileAttributes を使い、エントリごとの File.isFile は呼ばない。
+ *
+ * 返す順番と fileIndex は従来の SearchExcel.searchDir と同じ。
+ * ・サブディレクトリのファイルは、親ディレクトリのファイルより先に返す
+ * ・fileIndex はディレクトリ内の一覧 (エクセルファイルと読込むサブディレクトリ) での位置
+ *
+ * 対象外とするもの
+ * ・ドットで始まるファイル・ディレクトリ
+ * ・~$ で始まるロックファイル
+ * ・--include に一致しないファイル、--exclude に一致するファイル・ディレクトリ
+ *   (glob は対象ディレクトリからの相対パスか、ファイル名に一致すればよい)
+ * ・--max-depth より深いディレクトリ
+ * ・祖先と同じディレクトリ (シンボリックリンクの循環)
+ * ・別の経路 (シンボリックリンクと実パスなど) で出力済みのディレクトリ。
+ *   一覧は並列に取得するため、どの経路を使うかは出力する順 (emit) で決め、--threads によらず同じ結果にする
+ * </pre>
+ */
+public final class ExcelFileWalker implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(ExcelFileWalker.class);
+
+    /** 終端 */
+    private static final ScanFile END = new ScanFile(-1, null);
+
+    private final Path root;
+    private final List<PathMatcher> includes;
+    private final List<PathMatcher> excludes;
+    private final int maxDepth;
+    private final ExecutorService executor;
+
+    /**
+     * ディレクトリ1つ分の一覧。
+     *
+     * @param key ディレクトリのキー (fileKey または実パス。読込まない場合は null)
+     * @param files エクセルファイル
+     * @param subdirs 読込むサブディレクトリの一覧 (一覧の順)
+     */
+    private record Listing(Object key, List<ScanFile> files, List<Future<Listing>> subdirs) {
+
+        static final Listing EMPTY = new Listing(null, List.of(), List.of());
+    }
+
+    /**
+     * @param rootPath 対象ディレクトリ
+     * @param options 収集の条件
+     * @param threads 一覧を取得するスレッド数
+     */
+    public ExcelFileWalker(String rootPath, CheckParameter.WalkOptions options, int threads) {
+        this.root = Path.of(rootPath);
+        FileSystem fs = root.getFileSystem();
+        this.includes = options.includes().stream().map(g -> fs.getPathMatcher("glob:" + g)).toList();
+        this.excludes = options.excludes().stream().map(g -> fs.getPathMatcher("glob:" + g)).toList();
+        this.maxDepth = options.maxDepth();
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "walker");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * 対象ファイルを順に返す。一覧の取得が追いついていない場合は待つ。
+     *
+     * @return 対象ファイル
+     */
+    public Iterator<ScanFile> walk() {
+        BlockingQueue<ScanFile> queue = new LinkedBlockingQueue<>();
+        Future<Listing> top = executor.submit(() -> list(root, 0, List.of()));
+        Thread producer = new Thread(() -> {
+            try {
+                emit(top, queue, new HashSet<>());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                queue.add(END);
+            }
+        }, "walker-order");
+        producer.setDaemon(true);
+        producer.start();
+
+        return new Iterator<>() {
+            private ScanFile next;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null) {
+                    try {
+                        next = queue.take();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        next = END;
+                    }
+                }
+                return next != END;
+            }
+
+            @Override
+            public ScanFile next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                ScanFile f = next;
+                next = null;
+                return f;
+            }
+        };
+    }
+
+    /**
+     * サブディレクトリ、ファイルの順に出力する。
+     * 出力済みのディレクトリ (別の経路で届いたもの) は出力しない。1つのスレッドで決まった順に呼ぶため、
+     * どの経路のディレクトリを出力するかは一覧の取得の速さによらない。
+     *
+     * @param emitted 出力済みのディレクトリのキー
+     */
+    private void emit(Future<Listing> future, BlockingQueue<ScanFile> queue, Set<Object> emitted)
+        throws InterruptedException {
+        Listing listing;
+        try {
+            listing = future.get();
+        } catch (ExecutionException e) {
+            log.error("検索エラー : {}", e.getCause().getMessage());
+            return;
+        }
+        if (listing.key() != null && !emitted.add(listing.key())) {
+            log.info("読込み済みのディレクトリ : {}", listing.key());
+            return;
+        }
+        for (Future<Listing> subdir : listing.subdirs()) {
+            emit(subdir, queue, emitted);
+        }
+        queue.addAll(listing.files());
+    }
+
+    /**
+     * ディレクトリ1つ分の一覧を取得し、サブディレクトリの一覧の取得を投入する。
+     *
+     * @param ancestors 祖先のディレクトリのキー
+     */
+    private Listing list(Path dir, int depth, List<Object> ancestors) throws IOException {
+        Object key = key(dir);
+        if (ancestors.contains(key)) {
+            log.info("シンボリックリンクの循環 : {}", dir);
+            return Listing.EMPTY;
+        }
+        List<Object> chain = new ArrayList<>(ancestors);
+        chain.add(key);
+        List<ScanFile> files = new ArrayList<>();
+        List<Future<Listing>> subdirs = new ArrayList<>();
+        int[] index = {0};
+        Files.walkFileTree(dir, EnumSet.of(FileVisitOption.FOLLOW_LINKS), 1, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
+                String name = path.getFileName().toString();
+                // ドットで始まるファイルとロックファイルは対象外
+                if (name.startsWith(".") || name.startsWith("~$")) return FileVisitResult.CONTINUE;
+                Path relative = root.relativize(path);
+                if (matches(excludes, relative)) return FileVisitResult.CONTINUE;
+
+                if (attrs.isDirectory()) {
+                    if (maxDepth >= 0 && depth >= maxDepth) return FileVisitResult.CONTINUE;
+                    index[0]++;
+                    subdirs.add(executor.submit(() -> list(path, depth + 1, chain)));
+                } else if (attrs.isRegularFile() && (name.endsWith(".xls") || name.endsWith(".xlsx"))) {
+                    if (!includes.isEmpty() && !matches(includes, relative)) return FileVisitResult.CONTINUE;
+                    files.add(new ScanFile(index[0]++, path.toFile()));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path path, IOException e) {
+                log.warn("読込みエラー : {} {}", path, e.getMessage());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        log.info("対象ファイル収集 : {} {}", dir, index[0]);
+        return new Listing(key, files, subdirs);
+    }
+
+    private static boolean matches(List<PathMatcher> matchers, Path relative) {
+        Path name = relative.getFileName();
+        for (PathMatcher m : matchers) {
+            if (m.matches(relative) || (name != null && m.matches(name))) return true;
+        }
+        return false;
+    }
+
+    /**
+     * ディレクトリを識別するキー。 fileKey がない環境では実パス。
+     */
+    private static Object key(Path dir) throws IOException {
+        Object fileKey = Files.readAttributes(dir, BasicFileAttributes.class).fileKey();
+        return (fileKey != null) ? fileKey : dir.toRealPath();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -1,94 +1,214 @@
 import jp.classicorange.utils.ExcelUtils;
-import org.apache.poi.xssf.usermodel.*;
+import org.apache.poi.hssf.usermodel.HSSFClientAnchor;
+import org.apache.poi.hssf.usermodel.HSSFPatriarch;
+import org.apache.poi.hssf.usermodel.HSSFRichTextString;
+import org.apache.poi.hssf.usermodel.HSSFSheet;
+import org.apache.poi.hssf.usermodel.HSSFTextbox;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
 import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.xssf.usermodel.XSSFClientAnchor;
+import org.apache.poi.xssf.usermodel.*;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 import java.util.Random;
 
 /**
  * テスト用のExcelファイルを生成
- * ディレクトリ ３個、ファイル5個ずつ生成
- *
+ * <pre>
+ * 引数なしの場合は従来どおり、ディレクトリ ３個、ファイル5個ずつ (3シート × 1000行 × 10列、シェイプ15個) 生成。
+ * 以下のオプションで本番に近い構成にできる。
+ * ・--out=ディレクトリ      出力先 (省略時は testData)
+ * ・--files=N              ファイル数 (15)
+ * ・--dirs=N               1階層あたりのディレクトリ数 (3)
+ * ・--depth=N              ディレクトリの深さ (1)。ファイルは最下層のディレクトリに順番に配る
+ * ・--xls-ratio=0.0～1.0   .xls にするファイルの割合 (0)
+ * ・--sheets=N / --rows=N / --cols=N  シート数・行数・列数 (3 / 1000 / 10)
+ * ・--sst-reuse=N          同じ文字列 (区分001～区分100) を使い回すセルの割合 % (0)
+ * ・--shapes=N             1シートあたりのシェイプ数 (15)。シェイプは 50% で検索文字列を含む
+ * ・--hit-rate=N           検索文字列を含むセルの割合 % (2)
+ * ・--word=文字列           検索文字列 (Jakarta)
+ * ・--seed=N               乱数の種 (1)。同じ引数と種なら同じ内容になる
+ * 出力先が既にある場合も続行し、同じ名前のファイルは上書きする。
+ * 件数の集計は 出力先/corpus.properties に書出す (ScanThroughput が読む)。
+ * </pre>
  */
 public class MakeTestExcel {
+
+    /** 使い回す文字列の種類 */
+    private static final int REUSE_POOL = 100;
+
     public static void main(String[] args) {
         try {
-            Random random = new Random();
-            String projectRoot = System.getProperty("user.dir");
-            for (int dirNum = 1; dirNum <= 3; dirNum++) {
-                String dirPath = String.format("%s/testData/dir%02d/", projectRoot, dirNum);
-                boolean mkdirs = new File(dirPath).mkdirs();
-                if(!mkdirs){
-                    System.err.println("ERROR:ディレクトリ生成失敗");
+            Map<String, String> options = parseArgs(args);
+            String out = options.getOrDefault("out", System.getProperty("user.dir") + "/testData");
+            int files = intOption(options, "files", 15);
+            int dirs = intOption(options, "dirs", 3);
+            int depth = intOption(options, "depth", 1);
+            double xlsRatio = Double.parseDouble(options.getOrDefault("xls-ratio", "0"));
+            int sheets = intOption(options, "sheets", 3);
+            int rows = intOption(options, "rows", 1000);
+            int cols = intOption(options, "cols", 10);
+            int sstReuse = intOption(options, "sst-reuse", 0);
+            int shapes = intOption(options, "shapes", 15);
+            int hitRate = intOption(options, "hit-rate", 2);
+            String word = options.getOrDefault("word", "Jakarta");
+            long seed = Long.parseLong(options.getOrDefault("seed", "1"));
+            if (xlsRatio > 0 && (rows > 65536 || cols > 256)) {
+                throw new IllegalArgumentException(".xls は 65536行 × 256列 までです");
+            }
+
+            Random random = new Random(seed);
+            List<String> leafDirs = leafDirs(out, dirs, depth);
+            long cells = 0;
+            long hits = 0;
+            long bytes = 0;
+            int xlsCount = 0;
+            for (int leaf = 0; leaf < leafDirs.size(); leaf++) {
+                String dirPath = leafDirs.get(leaf);
+                File dir = new File(dirPath);
+                if (!dir.isDirectory() && !dir.mkdirs()) {
+                    System.err.println("ERROR:ディレクトリ生成失敗 " + dirPath);
                     System.exit(-1);
                 }
 
-                for (int fileNum = 1; fileNum <= 5; fileNum++) {
-                    XSSFWorkbook workbook = new XSSFWorkbook();
+                // 最下層のディレクトリに順番に配る
+                int fileCount = files / leafDirs.size() + (leaf < files % leafDirs.size() ? 1 : 0);
+                for (int fileNum = 1; fileNum <= fileCount; fileNum++) {
+                    boolean xls = random.nextDouble() < xlsRatio;
+                    Workbook workbook = xls ? new HSSFWorkbook() : new XSSFWorkbook();
 
                     //シートごと
-                    for (int sheetNum = 1; sheetNum <= 3; sheetNum++) {
-                        XSSFSheet sheet = workbook.createSheet("Sheet"+sheetNum);
+                    for (int sheetNum = 1; sheetNum <= sheets; sheetNum++) {
+                        Sheet sheet = workbook.createSheet("Sheet"+sheetNum);
 
-                        // セルにデータ + ランダムで「Jakarta」
-                        for (int rowNum = 0; rowNum < 1000; rowNum++) {
+                        // セルにデータ + ランダムで検索文字列
+                        for (int rowNum = 0; rowNum < rows; rowNum++) {
                             Row row = sheet.createRow(rowNum);
-                            for (int colNum = 0; colNum < 10; colNum++) {
+                            for (int colNum = 0; colNum < cols; colNum++) {
                                 //セル
-                                String cellValue = String.format("DataDir%02d File%02d Sheet%02d R%dC%d", dirNum, fileNum, sheetNum, rowNum + 1, colNum + 1);
-                                if (random.nextInt(100) < 2) {  // 約2%の確率でJakartaを追記 検索対象ワード
-                                    cellValue += " Jakarta";
+                                String cellValue = (random.nextInt(100) < sstReuse)
+                                    ? String.format("区分%03d", random.nextInt(REUSE_POOL) + 1)
+                                    : String.format("DataDir%02d File%02d Sheet%02d R%dC%d", leaf + 1, fileNum, sheetNum, rowNum + 1, colNum + 1);
+                                if (random.nextInt(100) < hitRate) {  // hit-rate % の確率で検索文字列を追記
+                                    cellValue += " " + word;
+                                    hits++;
                                 }
                                 row.createCell(colNum).setCellValue(cellValue);
+                                cells++;
                             }
                         }
 
-                        // シェイプを15個作成 半透明
-                        XSSFDrawing drawing = sheet.createDrawingPatriarch();
-                        for (int s = 0; s < 15; s++) {
+                        // シェイプ 半透明
+                        for (int s = 0; s < shapes; s++) {
                             int col = random.nextInt(15);  // 0～14列目あたりに
                             int row = random.nextInt(50); // 上50行くらいに
-                            XSSFClientAnchor anchor = new XSSFClientAnchor();
-                            // シェイプの位置
-                            anchor.setCol1(col);
-                            anchor.setRow1(row);
-                            anchor.setCol2(col+1);
-                            anchor.setRow2(row+3);
-                            anchor.setDx1(0);
-                            anchor.setDy1(0);
-                            anchor.setDx2(300 * 9525);
-                            anchor.setDy2(200 * 9525);
-
-                            // テキストあるシェイプを生成
-                            XSSFTextBox textBox = drawing.createTextbox(anchor);
-                            //textBox.setFillColor(128,255,128);
-
-                            String shapeText = String.format("シェイプD%02dF%02d S%02d", dirNum, fileNum, s+1);
-                            if (random.nextBoolean()) {  // 50%でJakarta含める
-                                shapeText += " Jakarta";
+                            String shapeText = String.format("シェイプD%02dF%02d S%02d", leaf + 1, fileNum, s+1);
+                            if (random.nextBoolean()) {  // 50%で検索文字列を含める
+                                shapeText += " " + word;
+                            }
+                            if (sheet instanceof XSSFSheet xssfSheet) {
+                                addShape(xssfSheet, col, row, shapeText);
+                            } else {
+                                addShape((HSSFSheet) sheet, col, row, shapeText);
                             }
-                            textBox.setText(shapeText);
-
-                            int alpha = 128; // 0 (透明) から 255 (不透明) までの値
-                            ExcelUtils.setFillColorWithAlpha(textBox, 128,255,128, alpha);
                         }
                     }
 
-                    String filename = String.format(dirPath + "テスト用D%02dF%02d.xlsx", dirNum, fileNum);
-                    try (FileOutputStream out = new FileOutputStream(filename)) {
-                        workbook.write(out);
+                    String filename = String.format(dirPath + "テスト用D%02dF%02d.%s", leaf + 1, fileNum, xls ? "xls" : "xlsx");
+                    try (FileOutputStream outputStream = new FileOutputStream(filename)) {
+                        workbook.write(outputStream);
                     }
                     workbook.close();
+                    bytes += new File(filename).length();
+                    if (xls) xlsCount++;
                     System.out.println("テストデータ " + filename + " を作成しました！");
                 }
             }
+
+            // 集計
+            Properties corpus = new Properties();
+            corpus.setProperty("files", String.valueOf(files));
+            corpus.setProperty("xls", String.valueOf(xlsCount));
+            corpus.setProperty("cells", String.valueOf(cells));
+            corpus.setProperty("hits", String.valueOf(hits));
+            corpus.setProperty("bytes", String.valueOf(bytes));
+            corpus.setProperty("word", word);
+            corpus.setProperty("args", String.join(" ", args == null ? new String[0] : args));
+            try (Writer writer = Files.newBufferedWriter(new File(out, "corpus.properties").toPath(), StandardCharsets.UTF_8)) {
+                corpus.store(writer, "MakeTestExcel");
+            }
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * 最下層のディレクトリを返す。深さ1の場合は 出力先/dir01/ ～ dirNN/。
+     */
+    private static List<String> leafDirs(String out, int dirs, int depth) {
+        List<String> paths = new ArrayList<>(List.of(out + "/"));
+        for (int level = 0; level < depth; level++) {
+            List<String> next = new ArrayList<>();
+            for (String parent : paths) {
+                for (int dirNum = 1; dirNum <= dirs; dirNum++) {
+                    next.add(String.format("%sdir%02d/", parent, dirNum));
+                }
+            }
+            paths = next;
+        }
+        return paths;
+    }
+
+    private static void addShape(XSSFSheet sheet, int col, int row, String shapeText) {
+        XSSFDrawing drawing = sheet.createDrawingPatriarch();
+        XSSFClientAnchor anchor = new XSSFClientAnchor();
+        // シェイプの位置
+        anchor.setCol1(col);
+        anchor.setRow1(row);
+        anchor.setCol2(col+1);
+        anchor.setRow2(row+3);
+        anchor.setDx1(0);
+        anchor.setDy1(0);
+        anchor.setDx2(300 * 9525);
+        anchor.setDy2(200 * 9525);
 
+        // テキストあるシェイプを生成
+        XSSFTextBox textBox = drawing.createTextbox(anchor);
+        textBox.setText(shapeText);
 
+        int alpha = 128; // 0 (透明) から 255 (不透明) までの値
+        ExcelUtils.setFillColorWithAlpha(textBox, 128,255,128, alpha);
+    }
+
+    private static void addShape(HSSFSheet sheet, int col, int row, String shapeText) {
+        HSSFPatriarch patriarch = sheet.createDrawingPatriarch();
+        HSSFClientAnchor anchor = new HSSFClientAnchor(0, 0, 300, 200, (short) col, row, (short) (col + 1), row + 3);
+        HSSFTextbox textBox = patriarch.createTextbox(anchor);
+        textBox.setString(new HSSFRichTextString(shapeText));
+        textBox.setFillColor(128, 255, 128);
+    }
+
+    private static Map<String, String> parseArgs(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        if (args == null) return options;
+        for (String arg : args) {
+            if (!arg.startsWith("--")) continue;
+            int eq = arg.indexOf('=');
+            options.put(eq < 0 ? arg.substring(2) : arg.substring(2, eq), eq < 0 ? "true" : arg.substring(eq + 1));
+        }
+        return options;
+    }
+
+    private static int intOption(Map<String, String> options, String key, int defaultValue) {
+        String value = options.get(key);
+        return (value == null) ? defaultValue : Integer.parseInt(value);
+    }
 }
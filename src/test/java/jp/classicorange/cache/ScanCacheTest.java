@@ -0,0 +1,118 @@
+package jp.classicorange.cache;
+
+import jp.classicorange.scan.SheetFilter;
+import jp.classicorange.types.LocationType;
+import jp.classicorange.utils.CheckParameter;
+import jp.classicorange.utils.entity.Hit;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ScanCacheTest {
+
+    @TempDir
+    Path dir;
+
+    /**
+     * シートのパートだけが変わったファイルは、変わったシートだけを読み直し、前回の結果と合わせる。
+     */
+    @Test
+    public void testPartialHit() throws Exception {
+        File file = dir.resolve("book.xlsx").toFile();
+        writeBook(file);
+        CheckParameter.SearchCond cond = CheckParameter.checkParameter(new String[]{dir.toString(), "Jakarta", "FUZZY"});
+        Path cacheDir = dir.resolve("cache");
+
+        // 1回目はミス。3シートの結果を保存する
+        ScanCache first = ScanCache.open(cacheDir, cond);
+        ScanCache.Lookup miss = first.lookup(file);
+        assertFalse(miss.isHit());
+        assertTrue(miss.sheetFilter().parse(0, "/xl/worksheets/sheet1.xml"));
+        miss.complete(0, file, List.of(hit(0, file, 0, "A1", "Jakarta 0"), hit(0, file, 1, "A1", "Jakarta 1"),
+            hit(0, file, 2, "A1", "Jakarta 2")));
+        first.save();
+
+        // 2枚目のシート (sheet2.xml) だけを書き換える
+        replaceSheet(file, "xl/worksheets/sheet2.xml");
+
+        ScanCache second = ScanCache.open(cacheDir, cond);
+        ScanCache.Lookup partial = second.lookup(file);
+        assertFalse(partial.isHit());
+        SheetFilter filter = partial.sheetFilter();
+        assertFalse(filter.parse(0, "/xl/worksheets/sheet1.xml"));
+        assertTrue(filter.parse(1, "/xl/worksheets/sheet2.xml"));
+        assertFalse(filter.parse(2, "/xl/worksheets/sheet3.xml"));
+
+        // 読み直したシートの結果は今回のものだけ。シートの順に並べる
+        List<Hit> merged = partial.complete(5, file, List.of(hit(5, file, 1, "B2", "Jakarta new")));
+        assertEquals(List.of("0:A1:Jakarta 0", "1:B2:Jakarta new", "2:A1:Jakarta 2"), describe(merged));
+        // 前回の結果も今回のファイルのインデックスにする
+        assertTrue(merged.stream().allMatch(hit -> hit.fileIndex() == 5));
+        assertEquals(1, second.partialCount());
+
+        // 読み直さなかった場合 (プレフィルタ・索引で除外) も、変わったシートの前回の結果は使わない
+        List<Hit> skipped = second.lookup(file).complete(5, file, List.of());
+        assertEquals(List.of("0:A1:Jakarta 0", "2:A1:Jakarta 2"), describe(skipped));
+    }
+
+    private static Hit hit(int fileIndex, File file, int sheetIndex, String position, String value) {
+        return new Hit(fileIndex, sheetIndex, 0, file.getAbsolutePath(), "S" + sheetIndex, position, value, null,
+            "Jakarta", LocationType.CELL);
+    }
+
+    private static List<String> describe(List<Hit> hits) {
+        return hits.stream().map(hit -> hit.sheetIndex() + ":" + hit.position() + ":" + hit.value()).toList();
+    }
+
+    private static void writeBook(File file) throws Exception {
+        try (XSSFWorkbook workbook = new XSSFWorkbook(); OutputStream out = new FileOutputStream(file)) {
+            for (int i = 0; i < 3; i++) {
+                workbook.createSheet("S" + i).createRow(0).createCell(0).setCellValue("Jakarta " + i);
+            }
+            workbook.write(out);
+        }
+    }
+
+    /**
+     * ZIP のパート1つだけを書き換え、更新日時を変える。
+     */
+    private static void replaceSheet(File file, String partName) throws Exception {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (ZipFile zip = new ZipFile(file); ZipOutputStream out = new ZipOutputStream(new FileOutputStream(tmp))) {
+            for (ZipEntry entry : zip.stream().toList()) {
+                byte[] data;
+                try (InputStream in = zip.getInputStream(entry)) {
+                    data = in.readAllBytes();
+                }
+                if (entry.getName().equals(partName)) {
+                    data = new String(data, StandardCharsets.UTF_8).replace("</sheetData>",
+                        "<row r=\"2\"><c r=\"B2\" t=\"inlineStr\"><is><t>Jakarta new</t></is></c></row></sheetData>")
+                        .getBytes(StandardCharsets.UTF_8);
+                }
+                out.putNextEntry(new ZipEntry(entry.getName()));
+                out.write(data);
+                out.closeEntry();
+            }
+        }
+        long lastModified = file.lastModified();
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        assertTrue(file.setLastModified(lastModified + 10_000));
+    }
+}
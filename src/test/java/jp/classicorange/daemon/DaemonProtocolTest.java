@@ -0,0 +1,60 @@
+package jp.classicorange.daemon;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class DaemonProtocolTest {
+
+    private static final String TOKEN = "0123456789abcdef";
+
+    private static InputStream request(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DaemonProtocol.writeRequest(out, new DaemonProtocol.Request(TOKEN, DaemonProtocol.RUN,
+            List.of("/data", "Jakarta", "a\\b\nc")));
+        DaemonProtocol.Request request = DaemonProtocol.readRequest(new ByteArrayInputStream(out.toByteArray()), TOKEN);
+        assertEquals(DaemonProtocol.RUN, request.command());
+        assertEquals(List.of("/data", "Jakarta", "a\\b\nc"), request.args());
+    }
+
+    @Test
+    public void testBadToken() {
+        // トークンが一致しない場合は引数の数を読まない
+        IOException e = assertThrows(IOException.class, () -> DaemonProtocol.readRequest(
+            request("ExcelSheetScan 2\nwrong\nrun\n-1\n"), TOKEN));
+        assertEquals("トークンが一致しません", e.getMessage());
+        assertThrows(IOException.class, () -> DaemonProtocol.readRequest(request("ExcelSheetScan 2\n"), TOKEN));
+    }
+
+    @Test
+    public void testBadCount() {
+        assertThrows(IOException.class, () -> DaemonProtocol.readRequest(
+            request("ExcelSheetScan 2\n" + TOKEN + "\nrun\n-1\n"), TOKEN));
+        assertThrows(IOException.class, () -> DaemonProtocol.readRequest(
+            request("ExcelSheetScan 2\n" + TOKEN + "\nrun\n" + Integer.MAX_VALUE + "\n"), TOKEN));
+        assertThrows(IOException.class, () -> DaemonProtocol.readRequest(
+            request("ExcelSheetScan 2\n" + TOKEN + "\nrun\nx\n"), TOKEN));
+        assertThrows(IOException.class, () -> DaemonProtocol.readRequest(
+            request("ExcelSheetScan 2\n" + TOKEN + "\nrun\n2\na\n"), TOKEN));
+    }
+
+    @Test
+    public void testLongLine() {
+        String longToken = "x".repeat(DaemonProtocol.MAX_LINE + 1);
+        assertThrows(IOException.class, () -> DaemonProtocol.readRequest(
+            request("ExcelSheetScan 2\n" + longToken + "\n"), TOKEN));
+    }
+}
@@ -0,0 +1,54 @@
+package jp.classicorange.index;
+
+import jp.classicorange.utils.entity.CellText;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class NgramIndexTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testCandidates() throws Exception {
+        File a = Files.writeString(dir.resolve("a.xlsx"), "a").toFile();
+        File b = Files.writeString(dir.resolve("b.xlsx"), "b").toFile();
+        NgramIndex.Writer writer = new NgramIndex.Writer();
+        writer.add(a, List.of(new CellText(0, 0, 0, "シミュレーション"), new CellText(1, 5, 3, "Jakarta EE")));
+        // 2-gram は揃うが別々のセル
+        writer.add(b, List.of(new CellText(0, 0, 0, "シミュ"), new CellText(0, 0, 1, "レーション")));
+        Path indexFile = dir.resolve("test.idx");
+        writer.write(indexFile);
+
+        NgramIndex index = NgramIndex.load(indexFile);
+        NgramIndex.Candidates found = index.candidates(List.of("ュレーシ"));
+        assertTrue(found.mayContain(a));
+        assertFalse(found.mayContain(b));
+
+        // 候補のシート
+        assertEquals(BitSet.valueOf(new long[]{0b01}), found.sheets(a));
+        assertEquals(BitSet.valueOf(new long[]{0b10}), index.candidates(List.of("Jakarta")).sheets(a));
+        assertTrue(found.sheets(b).isEmpty());
+
+        // 大文字・小文字は区別しない
+        assertTrue(index.candidates(List.of("jakarta")).mayContain(a));
+        assertFalse(index.candidates(List.of("zz")).mayContain(a));
+        // 2文字未満は判定できない
+        assertNull(index.candidates(List.of("J")));
+        // 索引にないファイルは常に候補
+        File c = Files.writeString(dir.resolve("c.xlsx"), "c").toFile();
+        assertTrue(found.mayContain(c));
+        assertNull(found.sheets(c));
+    }
+}
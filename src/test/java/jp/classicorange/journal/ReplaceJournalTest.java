@@ -0,0 +1,112 @@
+package jp.classicorange.journal;
+
+import jp.classicorange.utils.CheckParameter;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ReplaceJournalTest {
+
+    @TempDir
+    Path dir;
+
+    private CheckParameter.SearchCond cond(String replacement) {
+        return CheckParameter.checkParameter(new String[]{
+            dir.toString(), "Jakarta", "FUZZY", replacement, "--journal=" + dir.resolve("replace.journal")});
+    }
+
+    /**
+     * --resume の判定 (ファイルごとの最後の状態と、サイズ・更新日時)。
+     */
+    @Test
+    public void testResume() throws Exception {
+        CheckParameter.SearchCond cond = cond("Tokyo");
+        Path journalFile = dir.resolve("replace.journal");
+        ReplaceJournal.open(journalFile, cond, false).close();
+
+        File verified = book("verified.xlsx");
+        File verifiedChanged = book("verifiedChanged.xlsx");
+        File written = book("written.xlsx");
+        File writtenBroken = Files.writeString(dir.resolve("writtenBroken.xlsx"), "not a zip").toFile();
+        File pendingChanged = book("pendingChanged.xlsx");
+        File pendingSame = book("pendingSame.xlsx");
+        File unknown = book("unknown.xlsx");
+        append(journalFile,
+            line("VERIFIED", verified, 0),
+            line("VERIFIED", verifiedChanged, -1000),
+            line("PENDING", written, -1000),
+            line("WRITTEN", written, 0),
+            line("WRITTEN", writtenBroken, 0),
+            // 置換えの直後に止まった (元のサイズ・更新日時と異なる)
+            line("PENDING", pendingChanged, -1000),
+            // 置換え前に止まった
+            line("PENDING", pendingSame, 0),
+            // 強制終了で途中までの行は読み飛ばす
+            "VERIFIED\t12");
+
+        try (ReplaceJournal journal = ReplaceJournal.open(journalFile, cond, true)) {
+            assertTrue(journal.isDone(verified));
+            assertFalse(journal.isDone(verifiedChanged));
+            assertTrue(journal.isDone(written));
+            assertFalse(journal.isDone(writtenBroken));
+            assertTrue(journal.isDone(pendingChanged));
+            assertFalse(journal.isDone(pendingSame));
+            assertFalse(journal.isDone(unknown));
+            assertEquals(3, journal.skippedCount());
+        }
+
+        // 検証したファイルは VERIFIED を追記し、次の再開ではそのままスキップする
+        List<String> lines = Files.readAllLines(journalFile, StandardCharsets.UTF_8);
+        assertEquals(line("VERIFIED", written, 0), lines.get(lines.size() - 2));
+        assertEquals(line("VERIFIED", pendingChanged, 0), lines.getLast());
+        try (ReplaceJournal journal = ReplaceJournal.open(journalFile, cond, true)) {
+            assertTrue(journal.isDone(written));
+            assertTrue(journal.isDone(pendingChanged));
+        }
+    }
+
+    /**
+     * 置換条件が異なるジャーナルからは再開しない。
+     */
+    @Test
+    public void testHeaderMismatch() throws Exception {
+        Path journalFile = dir.resolve("replace.journal");
+        ReplaceJournal.open(journalFile, cond("Tokyo"), false).close();
+        assertThrows(IllegalArgumentException.class, () -> ReplaceJournal.open(journalFile, cond("Osaka"), true));
+        ReplaceJournal.open(journalFile, cond("Tokyo"), true).close();
+    }
+
+    private File book(String name) throws Exception {
+        File file = dir.resolve(name).toFile();
+        try (XSSFWorkbook workbook = new XSSFWorkbook(); OutputStream out = new FileOutputStream(file)) {
+            workbook.createSheet("S").createRow(0).createCell(0).setCellValue("Tokyo");
+            workbook.write(out);
+        }
+        return file;
+    }
+
+    /**
+     * @param shift 記録する更新日時の現在とのずれ (0 の場合はファイルの今の状態)
+     */
+    private static String line(String state, File file, long shift) {
+        return state + "\t" + file.length() + "\t" + (file.lastModified() + shift) + "\t" + file.getAbsolutePath();
+    }
+
+    private static void append(Path journalFile, String... lines) throws Exception {
+        Files.writeString(journalFile, String.join("\n", lines), StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+    }
+}
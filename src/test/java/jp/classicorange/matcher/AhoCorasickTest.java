@@ -0,0 +1,47 @@
+package jp.classicorange.matcher;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AhoCorasickTest {
+
+    @Test
+    public void testFind() {
+        AhoCorasick ac = AhoCorasick.ofChars(List.of("he", "she", "his", "hers"));
+        // 重なった一致、失敗リンク先の一致も返す
+        assertArrayEquals(new int[]{0, 1, 3}, ac.find("ushers"));
+        assertArrayEquals(new int[]{2}, ac.find("this"));
+        assertArrayEquals(new int[0], ac.find("hxs"));
+        assertTrue(ac.matches("ahead"));
+        assertFalse(ac.matches("hi"));
+    }
+
+    @Test
+    public void testReplace() {
+        AhoCorasick ac = AhoCorasick.ofChars(List.of("シミュ", "シミュレーション", "Jakarta"));
+        String[] rep = {"x", "シミュレーション(新)", null};
+        // 同じ位置では長いキーワードを優先、置換文字列のないキーワードは残す
+        assertEquals("シミュレーション(新)とJakarta",
+            ac.replace("シミュレーションとJakarta", id -> rep[id]));
+        assertEquals("xとx", ac.replace("シミュとシミュ", id -> rep[id]));
+    }
+
+    @Test
+    public void testUtf8Stream() {
+        AhoCorasick ac = AhoCorasick.ofUtf8(List.of("あい", "EE"));
+        int state = 0;
+        boolean matched = false;
+        for (byte b : "わあいう".getBytes(StandardCharsets.UTF_8)) {
+            state = ac.next(state, b & 0xFF);
+            matched |= ac.isMatch(state);
+        }
+        assertTrue(matched);
+    }
+}
@@ -0,0 +1,39 @@
+package jp.classicorange.scan;
+
+import org.apache.poi.hssf.usermodel.HSSFSheet;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class SheetNoteScannerTest {
+
+    @Test
+    public void testHeaderFooterCodes() {
+        assertEquals("文書ID 001", SheetNoteScanner.headerFooterText("&C&\"MS Gothic,Bold\"&12文書ID 001"));
+        assertEquals("左\n右 ページ", SheetNoteScanner.headerFooterText("&L左&R右 &Pページ"));
+        assertEquals("赤", SheetNoteScanner.headerFooterText("&KFF0000赤"));
+    }
+
+    @Test
+    public void testEscapedAmpersand() {
+        // && は1回だけ戻し、戻した & をコードとして読まない
+        assertEquals("A&B Co.", SheetNoteScanner.headerFooterText("&CA&&B Co."));
+        assertEquals("x&&L", SheetNoteScanner.headerFooterText("x&&&&L"));
+    }
+
+    @Test
+    public void testHssfSheet() throws Exception {
+        try (HSSFWorkbook wb = new HSSFWorkbook()) {
+            HSSFSheet sheet = wb.createSheet();
+            sheet.getHeader().setCenter("A&&B Co.");
+            sheet.getFooter().setLeft("L&&R");
+            List<SheetNoteScanner.NoteText> notes = SheetNoteScanner.readSheetNotes(sheet);
+            assertEquals(2, notes.size());
+            assertEquals("A&B Co.", notes.get(0).text());
+            assertEquals("L&R", notes.get(1).text());
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package jp.classicorange.scan;
+
+import jp.classicorange.journal.ReplaceJournal;
+import jp.classicorange.matcher.TextMatcher;
+import jp.classicorange.utils.CheckParameter;
+import jp.classicorange.utils.ExcelUtils;
+import jp.classicorange.utils.entity.Hit;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class XlsxStreamReplacerTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testSharedFormulaShift() {
+        assertEquals("CONCATENATE(\"A1\",B3)", SharedFormula.shift("CONCATENATE(\"A1\",B1)", 2, 0));
+        assertEquals("SUM($A$1:B4)+C$1+$D2", SharedFormula.shift("SUM($A$1:A3)+B$1+$D1", 1, 1));
+        assertEquals("'Sheet A1'!B1&Sheet1!B2&LOG10(B1)", SharedFormula.shift("'Sheet A1'!A1&Sheet1!A2&LOG10(A1)", 0, 1));
+        assertEquals("SUM(B:C)+SUM(3:4)+Tbl1[Col1]", SharedFormula.shift("SUM(A:B)+SUM(1:2)+Tbl1[Col1]", 2, 1));
+    }
+
+    /**
+     * 共有数式 (フィルダウンした列) のファイルを、パート単位で置換した結果とブック全体を読込んで置換した結果が同じ。
+     */
+    @Test
+    public void testSharedFormulaRoundTrip() throws Exception {
+        File stream = dir.resolve("stream.xlsx").toFile();
+        File dom = dir.resolve("dom.xlsx").toFile();
+        writeSharedFormulaBook(stream);
+        Files.copy(stream.toPath(), dom.toPath());
+
+        CheckParameter.SearchCond cond = CheckParameter.checkParameter(new String[]{
+            dir.toString(), "Jakarta", "FUZZY", "Tokyo", "--journal=" + dir.resolve("replace.journal")});
+        TextMatcher matcher = TextMatcher.of(cond.searchMode(), cond.keywords());
+        List<Hit> hits;
+        try (ReplaceJournal journal = ReplaceJournal.open(Path.of(cond.journalPath()), cond, false)) {
+            hits = new XlsxStreamReplacer(cond, matcher, journal).replace(0, stream);
+        }
+        List<String> replaced = replaceWithWorkbook(dom, matcher);
+
+        // A1:A4 の文字列と、B1:B4 の共有数式 (先頭セルと従属セル)
+        assertEquals(8, replaced.size());
+        assertEquals(replaced, hits.stream().map(hit -> hit.position() + "=" + hit.value()).toList());
+        assertEquals(cells(dom), cells(stream));
+    }
+
+    /**
+     * SearchExcel.searchCell と同じく、セルごとに getStringValue の文字列を置換して setCellValue する。
+     *
+     * @return 置換したセル (位置=元の値)
+     */
+    private static List<String> replaceWithWorkbook(File file, TextMatcher matcher) throws Exception {
+        List<String> replaced = new ArrayList<>();
+        try (InputStream in = new FileInputStream(file); XSSFWorkbook workbook = new XSSFWorkbook(in)) {
+            for (Row row : workbook.getSheetAt(0)) {
+                for (Cell cell : row) {
+                    String original = ExcelUtils.getStringValue(cell);
+                    String result = matcher.replace(original, matcher.find(original));
+                    if (result == null) continue;
+                    cell.setCellValue(result);
+                    replaced.add(cell.getAddress().formatAsString() + "=" + original);
+                }
+            }
+            try (OutputStream out = new FileOutputStream(file)) {
+                workbook.write(out);
+            }
+        }
+        return replaced;
+    }
+
+    /**
+     * @return セルごとの 位置・数式・値
+     */
+    private static List<String> cells(File file) throws Exception {
+        List<String> cells = new ArrayList<>();
+        try (InputStream in = new FileInputStream(file); XSSFWorkbook workbook = new XSSFWorkbook(in)) {
+            XSSFSheet sheet = workbook.getSheetAt(0);
+            for (Row row : sheet) {
+                for (Cell cell : row) {
+                    boolean formula = cell.getCellType() == CellType.FORMULA;
+                    cells.add(cell.getAddress().formatAsString() + "\t"
+                        + (formula ? cell.getCellFormula() : "") + "\t" + cell.getStringCellValue());
+                }
+            }
+        }
+        return cells;
+    }
+
+    /**
+     * A1:A4 が共有文字列、B1:B4・C1:C4 をフィルダウンした共有数式のブック (Excel が保存する形) を書く。
+     */
+    private static void writeSharedFormulaBook(File file) throws Exception {
+        StringBuilder rows = new StringBuilder();
+        for (int r = 1; r <= 4; r++) {
+            rows.append("<row r=\"").append(r).append("\">")
+                .append("<c r=\"A").append(r).append("\" t=\"s\"><v>").append(r - 1).append("</v></c>");
+            if (r == 1) {
+                rows.append("<c r=\"B1\" t=\"str\"><f t=\"shared\" ref=\"B1:B4\" si=\"0\">CONCATENATE(\"Jakarta-\",A1)</f>")
+                    .append("<v>Jakarta-Jakarta 1</v></c>")
+                    .append("<c r=\"C1\" t=\"str\"><f t=\"shared\" ref=\"C1:C4\" si=\"1\">$A$1&amp;LEN(A1)</f><v>x</v></c>");
+            } else {
+                rows.append("<c r=\"B").append(r).append("\" t=\"str\"><f t=\"shared\" si=\"0\"/>")
+                    .append("<v>Jakarta-Jakarta ").append(r).append("</v></c>")
+                    .append("<c r=\"C").append(r).append("\" t=\"str\"><f t=\"shared\" si=\"1\"/><v>x</v></c>");
+            }
+            rows.append("</row>");
+        }
+        StringBuilder strings = new StringBuilder();
+        for (int r = 1; r <= 4; r++) {
+            strings.append("<si><t>Jakarta ").append(r).append("</t></si>");
+        }
+        String ns = "http://schemas.openxmlformats.org/spreadsheetml/2006/main";
+        String rel = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file))) {
+            entry(zip, "[Content_Types].xml",
+                "<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">"
+                    + "<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>"
+                    + "<Default Extension=\"xml\" ContentType=\"application/xml\"/>"
+                    + "<Override PartName=\"/xl/workbook.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet.main+xml\"/>"
+                    + "<Override PartName=\"/xl/worksheets/sheet1.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.worksheet+xml\"/>"
+                    + "<Override PartName=\"/xl/sharedStrings.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sharedStrings+xml\"/>"
+                    + "</Types>");
+            entry(zip, "_rels/.rels",
+                "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+                    + "<Relationship Id=\"rId1\" Type=\"" + rel + "/officeDocument\" Target=\"xl/workbook.xml\"/>"
+                    + "</Relationships>");
+            entry(zip, "xl/workbook.xml",
+                "<workbook xmlns=\"" + ns + "\" xmlns:r=\"" + rel + "\">"
+                    + "<sheets><sheet name=\"S\" sheetId=\"1\" r:id=\"rId1\"/></sheets></workbook>");
+            entry(zip, "xl/_rels/workbook.xml.rels",
+                "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+                    + "<Relationship Id=\"rId1\" Type=\"" + rel + "/worksheet\" Target=\"worksheets/sheet1.xml\"/>"
+                    + "<Relationship Id=\"rId2\" Type=\"" + rel + "/sharedStrings\" Target=\"sharedStrings.xml\"/>"
+                    + "</Relationships>");
+            entry(zip, "xl/worksheets/sheet1.xml",
+                "<worksheet xmlns=\"" + ns + "\"><sheetData>" + rows + "</sheetData></worksheet>");
+            entry(zip, "xl/sharedStrings.xml",
+                "<sst xmlns=\"" + ns + "\" count=\"4\" uniqueCount=\"4\">" + strings + "</sst>");
+        }
+    }
+
+    private static void entry(ZipOutputStream zip, String name, String xml) throws Exception {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n" + xml)
+            .getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+    }
+}
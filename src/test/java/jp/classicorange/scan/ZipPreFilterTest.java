@@ -0,0 +1,89 @@
+package jp.classicorange.scan;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ZipPreFilterTest {
+
+    private static boolean contains(String word, String xml) throws Exception {
+        return new ZipPreFilter(word).contains(
+            new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void testSplitRuns() throws Exception {
+        // 書式で分割された文字列
+        assertTrue(contains("Jakarta", "<si><r><t>Ja</t></r><r><rPr><b/></rPr><t>karta</t></r></si>"));
+        assertTrue(contains("シミュレーション", "<si><r><t>シミュ</t></r><r><t>レーション</t></r></si>"));
+    }
+
+    @Test
+    public void testEntities() throws Exception {
+        assertTrue(contains("A&B", "<si><t>A&amp;B</t></si>"));
+        assertTrue(contains("<tag>", "<si><t>&lt;tag&gt;</t></si>"));
+        assertTrue(contains("あ", "<si><t>&#12354;</t></si>"));
+        assertTrue(contains("あ", "<si><t>&#x3042;</t></si>"));
+    }
+
+    @Test
+    public void testIgnoresMarkup() throws Exception {
+        // 要素名・属性は対象外
+        assertFalse(contains("sheetData", "<worksheet><sheetData><row r=\"1\"/></sheetData></worksheet>"));
+        assertFalse(contains("Jakarta", "<si><t>Jakart</t></si><si><t>b</t></si>"));
+        assertFalse(contains("Jakarta", "<c r=\"A1\" t=\"Jakarta\"><v>1</v></c>"));
+    }
+
+    @Test
+    public void testValidationAttributes() throws Exception {
+        // 入力規則のメッセージは属性値
+        assertTrue(contains("A&B", "<dataValidation sqref=\"B2\" prompt=\"A&amp;B\"/>"));
+        assertTrue(contains("入力", "<x:dataValidation error='入力&gt;0'></x:dataValidation>"));
+        assertFalse(contains("B2", "<dataValidations count=\"1\"><dataValidation/></dataValidations><c r=\"B2\"/>"));
+    }
+
+    @Test
+    public void testCdata() throws Exception {
+        // ヘッダー/フッターは CDATA で書かれることがある
+        assertTrue(contains("A&B", "<oddHeader><![CDATA[&CA&&B]]></oddHeader>"));
+        assertTrue(contains("文書", "<oddHeader><![CDATA[&\"MS Gothic,Bold\"&12文書]]></oddHeader>"));
+        assertFalse(contains("oddFooter", "<oddHeader><![CDATA[a]]></oddHeader><oddFooter>x</oddFooter>"));
+    }
+
+    @Test
+    public void testHeaderFooterCodes() throws Exception {
+        // 書式のコードで分割された文字列
+        assertTrue(contains("東京", "<headerFooter><oddHeader>&amp;C東&amp;B京</oddHeader></headerFooter>"));
+        assertTrue(contains("東京", "<x:evenFooter xml:space=\"preserve\">&amp;L東&amp;\"MS Gothic,Bold\"&amp;12京</x:evenFooter>"));
+        assertTrue(contains("A&B", "<firstHeader>A&amp;&amp;B</firstHeader><c r=\"A1\"/>"));
+        // コードは文字列ではない
+        assertFalse(contains("&B", "<oddHeader>&amp;C東&amp;B京</oddHeader>"));
+        assertFalse(contains("京", "<oddHeader/><v>東</v>"));
+    }
+
+    @Test
+    public void testChunkBoundary() throws Exception {
+        // 64KB の境界をまたぐ一致
+        String filler = "x".repeat(64 * 1024 - 3);
+        assertTrue(contains("Jakarta", "<si><t>" + filler + "Jakarta</t></si>"));
+        assertFalse(contains("Jakarta", "<si><t>" + filler + "Jakart</t></si>"));
+    }
+
+    @Test
+    public void testTextParts() {
+        assertTrue(ZipPreFilter.isTextPart("xl/sharedStrings.xml"));
+        assertTrue(ZipPreFilter.isTextPart("xl/worksheets/sheet1.xml"));
+        assertTrue(ZipPreFilter.isTextPart("xl/drawings/drawing1.xml"));
+        assertTrue(ZipPreFilter.isTextPart("xl/comments1.xml"));
+        assertTrue(ZipPreFilter.isTextPart("xl/charts/chart1.xml"));
+        assertTrue(ZipPreFilter.isTextPart("xl/threadedComments/threadedComment1.xml"));
+        assertFalse(ZipPreFilter.isTextPart("xl/worksheets/_rels/sheet1.xml.rels"));
+        assertFalse(ZipPreFilter.isTextPart("xl/drawings/_rels/drawing1.xml.rels"));
+        assertFalse(ZipPreFilter.isTextPart("xl/charts/style1.xml"));
+        assertFalse(ZipPreFilter.isTextPart("xl/styles.xml"));
+    }
+}